@@ -0,0 +1,129 @@
+package hr.fer.zemris.java.fractals;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hr.fer.zemris.java.fractals.cmplxcache.ComplexCache;
+import hr.fer.zemris.java.fractals.cmplxcache.IComplexCache;
+import hr.fer.zemris.java.fractals.cmplxcache.IThreadBoundComplexCache;
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexPolynomial;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+/**
+ * Calculates the Newton-Raphson's iteration on the {@link Complex} numbers, which are
+ * taken from and returned to the {@link IComplexCache} of the current thread. Therefore,
+ * this kernel can only be used by the threads implementing {@link IThreadBoundComplexCache}.
+ * <p>
+ * The pixels for which the derivative becomes exactly zero are stored as not
+ * converging to any of the roots, since the iteration cannot continue from them.
+ *
+ * @author Filip Nemec
+ */
+public class ComplexCacheNewtonKernel implements INewtonKernel {
+	
+	/** The polynomial whose roots are searched for. */
+	private final ComplexRootedPolynomial polynomialRooted;
+	
+	/** The first derivative of the polynomial. */
+	private final ComplexPolynomial derived;
+	
+	/**
+	 * Constructs a new kernel for the given polynomial.
+	 *
+	 * @param polynomialRooted the polynomial whose roots are searched for
+	 */
+	public ComplexCacheNewtonKernel(ComplexRootedPolynomial polynomialRooted) {
+		this.polynomialRooted = Objects.requireNonNull(polynomialRooted, "Polynomial should not be null.");
+		this.derived = polynomialRooted.toComplexPolynom().derive();
+	}
+	
+	@Override
+	public void calculate(short[] data, int width, int height, int yStart, int yEnd,
+						  double reMin, double reMax, double imMin, double imMax, AtomicBoolean cancel) {
+		IComplexCache cache = ComplexCache.getCache();
+		
+		int offset = yStart * width;
+		
+		for(int y = yStart; y < yEnd; y++) {
+			for(int x = 0; x < width; x++) {
+				if(cancel.get()) return;
+				
+				Complex zn = mapToComplexPlain(x, y, width, height, reMin, reMax, imMin, imMax);
+				Complex znOld;
+				Complex numerator;
+				Complex denominator;
+				
+				int iter = 0;
+				double module;
+				boolean stationary = false;
+				
+				do {
+					numerator = polynomialRooted.apply(zn);
+					denominator = derived.apply(zn);
+					znOld = zn;
+					
+					if(denominator.getReal() == 0 && denominator.getImaginary() == 0) {
+						cache.release(numerator);
+						cache.release(denominator);
+						stationary = true;
+						break;
+					}
+					
+					numerator.modifyDivide(denominator);
+					
+					Complex znCopy = cache.get(zn);
+					znCopy.modifySub(numerator);
+					zn = znCopy;
+					
+					Complex znOldCopy = cache.get(znOld);
+					znOldCopy.modifySub(zn);
+					
+					module = znOldCopy.module();
+					iter++;
+					
+					cache.release(znCopy);
+					cache.release(numerator);
+					cache.release(denominator);
+					cache.release(znOldCopy);
+					
+				} while (module > THRESHOLD && iter < MAX_ITER);
+				
+				int index = stationary ? -1 : polynomialRooted.indexOfClosestRootFor(zn, THRESHOLD);
+				data[offset++] = (short) (index + 1);
+				
+				cache.release(zn);
+			}
+		}
+	}
+	
+	@Override
+	public short getLimit() {
+		return (short) (polynomialRooted.getRoots().length + 1);
+	}
+	
+	/**
+	 * Maps the given (x, y) screen coordinate to the complex number.
+	 *
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @param w the screen width in pixels
+	 * @param h the screen height in pixels
+	 * @param uMin the minimum real point
+	 * @param uMax the maximum real point
+	 * @param vMin the minimum imaginary point
+	 * @param vMax the maximum imaginary point
+	 * @return the complex number at point (x, y)
+	 */
+	private static Complex mapToComplexPlain(int x, int y, int w, int h,
+											 double uMin, double uMax,
+											 double vMin, double vMax) {
+		double re = x / (w-1.0) * (uMax - uMin) + uMin;
+		double im = (h-1.0-y) / (h-1) * (vMax - vMin) + vMin;
+		
+		IComplexCache cache = ComplexCache.getCache();
+		Complex result = cache.get(re, im);
+		
+		return result;
+	}
+}
@@ -0,0 +1,43 @@
+package hr.fer.zemris.java.fractals;
+
+/**
+ * Models the listeners which are informed about how long it took
+ * to calculate each frame of the fractal.
+ *
+ * @author Filip Nemec
+ */
+public interface IFrameMetricsListener {
+	
+	/** The listener which ignores all the metrics. */
+	IFrameMetricsListener NONE = new IFrameMetricsListener() {
+		
+		@Override
+		public void frameCalculated(long requestNo, int width, int height, long nanos, int tasks) {
+		}
+		
+		@Override
+		public void frameAbandoned(long requestNo, long nanos) {
+		}
+	};
+	
+	/**
+	 * The method called every time a frame was calculated completely,
+	 * just before it is given to the observer.
+	 *
+	 * @param requestNo the identifier of the request of the frame
+	 * @param width the width of the frame, in pixels
+	 * @param height the height of the frame, in pixels
+	 * @param nanos the time it took to calculate the frame, in nanoseconds
+	 * @param tasks the number of tasks the frame was divided into
+	 */
+	void frameCalculated(long requestNo, int width, int height, long nanos, int tasks);
+	
+	/**
+	 * The method called every time the calculation of a frame was abandoned, because
+	 * it was canceled or because a newer frame was requested in the meantime.
+	 *
+	 * @param requestNo the identifier of the request of the frame
+	 * @param nanos the time spent on the frame before it was abandoned, in nanoseconds
+	 */
+	void frameAbandoned(long requestNo, long nanos);
+}
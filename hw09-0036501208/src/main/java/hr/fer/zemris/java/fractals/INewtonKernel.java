@@ -0,0 +1,46 @@
+package hr.fer.zemris.java.fractals;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Calculates the portions of the Newton-Raphson's fractal. For each pixel, the
+ * iteration starts from the complex number the pixel is mapped to, and the index
+ * of the root it converges to is stored.
+ *
+ * @author Filip Nemec
+ */
+public interface INewtonKernel {
+	
+	/** The maximum number of iterations. */
+	int MAX_ITER = 64;
+	
+	/** The convergence threshold. */
+	double THRESHOLD = 0.001;
+	
+	/**
+	 * Calculates the given rows of the fractal and saves the result to the given
+	 * data array. For each pixel, the stored value is the index of the closest root
+	 * within the {@link #THRESHOLD} increased by 1, or 0 if there is no such root.
+	 *
+	 * @param data the calculated data storage
+	 * @param width the width of the display screen, in pixels
+	 * @param height the height of the display screen, in pixels
+	 * @param yStart the y-coordinate of the starting row that needs to be calculated
+	 * @param yEnd the y-coordinate of the ending row. This row will be excluded from the calculation.
+	 * @param reMin the minimal value on the real axis
+	 * @param reMax the maximal value on the real axis
+	 * @param imMin the minimal value on the imaginary axis
+	 * @param imMax the maximal value on the imaginary axis
+	 * @param cancel the cancel flag
+	 */
+	void calculate(short[] data, int width, int height, int yStart, int yEnd,
+				   double reMin, double reMax, double imMin, double imMax, AtomicBoolean cancel);
+	
+	/**
+	 * Returns the upper bound of the values stored by this kernel,
+	 * which is the number of the roots increased by 1.
+	 *
+	 * @return the upper bound of the stored values
+	 */
+	short getLimit();
+}
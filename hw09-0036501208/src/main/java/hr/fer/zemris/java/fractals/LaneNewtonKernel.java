@@ -0,0 +1,186 @@
+package hr.fer.zemris.java.fractals;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+/**
+ * Calculates the Newton-Raphson's iteration for several pixels at once. Each of the
+ * {@link #LANES} holds a pixel, and every step of the iteration evaluates the polynomial
+ * and its derivative for all the lanes together, so the steps of the different pixels,
+ * which do not depend on each other, are interleaved instead of waiting on each other.
+ * <p>
+ * A lane stops iterating once its pixel converges, reaches the {@link #MAX_ITER} or
+ * hits a zero derivative, and takes the next pixel of the rows, so the lanes stay
+ * busy even when some of the pixels take much longer than others. Each pixel goes
+ * through exactly the same operations as in the {@link PrimitiveNewtonKernel},
+ * so both kernels calculate the same frames.
+ *
+ * @author Filip Nemec
+ */
+public class LaneNewtonKernel extends PrimitiveNewtonKernel {
+	
+	/** The number of pixels iterated at once. */
+	private static final int LANES = 8;
+	
+	/**
+	 * Constructs a new kernel for the given polynomial.
+	 *
+	 * @param polynomialRooted the polynomial whose roots are searched for
+	 */
+	public LaneNewtonKernel(ComplexRootedPolynomial polynomialRooted) {
+		super(polynomialRooted);
+	}
+	
+	/**
+	 * Returns a new {@code VectorNewtonKernel} for the given polynomial, which iterates
+	 * the pixels in the vector registers, or a new {@code LaneNewtonKernel} if the
+	 * {@code jdk.incubator.vector} module is not available. The vector kernel is compiled
+	 * for Java 17 separately from the rest of the sources, so it is loaded by its name.
+	 *
+	 * @param polynomialRooted the polynomial whose roots are searched for
+	 * @return the vector kernel if it can be used, the lane kernel otherwise
+	 */
+	public static INewtonKernel vectorized(ComplexRootedPolynomial polynomialRooted) {
+		Objects.requireNonNull(polynomialRooted, "Polynomial should not be null.");
+		
+		try {
+			return (INewtonKernel) Class.forName("hr.fer.zemris.java.fractals.VectorNewtonKernel")
+										.getConstructor(ComplexRootedPolynomial.class)
+										.newInstance(polynomialRooted);
+			
+		} catch(ReflectiveOperationException | LinkageError e) {
+			// Missing module, an older Java or a build without the Java 17 sources.
+			return new LaneNewtonKernel(polynomialRooted);
+		}
+	}
+	
+	@Override
+	public void calculate(short[] data, int width, int height, int yStart, int yEnd,
+						  double reMin, double reMax, double imMin, double imMax, AtomicBoolean cancel) {
+		double squaredThreshold = THRESHOLD * THRESHOLD;
+		
+		double[] re = new double[LANES];
+		double[] im = new double[LANES];
+		double[] numeratorRe = new double[LANES];
+		double[] numeratorIm = new double[LANES];
+		double[] denominatorRe = new double[LANES];
+		double[] denominatorIm = new double[LANES];
+		
+		// The position of the pixel of each lane in the data array, or -1 if the lane is empty.
+		int[] pixels = new int[LANES];
+		int[] iterations = new int[LANES];
+		
+		int next = yStart * width;
+		int end = yEnd * width;
+		int active = 0;
+		
+		for(int lane = 0; lane < LANES; lane++) {
+			if(next < end && !(next % width == 0 && cancel.get())) {
+				load(lane, next++, re, im, pixels, iterations, width, height, reMin, reMax, imMin, imMax);
+				active++;
+			} else {
+				pixels[lane] = -1;
+			}
+		}
+		
+		while(active > 0) {
+			// Horner's algorithm for the polynomial...
+			int n = polynomialRe.length - 1;
+			for(int lane = 0; lane < LANES; lane++) {
+				numeratorRe[lane] = polynomialRe[n];
+				numeratorIm[lane] = polynomialIm[n];
+			}
+			for(int i = n - 1; i >= 0; i--) {
+				double factorRe = polynomialRe[i];
+				double factorIm = polynomialIm[i];
+				
+				for(int lane = 0; lane < LANES; lane++) {
+					double temp = numeratorRe[lane] * re[lane] - numeratorIm[lane] * im[lane];
+					numeratorIm[lane] = numeratorRe[lane] * im[lane] + numeratorIm[lane] * re[lane] + factorIm;
+					numeratorRe[lane] = temp + factorRe;
+				}
+			}
+			
+			// ...and for its derivative.
+			n = derivedRe.length - 1;
+			for(int lane = 0; lane < LANES; lane++) {
+				denominatorRe[lane] = derivedRe[n];
+				denominatorIm[lane] = derivedIm[n];
+			}
+			for(int i = n - 1; i >= 0; i--) {
+				double factorRe = derivedRe[i];
+				double factorIm = derivedIm[i];
+				
+				for(int lane = 0; lane < LANES; lane++) {
+					double temp = denominatorRe[lane] * re[lane] - denominatorIm[lane] * im[lane];
+					denominatorIm[lane] = denominatorRe[lane] * im[lane] + denominatorIm[lane] * re[lane] + factorIm;
+					denominatorRe[lane] = temp + factorRe;
+				}
+			}
+			
+			for(int lane = 0; lane < LANES; lane++) {
+				if(pixels[lane] < 0) continue;
+				
+				double denominator = denominatorRe[lane] * denominatorRe[lane] + denominatorIm[lane] * denominatorIm[lane];
+				int index;
+				
+				if(denominator == 0) {
+					index = -1;
+					
+				} else {
+					double stepRe = (numeratorRe[lane] * denominatorRe[lane] + numeratorIm[lane] * denominatorIm[lane]) / denominator;
+					double stepIm = (numeratorIm[lane] * denominatorRe[lane] - numeratorRe[lane] * denominatorIm[lane]) / denominator;
+					
+					re[lane] -= stepRe;
+					im[lane] -= stepIm;
+					
+					double squaredModule = stepRe * stepRe + stepIm * stepIm;
+					iterations[lane]++;
+					
+					if(squaredModule > squaredThreshold && iterations[lane] < MAX_ITER) continue;
+					
+					index = indexOfClosestRootFor(re[lane], im[lane]);
+				}
+				
+				data[pixels[lane]] = (short) (index + 1);
+				
+				if(next < end && !(next % width == 0 && cancel.get())) {
+					load(lane, next++, re, im, pixels, iterations, width, height, reMin, reMax, imMin, imMax);
+				} else {
+					next = end;
+					pixels[lane] = -1;
+					active--;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Puts the given pixel into the given lane.
+	 *
+	 * @param lane the lane
+	 * @param pixel the position of the pixel in the data array
+	 * @param re the real parts of the lanes
+	 * @param im the imaginary parts of the lanes
+	 * @param pixels the positions of the pixels of the lanes
+	 * @param iterations the numbers of iterations of the lanes
+	 * @param width the width of the display screen, in pixels
+	 * @param height the height of the display screen, in pixels
+	 * @param reMin the minimal value on the real axis
+	 * @param reMax the maximal value on the real axis
+	 * @param imMin the minimal value on the imaginary axis
+	 * @param imMax the maximal value on the imaginary axis
+	 */
+	private static void load(int lane, int pixel, double[] re, double[] im, int[] pixels, int[] iterations,
+							 int width, int height, double reMin, double reMax, double imMin, double imMax) {
+		int x = pixel % width;
+		int y = pixel / width;
+		
+		re[lane] = x / (width-1.0) * (reMax - reMin) + reMin;
+		im[lane] = (height-1.0-y) / (height-1) * (imMax - imMin) + imMin;
+		pixels[lane] = pixel;
+		iterations[lane] = 0;
+	}
+}
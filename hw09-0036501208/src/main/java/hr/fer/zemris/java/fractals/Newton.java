@@ -1,18 +1,19 @@
 package hr.fer.zemris.java.fractals;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import hr.fer.zemris.java.fractals.cmplxcache.ComplexCache;
 import hr.fer.zemris.java.fractals.cmplxcache.ComplexCacheImpl;
 import hr.fer.zemris.java.fractals.cmplxcache.IComplexCache;
 import hr.fer.zemris.java.fractals.cmplxcache.IThreadBoundComplexCache;
@@ -20,7 +21,6 @@ import hr.fer.zemris.java.fractals.viewer.FractalViewer;
 import hr.fer.zemris.java.fractals.viewer.IFractalProducer;
 import hr.fer.zemris.java.fractals.viewer.IFractalResultObserver;
 import hr.fer.zemris.math.Complex;
-import hr.fer.zemris.math.ComplexPolynomial;
 import hr.fer.zemris.math.ComplexRootedPolynomial;
 
 /**
@@ -31,16 +31,15 @@ import hr.fer.zemris.math.ComplexRootedPolynomial;
  */
 public class Newton {
 	
-	private static ComplexPolynomial polynomial;
-	
-	private static ComplexRootedPolynomial polynomialRooted;
-	
-	private static ComplexPolynomial derived;
-	
 	/**
 	 * Program starts from here.
 	 *
-	 * @param args none are used
+	 * @param args with {@code --cache}, the fractal is calculated on the cached {@code Complex}
+	 * 			   numbers instead of the plain {@code double} values; with {@code --lanes}, several
+	 * 			   pixels are iterated at once by the {@link LaneNewtonKernel}; with {@code --vector}, they
+	 * 			   are iterated in the vector registers, if the JVM is started with
+	 * 			   {@code --add-modules jdk.incubator.vector}; with {@code --tiled}, the
+	 * 			   frames are calculated progressively by the {@link TiledNewtonFractalProducer}
 	 */
 	public static void main(String[] args) {
 		Scanner scanner = new Scanner(System.in);
@@ -77,230 +76,314 @@ public class Newton {
 		
 		Complex[] roots = rootsList.toArray(new Complex[0]);
 		
-		polynomialRooted = new ComplexRootedPolynomial(Complex.ONE, roots);
-		polynomial = polynomialRooted.toComplexPolynom();
-		derived = polynomial.derive();
+		ComplexRootedPolynomial polynomialRooted = new ComplexRootedPolynomial(Complex.ONE, roots);
+		
+		List<String> options = Arrays.asList(args);
+		INewtonKernel kernel;
+		if(options.contains("--cache")) {
+			kernel = new ComplexCacheNewtonKernel(polynomialRooted);
+		} else if(options.contains("--lanes")) {
+			kernel = new LaneNewtonKernel(polynomialRooted);
+		} else if(options.contains("--vector")) {
+			kernel = LaneNewtonKernel.vectorized(polynomialRooted);
+			System.out.println("Calculating with the " + kernel.getClass().getSimpleName() + ".");
+		} else {
+			kernel = new PrimitiveNewtonKernel(polynomialRooted);
+		}
 		
-		FractalViewer.show(new NewtonFractalProducer());
+		IFrameMetricsListener metrics = new IFrameMetricsListener() {
+			
+			@Override
+			public void frameCalculated(long requestNo, int width, int height, long nanos, int tasks) {
+				System.out.println("Frame " + requestNo + ": " + nanos / 1_000_000 + "ms, " + tasks + " tasks");
+			}
+			
+			@Override
+			public void frameAbandoned(long requestNo, long nanos) {
+				System.out.println("Frame " + requestNo + " abandoned after " + nanos / 1_000_000 + "ms");
+			}
+		};
+		
+		if(options.contains("--tiled")) {
+			FractalViewer.show(new TiledNewtonFractalProducer(kernel, TiledNewtonFractalProducer.DEFAULT_CACHE_SIZE, metrics));
+		} else {
+			FractalViewer.show(new NewtonFractalProducer(kernel, metrics));
+		}
 		
 		scanner.close();
 	}
 	
 	/**
 	 * Models the Newton-Raphson's iteration.
+	 * <p>
+	 * The frames are calculated by a single {@code ForkJoinPool}, row by row. Each task
+	 * starts with a range of rows and splits the rest of its range in half whenever the
+	 * pool runs out of queued tasks for the idle threads to steal, so the threads stay
+	 * busy even when some of the rows, such as the ones near the borders of the basins
+	 * of the roots, take much longer than others.
+	 * <p>
+	 * A frame is abandoned as soon as its request gets canceled or a request with
+	 * a greater identifier arrives, since the viewer would ignore the old frame anyway.
+	 * The data arrays of the frames are recycled through a small pool. The array of
+	 * a frame given to the observer returns to the pool only after the next frame is
+	 * given to it, so the observer has the time to read the data.
 	 *
 	 * @author Filip Nemec
 	 */
 	public static class NewtonFractalProducer implements IFractalProducer {
 		
+		/** The number of threads used by the {@code ForkJoinPool}. */
+		private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+		
+		/** The largest number of data arrays kept for the following frames. */
+		private static final int BUFFER_POOL_SIZE = 2;
+		
 		/** The pool of threads which are being reused. */
-		private static ExecutorService pool;
+		private final ForkJoinPool pool;
 		
-		/** The number of threads used by the {@code ExecutorService}. */
-		private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+		/** The kernel calculating the rows of the fractal. */
+		private final INewtonKernel kernel;
+		
+		/** The listener informed about the time it took to calculate each frame. */
+		private final IFrameMetricsListener metrics;
+		
+		/** The greatest identifier of all the requests so far. */
+		private final AtomicLong latestRequest = new AtomicLong(Long.MIN_VALUE);
+		
+		/** The data arrays ready to be reused. */
+		private final Deque<short[]> buffers = new ArrayDeque<>();
+		
+		/** The data array of the last frame given to the observer. */
+		private short[] lastReported;
+		
+		/**
+		 * Constructs a new {@code IFractalProducer} for Newton-Raphson's iteration.
+		 *
+		 * @param kernel the kernel calculating the rows of the fractal
+		 */
+		public NewtonFractalProducer(INewtonKernel kernel) {
+			this(kernel, IFrameMetricsListener.NONE);
+		}
 		
 		/**
 		 * Constructs a new {@code IFractalProducer} for Newton-Raphson's iteration.
 		 *
-		 * @param polynomialRooted the complex rooted polynomial
-		 * @param pool the pool of threads, since this task is CPU heavy
+		 * @param kernel the kernel calculating the rows of the fractal
+		 * @param metrics the listener informed about the time it took to calculate each frame
 		 */
-		public NewtonFractalProducer() {
-			pool = Executors.newFixedThreadPool(THREAD_COUNT, new DaemonicThreadFactory());
+		public NewtonFractalProducer(INewtonKernel kernel, IFrameMetricsListener metrics) {
+			this.kernel = Objects.requireNonNull(kernel, "Kernel should not be null.");
+			this.metrics = Objects.requireNonNull(metrics, "Metrics listener should not be null.");
+			this.pool = new ForkJoinPool(THREAD_COUNT, CacheWorkerThread::new, null, false);
 		}
 		
 		@Override
 		public void produce(double reMin, double reMax, double imMin, double imMax,
 				int width, int height, long requestNo, IFractalResultObserver observer, AtomicBoolean cancel) {
-
-			short[] data = new short[width * height];
 			
-			int numberOfPortions = 8 * THREAD_COUNT;
-			int portionRows = height / numberOfPortions;
+			long startTime = System.nanoTime();
+			latestRequest.accumulateAndGet(requestNo, Math::max);
 			
-			List<Future<Void>> results = new ArrayList<>();
+			short[] data = acquireBuffer(width * height);
+			Frame frame = new Frame(data, width, height, reMin, reMax, imMin, imMax, requestNo, cancel);
 			
-			long startTime = System.currentTimeMillis();
+			pool.invoke(new CalculateRowsAction(frame, 0, height));
 			
-			for(int i = 0; i < numberOfPortions; i++) {
-				int yStart = i * portionRows;
-				int yEnd = (i+1) * portionRows;
-				
-				if(i == (numberOfPortions - 1)) {
-					yEnd = height - 1;
-				}
-				
-				var job = new CalculatePortionOfFractalJob(data, width, height, yStart, yEnd, reMin, reMax, imMin, imMax, cancel);
-				results.add(pool.submit(job));
-			}
+			long nanos = System.nanoTime() - startTime;
 			
-			for(Future<Void> job : results) {
-				try {
-					job.get();
-				} catch (InterruptedException | ExecutionException e) {
-				}
+			if(frame.isAbandoned()) {
+				releaseBuffer(data);
+				metrics.frameAbandoned(requestNo, nanos);
+				return;
 			}
 			
-			System.out.println(System.currentTimeMillis() - startTime + "ms");
+			metrics.frameCalculated(requestNo, width, height, nanos, frame.tasks.get());
+			observer.acceptResult(data, kernel.getLimit(), requestNo);
 			
-			System.out.println("Finished");
-			observer.acceptResult(data, (short) (polynomial.order()+1), requestNo);
+			synchronized(this) {
+				if(lastReported != null) {
+					releaseBuffer(lastReported);
+				}
+				lastReported = data;
+			}
 		}
-	}
-	
-	/**
-	 * A {@code Callable} class that calculates the portion of the fractal
-	 * and saves the result to the given data array. 
-	 *
-	 * @author Filip Nemec
-	 */
-	private static class CalculatePortionOfFractalJob implements Callable<Void> {
-		
-		/** The minimal value on the real axis. */
-		private double reMin;
-		
-		/** The maximal value on the real axis. */
-		private double reMax;
-		
-		/** The minimal value on the imaginary axis. */
-		private double imMin;
 		
-		/** The maximal value on the imaginary axis. */
-		private double imMax;
-		
-		/** The width of the display screen, in pixels. */
-		private int width;
-		
-		/** The height of the display screen, in pixels. */
-		private int height;
-		
-		/** The y-coordinate of the starting row that needs to be calculated. */
-		private int yStart;
-		
-		/** The y-coordinate of the ending row. This row will be excluded from the calculation. */
-		private int yEnd;
-		
-		/** The calculated data storage array. */
-		private short[] data;
+		/**
+		 * Shuts the pool of this producer down. No frames can be calculated afterwards.
+		 */
+		public void shutdown() {
+			pool.shutdown();
+		}
 		
-		/** The maximum number of iterations. */
-		private static final int MAX_ITER = 64;
+		/**
+		 * Takes a data array of the given size from the pool, or creates
+		 * a new one if there is no such array in the pool.
+		 *
+		 * @param size the number of pixels of the frame
+		 * @return the data array
+		 */
+		private synchronized short[] acquireBuffer(int size) {
+			short[] buffer;
+			while((buffer = buffers.poll()) != null) {
+				if(buffer.length == size) return buffer;
+			}
+			
+			return new short[size];
+		}
 		
-		/** The convergence threshold. */
-		private static final double THRESHOLD = 0.001;
+		/**
+		 * Returns the data array to the pool, unless the pool is already full.
+		 *
+		 * @param buffer the data array
+		 */
+		private synchronized void releaseBuffer(short[] buffer) {
+			if(buffers.size() < BUFFER_POOL_SIZE) {
+				buffers.push(buffer);
+			}
+		}
 		
-		/** Checks if the calculation should be cancelled. */
-		private AtomicBoolean cancel;
+		//---------------------------------------------------------------
+		//							FRAME
+		//---------------------------------------------------------------
 		
 		/**
-		 * Constructs a new job that will calculate the portion of the fractal.
+		 * The data array and the area of the complex plane of a single frame.
 		 *
-		 * @param data the calculated data storage
-		 * @param width the width of the display screen, in pixels
-		 * @param height the height of the display screen, in pixels
-		 * @param yStart the y-coordinate of the starting row that needs to be calculated
-		 * @param yEnd the y-coordinate of the ending row. This row will be excluded from the calculation.
-		 * @param reMin the minimal value on the real axis
-		 * @param reMax the maximal value on the real axis
-		 * @param imMin the minimal value on the imaginary axis
-		 * @param imMax the maximal value on the imaginary axis
-		 * @param cancel the cancel flag
+		 * @author Filip Nemec
 		 */
-		public CalculatePortionOfFractalJob(short[] data, int width, int height, int yStart, int yEnd,
-									   double reMin, double reMax, double imMin, double imMax, AtomicBoolean cancel) {
-			this.data = data;
+		private class Frame {
 			
-			this.width = width;
-			this.height = height;
+			/** The calculated data storage array. */
+			final short[] data;
 			
-			this.yStart = yStart;
-			this.yEnd = yEnd;
+			/** The width of the display screen, in pixels. */
+			final int width;
 			
-			this.reMin = reMin;
-			this.reMax = reMax;
-			this.imMin = imMin;
-			this.imMax = imMax;
+			/** The height of the display screen, in pixels. */
+			final int height;
 			
-			this.cancel = cancel;
-		}
-
-		@Override
-		public Void call() throws Exception {
-			IComplexCache cache = ComplexCache.getCache();
+			/** The minimal value on the real axis. */
+			final double reMin;
 			
-			int offset = yStart * width;
+			/** The maximal value on the real axis. */
+			final double reMax;
 			
-			for(int y = yStart; y < yEnd; y++) {
-				for(int x = 0; x < width; x++) {
-					if(cancel.get()) return null;
-					
-					Complex zn = mapToComplexPlain(x, y, width, height, reMin, reMax, imMin, imMax);
-					Complex znOld;
-					Complex numerator;
-					Complex denominator;
-					
-					int iter = 0;
-					double module;
-
-					do {
-						numerator = polynomialRooted.apply(zn);
-						denominator = derived.apply(zn);
-						znOld = zn;
-						
-						numerator.modifyDivide(denominator);
-						
-						Complex znCopy = cache.get(zn);
-						znCopy.modifySub(numerator);
-						zn = znCopy;
-
-						Complex znOldCopy = cache.get(znOld);
-						znOldCopy.modifySub(zn);
-						
-						module = znOldCopy.module();
-						iter++;
-						
-						cache.release(znCopy);
-						cache.release(numerator);
-						cache.release(denominator);
-						cache.release(znOldCopy);
-						
-					} while (module > THRESHOLD && iter < MAX_ITER);
-					
-//					System.out.println(cache.size());
-
-					int index = polynomialRooted.indexOfClosestRootFor(zn, THRESHOLD);
-					data[offset++] = (short) (index + 1);
-					
-					cache.release(zn);
-				}
+			/** The minimal value on the imaginary axis. */
+			final double imMin;
+			
+			/** The maximal value on the imaginary axis. */
+			final double imMax;
+			
+			/** The identifier of the request of this frame. */
+			final long requestNo;
+			
+			/** Checks if the calculation should be cancelled. */
+			final AtomicBoolean cancel;
+			
+			/** The number of tasks this frame was divided into. */
+			final AtomicInteger tasks = new AtomicInteger(1);
+			
+			/**
+			 * Constructs a new frame.
+			 *
+			 * @param data the calculated data storage
+			 * @param width the width of the display screen, in pixels
+			 * @param height the height of the display screen, in pixels
+			 * @param reMin the minimal value on the real axis
+			 * @param reMax the maximal value on the real axis
+			 * @param imMin the minimal value on the imaginary axis
+			 * @param imMax the maximal value on the imaginary axis
+			 * @param requestNo the identifier of the request of this frame
+			 * @param cancel the cancel flag
+			 */
+			Frame(short[] data, int width, int height, double reMin, double reMax,
+				  double imMin, double imMax, long requestNo, AtomicBoolean cancel) {
+				this.data = data;
+				this.width = width;
+				this.height = height;
+				this.reMin = reMin;
+				this.reMax = reMax;
+				this.imMin = imMin;
+				this.imMax = imMax;
+				this.requestNo = requestNo;
+				this.cancel = cancel;
 			}
 			
-			return null;
+			/**
+			 * Checks whether the calculation of this frame should stop, because its
+			 * request was canceled or because a newer frame was requested.
+			 *
+			 * @return {@code true} if the frame is abandoned, {@code false} otherwise
+			 */
+			boolean isAbandoned() {
+				return cancel.get() || latestRequest.get() > requestNo;
+			}
 		}
 		
+		//---------------------------------------------------------------
+		//						CALCULATE ROWS ACTION
+		//---------------------------------------------------------------
+		
 		/**
-		 * Maps the given (x, y) screen coordinate to the complex number.
+		 * Calculates a range of rows of the frame. Before each row, the rest of the range
+		 * is split in half if the pool has no queued tasks left for the idle threads.
 		 *
-		 * @param x the x coordinate
-		 * @param y the y coordinate
-		 * @param w the screen width in pixels
-		 * @param h the screen height in pixels
-		 * @param uMin the minimum real point
-		 * @param uMax the maximum real point
-		 * @param vMin the minimum imaginary point
-		 * @param vMax the maximum imaginary point
-		 * @return the complex number at point (x, y)
+		 * @author Filip Nemec
 		 */
-		private static Complex mapToComplexPlain(int x, int y, int w, int h,
-												 double uMin, double uMax,
-												 double vMin, double vMax) {
-			double re = x / (w-1.0) * (uMax - uMin) + uMin;
-			double im = (h-1.0-y) / (h-1) * (vMax - vMin) + vMin;
+		private class CalculateRowsAction extends RecursiveAction {
+			
+			/** The serial version UID. */
+			private static final long serialVersionUID = 1L;
 			
-			IComplexCache cache = ComplexCache.getCache();
-			Complex result = cache.get(re, im);
+			/** The frame being calculated. */
+			private final Frame frame;
 			
-			return result;
+			/** The y-coordinate of the starting row that needs to be calculated. */
+			private final int yStart;
+			
+			/** The y-coordinate of the ending row. This row will be excluded from the calculation. */
+			private final int yEnd;
+			
+			/**
+			 * Constructs a new action calculating the given rows of the frame.
+			 *
+			 * @param frame the frame being calculated
+			 * @param yStart the y-coordinate of the starting row that needs to be calculated
+			 * @param yEnd the y-coordinate of the ending row. This row will be excluded from the calculation.
+			 */
+			CalculateRowsAction(Frame frame, int yStart, int yEnd) {
+				this.frame = frame;
+				this.yStart = yStart;
+				this.yEnd = yEnd;
+			}
+			
+			@Override
+			protected void compute() {
+				List<CalculateRowsAction> forked = new ArrayList<>();
+				int end = yEnd;
+				
+				for(int y = yStart; y < end; y++) {
+					if(frame.isAbandoned()) break;
+					
+					if(end - y > 1 && getSurplusQueuedTaskCount() == 0) {
+						int middle = y + (end - y + 1) / 2;
+						
+						CalculateRowsAction rest = new CalculateRowsAction(frame, middle, end);
+						rest.fork();
+						forked.add(rest);
+						frame.tasks.incrementAndGet();
+						
+						end = middle;
+					}
+					
+					kernel.calculate(frame.data, frame.width, frame.height, y, y + 1,
+									 frame.reMin, frame.reMax, frame.imMin, frame.imMax, frame.cancel);
+				}
+				
+				for(CalculateRowsAction action : forked) {
+					action.join();
+				}
+			}
 		}
 	}
 	
@@ -374,32 +457,29 @@ public class Newton {
 		return im;
 	}
 	
-	private static class CustomThread extends Thread implements IThreadBoundComplexCache {
+	/**
+	 * A worker thread of the {@code ForkJoinPool} holding its own {@link IComplexCache},
+	 * so the frames can be calculated by the {@link ComplexCacheNewtonKernel} as well.
+	 *
+	 * @author Filip Nemec
+	 */
+	static class CacheWorkerThread extends ForkJoinWorkerThread implements IThreadBoundComplexCache {
 		
+		/** The cache of this thread. */
 		private IComplexCache cache = new ComplexCacheImpl();
 		
-		public CustomThread(Runnable r) {
-			super(r);
+		/**
+		 * Constructs a new worker thread of the given pool.
+		 *
+		 * @param pool the pool
+		 */
+		public CacheWorkerThread(ForkJoinPool pool) {
+			super(pool);
 		}
 		
 		@Override
 		public IComplexCache getComplexCache() {
 			return cache;
 		}
-	};
-	
-	/**
-	 * A simple {@code ThreadFactory} that produces exclusively <i>daemonic</i> threads.
-	 *
-	 * @author Filip Nemec
-	 */
-	private static class DaemonicThreadFactory implements ThreadFactory {
-
-		@Override
-		public Thread newThread(Runnable r) {
-			CustomThread thread = new CustomThread(r);
-			thread.setDaemon(true);
-			return thread;
-		}
 	}
 }
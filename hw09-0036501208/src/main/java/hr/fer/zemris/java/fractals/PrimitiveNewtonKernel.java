@@ -0,0 +1,182 @@
+package hr.fer.zemris.java.fractals;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexPolynomial;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+/**
+ * Calculates the Newton-Raphson's iteration on plain {@code double} values. The
+ * factors of the polynomial, of its derivative and the roots are stored as separate
+ * arrays of the real and the imaginary parts, so no objects are created and no cache
+ * is needed while iterating. Therefore, this kernel can be used by any thread.
+ * <p>
+ * Both the polynomial and its derivative are evaluated by the Horner's algorithm,
+ * so the last bits of some of the values may differ from the ones calculated by the
+ * {@link ComplexCacheNewtonKernel}. The pixels for which the derivative becomes
+ * exactly zero are stored as not converging to any of the roots.
+ * <p>
+ * The {@code null} roots are taken as zero in both the polynomial and its derivative,
+ * as by {@link ComplexRootedPolynomial#toComplexPolynom()}, but no pixel is stored as
+ * converging to them. The {@link ComplexCacheNewtonKernel} skips them in the polynomial
+ * only, so for such polynomials the two kernels calculate different frames.
+ *
+ * @author Filip Nemec
+ */
+public class PrimitiveNewtonKernel implements INewtonKernel {
+	
+	/** The real parts of the factors of the polynomial, z0 first. */
+	final double[] polynomialRe;
+	
+	/** The imaginary parts of the factors of the polynomial, z0 first. */
+	final double[] polynomialIm;
+	
+	/** The real parts of the factors of the derivative, z0 first. */
+	final double[] derivedRe;
+	
+	/** The imaginary parts of the factors of the derivative, z0 first. */
+	final double[] derivedIm;
+	
+	/** The real parts of the roots; {@code NaN} for the {@code null} roots. */
+	final double[] rootsRe;
+	
+	/** The imaginary parts of the roots; {@code NaN} for the {@code null} roots. */
+	final double[] rootsIm;
+	
+	/**
+	 * Constructs a new kernel for the given polynomial.
+	 *
+	 * @param polynomialRooted the polynomial whose roots are searched for
+	 */
+	public PrimitiveNewtonKernel(ComplexRootedPolynomial polynomialRooted) {
+		Objects.requireNonNull(polynomialRooted, "Polynomial should not be null.");
+		
+		ComplexPolynomial polynomial = polynomialRooted.toComplexPolynom();
+		ComplexPolynomial derived = polynomial.derive();
+		
+		polynomialRe = new double[polynomial.order() + 1];
+		polynomialIm = new double[polynomial.order() + 1];
+		for(int i = 0; i < polynomialRe.length; i++) {
+			polynomialRe[i] = polynomial.getFactor(i).getReal();
+			polynomialIm[i] = polynomial.getFactor(i).getImaginary();
+		}
+		
+		derivedRe = new double[derived.order() + 1];
+		derivedIm = new double[derived.order() + 1];
+		for(int i = 0; i < derivedRe.length; i++) {
+			derivedRe[i] = derived.getFactor(i).getReal();
+			derivedIm[i] = derived.getFactor(i).getImaginary();
+		}
+		
+		Complex[] roots = polynomialRooted.getRoots();
+		rootsRe = new double[roots.length];
+		rootsIm = new double[roots.length];
+		for(int i = 0; i < roots.length; i++) {
+			rootsRe[i] = roots[i] == null ? Double.NaN : roots[i].getReal();
+			rootsIm[i] = roots[i] == null ? Double.NaN : roots[i].getImaginary();
+		}
+	}
+	
+	@Override
+	public void calculate(short[] data, int width, int height, int yStart, int yEnd,
+						  double reMin, double reMax, double imMin, double imMax, AtomicBoolean cancel) {
+		int offset = yStart * width;
+		
+		for(int y = yStart; y < yEnd; y++) {
+			if(cancel.get()) return;
+			
+			double im = (height-1.0-y) / (height-1) * (imMax - imMin) + imMin;
+			
+			for(int x = 0; x < width; x++) {
+				double re = x / (width-1.0) * (reMax - reMin) + reMin;
+				
+				data[offset++] = (short) (indexOfRootFor(re, im) + 1);
+			}
+		}
+	}
+	
+	@Override
+	public short getLimit() {
+		return (short) (rootsRe.length + 1);
+	}
+	
+	/**
+	 * Iterates from the given complex number, and finds the index of
+	 * the closest root within the threshold for the last iterated value.
+	 *
+	 * @param re the real part of the starting complex number
+	 * @param im the imaginary part of the starting complex number
+	 * @return index of the closest root within threshold, if such is
+	 * 		   found, otherwise {@code -1}
+	 */
+	private int indexOfRootFor(double re, double im) {
+		double squaredThreshold = THRESHOLD * THRESHOLD;
+		double squaredModule;
+		int iter = 0;
+		
+		do {
+			// Horner's algorithm for the polynomial...
+			int n = polynomialRe.length - 1;
+			double numeratorRe = polynomialRe[n];
+			double numeratorIm = polynomialIm[n];
+			for(int i = n - 1; i >= 0; i--) {
+				double temp = numeratorRe * re - numeratorIm * im;
+				numeratorIm = numeratorRe * im + numeratorIm * re + polynomialIm[i];
+				numeratorRe = temp + polynomialRe[i];
+			}
+			
+			// ...and for its derivative.
+			n = derivedRe.length - 1;
+			double denominatorRe = derivedRe[n];
+			double denominatorIm = derivedIm[n];
+			for(int i = n - 1; i >= 0; i--) {
+				double temp = denominatorRe * re - denominatorIm * im;
+				denominatorIm = denominatorRe * im + denominatorIm * re + derivedIm[i];
+				denominatorRe = temp + derivedRe[i];
+			}
+			
+			double denominator = denominatorRe * denominatorRe + denominatorIm * denominatorIm;
+			if(denominator == 0) return -1;
+			
+			double stepRe = (numeratorRe * denominatorRe + numeratorIm * denominatorIm) / denominator;
+			double stepIm = (numeratorIm * denominatorRe - numeratorRe * denominatorIm) / denominator;
+			
+			re -= stepRe;
+			im -= stepIm;
+			
+			squaredModule = stepRe * stepRe + stepIm * stepIm;
+			iter++;
+			
+		} while(squaredModule > squaredThreshold && iter < MAX_ITER);
+		
+		return indexOfClosestRootFor(re, im);
+	}
+	
+	/**
+	 * Finds the index of the closest root within the threshold for the given complex number.
+	 *
+	 * @param re the real part of the complex number
+	 * @param im the imaginary part of the complex number
+	 * @return index of the closest root within threshold, if such is
+	 * 		   found, otherwise {@code -1}
+	 */
+	int indexOfClosestRootFor(double re, double im) {
+		double minDistance = THRESHOLD * THRESHOLD;
+		int indexOfClosestRoot = -1;
+		
+		for(int i = 0; i < rootsRe.length; i++) {
+			double distanceRe = re - rootsRe[i];
+			double distanceIm = im - rootsIm[i];
+			double distance = distanceRe * distanceRe + distanceIm * distanceIm;
+			
+			if(distance < minDistance) {
+				minDistance = distance;
+				indexOfClosestRoot = i;
+			}
+		}
+		
+		return indexOfClosestRoot;
+	}
+}
@@ -0,0 +1,657 @@
+package hr.fer.zemris.java.fractals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hr.fer.zemris.java.fractals.viewer.IFractalProducer;
+import hr.fer.zemris.java.fractals.viewer.IFractalResultObserver;
+
+/**
+ * The tile-based, progressive producer of the Newton-Raphson's fractal. Unlike the
+ * {@link Newton.NewtonFractalProducer}, which calculates every frame from scratch,
+ * this producer keeps the calculated tiles of the complex plane in a cache, so
+ * the parts of a frame which were already shown are not calculated again.
+ * <p>
+ * The tiles lie on a grid of points of the complex plane. The distance between the
+ * points of the grid is a power of 2 with the exponent rounded down to an eighth, so
+ * the frames with the same distance between their pixels, such as the ones returned
+ * to by the viewer or the ones panned across the plane, share the same grid. Each tile
+ * is identified by its zoom level, the exponent of the distance, and its position
+ * on the grid. Each pixel of the frame shows the point of the grid closest to it.
+ * The least recently used tiles are evicted once the cache exceeds its size.
+ * <p>
+ * If some of the tiles are not in the cache, the frame is first calculated at the
+ * quarter of the resolution, and the missing tiles are filled with its blocks. The
+ * missing tiles are then calculated, the ones in the center of the frame first, and
+ * the partial results are given to the observer periodically until the frame is done.
+ * Just like the {@link Newton.NewtonFractalProducer}, a frame is abandoned as soon
+ * as its request gets canceled or a request with a greater identifier arrives.
+ *
+ * @author Filip Nemec
+ */
+public class TiledNewtonFractalProducer implements IFractalProducer {
+	
+	/** The default size of the cache, in bytes. */
+	public static final long DEFAULT_CACHE_SIZE = 64L << 20;
+	
+	/** The length of the edge of a tile, in points of the grid. */
+	private static final int TILE_SIZE = 64;
+	
+	/** The length of the edge of a block of pixels calculated as one by the coarse pass. */
+	private static final int COARSE_BLOCK = 4;
+	
+	/** The number of zoom levels for every halving of the distance between the points of the grid. */
+	private static final int LEVELS_PER_OCTAVE = 8;
+	
+	/** The time between two partial results given to the observer, in milliseconds. */
+	private static final long REPORT_INTERVAL = 100;
+	
+	/** The estimated memory taken by a cached tile besides its data, in bytes. */
+	private static final int TILE_OVERHEAD = 128;
+	
+	/** The flag given to the kernel while calculating a tile, which is never set, so every cached tile is complete. */
+	private static final AtomicBoolean NEVER_CANCELED = new AtomicBoolean();
+	
+	/** The kernel calculating the tiles. */
+	private final INewtonKernel kernel;
+	
+	/** The listener informed about the time it took to calculate each frame. */
+	private final IFrameMetricsListener metrics;
+	
+	/** The pool calculating every frame. */
+	private final ForkJoinPool pool;
+	
+	/** The calculated tiles, the least recently used first. */
+	private final TileCache cache;
+	
+	/** The greatest identifier of all the requests so far. */
+	private final AtomicLong latestRequest = new AtomicLong(Long.MIN_VALUE);
+	
+	/**
+	 * Constructs a new producer with a cache of the {@link #DEFAULT_CACHE_SIZE}.
+	 *
+	 * @param kernel the kernel calculating the tiles
+	 */
+	public TiledNewtonFractalProducer(INewtonKernel kernel) {
+		this(kernel, DEFAULT_CACHE_SIZE, IFrameMetricsListener.NONE);
+	}
+	
+	/**
+	 * Constructs a new producer.
+	 *
+	 * @param kernel the kernel calculating the tiles
+	 * @param cacheSize the largest memory taken by the cached tiles, in bytes
+	 * @param metrics the listener informed about the time it took to calculate each frame
+	 * @throws IllegalArgumentException if the cache cannot hold a single tile
+	 */
+	public TiledNewtonFractalProducer(INewtonKernel kernel, long cacheSize, IFrameMetricsListener metrics) {
+		long tileBytes = TILE_SIZE * TILE_SIZE * Short.BYTES + TILE_OVERHEAD;
+		if(cacheSize < tileBytes)
+			throw new IllegalArgumentException("Expected a cache of at least " + tileBytes + " bytes, but was " + cacheSize + ".");
+		
+		this.kernel = Objects.requireNonNull(kernel, "Kernel should not be null.");
+		this.metrics = Objects.requireNonNull(metrics, "Metrics listener should not be null.");
+		this.cache = new TileCache(cacheSize / tileBytes);
+		this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), Newton.CacheWorkerThread::new, null, false);
+	}
+	
+	@Override
+	public void produce(double reMin, double reMax, double imMin, double imMax,
+			int width, int height, long requestNo, IFractalResultObserver observer, AtomicBoolean cancel) {
+		
+		if(width < 2 || height < 2)
+			throw new IllegalArgumentException("Expected at least 2x2 pixels, but was " + width + "x" + height + ".");
+		
+		long startTime = System.nanoTime();
+		latestRequest.accumulateAndGet(requestNo, Math::max);
+		
+		Frame frame = new Frame(reMin, reMax, imMin, imMax, width, height, requestNo, cancel);
+		
+		List<ScreenTile> missing = new ArrayList<>();
+		for(ScreenTile tile : frame.createTiles()) {
+			short[] tileData = cache.get(tile.key);
+			
+			if(tileData == null) {
+				missing.add(tile);
+			} else {
+				frame.copy(tile, tileData);
+			}
+		}
+		
+		if(!missing.isEmpty()) {
+			calculateCoarse(frame, missing);
+			if(frame.isAbandoned()) {
+				metrics.frameAbandoned(requestNo, System.nanoTime() - startTime);
+				return;
+			}
+			
+			observer.acceptResult(frame.data, kernel.getLimit(), requestNo);
+			calculateTiles(frame, missing, observer);
+			
+			if(frame.isAbandoned()) {
+				metrics.frameAbandoned(requestNo, System.nanoTime() - startTime);
+				return;
+			}
+		}
+		
+		metrics.frameCalculated(requestNo, width, height, System.nanoTime() - startTime, missing.size());
+		observer.acceptResult(frame.data, kernel.getLimit(), requestNo);
+	}
+	
+	/**
+	 * Returns the number of tiles in the cache.
+	 *
+	 * @return the number of cached tiles
+	 */
+	public int getCachedTileCount() {
+		return cache.size();
+	}
+	
+	/**
+	 * Shuts the pool of this producer down. No frames can be calculated afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	/**
+	 * Calculates the frame at the reduced resolution, and fills the missing
+	 * tiles with the blocks of pixels of the same value.
+	 *
+	 * @param frame the frame
+	 * @param missing the tiles which are not in the cache
+	 */
+	private void calculateCoarse(Frame frame, List<ScreenTile> missing) {
+		int width = (frame.width + COARSE_BLOCK - 1) / COARSE_BLOCK;
+		int height = (frame.height + COARSE_BLOCK - 1) / COARSE_BLOCK;
+		short[] coarse = new short[width * height];
+		
+		// The coarse pixel (x, y) is the pixel (x * COARSE_BLOCK, y * COARSE_BLOCK) of the frame.
+		double reMax = frame.reMin + (width - 1) * COARSE_BLOCK * frame.stepRe;
+		double imMin = frame.imMax - (height - 1) * COARSE_BLOCK * frame.stepIm;
+		
+		List<Runnable> rows = new ArrayList<>();
+		for(int y = 0; y < height; y++) {
+			int row = y;
+			rows.add(() -> {
+				if(frame.isAbandoned()) return;
+				kernel.calculate(coarse, width, height, row, row + 1, frame.reMin, reMax, imMin, frame.imMax, frame.cancel);
+			});
+		}
+		
+		pool.invoke(new TasksAction(rows, 0, rows.size()));
+		
+		for(ScreenTile tile : missing) {
+			for(int y = tile.yStart; y < tile.yEnd; y++) {
+				int coarseOffset = y / COARSE_BLOCK * width;
+				
+				for(int x = tile.xStart; x < tile.xEnd; x++) {
+					frame.data[y * frame.width + x] = coarse[coarseOffset + x / COARSE_BLOCK];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the missing tiles, the closest to the center of the frame first, and
+	 * caches them. The partial results are given to the observer periodically.
+	 *
+	 * @param frame the frame
+	 * @param missing the tiles which are not in the cache
+	 * @param observer the observer
+	 */
+	private void calculateTiles(Frame frame, List<ScreenTile> missing, IFractalResultObserver observer) {
+		double centerX = frame.width / 2.0;
+		double centerY = frame.height / 2.0;
+		missing.sort(Comparator.comparingDouble(tile -> Math.hypot((tile.xStart + tile.xEnd) / 2.0 - centerX,
+																   (tile.yStart + tile.yEnd) / 2.0 - centerY)));
+		
+		AtomicInteger calculated = new AtomicInteger();
+		
+		List<Runnable> tasks = new ArrayList<>();
+		for(ScreenTile tile : missing) {
+			tasks.add(() -> {
+				if(frame.isAbandoned()) return;
+				
+				short[] tileData = new short[TILE_SIZE * TILE_SIZE];
+				kernel.calculate(tileData, TILE_SIZE, TILE_SIZE, 0, TILE_SIZE,
+								 tile.key.column * TILE_SIZE * frame.gridRe, (tile.key.column * TILE_SIZE + TILE_SIZE - 1) * frame.gridRe,
+								 tile.key.row * TILE_SIZE * frame.gridIm, (tile.key.row * TILE_SIZE + TILE_SIZE - 1) * frame.gridIm,
+								 NEVER_CANCELED);
+				
+				cache.put(tile.key, tileData);
+				frame.copy(tile, tileData);
+				calculated.incrementAndGet();
+			});
+		}
+		
+		ForkJoinTask<Void> task = pool.submit(new TasksAction(tasks, 0, tasks.size()));
+		int reported = 0;
+		
+		while(true) {
+			try {
+				task.get(REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+				return;
+				
+			} catch(TimeoutException e) {
+				int done = calculated.get();
+				if(done > reported && !frame.isAbandoned()) {
+					observer.acceptResult(frame.data, kernel.getLimit(), frame.requestNo);
+					reported = done;
+				}
+				
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				frame.cancel.set(true);
+				return;
+				
+			} catch(ExecutionException e) {
+				throw new IllegalStateException("Calculation of the tiles failed.", e.getCause());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the zoom level of the grid for the given distance between the pixels.
+	 *
+	 * @param step the distance between the pixels
+	 * @return the zoom level
+	 */
+	private static int levelOf(double step) {
+		return (int) Math.floor(Math.log(step) / Math.log(2) * LEVELS_PER_OCTAVE);
+	}
+	
+	/**
+	 * Returns the distance between the points of the grid of the given zoom level.
+	 *
+	 * @param level the zoom level
+	 * @return the distance between the points of the grid
+	 */
+	private static double spacingOf(int level) {
+		return Math.pow(2, level / (double) LEVELS_PER_OCTAVE);
+	}
+	
+	//---------------------------------------------------------------
+	//							FRAME
+	//---------------------------------------------------------------
+	
+	/**
+	 * The data array and the area of the complex plane of a single frame,
+	 * along with the grid its pixels are taken from.
+	 *
+	 * @author Filip Nemec
+	 */
+	private class Frame {
+		
+		/** The calculated data storage array. */
+		final short[] data;
+		
+		/** The minimal value on the real axis. */
+		final double reMin;
+		
+		/** The maximal value on the imaginary axis. */
+		final double imMax;
+		
+		/** The width of the display screen, in pixels. */
+		final int width;
+		
+		/** The height of the display screen, in pixels. */
+		final int height;
+		
+		/** The distance between the pixels along the real axis. */
+		final double stepRe;
+		
+		/** The distance between the pixels along the imaginary axis. */
+		final double stepIm;
+		
+		/** The zoom level of the grid along the real axis. */
+		final int levelRe;
+		
+		/** The zoom level of the grid along the imaginary axis. */
+		final int levelIm;
+		
+		/** The distance between the points of the grid along the real axis. */
+		final double gridRe;
+		
+		/** The distance between the points of the grid along the imaginary axis. */
+		final double gridIm;
+		
+		/** The position in its tile of the point of the grid shown by each column. */
+		final int[] tileColumns;
+		
+		/** The position in its tile of the point of the grid shown by each row. */
+		final int[] tileRows;
+		
+		/** The identifier of the request of this frame. */
+		final long requestNo;
+		
+		/** Checks if the calculation should be cancelled. */
+		final AtomicBoolean cancel;
+		
+		/**
+		 * Constructs a new frame.
+		 *
+		 * @param reMin the minimal value on the real axis
+		 * @param reMax the maximal value on the real axis
+		 * @param imMin the minimal value on the imaginary axis
+		 * @param imMax the maximal value on the imaginary axis
+		 * @param width the width of the display screen, in pixels
+		 * @param height the height of the display screen, in pixels
+		 * @param requestNo the identifier of the request of this frame
+		 * @param cancel the cancel flag
+		 */
+		Frame(double reMin, double reMax, double imMin, double imMax,
+			  int width, int height, long requestNo, AtomicBoolean cancel) {
+			this.data = new short[width * height];
+			this.reMin = reMin;
+			this.imMax = imMax;
+			this.width = width;
+			this.height = height;
+			this.stepRe = (reMax - reMin) / (width - 1);
+			this.stepIm = (imMax - imMin) / (height - 1);
+			this.levelRe = levelOf(stepRe);
+			this.levelIm = levelOf(stepIm);
+			this.gridRe = spacingOf(levelRe);
+			this.gridIm = spacingOf(levelIm);
+			this.tileColumns = new int[width];
+			this.tileRows = new int[height];
+			this.requestNo = requestNo;
+			this.cancel = cancel;
+		}
+		
+		/**
+		 * Divides the frame into the parts showing the points of the same tile.
+		 *
+		 * @return the parts of the frame
+		 */
+		List<ScreenTile> createTiles() {
+			List<long[]> columns = new ArrayList<>();
+			for(int x = 0; x < width; x++) {
+				long point = Math.round((x * stepRe + reMin) / gridRe);
+				long tile = Math.floorDiv(point, TILE_SIZE);
+				
+				tileColumns[x] = (int) (point - tile * TILE_SIZE);
+				addToRun(columns, tile, x);
+			}
+			
+			List<long[]> rows = new ArrayList<>();
+			for(int y = 0; y < height; y++) {
+				long point = Math.round((imMax - y * stepIm) / gridIm);
+				long tile = Math.floorDiv(point, TILE_SIZE);
+				
+				// The rows of a tile are stored from the top, just like the rows of the frame.
+				tileRows[y] = TILE_SIZE - 1 - (int) (point - tile * TILE_SIZE);
+				addToRun(rows, tile, y);
+			}
+			
+			List<ScreenTile> tiles = new ArrayList<>();
+			for(long[] row : rows) {
+				for(long[] column : columns) {
+					TileKey key = new TileKey(levelRe, levelIm, column[0], row[0]);
+					tiles.add(new ScreenTile(key, (int) column[1], (int) column[2], (int) row[1], (int) row[2]));
+				}
+			}
+			
+			return tiles;
+		}
+		
+		/**
+		 * Copies the points of the tile shown by the given part of the frame.
+		 *
+		 * @param tile the part of the frame
+		 * @param tileData the data of the tile
+		 */
+		void copy(ScreenTile tile, short[] tileData) {
+			for(int y = tile.yStart; y < tile.yEnd; y++) {
+				int tileOffset = tileRows[y] * TILE_SIZE;
+				
+				for(int x = tile.xStart; x < tile.xEnd; x++) {
+					data[y * width + x] = tileData[tileOffset + tileColumns[x]];
+				}
+			}
+		}
+		
+		/**
+		 * Checks whether the calculation of this frame should stop, because its
+		 * request was canceled or because a newer frame was requested.
+		 *
+		 * @return {@code true} if the frame is abandoned, {@code false} otherwise
+		 */
+		boolean isAbandoned() {
+			return cancel.get() || latestRequest.get() > requestNo;
+		}
+	}
+	
+	/**
+	 * Adds the given column or row of pixels to the last run of the pixels showing the same
+	 * tile, or starts a new run if the tile differs. Each run holds the position of the tile,
+	 * the first pixel and the pixel after the last one.
+	 *
+	 * @param runs the runs so far
+	 * @param tile the position of the tile shown by the pixel
+	 * @param pixel the pixel
+	 */
+	private static void addToRun(List<long[]> runs, long tile, int pixel) {
+		long[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+		
+		if(last != null && last[0] == tile) {
+			last[2] = pixel + 1;
+		} else {
+			runs.add(new long[] { tile, pixel, pixel + 1 });
+		}
+	}
+	
+	//---------------------------------------------------------------
+	//							TILES
+	//---------------------------------------------------------------
+	
+	/**
+	 * Identifies a tile of the grid of the complex plane.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class TileKey {
+		
+		/** The zoom level along the real axis. */
+		final int levelRe;
+		
+		/** The zoom level along the imaginary axis. */
+		final int levelIm;
+		
+		/** The position of the tile along the real axis. */
+		final long column;
+		
+		/** The position of the tile along the imaginary axis. */
+		final long row;
+		
+		/**
+		 * Constructs a new key.
+		 *
+		 * @param levelRe the zoom level along the real axis
+		 * @param levelIm the zoom level along the imaginary axis
+		 * @param column the position of the tile along the real axis
+		 * @param row the position of the tile along the imaginary axis
+		 */
+		TileKey(int levelRe, int levelIm, long column, long row) {
+			this.levelRe = levelRe;
+			this.levelIm = levelIm;
+			this.column = column;
+			this.row = row;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(levelRe, levelIm, column, row);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) return true;
+			if(!(obj instanceof TileKey)) return false;
+			
+			TileKey other = (TileKey) obj;
+			return levelRe == other.levelRe && levelIm == other.levelIm && column == other.column && row == other.row;
+		}
+	}
+	
+	/**
+	 * The part of a frame showing the points of a single tile.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class ScreenTile {
+		
+		/** The tile shown by this part. */
+		final TileKey key;
+		
+		/** The first column of this part. */
+		final int xStart;
+		
+		/** The column after the last one of this part. */
+		final int xEnd;
+		
+		/** The first row of this part. */
+		final int yStart;
+		
+		/** The row after the last one of this part. */
+		final int yEnd;
+		
+		/**
+		 * Constructs a new part of a frame.
+		 *
+		 * @param key the tile shown by this part
+		 * @param xStart the first column of this part
+		 * @param xEnd the column after the last one of this part
+		 * @param yStart the first row of this part
+		 * @param yEnd the row after the last one of this part
+		 */
+		ScreenTile(TileKey key, int xStart, int xEnd, int yStart, int yEnd) {
+			this.key = key;
+			this.xStart = xStart;
+			this.xEnd = xEnd;
+			this.yStart = yStart;
+			this.yEnd = yEnd;
+		}
+	}
+	
+	/**
+	 * The cache of the calculated tiles, which evicts the least recently
+	 * used tile once it holds more than the given number of tiles.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class TileCache {
+		
+		/** The tiles, the least recently used first. */
+		private final Map<TileKey, short[]> tiles;
+		
+		/**
+		 * Constructs a new cache.
+		 *
+		 * @param capacity the largest number of tiles in the cache
+		 */
+		TileCache(long capacity) {
+			this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+				
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<TileKey, short[]> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+		
+		/**
+		 * Returns the data of the given tile, and marks it as the most recently used one.
+		 *
+		 * @param key the tile
+		 * @return the data of the tile, or {@code null} if it is not in the cache
+		 */
+		synchronized short[] get(TileKey key) {
+			return tiles.get(key);
+		}
+		
+		/**
+		 * Adds the given tile to the cache.
+		 *
+		 * @param key the tile
+		 * @param data the data of the tile
+		 */
+		synchronized void put(TileKey key, short[] data) {
+			tiles.put(key, data);
+		}
+		
+		/**
+		 * Returns the number of tiles in the cache.
+		 *
+		 * @return the number of tiles
+		 */
+		synchronized int size() {
+			return tiles.size();
+		}
+	}
+	
+	//---------------------------------------------------------------
+	//							TASKS ACTION
+	//---------------------------------------------------------------
+	
+	/**
+	 * Runs a range of the given tasks, splitting the range in half until a single task is left.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class TasksAction extends RecursiveAction {
+		
+		/** The serial version UID. */
+		private static final long serialVersionUID = 1L;
+		
+		/** All the tasks. */
+		private final List<Runnable> tasks;
+		
+		/** The index of the first task of the range. */
+		private final int start;
+		
+		/** The index after the last task of the range. */
+		private final int end;
+		
+		/**
+		 * Constructs a new action running the given range of tasks.
+		 *
+		 * @param tasks all the tasks
+		 * @param start the index of the first task of the range
+		 * @param end the index after the last task of the range
+		 */
+		TasksAction(List<Runnable> tasks, int start, int end) {
+			this.tasks = tasks;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start <= 1) {
+				if(start < end) {
+					tasks.get(start).run();
+				}
+				return;
+			}
+			
+			int middle = (start + end) / 2;
+			invokeAll(new TasksAction(tasks, start, middle), new TasksAction(tasks, middle, end));
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package hr.fer.zemris.java.fractals.demo;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hr.fer.zemris.java.fractals.INewtonKernel;
+import hr.fer.zemris.java.fractals.Newton.NewtonFractalProducer;
+import hr.fer.zemris.java.fractals.PrimitiveNewtonKernel;
+import hr.fer.zemris.java.fractals.TiledNewtonFractalProducer;
+import hr.fer.zemris.java.fractals.viewer.IFractalProducer;
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+/**
+ * Compares the {@link NewtonFractalProducer} with the {@link TiledNewtonFractalProducer}
+ * while following the same steps a user of the viewer would take: zooming in, returning
+ * to the previous views, panning and resizing the window. For each step, the time until
+ * the first result and until the final result are given to the observer are reported.
+ *
+ * @author Filip Nemec
+ */
+public class FractalNavigationBenchmark {
+	
+	/** The names of the steps. */
+	private static final String[] STEPS = {
+		"initial view", "zoom in", "zoom in again", "back", "back", "pan right", "pan down", "resize"
+	};
+	
+	/** The area of the complex plane shown by each step: reMin, reMax, imMin and imMax. */
+	private static final double[][] VIEWS = {
+		{ -2, 2, -2, 2 }, { -1, 0.5, -0.5, 1 }, { -0.4, 0.1, 0.1, 0.6 }, { -1, 0.5, -0.5, 1 },
+		{ -2, 2, -2, 2 }, { -1.5, 2.5, -2, 2 }, { -1.5, 2.5, -2.5, 1.5 }, { -2, 2, -2, 2 }
+	};
+	
+	/** The size of the frame of each step: width and height. */
+	private static final int[][] SIZES = {
+		{ 600, 600 }, { 600, 600 }, { 600, 600 }, { 600, 600 },
+		{ 600, 600 }, { 600, 600 }, { 600, 600 }, { 800, 700 }
+	};
+	
+	/** The time the last frame was given to the observer. */
+	private static long lastResult;
+	
+	/** The time the first frame was given to the observer. */
+	private static long firstResult;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 */
+	public static void main(String[] args) {
+		INewtonKernel kernel = new PrimitiveNewtonKernel(new ComplexRootedPolynomial(Complex.ONE,
+				Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG, new Complex(0.3, 0.7)));
+		
+		System.out.printf("%d thread(s)%n", Runtime.getRuntime().availableProcessors());
+		
+		// Warming up, with the results thrown away.
+		NewtonFractalProducer warmupProducer = new NewtonFractalProducer(kernel);
+		TiledNewtonFractalProducer warmupTiled = new TiledNewtonFractalProducer(kernel);
+		navigate(warmupProducer, false);
+		navigate(warmupTiled, false);
+		warmupProducer.shutdown();
+		warmupTiled.shutdown();
+		
+		NewtonFractalProducer producer = new NewtonFractalProducer(kernel);
+		TiledNewtonFractalProducer tiled = new TiledNewtonFractalProducer(kernel);
+		
+		System.out.println("row-split producer:");
+		navigate(producer, true);
+		
+		System.out.println("tiled producer:");
+		navigate(tiled, true);
+		System.out.printf("  cached tiles: %d%n", tiled.getCachedTileCount());
+		
+		producer.shutdown();
+		tiled.shutdown();
+	}
+	
+	/**
+	 * Takes all the steps with the given producer.
+	 *
+	 * @param producer the producer
+	 * @param print whether the times of the steps are printed
+	 */
+	private static void navigate(IFractalProducer producer, boolean print) {
+		double firstTotal = 0;
+		double finalTotal = 0;
+		
+		for(int step = 0; step < STEPS.length; step++) {
+			double[] view = VIEWS[step];
+			firstResult = 0;
+			
+			long start = System.nanoTime();
+			producer.produce(view[0], view[1], view[2], view[3], SIZES[step][0], SIZES[step][1], step,
+							 (data, limit, requestNo) -> {
+								 lastResult = System.nanoTime();
+								 if(firstResult == 0) {
+									 firstResult = lastResult;
+								 }
+							 }, new AtomicBoolean());
+			
+			double first = (firstResult - start) / 1e6;
+			double last = (lastResult - start) / 1e6;
+			firstTotal += first;
+			finalTotal += last;
+			
+			if(print) {
+				System.out.printf("  %-14s first result: %7.1f ms   final result: %7.1f ms%n", STEPS[step], first, last);
+			}
+		}
+		
+		if(print) {
+			System.out.printf("  %-14s first result: %7.1f ms   final result: %7.1f ms%n", "total", firstTotal, finalTotal);
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package hr.fer.zemris.java.fractals.demo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hr.fer.zemris.java.fractals.ComplexCacheNewtonKernel;
+import hr.fer.zemris.java.fractals.INewtonKernel;
+import hr.fer.zemris.java.fractals.LaneNewtonKernel;
+import hr.fer.zemris.java.fractals.PrimitiveNewtonKernel;
+import hr.fer.zemris.java.fractals.cmplxcache.ComplexCacheImpl;
+import hr.fer.zemris.java.fractals.cmplxcache.IComplexCache;
+import hr.fer.zemris.java.fractals.cmplxcache.IThreadBoundComplexCache;
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+/**
+ * Compares the {@link ComplexCacheNewtonKernel}, the {@link PrimitiveNewtonKernel}, the
+ * {@link LaneNewtonKernel} and the vector kernel, calculating whole frames of the fractal on
+ * a single thread. For each kernel and polynomial, the average time per frame and per pixel,
+ * the memory allocated per frame and the number of garbage collections are reported, along
+ * with the number of pixels for which the kernels found different roots than the primitive
+ * kernel. The vector kernel is measured only if the benchmark is started with
+ * {@code --add-modules jdk.incubator.vector}.
+ *
+ * @author Filip Nemec
+ */
+public class NewtonKernelBenchmark {
+	
+	/** The width of the frame, in pixels. */
+	private static final int WIDTH = 600;
+	
+	/** The height of the frame, in pixels. */
+	private static final int HEIGHT = 600;
+	
+	/** The number of warm-up repetitions. */
+	private static final int WARMUP = 5;
+	
+	/** The number of measured repetitions. */
+	private static final int REPETITIONS = 10;
+	
+	/** Measures the memory allocated by the benchmark thread. */
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	
+	/** Prevents the JIT compiler from removing the measured work. */
+	private static int sink;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 * @throws InterruptedException if interrupted while waiting for the benchmark
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Thread thread = new CacheThread(() -> {
+			System.out.printf("%dx%d pixels, 1 thread, vector kernel: %s%n", WIDTH, HEIGHT,
+							  LaneNewtonKernel.vectorized(polynomialOf4Roots()) instanceof LaneNewtonKernel ? "not available" : "available");
+			
+			measureAll("4 roots", polynomialOf4Roots());
+			
+			measureAll("8 roots", new ComplexRootedPolynomial(new Complex(2, 0),
+					Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG,
+					new Complex(0.5, 0.5), new Complex(-0.5, 0.5), new Complex(-0.5, -0.5), new Complex(0.5, -0.5)));
+		});
+		
+		thread.start();
+		thread.join();
+	}
+	
+	/**
+	 * Measures all the kernels calculating the fractal of the given polynomial.
+	 *
+	 * @param name the name of the polynomial
+	 * @param polynomial the polynomial
+	 */
+	private static void measureAll(String name, ComplexRootedPolynomial polynomial) {
+		INewtonKernel cached = new ComplexCacheNewtonKernel(polynomial);
+		INewtonKernel primitive = new PrimitiveNewtonKernel(polynomial);
+		INewtonKernel lanes = new LaneNewtonKernel(polynomial);
+		INewtonKernel vector = LaneNewtonKernel.vectorized(polynomial);
+		
+		short[] cachedData = new short[WIDTH * HEIGHT];
+		short[] primitiveData = new short[WIDTH * HEIGHT];
+		short[] lanesData = new short[WIDTH * HEIGHT];
+		short[] vectorData = new short[WIDTH * HEIGHT];
+		
+		System.out.println(name + ":");
+		measure("complex cache", cached, cachedData);
+		measure("primitive", primitive, primitiveData);
+		measure("lanes", lanes, lanesData);
+		
+		if(vector instanceof LaneNewtonKernel) {
+			System.out.printf("  different pixels: complex cache %d, lanes %d of %d%n",
+							  different(cachedData, primitiveData), different(lanesData, primitiveData), primitiveData.length);
+			return;
+		}
+		
+		measure("vector", vector, vectorData);
+		
+		System.out.printf("  different pixels: complex cache %d, lanes %d, vector %d of %d%n",
+						  different(cachedData, primitiveData), different(lanesData, primitiveData),
+						  different(vectorData, primitiveData), primitiveData.length);
+	}
+	
+	/**
+	 * Returns the polynomial with the roots 1, -1, i and -i.
+	 *
+	 * @return the polynomial
+	 */
+	private static ComplexRootedPolynomial polynomialOf4Roots() {
+		return new ComplexRootedPolynomial(Complex.ONE, Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG);
+	}
+	
+	/**
+	 * Returns the number of pixels which differ in the given frames.
+	 *
+	 * @param first the first frame
+	 * @param second the second frame
+	 * @return the number of different pixels
+	 */
+	private static int different(short[] first, short[] second) {
+		int different = 0;
+		for(int i = 0; i < first.length; i++) {
+			if(first[i] != second[i]) {
+				different++;
+			}
+		}
+		
+		return different;
+	}
+	
+	/**
+	 * Calculates the frame a few times to warm the kernel up, and then measures and
+	 * reports its average time, allocated memory and the number of garbage collections.
+	 *
+	 * @param name the name of the kernel
+	 * @param kernel the kernel
+	 * @param data the calculated data storage
+	 */
+	private static void measure(String name, INewtonKernel kernel, short[] data) {
+		AtomicBoolean cancel = new AtomicBoolean();
+		
+		for(int i = 0; i < WARMUP; i++) {
+			kernel.calculate(data, WIDTH, HEIGHT, 0, HEIGHT, -2, 2, -2, 2, cancel);
+		}
+		
+		long collections = collectionCount();
+		long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long start = System.nanoTime();
+		
+		for(int i = 0; i < REPETITIONS; i++) {
+			kernel.calculate(data, WIDTH, HEIGHT, 0, HEIGHT, -2, 2, -2, 2, cancel);
+			sink += data[data.length / 2];
+		}
+		
+		long nanos = System.nanoTime() - start;
+		double megabytes = (THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated) / 1e6;
+		
+		System.out.printf("  %-14s %8.1f ms %8.1f ns/pixel   allocated: %8.2f MB   collections: %d%n",
+						  name, nanos / 1e6 / REPETITIONS, (double) nanos / REPETITIONS / (WIDTH * HEIGHT),
+						  megabytes / REPETITIONS, collectionCount() - collections);
+	}
+	
+	/**
+	 * Returns the number of garbage collections so far.
+	 *
+	 * @return the number of collections
+	 */
+	private static long collectionCount() {
+		long total = 0;
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, collector.getCollectionCount());
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * A thread holding its own {@link IComplexCache}, as required by the {@link ComplexCacheNewtonKernel}.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class CacheThread extends Thread implements IThreadBoundComplexCache {
+		
+		/** The cache of this thread. */
+		private final IComplexCache cache = new ComplexCacheImpl();
+		
+		/**
+		 * Constructs a new thread running the given task.
+		 *
+		 * @param task the task
+		 */
+		CacheThread(Runnable task) {
+			super(task);
+		}
+		
+		@Override
+		public IComplexCache getComplexCache() {
+			return cache;
+		}
+	}
+}
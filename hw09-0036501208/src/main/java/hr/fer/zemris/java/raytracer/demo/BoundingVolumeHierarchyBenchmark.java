@@ -0,0 +1,198 @@
+package hr.fer.zemris.java.raytracer.demo;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import hr.fer.zemris.java.raytracer.model.BoundingVolumeHierarchy;
+import hr.fer.zemris.java.raytracer.model.GraphicalObject;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.RayCasterParallel2.RayCasterAction;
+import hr.fer.zemris.java.raytracer.model.RayIntersection;
+import hr.fer.zemris.java.raytracer.model.Scene;
+
+/**
+ * Measures how the rendering time grows with the number of objects in the scene,
+ * using the scenes of the {@link LargeSceneDemo}. For each number of spheres, the
+ * following is measured:
+ * <ul>
+ * <li> {@code build} - the time needed to build the {@link BoundingVolumeHierarchy}; </li>
+ * <li> {@code frame} - the time needed to render a whole frame, with the lighting
+ * 		and the shadows, using the hierarchy; </li>
+ * <li> {@code linear} and {@code hierarchy} - the time needed to find the closest
+ * 		intersections of all the rays of a frame from the eye, by testing every object,
+ * 		and by using the hierarchy. The linear search is skipped for the largest scenes. </li>
+ * </ul>
+ *
+ * @author Filip Nemec
+ */
+public class BoundingVolumeHierarchyBenchmark {
+	
+	/** The numbers of spheres in the measured scenes. */
+	private static final int[] SPHERE_COUNTS = { 10, 100, 1_000, 10_000, 100_000 };
+	
+	/** The largest number of spheres for which the linear search is measured. */
+	private static final int MAX_LINEAR_COUNT = 10_000;
+	
+	/** The width of the frame, in pixels. */
+	private static final int WIDTH = 200;
+	
+	/** The height of the frame, in pixels. */
+	private static final int HEIGHT = 150;
+	
+	/** The number of warm-up and measured repetitions. */
+	private static final int REPETITIONS = 3;
+	
+	/** Prevents the JIT compiler from removing the measured work. */
+	private static int sink;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 */
+	public static void main(String[] args) {
+		ForkJoinPool pool = new ForkJoinPool();
+		
+		System.out.printf("%dx%d pixels, %d thread(s)%n", WIDTH, HEIGHT, pool.getParallelism());
+		
+		for(int count : SPHERE_COUNTS) {
+			Scene scene = LargeSceneDemo.createScene(count, 42);
+			double size = LargeSceneDemo.getSceneSize(count);
+			Ray[] rays = createRays(new Point3D(1.5 * size, 0, size / 3), size);
+			
+			BoundingVolumeHierarchy hierarchy = null;
+			long start = System.nanoTime();
+			for(int i = 0; i < REPETITIONS; i++) {
+				hierarchy = new BoundingVolumeHierarchy(scene.getObjects());
+			}
+			double build = (System.nanoTime() - start) / 1e6 / REPETITIONS;
+			
+			BoundingVolumeHierarchy finalHierarchy = hierarchy;
+			double frame = measure(() -> renderFrame(pool, scene, finalHierarchy, new Point3D(1.5 * size, 0, size / 3), size));
+			double tree = measure(() -> castRays(rays, finalHierarchy));
+			double linear = count > MAX_LINEAR_COUNT ? Double.NaN : measure(() -> castRays(rays, scene.getObjects()));
+			
+			System.out.printf("spheres: %7d   nodes: %7d   depth: %3d   build: %8.1f ms   frame: %8.1f ms   linear: %9.1f ms   hierarchy: %7.1f ms%n",
+							  count, hierarchy.getNodeCount(), hierarchy.getDepth(), build, frame, linear, tree);
+		}
+		
+		pool.shutdown();
+	}
+	
+	/**
+	 * Runs the task a few times to warm it up, and then measures its average time.
+	 *
+	 * @param task the task
+	 * @return the average time in milliseconds
+	 */
+	private static double measure(Runnable task) {
+		for(int i = 0; i < REPETITIONS; i++) {
+			task.run();
+		}
+		
+		long start = System.nanoTime();
+		for(int i = 0; i < REPETITIONS; i++) {
+			task.run();
+		}
+		
+		return (System.nanoTime() - start) / 1e6 / REPETITIONS;
+	}
+	
+	/**
+	 * Renders a whole frame, looking at the origin.
+	 *
+	 * @param pool the pool rendering the frame
+	 * @param scene the scene
+	 * @param hierarchy the hierarchy of the objects of the scene
+	 * @param eye the eye
+	 * @param size the width and the height of the observed space
+	 */
+	private static void renderFrame(ForkJoinPool pool, Scene scene, BoundingVolumeHierarchy hierarchy, Point3D eye, double size) {
+		short[] red = new short[WIDTH * HEIGHT];
+		short[] green = new short[WIDTH * HEIGHT];
+		short[] blue = new short[WIDTH * HEIGHT];
+		
+		Point3D view = new Point3D(0, 0, 0);
+		Point3D zAxis = view.sub(eye).normalize();
+		Point3D yAxis = new Point3D(0, 0, 10).normalize();
+		Point3D xAxis = zAxis.vectorProduct(yAxis).normalize();
+		
+		Point3D screenCorner = view.sub( xAxis.scalarMultiply(size / 2.0) )
+								   .add( yAxis.scalarMultiply(size / 2.0) );
+		
+		pool.invoke(new RayCasterAction(0, HEIGHT - 1, red, green, blue, WIDTH, HEIGHT,
+										size, size, scene, hierarchy, eye, xAxis, yAxis, screenCorner));
+		
+		sink += red[WIDTH * HEIGHT / 2];
+	}
+	
+	/**
+	 * Creates the rays from the eye through every pixel of a frame looking at the origin.
+	 *
+	 * @param eye the eye
+	 * @param size the width and the height of the observed space
+	 * @return the rays
+	 */
+	private static Ray[] createRays(Point3D eye, double size) {
+		Point3D view = new Point3D(0, 0, 0);
+		Point3D zAxis = view.sub(eye).normalize();
+		Point3D yAxis = new Point3D(0, 0, 10).normalize();
+		Point3D xAxis = zAxis.vectorProduct(yAxis).normalize();
+		
+		Point3D screenCorner = view.sub( xAxis.scalarMultiply(size / 2.0) )
+								   .add( yAxis.scalarMultiply(size / 2.0) );
+		
+		Ray[] rays = new Ray[WIDTH * HEIGHT];
+		for(int y = 0; y < HEIGHT; y++) {
+			for(int x = 0; x < WIDTH; x++) {
+				Point3D screenPoint = screenCorner.add( xAxis.scalarMultiply(x * size / (WIDTH - 1.0)) )
+												  .sub( yAxis.scalarMultiply(y * size / (HEIGHT - 1.0)) );
+				
+				rays[y * WIDTH + x] = Ray.fromPoints(eye, screenPoint);
+			}
+		}
+		
+		return rays;
+	}
+	
+	/**
+	 * Finds the closest intersection of each ray using the hierarchy.
+	 *
+	 * @param rays the rays
+	 * @param hierarchy the hierarchy
+	 */
+	private static void castRays(Ray[] rays, BoundingVolumeHierarchy hierarchy) {
+		for(Ray ray : rays) {
+			if(hierarchy.findClosestIntersection(ray) != null) {
+				sink++;
+			}
+		}
+	}
+	
+	/**
+	 * Finds the closest intersection of each ray by testing every object.
+	 *
+	 * @param rays the rays
+	 * @param objects the objects
+	 */
+	private static void castRays(Ray[] rays, List<GraphicalObject> objects) {
+		for(Ray ray : rays) {
+			double minDistance = Double.MAX_VALUE;
+			RayIntersection closestIntersection = null;
+			
+			for(GraphicalObject object : objects) {
+				RayIntersection intersection = object.findClosestRayIntersection(ray);
+				
+				if(intersection != null && intersection.getDistance() < minDistance) {
+					minDistance = intersection.getDistance();
+					closestIntersection = intersection;
+				}
+			}
+			
+			if(closestIntersection != null) {
+				sink++;
+			}
+		}
+	}
+}
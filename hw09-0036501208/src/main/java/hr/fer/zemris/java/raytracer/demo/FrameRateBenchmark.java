@@ -0,0 +1,137 @@
+package hr.fer.zemris.java.raytracer.demo;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hr.fer.zemris.java.raytracer.model.IRayTracerAnimator;
+import hr.fer.zemris.java.raytracer.model.IRayTracerProducer;
+import hr.fer.zemris.java.raytracer.model.RayCasterParallel2;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.TiledRayCaster;
+import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
+
+/**
+ * Measures how many frames per second the producers render while following
+ * an animator, without showing the frames. Each frame is requested only after
+ * the previous one was reported, just like the viewer does it. The following
+ * producers are measured:
+ * <ul>
+ * <li> {@code row-split} - the {@link RayCasterParallel2}, which creates a new pool
+ * 		and new color arrays for every frame; </li>
+ * <li> {@code tiled} - the {@link TiledRayCaster}, always refining the frames completely; </li>
+ * <li> {@code tiled, budget} - the {@link TiledRayCaster}, refining the frames only
+ * 		during the target frame duration of the animator. </li>
+ * </ul>
+ *
+ * @author Filip Nemec
+ */
+public class FrameRateBenchmark {
+	
+	/** The width of the frame, in pixels. */
+	private static final int WIDTH = 640;
+	
+	/** The height of the frame, in pixels. */
+	private static final int HEIGHT = 480;
+	
+	/** The number of frames rendered before measuring. */
+	private static final int WARMUP_FRAMES = 10;
+	
+	/** The number of measured frames. */
+	private static final int MEASURED_FRAMES = 30;
+	
+	/** The number of spheres of the large scene. */
+	private static final int SPHERE_COUNT = 5000;
+	
+	/** Prevents the JIT compiler from removing the measured work. */
+	private static int sink;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 */
+	public static void main(String[] args) {
+		System.out.printf("%dx%d pixels, %d thread(s)%n", WIDTH, HEIGHT, Runtime.getRuntime().availableProcessors());
+		
+		Scene predefined = RayTracerViewer.createPredefinedScene2();
+		measureAll("predefined scene", predefined, RayCasterParallel2::getIRayTracerAnimator, 30);
+		
+		Scene large = LargeSceneDemo.createScene(SPHERE_COUNT, 42);
+		measureAll(SPHERE_COUNT + " spheres", large, () -> LargeSceneDemo.getIRayTracerAnimator(SPHERE_COUNT),
+				   LargeSceneDemo.getSceneSize(SPHERE_COUNT));
+	}
+	
+	/**
+	 * Measures all the producers rendering the given scene.
+	 *
+	 * @param name the name of the scene
+	 * @param scene the scene
+	 * @param animators creates a new animator for each producer
+	 * @param size the width and the height of the observed space
+	 */
+	private static void measureAll(String name, Scene scene, AnimatorFactory animators, double size) {
+		long budget = animators.create().getTargetTimeFrameDuration();
+		
+		TiledRayCaster tiled = new TiledRayCaster(scene);
+		TiledRayCaster budgeted = new TiledRayCaster(scene, budget);
+		
+		System.out.printf("%s:%n", name);
+		System.out.printf("  row-split:            %6.2f frames/s%n", measure(RayCasterParallel2.getIRayTracerProducer(scene), animators.create(), size));
+		System.out.printf("  tiled:                %6.2f frames/s%n", measure(tiled, animators.create(), size));
+		System.out.printf("  tiled, budget %3d ms: %6.2f frames/s%n", budget, measure(budgeted, animators.create(), size));
+		
+		tiled.shutdown();
+		budgeted.shutdown();
+	}
+	
+	/**
+	 * Renders the frames following the animator, and returns the number of the
+	 * measured frames rendered per second. The standard output is muted while
+	 * rendering, since some of the producers report their progress on it.
+	 *
+	 * @param producer the producer
+	 * @param animator the animator
+	 * @param size the width and the height of the observed space
+	 * @return the frames per second
+	 */
+	private static double measure(IRayTracerProducer producer, IRayTracerAnimator animator, double size) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		
+		try {
+			long start = 0;
+			for(int frame = 0; frame < WARMUP_FRAMES + MEASURED_FRAMES; frame++) {
+				if(frame == WARMUP_FRAMES) {
+					start = System.nanoTime();
+				}
+				
+				producer.produce(animator.getEye(), animator.getView(), animator.getViewUp(), size, size,
+								 WIDTH, HEIGHT, frame, (red, green, blue, requestNo) -> sink += red[red.length / 2],
+								 new AtomicBoolean());
+				
+				animator.update(animator.getTargetTimeFrameDuration());
+			}
+			
+			return MEASURED_FRAMES / ((System.nanoTime() - start) / 1e9);
+		} finally {
+			System.setOut(out);
+		}
+	}
+	
+	/**
+	 * Creates a new animator, so every producer renders the same frames.
+	 *
+	 * @author Filip Nemec
+	 */
+	@FunctionalInterface
+	private interface AnimatorFactory {
+		
+		/**
+		 * Creates a new animator.
+		 *
+		 * @return the animator
+		 */
+		IRayTracerAnimator create();
+	}
+}
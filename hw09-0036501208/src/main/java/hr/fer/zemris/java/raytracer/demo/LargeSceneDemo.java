@@ -0,0 +1,122 @@
+package hr.fer.zemris.java.raytracer.demo;
+
+import java.util.Random;
+
+import hr.fer.zemris.java.raytracer.model.IRayTracerAnimator;
+import hr.fer.zemris.java.raytracer.model.LightSource;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.RayCasterParallel2;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.Sphere;
+import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
+
+/**
+ * Shows an animated scene made of many randomly placed spheres, rendered by
+ * the {@link RayCasterParallel2}. The number of spheres is given as the only
+ * argument, and is 5000 by default.
+ *
+ * @author Filip Nemec
+ */
+public class LargeSceneDemo {
+	
+	/** The number of spheres if none is given. */
+	private static final int DEFAULT_SPHERE_COUNT = 5000;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args optionally the number of spheres
+	 */
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SPHERE_COUNT;
+		Scene scene = createScene(count, 42);
+		double size = getSceneSize(count);
+		
+		RayTracerViewer.show(RayCasterParallel2.getIRayTracerProducer(scene), getIRayTracerAnimator(count), size, size);
+	}
+	
+	/**
+	 * Creates a scene made of the given number of randomly placed spheres of
+	 * various sizes and colors, filling a cube around the origin, and lit by
+	 * three lights outside of the cube.
+	 *
+	 * @param count the number of spheres
+	 * @param seed the seed of the random generator
+	 * @return the scene
+	 */
+	public static Scene createScene(int count, long seed) {
+		Random random = new Random(seed);
+		double size = getSceneSize(count);
+		
+		Scene scene = new Scene();
+		for(int i = 0; i < count; i++) {
+			Point3D center = new Point3D((random.nextDouble() - 0.5) * size,
+										 (random.nextDouble() - 0.5) * size,
+										 (random.nextDouble() - 0.5) * size);
+			
+			double radius = 0.3 + random.nextDouble() * 0.7;
+			double kdr = random.nextDouble();
+			double kdg = random.nextDouble();
+			double kdb = random.nextDouble();
+			
+			scene.add(new Sphere(center, radius, kdr, kdg, kdb, 0.5, 0.5, 0.5, 10));
+		}
+		
+		scene.add(new LightSource(new Point3D(size, size, size), 100, 60, 60));
+		scene.add(new LightSource(new Point3D(size, -size, size / 2), 60, 100, 60));
+		scene.add(new LightSource(new Point3D(-size, 0, size), 60, 60, 100));
+		
+		return scene;
+	}
+	
+	/**
+	 * Returns the length of the edge of the cube filled by the spheres, which
+	 * grows with the number of spheres so that their density stays the same.
+	 *
+	 * @param count the number of spheres
+	 * @return the length of the edge of the cube
+	 */
+	public static double getSceneSize(int count) {
+		return 4 * Math.cbrt(count);
+	}
+	
+	/**
+	 * Returns the animator circling around the scene, always outside of it.
+	 *
+	 * @param count the number of spheres
+	 * @return the animator
+	 */
+	public static IRayTracerAnimator getIRayTracerAnimator(int count) {
+		double distance = 1.5 * getSceneSize(count);
+		
+		return new IRayTracerAnimator() {
+			long time;
+			
+			@Override
+			public void update(long deltaTime) {
+				time += deltaTime;
+			}
+			
+			@Override
+			public Point3D getViewUp() {
+				return new Point3D(0, 0, 10);
+			}
+			
+			@Override
+			public Point3D getView() {
+				return new Point3D(0, 0, 0);
+			}
+			
+			@Override
+			public long getTargetTimeFrameDuration() {
+				return 150;
+			}
+			
+			@Override
+			public Point3D getEye() {
+				double t = (double) time / 20000 * 2 * Math.PI;
+				return new Point3D(distance * Math.cos(t), distance * Math.sin(t), distance / 3);
+			}
+		};
+	}
+}
@@ -0,0 +1,266 @@
+package hr.fer.zemris.java.raytracer.demo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+import hr.fer.zemris.java.raytracer.model.BoundingVolumeHierarchy;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.RayCasterParallel2.RayCasterAction;
+import hr.fer.zemris.java.raytracer.model.RayPacket;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
+
+/**
+ * Compares casting the rays one by one with casting them in {@link RayPacket}s of
+ * {@code 8x8} pixels, using the predefined scene and the scenes of the {@link LargeSceneDemo}.
+ * For each of the ways, two tasks are measured:
+ * <ul>
+ * <li> {@code cast} - finding the closest intersections of the rays from the eye through
+ * 		every pixel of a frame, on a single thread; </li>
+ * <li> {@code frame} - rendering a whole frame, with the lighting and the shadows. </li>
+ * </ul>
+ * For each task, the average time, the memory allocated by all the threads per task
+ * and the allocation rate, and the number of garbage collections are reported.
+ *
+ * @author Filip Nemec
+ */
+public class PacketTraversalBenchmark {
+	
+	/** The numbers of spheres in the measured scenes; 0 stands for the predefined scene. */
+	private static final int[] SPHERE_COUNTS = { 0, 1_000, 100_000 };
+	
+	/** The width of the frame, in pixels. */
+	private static final int WIDTH = 640;
+	
+	/** The height of the frame, in pixels. */
+	private static final int HEIGHT = 480;
+	
+	/** The width and the height of the block of pixels cast as a single packet. */
+	private static final int PACKET_SIZE = 8;
+	
+	/** The number of warm-up repetitions. */
+	private static final int WARMUP = 5;
+	
+	/** The number of measured repetitions. */
+	private static final int REPETITIONS = 10;
+	
+	/** Measures the memory allocated by each thread. */
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	
+	/** Prevents the JIT compiler from removing the measured work. */
+	private static int sink;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 */
+	public static void main(String[] args) {
+		ForkJoinPool pool = new ForkJoinPool();
+		
+		System.out.printf("%dx%d pixels, %d thread(s)%n", WIDTH, HEIGHT, pool.getParallelism());
+		
+		for(int count : SPHERE_COUNTS) {
+			Scene scene = count == 0 ? RayTracerViewer.createPredefinedScene2() : LargeSceneDemo.createScene(count, 42);
+			double size = count == 0 ? 30 : LargeSceneDemo.getSceneSize(count);
+			Point3D eye = count == 0 ? new Point3D(50, 0, 0) : new Point3D(1.5 * size, 0, size / 3);
+			Point3D view = count == 0 ? new Point3D(-2, 0, -0.5) : new Point3D(0, 0, 0);
+			BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(scene.getObjects());
+			
+			System.out.println(count == 0 ? "predefined scene:" : count + " spheres:");
+			
+			Camera camera = new Camera(eye, view, size);
+			RayPacket packet = new RayPacket(PACKET_SIZE * PACKET_SIZE);
+			
+			measure("per-ray cast", () -> castRays(camera, hierarchy));
+			measure("packet cast", () -> castRays(camera, hierarchy, packet));
+			measure("per-ray frame", () -> renderFrame(pool, scene, hierarchy, camera, false));
+			measure("packet frame", () -> renderFrame(pool, scene, hierarchy, camera, true));
+		}
+		
+		pool.shutdown();
+	}
+	
+	/**
+	 * Runs the task a few times to warm it up, and then measures and reports
+	 * its average time, allocated memory and the number of garbage collections.
+	 *
+	 * @param name the name of the task
+	 * @param task the task
+	 */
+	private static void measure(String name, Runnable task) {
+		for(int i = 0; i < WARMUP; i++) {
+			task.run();
+		}
+		
+		long collections = collectionCount();
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		
+		for(int i = 0; i < REPETITIONS; i++) {
+			task.run();
+		}
+		
+		double seconds = (System.nanoTime() - start) / 1e9;
+		double megabytes = (allocatedBytes() - allocated) / 1e6;
+		
+		System.out.printf("  %-14s %8.1f ms   allocated: %8.2f MB, %8.1f MB/s   collections: %d%n",
+						  name, seconds * 1000 / REPETITIONS, megabytes / REPETITIONS,
+						  megabytes / seconds, collectionCount() - collections);
+	}
+	
+	/**
+	 * Finds the closest intersection of the ray through each pixel, creating
+	 * the points and the ray objects just like the {@link RayCasterAction} does it.
+	 *
+	 * @param camera the camera
+	 * @param hierarchy the hierarchy of the objects of the scene
+	 */
+	private static void castRays(Camera camera, BoundingVolumeHierarchy hierarchy) {
+		for(int y = 0; y < HEIGHT; y++) {
+			for(int x = 0; x < WIDTH; x++) {
+				Point3D screenPoint = camera.screenCorner.add( camera.xAxis.scalarMultiply(x * camera.size / (WIDTH - 1.0)) )
+														 .sub( camera.yAxis.scalarMultiply(y * camera.size / (HEIGHT - 1.0)) );
+				
+				if(hierarchy.findClosestIntersection(Ray.fromPoints(camera.eye, screenPoint)) != null) {
+					sink++;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Finds the closest intersection of the ray through each pixel,
+	 * casting the rays of each block of pixels as a single packet.
+	 *
+	 * @param camera the camera
+	 * @param hierarchy the hierarchy of the objects of the scene
+	 * @param packet the packet
+	 */
+	private static void castRays(Camera camera, BoundingVolumeHierarchy hierarchy, RayPacket packet) {
+		for(int blockY = 0; blockY < HEIGHT; blockY += PACKET_SIZE) {
+			for(int blockX = 0; blockX < WIDTH; blockX += PACKET_SIZE) {
+				packet.clear();
+				
+				for(int y = blockY; y < Math.min(blockY + PACKET_SIZE, HEIGHT); y++) {
+					for(int x = blockX; x < Math.min(blockX + PACKET_SIZE, WIDTH); x++) {
+						double screenX = x * camera.size / (WIDTH - 1.0);
+						double screenY = y * camera.size / (HEIGHT - 1.0);
+						
+						packet.add(camera.eye.x, camera.eye.y, camera.eye.z,
+								   camera.screenCorner.x + screenX * camera.xAxis.x - screenY * camera.yAxis.x,
+								   camera.screenCorner.y + screenX * camera.xAxis.y - screenY * camera.yAxis.y,
+								   camera.screenCorner.z + screenX * camera.xAxis.z - screenY * camera.yAxis.z);
+					}
+				}
+				
+				hierarchy.findClosestIntersections(packet);
+				
+				for(int i = 0; i < packet.size(); i++) {
+					if(packet.getObject(i) != null) {
+						sink++;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Renders a whole frame.
+	 *
+	 * @param pool the pool rendering the frame
+	 * @param scene the scene
+	 * @param hierarchy the hierarchy of the objects of the scene
+	 * @param camera the camera
+	 * @param packets whether the rays are cast in packets
+	 */
+	private static void renderFrame(ForkJoinPool pool, Scene scene, BoundingVolumeHierarchy hierarchy,
+									Camera camera, boolean packets) {
+		short[] red = new short[WIDTH * HEIGHT];
+		short[] green = new short[WIDTH * HEIGHT];
+		short[] blue = new short[WIDTH * HEIGHT];
+		
+		pool.invoke(new RayCasterAction(0, HEIGHT - 1, red, green, blue, WIDTH, HEIGHT, camera.size, camera.size, scene,
+										hierarchy, camera.eye, camera.xAxis, camera.yAxis, camera.screenCorner, packets));
+		
+		sink += red[WIDTH * HEIGHT / 2];
+	}
+	
+	/**
+	 * Returns the memory allocated so far by all the live threads.
+	 *
+	 * @return the allocated bytes
+	 */
+	private static long allocatedBytes() {
+		long total = 0;
+		for(long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+			if(bytes > 0) {
+				total += bytes;
+			}
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * Returns the number of garbage collections so far.
+	 *
+	 * @return the number of collections
+	 */
+	private static long collectionCount() {
+		long total = 0;
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, collector.getCollectionCount());
+		}
+		
+		return total;
+	}
+	
+	//---------------------------------------------------------------
+	//							CAMERA
+	//---------------------------------------------------------------
+	
+	/**
+	 * The eye and the screen of a frame, looking at the given point with the z-axis up.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class Camera {
+		
+		/** The point of the human observer. */
+		final Point3D eye;
+		
+		/** The width and the height of the observed space. */
+		final double size;
+		
+		/** The x-axis. */
+		final Point3D xAxis;
+		
+		/** The y-axis. */
+		final Point3D yAxis;
+		
+		/** The point which represents the corner of the screen. */
+		final Point3D screenCorner;
+		
+		/**
+		 * Constructs a new camera.
+		 *
+		 * @param eye the point of the human observer
+		 * @param view the point the eye looks at
+		 * @param size the width and the height of the observed space
+		 */
+		Camera(Point3D eye, Point3D view, double size) {
+			Point3D zAxis = view.sub(eye).normalize();
+			
+			this.eye = eye;
+			this.size = size;
+			this.yAxis = new Point3D(0, 0, 10).normalize();
+			this.xAxis = zAxis.vectorProduct(yAxis).normalize();
+			this.screenCorner = view.sub( xAxis.scalarMultiply(size / 2.0) )
+									.add( yAxis.scalarMultiply(size / 2.0) );
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Implemented by the graphical objects that fit into a bounding box,
+ * so they can be put into a {@link BoundingVolumeHierarchy}.
+ *
+ * @author Filip Nemec
+ */
+public interface Bounded {
+	
+	/**
+	 * Returns the smallest axis-aligned box containing the whole object.
+	 * Every intersection of a ray with the object must be inside the box.
+	 *
+	 * @return the bounding box of the object
+	 */
+	BoundingBox getBounds();
+}
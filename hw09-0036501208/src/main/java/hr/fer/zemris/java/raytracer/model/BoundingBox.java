@@ -0,0 +1,123 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Models an axis-aligned bounding box, given by its
+ * smallest and its largest corner.
+ *
+ * @author Filip Nemec
+ */
+public class BoundingBox {
+	
+	/** The smallest x-coordinate. */
+	private final double minX;
+	
+	/** The smallest y-coordinate. */
+	private final double minY;
+	
+	/** The smallest z-coordinate. */
+	private final double minZ;
+	
+	/** The largest x-coordinate. */
+	private final double maxX;
+	
+	/** The largest y-coordinate. */
+	private final double maxY;
+	
+	/** The largest z-coordinate. */
+	private final double maxZ;
+	
+	/**
+	 * Constructs a new bounding box.
+	 *
+	 * @param minX the smallest x-coordinate
+	 * @param minY the smallest y-coordinate
+	 * @param minZ the smallest z-coordinate
+	 * @param maxX the largest x-coordinate
+	 * @param maxY the largest y-coordinate
+	 * @param maxZ the largest z-coordinate
+	 * @throws IllegalArgumentException if any of the smallest coordinates is larger
+	 * 									than the matching largest one
+	 */
+	public BoundingBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		if(!(minX <= maxX && minY <= maxY && minZ <= maxZ))
+			throw new IllegalArgumentException("Expected the smallest corner not to be larger than the largest one, " +
+											   "but was (" + minX + ", " + minY + ", " + minZ + ") and (" + maxX + ", " + maxY + ", " + maxZ + ").");
+		
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+	
+	/**
+	 * Constructs a new bounding box.
+	 *
+	 * @param min the smallest corner
+	 * @param max the largest corner
+	 * @throws IllegalArgumentException if any of the coordinates of the smallest corner
+	 * 									is larger than the matching one of the largest corner
+	 */
+	public BoundingBox(Point3D min, Point3D max) {
+		this(min.x, min.y, min.z, max.x, max.y, max.z);
+	}
+	
+	/**
+	 * Returns the smallest bounding box containing both this and the given box.
+	 *
+	 * @param other the other box
+	 * @return the box containing both of the boxes
+	 */
+	public BoundingBox union(BoundingBox other) {
+		return new BoundingBox(Math.min(minX, other.minX), Math.min(minY, other.minY), Math.min(minZ, other.minZ),
+							   Math.max(maxX, other.maxX), Math.max(maxY, other.maxY), Math.max(maxZ, other.maxZ));
+	}
+	
+	//---------------------------------------------------------------
+	//							GETTERS
+	//---------------------------------------------------------------
+	
+	/**
+	 * Returns the smallest corner of this box.
+	 *
+	 * @return the smallest corner
+	 */
+	public Point3D getMin() {
+		return new Point3D(minX, minY, minZ);
+	}
+	
+	/**
+	 * Returns the largest corner of this box.
+	 *
+	 * @return the largest corner
+	 */
+	public Point3D getMax() {
+		return new Point3D(maxX, maxY, maxZ);
+	}
+	
+	/**
+	 * Returns the smallest coordinate along the given axis.
+	 *
+	 * @param axis the axis; 0 for x, 1 for y and 2 for z
+	 * @return the smallest coordinate
+	 */
+	double getMin(int axis) {
+		return axis == 0 ? minX : axis == 1 ? minY : minZ;
+	}
+	
+	/**
+	 * Returns the largest coordinate along the given axis.
+	 *
+	 * @param axis the axis; 0 for x, 1 for y and 2 for z
+	 * @return the largest coordinate
+	 */
+	double getMax(int axis) {
+		return axis == 0 ? maxX : axis == 1 ? maxY : maxZ;
+	}
+	
+	@Override
+	public String toString() {
+		return "[(" + minX + ", " + minY + ", " + minZ + "), (" + maxX + ", " + maxY + ", " + maxZ + ")]";
+	}
+}
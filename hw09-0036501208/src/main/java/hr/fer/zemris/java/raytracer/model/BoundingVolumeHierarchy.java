@@ -0,0 +1,735 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bounding volume hierarchy over the graphical objects of a scene, which
+ * finds the closest intersection of a ray without testing every object.
+ * <p>
+ * The hierarchy is a binary tree of bounding boxes. Each leaf holds a few
+ * objects, and each inner node holds the box containing both of its children.
+ * The objects are split between the children using the surface area heuristic:
+ * of several candidate planes along the longest axis, the one minimizing the
+ * expected cost of a ray hitting the node is chosen, since the chance of a ray
+ * hitting a box is proportional to its surface area.
+ * <p>
+ * A ray visits the nearer child first, and skips each node whose box it enters
+ * farther away than the closest intersection found so far. Only the objects
+ * implementing {@link Bounded} are put into the tree; the others are tested
+ * against every ray.
+ * <p>
+ * The closest intersection is the same one a linear search through the objects
+ * returns: the one with the smallest distance, and of the equally distant ones,
+ * the one added to the scene first. The objects such as the {@link Sphere} report
+ * their intersections along the whole line of the ray, so the boxes are intersected
+ * with the whole line as well.
+ * <p>
+ * Rays can also be cast in a {@link RayPacket}, which visits the nodes once for all of
+ * its rays. The spheres are then intersected straight from the coordinates of the rays,
+ * without creating any objects.
+ * <p>
+ * The hierarchy does not change once built, so it can be used by many threads at once.
+ *
+ * @author Filip Nemec
+ */
+public class BoundingVolumeHierarchy {
+	
+	/** The largest number of objects put into a leaf without trying to split them. */
+	private static final int MAX_LEAF_SIZE = 2;
+	
+	/** The number of candidate splitting planes, plus one. */
+	private static final int BIN_COUNT = 16;
+	
+	/** The cost of visiting an inner node, relative to the cost of intersecting an object. */
+	private static final double TRAVERSAL_COST = 0.5;
+	
+	/** The entry distance of a ray that misses a box. */
+	private static final double MISS = Double.POSITIVE_INFINITY;
+	
+	/** The objects in the tree, ordered so that each leaf holds a range of them. */
+	private final GraphicalObject[] objects;
+	
+	/** The position of each of the {@link #objects} in the scene. */
+	private final int[] objectIndices;
+	
+	/** The center and the radius of each of the {@link #objects} that is a {@link Sphere}, or NaN for the others. */
+	private final double[] spheres;
+	
+	/** The objects that are not in the tree. */
+	private final GraphicalObject[] unbounded;
+	
+	/** The position of each of the {@link #unbounded} objects in the scene. */
+	private final int[] unboundedIndices;
+	
+	/** The bounding box of each node, as its smallest and its largest corner. */
+	private final double[] nodeBounds;
+	
+	/** The first object of each leaf, or the right child of each inner node. */
+	private final int[] nodeStart;
+	
+	/** The number of objects of each leaf, or 0 for each inner node. */
+	private final int[] nodeSize;
+	
+	/** The number of nodes. */
+	private int nodeCount;
+	
+	/** The largest depth of a node. */
+	private int depth;
+	
+	/**
+	 * Builds a new hierarchy over the given objects.
+	 *
+	 * @param objects the objects, such as the ones of a {@link Scene}
+	 */
+	public BoundingVolumeHierarchy(List<GraphicalObject> objects) {
+		List<GraphicalObject> bounded = new ArrayList<>();
+		List<Integer> boundedIndices = new ArrayList<>();
+		List<GraphicalObject> unbounded = new ArrayList<>();
+		List<Integer> unboundedIndices = new ArrayList<>();
+		
+		for(int i = 0; i < objects.size(); i++) {
+			GraphicalObject object = objects.get(i);
+			
+			if(object instanceof Bounded) {
+				bounded.add(object);
+				boundedIndices.add(i);
+			} else {
+				unbounded.add(object);
+				unboundedIndices.add(i);
+			}
+		}
+		
+		this.unbounded = unbounded.toArray(new GraphicalObject[0]);
+		this.unboundedIndices = unboundedIndices.stream().mapToInt(Integer::intValue).toArray();
+		
+		int n = bounded.size();
+		double[] boxes = new double[n * 6];
+		double[] centroids = new double[n * 3];
+		int[] order = new int[n];
+		
+		for(int i = 0; i < n; i++) {
+			BoundingBox box = ((Bounded) bounded.get(i)).getBounds();
+			
+			for(int axis = 0; axis < 3; axis++) {
+				boxes[i * 6 + axis] = box.getMin(axis);
+				boxes[i * 6 + 3 + axis] = box.getMax(axis);
+				centroids[i * 3 + axis] = (box.getMin(axis) + box.getMax(axis)) / 2;
+			}
+			
+			order[i] = i;
+		}
+		
+		int maxNodes = Math.max(0, 2 * n - 1);
+		this.nodeBounds = new double[maxNodes * 6];
+		this.nodeStart = new int[maxNodes];
+		this.nodeSize = new int[maxNodes];
+		
+		if(n > 0) {
+			build(0, n, 0, boxes, centroids, order);
+		}
+		
+		this.objects = new GraphicalObject[n];
+		this.objectIndices = new int[n];
+		this.spheres = new double[n * 4];
+		for(int i = 0; i < n; i++) {
+			this.objects[i] = bounded.get(order[i]);
+			this.objectIndices[i] = boundedIndices.get(order[i]);
+			
+			// A subclass could intersect the rays differently, so only the spheres themselves are intersected directly.
+			if(this.objects[i].getClass() == Sphere.class) {
+				Sphere sphere = (Sphere) this.objects[i];
+				spheres[i * 4] = sphere.getCenter().x;
+				spheres[i * 4 + 1] = sphere.getCenter().y;
+				spheres[i * 4 + 2] = sphere.getCenter().z;
+				spheres[i * 4 + 3] = sphere.getRadius();
+			} else {
+				Arrays.fill(spheres, i * 4, i * 4 + 4, Double.NaN);
+			}
+		}
+	}
+	
+	/**
+	 * Finds the closest intersection of the given ray with any of the objects.
+	 *
+	 * @param ray the ray
+	 * @return the closest intersection, or {@code null} if the ray does not hit any object
+	 */
+	public RayIntersection findClosestIntersection(Ray ray) {
+		double minDistance = Double.MAX_VALUE;
+		int closestIndex = Integer.MAX_VALUE;
+		RayIntersection closestIntersection = null;
+		
+		for(int i = 0; i < unbounded.length; i++) {
+			RayIntersection intersection = unbounded[i].findClosestRayIntersection(ray);
+			if(intersection == null) continue;
+			
+			double distance = intersection.getDistance();
+			
+			if(distance < minDistance || (distance == minDistance && unboundedIndices[i] < closestIndex)) {
+				minDistance = distance;
+				closestIndex = unboundedIndices[i];
+				closestIntersection = intersection;
+			}
+		}
+		
+		if(nodeCount == 0) return closestIntersection;
+		
+		double ox = ray.start.x;
+		double oy = ray.start.y;
+		double oz = ray.start.z;
+		double invX = 1 / ray.direction.x;
+		double invY = 1 / ray.direction.y;
+		double invZ = 1 / ray.direction.z;
+		
+		// The nodes waiting to be visited, along with the distances at which the ray enters them.
+		int[] stack = new int[depth + 1];
+		double[] entries = new double[depth + 1];
+		int top = 0;
+		
+		double rootEntry = entry(0, ox, oy, oz, invX, invY, invZ);
+		if(rootEntry == MISS) return closestIntersection;
+		
+		stack[top] = 0;
+		entries[top++] = rootEntry;
+		
+		while(top > 0) {
+			int node = stack[--top];
+			if(entries[top] > minDistance) continue;
+			
+			int size = nodeSize[node];
+			
+			if(size > 0) {
+				for(int i = nodeStart[node], end = i + size; i < end; i++) {
+					RayIntersection intersection = objects[i].findClosestRayIntersection(ray);
+					if(intersection == null) continue;
+					
+					double distance = intersection.getDistance();
+					
+					if(distance < minDistance || (distance == minDistance && objectIndices[i] < closestIndex)) {
+						minDistance = distance;
+						closestIndex = objectIndices[i];
+						closestIntersection = intersection;
+					}
+				}
+				
+				continue;
+			}
+			
+			int left = node + 1;
+			int right = nodeStart[node];
+			double leftEntry = entry(left, ox, oy, oz, invX, invY, invZ);
+			double rightEntry = entry(right, ox, oy, oz, invX, invY, invZ);
+			
+			// The nearer child is pushed last, so it is visited first.
+			if(leftEntry <= rightEntry) {
+				if(rightEntry <= minDistance) { stack[top] = right; entries[top++] = rightEntry; }
+				if(leftEntry <= minDistance)  { stack[top] = left;  entries[top++] = leftEntry; }
+			} else {
+				if(leftEntry <= minDistance)  { stack[top] = left;  entries[top++] = leftEntry; }
+				if(rightEntry <= minDistance) { stack[top] = right; entries[top++] = rightEntry; }
+			}
+		}
+		
+		return closestIntersection;
+	}
+	
+	/**
+	 * Finds the closest intersection of each ray of the packet with any of the objects,
+	 * which is the same one {@link #findClosestIntersection(Ray)} finds for the ray.
+	 * A node is visited if any of the rays enters it before its closest intersection
+	 * found so far, so the rays should be close to each other, such as the rays through
+	 * the neighbouring pixels. Each node passes the list of the rays entering it to its
+	 * children. While the first ray of the list keeps entering the nodes, the whole list
+	 * is passed on without testing the other rays; once it misses a node, the list is
+	 * narrowed down to the rays entering it, so the rays which already missed a node are
+	 * not tested against any of its descendants. The intersections are stored into the packet.
+	 *
+	 * @param packet the packet
+	 */
+	public void findClosestIntersections(RayPacket packet) {
+		packet.prepare();
+		
+		for(int i = 0; i < unbounded.length; i++) {
+			intersect(unbounded[i], unboundedIndices[i], packet);
+		}
+		
+		int size = packet.size();
+		if(nodeCount == 0 || size == 0) return;
+		
+		int capacity = packet.getCapacity();
+		if(packet.stack.length < 2 * (depth + 1)) {
+			packet.stack = new int[2 * (depth + 1)];
+			packet.activeRays = new int[(depth + 2) * capacity];
+			packet.activeCounts = new int[depth + 2];
+		}
+		
+		// The rays entering a node at the depth d are listed at the level d + 1, and the level 0 lists all the rays.
+		int[] stack = packet.stack;
+		int[] activeRays = packet.activeRays;
+		int[] activeCounts = packet.activeCounts;
+		
+		for(int i = 0; i < size; i++) {
+			activeRays[i] = i;
+		}
+		activeCounts[0] = size;
+		
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = 0;
+		
+		while(top > 0) {
+			int nodeDepth = stack[--top];
+			int node = stack[--top];
+			
+			int parentList = nodeDepth * capacity;
+			int list = parentList + capacity;
+			int count = 0;
+			
+			if(enters(node, packet, activeRays[parentList])) {
+				count = activeCounts[nodeDepth];
+				System.arraycopy(activeRays, parentList, activeRays, list, count);
+			} else {
+				for(int i = parentList + 1, end = parentList + activeCounts[nodeDepth]; i < end; i++) {
+					if(enters(node, packet, activeRays[i])) {
+						activeRays[list + count++] = activeRays[i];
+					}
+				}
+			}
+			
+			if(count == 0) continue;
+			activeCounts[nodeDepth + 1] = count;
+			
+			if(nodeSize[node] > 0) {
+				for(int i = nodeStart[node], end = i + nodeSize[node]; i < end; i++) {
+					for(int j = list; j < list + count; j++) {
+						if(Double.isNaN(spheres[i * 4 + 3])) {
+							intersect(i, packet, activeRays[j]);
+						} else {
+							intersectSphere(i, packet, activeRays[j]);
+						}
+					}
+				}
+				
+				continue;
+			}
+			
+			// The child nearer to the first entering ray is pushed last, so it is visited first.
+			int first = activeRays[list];
+			int left = node + 1;
+			int right = nodeStart[node];
+			double leftEntry = entry(left, packet.startX[first], packet.startY[first], packet.startZ[first],
+									 packet.inverseX[first], packet.inverseY[first], packet.inverseZ[first]);
+			double rightEntry = entry(right, packet.startX[first], packet.startY[first], packet.startZ[first],
+									  packet.inverseX[first], packet.inverseY[first], packet.inverseZ[first]);
+			
+			stack[top++] = leftEntry <= rightEntry ? right : left;
+			stack[top++] = nodeDepth + 1;
+			stack[top++] = leftEntry <= rightEntry ? left : right;
+			stack[top++] = nodeDepth + 1;
+		}
+	}
+	
+	/**
+	 * Checks whether the ray of the packet enters the box of the given
+	 * node before its closest intersection found so far.
+	 *
+	 * @param node the node
+	 * @param packet the packet
+	 * @param ray the position of the ray in the packet
+	 * @return {@code true} if the ray enters the node
+	 */
+	private boolean enters(int node, RayPacket packet, int ray) {
+		double entry = entry(node, packet.startX[ray], packet.startY[ray], packet.startZ[ray],
+							 packet.inverseX[ray], packet.inverseY[ray], packet.inverseZ[ray]);
+		
+		return entry <= packet.distances[ray];
+	}
+	
+	/**
+	 * Intersects the ray of the packet with the given object, which is not
+	 * a sphere, by creating a {@link Ray}.
+	 *
+	 * @param object the position of the object in the {@link #objects}
+	 * @param packet the packet
+	 * @param ray the position of the ray in the packet
+	 */
+	private void intersect(int object, RayPacket packet, int ray) {
+		RayIntersection intersection = objects[object].findClosestRayIntersection(packet.getRay(ray));
+		
+		if(intersection != null) {
+			packet.offer(ray, intersection.getDistance(), objectIndices[object], objects[object]);
+		}
+	}
+	
+	/**
+	 * Intersects the ray of the packet with the given sphere, exactly
+	 * like {@link Sphere#findClosestRayIntersection(Ray)} does it.
+	 *
+	 * @param object the position of the sphere in the {@link #objects}
+	 * @param packet the packet
+	 * @param ray the position of the ray in the packet
+	 */
+	private void intersectSphere(int object, RayPacket packet, int ray) {
+		double radius = spheres[object * 4 + 3];
+		double dx = packet.directionX[ray];
+		double dy = packet.directionY[ray];
+		double dz = packet.directionZ[ray];
+		double ocx = packet.startX[ray] - spheres[object * 4];
+		double ocy = packet.startY[ray] - spheres[object * 4 + 1];
+		double ocz = packet.startZ[ray] - spheres[object * 4 + 2];
+		
+		double a = dx*dx + dy*dy + dz*dz;
+		double b = 2.0 * (ocx*dx + ocy*dy + ocz*dz);
+		double c = (ocx*ocx + ocy*ocy + ocz*ocz) - radius * radius;
+		
+		double discriminant = b*b - 4*a*c;
+		if(discriminant < 0) return;
+		
+		double distance = (-b - Math.sqrt(discriminant)) / (2.0*a);
+		packet.offer(ray, distance, objectIndices[object], objects[object]);
+	}
+	
+	/**
+	 * Intersects every ray of the packet with the given object, creating
+	 * a {@link Ray} for each of them.
+	 *
+	 * @param object the object
+	 * @param index the position of the object in the scene
+	 * @param packet the packet
+	 */
+	private static void intersect(GraphicalObject object, int index, RayPacket packet) {
+		for(int i = 0, size = packet.size(); i < size; i++) {
+			RayIntersection intersection = object.findClosestRayIntersection(packet.getRay(i));
+			
+			if(intersection != null) {
+				packet.offer(i, intersection.getDistance(), index, object);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of nodes of the tree.
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+	
+	/**
+	 * Returns the largest depth of a node, where the root is at the depth 0.
+	 *
+	 * @return the depth of the tree
+	 */
+	public int getDepth() {
+		return depth;
+	}
+	
+	/**
+	 * Returns the distance along the line of the ray at which it enters the box of the given node.
+	 *
+	 * @param node the node
+	 * @param ox the x-coordinate of the start of the ray
+	 * @param oy the y-coordinate of the start of the ray
+	 * @param oz the z-coordinate of the start of the ray
+	 * @param invX the inverse of the x-component of the direction of the ray
+	 * @param invY the inverse of the y-component of the direction of the ray
+	 * @param invZ the inverse of the z-component of the direction of the ray
+	 * @return the entry distance, which is negative if the ray starts past the entry,
+	 * 		   or {@link #MISS} if the line of the ray misses the box
+	 */
+	private double entry(int node, double ox, double oy, double oz, double invX, double invY, double invZ) {
+		int b = node * 6;
+		double near = Double.NEGATIVE_INFINITY;
+		double far = Double.POSITIVE_INFINITY;
+		
+		// A ray parallel to a pair of planes is either always between them, or never.
+		if(Double.isInfinite(invX)) {
+			if(ox < nodeBounds[b] || ox > nodeBounds[b + 3]) return MISS;
+		} else {
+			double t1 = (nodeBounds[b] - ox) * invX;
+			double t2 = (nodeBounds[b + 3] - ox) * invX;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		
+		if(Double.isInfinite(invY)) {
+			if(oy < nodeBounds[b + 1] || oy > nodeBounds[b + 4]) return MISS;
+		} else {
+			double t1 = (nodeBounds[b + 1] - oy) * invY;
+			double t2 = (nodeBounds[b + 4] - oy) * invY;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		
+		if(Double.isInfinite(invZ)) {
+			if(oz < nodeBounds[b + 2] || oz > nodeBounds[b + 5]) return MISS;
+		} else {
+			double t1 = (nodeBounds[b + 2] - oz) * invZ;
+			double t2 = (nodeBounds[b + 5] - oz) * invZ;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		
+		return near <= far ? near : MISS;
+	}
+	
+	//---------------------------------------------------------------
+	//							BUILDING
+	//---------------------------------------------------------------
+	
+	/**
+	 * Builds the node holding the given range of the objects, along with all of its descendants.
+	 * The left child of an inner node is always the node right after it.
+	 *
+	 * @param start the start of the range of the {@code order}
+	 * @param end the end of the range of the {@code order}, exclusive
+	 * @param nodeDepth the depth of the node
+	 * @param boxes the bounding box of each object
+	 * @param centroids the center of the bounding box of each object
+	 * @param order the order of the objects, which is rearranged so that each node holds a range
+	 * @return the index of the node
+	 */
+	private int build(int start, int end, int nodeDepth, double[] boxes, double[] centroids, int[] order) {
+		int node = nodeCount++;
+		depth = Math.max(depth, nodeDepth);
+		
+		int b = node * 6;
+		for(int axis = 0; axis < 3; axis++) {
+			nodeBounds[b + axis] = Double.POSITIVE_INFINITY;
+			nodeBounds[b + 3 + axis] = Double.NEGATIVE_INFINITY;
+		}
+		
+		double[] centroidMin = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		double[] centroidMax = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		
+		for(int i = start; i < end; i++) {
+			int object = order[i];
+			
+			for(int axis = 0; axis < 3; axis++) {
+				nodeBounds[b + axis] = Math.min(nodeBounds[b + axis], boxes[object * 6 + axis]);
+				nodeBounds[b + 3 + axis] = Math.max(nodeBounds[b + 3 + axis], boxes[object * 6 + 3 + axis]);
+				centroidMin[axis] = Math.min(centroidMin[axis], centroids[object * 3 + axis]);
+				centroidMax[axis] = Math.max(centroidMax[axis], centroids[object * 3 + axis]);
+			}
+		}
+		
+		int size = end - start;
+		if(size <= MAX_LEAF_SIZE) {
+			return makeLeaf(node, start, size);
+		}
+		
+		int axis = 0;
+		for(int a = 1; a < 3; a++) {
+			if(centroidMax[a] - centroidMin[a] > centroidMax[axis] - centroidMin[axis]) {
+				axis = a;
+			}
+		}
+		
+		int mid;
+		double extent = centroidMax[axis] - centroidMin[axis];
+		
+		if(extent <= 0) {
+			// All the centers coincide, so any split is as good as another.
+			mid = start + size / 2;
+			
+		} else {
+			int split = findSplit(node, start, end, axis, centroidMin[axis], extent, boxes, centroids, order);
+			if(split < 0) {
+				return makeLeaf(node, start, size);
+			}
+			
+			mid = partition(start, end, axis, centroidMin[axis], extent, split, centroids, order);
+		}
+		
+		build(start, mid, nodeDepth + 1, boxes, centroids, order);
+		nodeStart[node] = build(mid, end, nodeDepth + 1, boxes, centroids, order);
+		
+		return node;
+	}
+	
+	/**
+	 * Turns the node into a leaf.
+	 *
+	 * @param node the node
+	 * @param start the first object of the leaf
+	 * @param size the number of objects of the leaf
+	 * @return the index of the node
+	 */
+	private int makeLeaf(int node, int start, int size) {
+		nodeStart[node] = start;
+		nodeSize[node] = size;
+		return node;
+	}
+	
+	/**
+	 * Finds the best plane splitting the given objects by the surface area heuristic.
+	 * The objects are put into bins of equal width along the axis, by their centers,
+	 * and the candidate planes are the borders of the bins.
+	 *
+	 * @param node the node holding the objects
+	 * @param start the start of the range of the {@code order}
+	 * @param end the end of the range of the {@code order}, exclusive
+	 * @param axis the axis
+	 * @param min the smallest center along the axis
+	 * @param extent the distance between the smallest and the largest center along the axis
+	 * @param boxes the bounding box of each object
+	 * @param centroids the center of the bounding box of each object
+	 * @param order the order of the objects
+	 * @return the last bin on the left side of the best plane, or -1 if the
+	 * 		   objects are cheaper to intersect all in a single leaf
+	 */
+	private int findSplit(int node, int start, int end, int axis, double min, double extent,
+						  double[] boxes, double[] centroids, int[] order) {
+		int[] counts = new int[BIN_COUNT];
+		double[] bins = new double[BIN_COUNT * 6];
+		for(int i = 0; i < BIN_COUNT; i++) {
+			emptyBox(bins, i * 6);
+		}
+		
+		for(int i = start; i < end; i++) {
+			int object = order[i];
+			int bin = bin(centroids[object * 3 + axis], min, extent);
+			
+			counts[bin]++;
+			growBox(bins, bin * 6, boxes, object * 6);
+		}
+		
+		// The areas and the counts of the objects right of each plane.
+		double[] rightAreas = new double[BIN_COUNT];
+		int[] rightCounts = new int[BIN_COUNT];
+		double[] box = new double[6];
+		emptyBox(box, 0);
+		
+		for(int bin = BIN_COUNT - 1, count = 0; bin > 0; bin--) {
+			count += counts[bin];
+			growBox(box, 0, bins, bin * 6);
+			rightAreas[bin - 1] = count == 0 ? 0 : area(box);
+			rightCounts[bin - 1] = count;
+		}
+		
+		int bestSplit = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		emptyBox(box, 0);
+		
+		for(int bin = 0, count = 0; bin < BIN_COUNT - 1; bin++) {
+			count += counts[bin];
+			growBox(box, 0, bins, bin * 6);
+			if(count == 0 || rightCounts[bin] == 0) continue;
+			
+			double cost = count * area(box) + rightCounts[bin] * rightAreas[bin];
+			if(cost < bestCost) {
+				bestCost = cost;
+				bestSplit = bin;
+			}
+		}
+		
+		// Compares the cost of the split with the cost of a leaf, both relative to the area of the node.
+		double nodeArea = area(nodeBounds, node * 6);
+		int size = end - start;
+		
+		if(nodeArea > 0 && size <= 4 * MAX_LEAF_SIZE && TRAVERSAL_COST + bestCost / nodeArea >= size) {
+			return -1;
+		}
+		
+		return bestSplit;
+	}
+	
+	/**
+	 * Moves the objects left of the plane before the objects right of it.
+	 *
+	 * @param start the start of the range of the {@code order}
+	 * @param end the end of the range of the {@code order}, exclusive
+	 * @param axis the axis
+	 * @param min the smallest center along the axis
+	 * @param extent the distance between the smallest and the largest center along the axis
+	 * @param split the last bin on the left side of the plane
+	 * @param centroids the center of the bounding box of each object
+	 * @param order the order of the objects
+	 * @return the first object right of the plane
+	 */
+	private static int partition(int start, int end, int axis, double min, double extent, int split,
+								 double[] centroids, int[] order) {
+		int i = start;
+		int j = end - 1;
+		
+		while(i <= j) {
+			if(bin(centroids[order[i] * 3 + axis], min, extent) <= split) {
+				i++;
+			} else {
+				int temp = order[i];
+				order[i] = order[j];
+				order[j--] = temp;
+			}
+		}
+		
+		return i;
+	}
+	
+	/**
+	 * Returns the bin of the given center.
+	 *
+	 * @param centroid the center along the axis
+	 * @param min the smallest center along the axis
+	 * @param extent the distance between the smallest and the largest center along the axis
+	 * @return the bin
+	 */
+	private static int bin(double centroid, double min, double extent) {
+		return Math.min(BIN_COUNT - 1, (int) ((centroid - min) / extent * BIN_COUNT));
+	}
+	
+	/**
+	 * Makes the box at the given offset empty.
+	 *
+	 * @param boxes the boxes
+	 * @param offset the offset of the box
+	 */
+	private static void emptyBox(double[] boxes, int offset) {
+		for(int axis = 0; axis < 3; axis++) {
+			boxes[offset + axis] = Double.POSITIVE_INFINITY;
+			boxes[offset + 3 + axis] = Double.NEGATIVE_INFINITY;
+		}
+	}
+	
+	/**
+	 * Grows the box so that it contains the other box.
+	 *
+	 * @param boxes the boxes containing the grown box
+	 * @param offset the offset of the grown box
+	 * @param others the boxes containing the other box
+	 * @param otherOffset the offset of the other box
+	 */
+	private static void growBox(double[] boxes, int offset, double[] others, int otherOffset) {
+		for(int axis = 0; axis < 3; axis++) {
+			boxes[offset + axis] = Math.min(boxes[offset + axis], others[otherOffset + axis]);
+			boxes[offset + 3 + axis] = Math.max(boxes[offset + 3 + axis], others[otherOffset + 3 + axis]);
+		}
+	}
+	
+	/**
+	 * Returns the surface area of the box.
+	 *
+	 * @param box the box
+	 * @return the surface area
+	 */
+	private static double area(double[] box) {
+		return area(box, 0);
+	}
+	
+	/**
+	 * Returns the surface area of the box at the given offset.
+	 *
+	 * @param boxes the boxes
+	 * @param offset the offset of the box
+	 * @return the surface area
+	 */
+	private static double area(double[] boxes, int offset) {
+		double dx = boxes[offset + 3] - boxes[offset];
+		double dy = boxes[offset + 4] - boxes[offset + 1];
+		double dz = boxes[offset + 5] - boxes[offset + 2];
+		
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+}
@@ -0,0 +1,222 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Traces the rays of a {@link RayPacket} and calculates the colors of their pixels,
+ * the same ones {@link RayCasterParallel2#tracer(Scene, BoundingVolumeHierarchy, Ray, short[])}
+ * calculates for each of the rays. The shadow rays towards each of the lights are cast
+ * as a packet as well, and the lighting is calculated straight from the coordinates,
+ * so no objects are created for the rays hitting the spheres. The pixels whose closest
+ * object is not a sphere are traced ray by ray.
+ * <p>
+ * The tracer holds its packets and working arrays, so it is meant to be used over
+ * and over again by a single thread.
+ *
+ * @author Filip Nemec
+ */
+public class PacketTracer {
+	
+	/** The largest distance between the shadow ray intersection and the light that still casts a shadow. */
+	private static final double EPSILON = 1E-4;
+	
+	/** The scene that is being shown. */
+	private final Scene scene;
+	
+	/** The hierarchy of the objects of the scene. */
+	private final BoundingVolumeHierarchy hierarchy;
+	
+	/** The rays from the eye. */
+	private final RayPacket rays;
+	
+	/** The rays from a light towards the intersections of the rays from the eye. */
+	private final RayPacket shadowRays;
+	
+	/** The ray from the eye of each of the shadow rays. */
+	private final int[] shadowOwners;
+	
+	/** The intersection of each of the rays from the eye, three coordinates for each. */
+	private final double[] points;
+	
+	/** The red, green and blue values of each of the rays from the eye, three for each. */
+	private final short[] colors;
+	
+	/** Holds a single normalized vector. */
+	private final double[] normal = new double[3];
+	
+	/** Holds a single normalized vector. */
+	private final double[] toLight = new double[3];
+	
+	/** Holds a single normalized vector. */
+	private final double[] reflected = new double[3];
+	
+	/** Holds a single normalized vector. */
+	private final double[] toEye = new double[3];
+	
+	/** Holds the color of a pixel traced ray by ray. */
+	private final short[] rgb = new short[3];
+	
+	/**
+	 * Constructs a new tracer.
+	 *
+	 * @param scene the scene
+	 * @param hierarchy the hierarchy of the objects of the scene
+	 * @param capacity the largest number of rays traced at once
+	 */
+	public PacketTracer(Scene scene, BoundingVolumeHierarchy hierarchy, int capacity) {
+		this.scene = scene;
+		this.hierarchy = hierarchy;
+		this.rays = new RayPacket(capacity);
+		this.shadowRays = new RayPacket(capacity);
+		this.shadowOwners = new int[capacity];
+		this.points = new double[capacity * 3];
+		this.colors = new short[capacity * 3];
+	}
+	
+	/**
+	 * Returns the packet of the rays from the eye, which is filled
+	 * before calling {@link #trace(short[], short[], short[], int[])}.
+	 *
+	 * @return the packet
+	 */
+	public RayPacket getRays() {
+		return rays;
+	}
+	
+	/**
+	 * Traces the rays of the packet, and stores the color of each of them,
+	 * limited to 255, into the given arrays.
+	 *
+	 * @param red the red color component storage array
+	 * @param green the green color component storage array
+	 * @param blue the blue color component storage array
+	 * @param offsets the position of the pixel of each of the rays in the arrays
+	 */
+	public void trace(short[] red, short[] green, short[] blue, int[] offsets) {
+		hierarchy.findClosestIntersections(rays);
+		
+		int size = rays.size();
+		for(int i = 0; i < size; i++) {
+			GraphicalObject object = rays.getObject(i);
+			
+			if(object == null) {
+				setColor(i, (short) 0, (short) 0, (short) 0);
+				
+			} else if(object.getClass() != Sphere.class) {
+				RayCasterParallel2.tracer(scene, hierarchy, rays.getRay(i), rgb);
+				setColor(i, rgb[0], rgb[1], rgb[2]);
+				
+			} else {
+				double distance = rays.getDistance(i);
+				points[i * 3] = rays.startX[i] + distance * rays.directionX[i];
+				points[i * 3 + 1] = rays.startY[i] + distance * rays.directionY[i];
+				points[i * 3 + 2] = rays.startZ[i] + distance * rays.directionZ[i];
+				
+				// Ambient component
+				setColor(i, (short) 15, (short) 15, (short) 15);
+			}
+		}
+		
+		for(LightSource light : scene.getLights()) {
+			Point3D lightPoint = light.getPoint();
+			
+			shadowRays.clear();
+			for(int i = 0; i < size; i++) {
+				if(rays.getObject(i) == null || rays.getObject(i).getClass() != Sphere.class) continue;
+				
+				int shadowRay = shadowRays.add(lightPoint.x, lightPoint.y, lightPoint.z, points[i * 3], points[i * 3 + 1], points[i * 3 + 2]);
+				shadowOwners[shadowRay] = i;
+			}
+			
+			if(shadowRays.size() == 0) break;
+			
+			hierarchy.findClosestIntersections(shadowRays);
+			
+			for(int j = 0; j < shadowRays.size(); j++) {
+				illuminate(shadowOwners[j], light, j);
+			}
+		}
+		
+		for(int i = 0; i < size; i++) {
+			red[offsets[i]] = colors[i * 3] > 255 ? 255 : colors[i * 3];
+			green[offsets[i]] = colors[i * 3 + 1] > 255 ? 255 : colors[i * 3 + 1];
+			blue[offsets[i]] = colors[i * 3 + 2] > 255 ? 255 : colors[i * 3 + 2];
+		}
+	}
+	
+	/**
+	 * Adds the diffuse and the reflection components of the light to the color
+	 * of the ray, unless the light is blocked by some other object.
+	 *
+	 * @param ray the position of the ray from the eye
+	 * @param light the light
+	 * @param shadowRay the position of the shadow ray from the light
+	 */
+	private void illuminate(int ray, LightSource light, int shadowRay) {
+		Point3D lightPoint = light.getPoint();
+		double pointX = points[ray * 3];
+		double pointY = points[ray * 3 + 1];
+		double pointZ = points[ray * 3 + 2];
+		
+		double lightToIntersection = normalize(lightPoint.x - pointX, lightPoint.y - pointY, lightPoint.z - pointZ, toLight);
+		
+		if(shadowRays.getObject(shadowRay) != null && shadowRays.getDistance(shadowRay) + EPSILON < lightToIntersection) return;
+		
+		Sphere sphere = (Sphere) rays.getObject(ray);
+		Point3D center = sphere.getCenter();
+		
+		// Diffuse component
+		normalize(pointX - center.x, pointY - center.y, pointZ - center.z, normal);
+		double cosTheta = Math.max(0, toLight[0]*normal[0] + toLight[1]*normal[1] + toLight[2]*normal[2]);
+		
+		// Reflection component
+		double dx = -toLight[0];
+		double dy = -toLight[1];
+		double dz = -toLight[2];
+		double dn = dx*normal[0] + dy*normal[1] + dz*normal[2];
+		normalize(dx - dn * (2 * normal[0]), dy - dn * (2 * normal[1]), dz - dn * (2 * normal[2]), reflected);
+		normalize(rays.startX[ray] - pointX, rays.startY[ray] - pointY, rays.startZ[ray] - pointZ, toEye);
+		double cosAlphaPowerN = Math.pow(Math.max(0, reflected[0]*toEye[0] + reflected[1]*toEye[1] + reflected[2]*toEye[2]), sphere.getKrn());
+		
+		colors[ray * 3] += light.getR() * (sphere.getKdr() * cosTheta + sphere.getKrr() * cosAlphaPowerN);
+		colors[ray * 3 + 1] += light.getG() * (sphere.getKdg() * cosTheta + sphere.getKrg() * cosAlphaPowerN);
+		colors[ray * 3 + 2] += light.getB() * (sphere.getKdb() * cosTheta + sphere.getKrb() * cosAlphaPowerN);
+	}
+	
+	/**
+	 * Sets the color of the ray.
+	 *
+	 * @param ray the position of the ray
+	 * @param r the red component
+	 * @param g the green component
+	 * @param b the blue component
+	 */
+	private void setColor(int ray, short r, short g, short b) {
+		colors[ray * 3] = r;
+		colors[ray * 3 + 1] = g;
+		colors[ray * 3 + 2] = b;
+	}
+	
+	/**
+	 * Normalizes the vector exactly like {@link Point3D#normalize()} does it.
+	 *
+	 * @param x the x-component of the vector
+	 * @param y the y-component of the vector
+	 * @param z the z-component of the vector
+	 * @param result receives the normalized vector
+	 * @return the norm of the vector
+	 */
+	private static double normalize(double x, double y, double z, double[] result) {
+		double norm = Math.sqrt(x*x + y*y + z*z);
+		
+		if(norm < 1E-9) {
+			result[0] = 0;
+			result[1] = 0;
+			result[2] = 0;
+		} else {
+			result[0] = x / norm;
+			result[1] = y / norm;
+			result[2] = z / norm;
+		}
+		
+		return norm;
+	}
+}
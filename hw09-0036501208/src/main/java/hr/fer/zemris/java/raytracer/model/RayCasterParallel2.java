@@ -10,6 +10,10 @@ import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
 /**
  * The multi-threaded version of the ray-cast renderer.
  * It uses the <i>Fork-Join</i> framework and {@code RecursiveAction}.
+ * The closest intersections are found using a {@link BoundingVolumeHierarchy}
+ * of the scene, so the rendering time grows much slower than the number
+ * of objects in the scene. Optionally, the rays are cast in packets of
+ * {@code 8x8} pixels, which creates no objects for the rays hitting spheres.
  *
  * @author Filip Nemec
  */
@@ -23,8 +27,13 @@ public class RayCasterParallel2 {
 	public static void main(String[] args) {
 		RayTracerViewer.show(getIRayTracerProducer(), getIRayTracerAnimator(), 30, 30);
 	}
-
-	private static IRayTracerAnimator getIRayTracerAnimator() {
+	
+	/**
+	 * Returns the animator circling around the predefined scene.
+	 *
+	 * @return the animator
+	 */
+	public static IRayTracerAnimator getIRayTracerAnimator() {
 		return new IRayTracerAnimator() {
 			long time;
 
@@ -76,6 +85,9 @@ public class RayCasterParallel2 {
 		/** The maximum size of the job unit. If it is higher than this, job will get forked. */
 		private static final int THRESHOLD = 100;
 		
+		/** The width and the height of the block of pixels cast as a single packet. */
+		private static final int PACKET_SIZE = 8;
+		
 		/** The starting y-coordinate of this action. */
 		private int yStart;
 		
@@ -103,6 +115,9 @@ public class RayCasterParallel2 {
 		/** The scene that is being shown. */
 		private Scene scene;
 		
+		/** The hierarchy of the objects of the scene. */
+		private BoundingVolumeHierarchy hierarchy;
+		
 		/** The point of the human observer. */
 		private Point3D eye;
 		
@@ -114,6 +129,9 @@ public class RayCasterParallel2 {
 		
 		/** The point which represents the corner of the screen. */
 		private Point3D screenCorner;
+		
+		/** Whether the rays are cast in packets. */
+		private boolean packets;
 	 
 		/**
 		 * Constructs a new {@code RayCasterAction}.
@@ -128,14 +146,41 @@ public class RayCasterParallel2 {
 		 * @param horizontal the horizontal length
 		 * @param vertical the vertical length
 		 * @param scene the scene being observer
+		 * @param hierarchy the hierarchy of the objects of the scene
 		 * @param eye the point of the human observer
 		 * @param xAxis the x-axis
 		 * @param yAxis the y-axis
 		 * @param screenCorner the point which represents the corner of the screen
 		 */
 		public RayCasterAction(int yStart, int yEnd, short[] r, short[] g, short[] b, int width, int height,
-				double horizontal, double vertical, Scene scene, Point3D eye, Point3D xAxis, Point3D yAxis,
-				Point3D screenCorner) {
+				double horizontal, double vertical, Scene scene, BoundingVolumeHierarchy hierarchy, Point3D eye,
+				Point3D xAxis, Point3D yAxis, Point3D screenCorner) {
+			this(yStart, yEnd, r, g, b, width, height, horizontal, vertical, scene, hierarchy, eye, xAxis, yAxis, screenCorner, false);
+		}
+		
+		/**
+		 * Constructs a new {@code RayCasterAction}, which optionally casts the rays in packets.
+		 *
+		 * @param yStart the starting y-coordinate of this action
+		 * @param yEnd the starting x-coordinate of this action
+		 * @param r the red color component storage array
+		 * @param g the green color component storage array
+		 * @param b the blue color component storage array
+		 * @param width the width of the screen
+		 * @param height the height of the screen
+		 * @param horizontal the horizontal length
+		 * @param vertical the vertical length
+		 * @param scene the scene being observer
+		 * @param hierarchy the hierarchy of the objects of the scene
+		 * @param eye the point of the human observer
+		 * @param xAxis the x-axis
+		 * @param yAxis the y-axis
+		 * @param screenCorner the point which represents the corner of the screen
+		 * @param packets whether the rays are cast in packets
+		 */
+		public RayCasterAction(int yStart, int yEnd, short[] r, short[] g, short[] b, int width, int height,
+				double horizontal, double vertical, Scene scene, BoundingVolumeHierarchy hierarchy, Point3D eye,
+				Point3D xAxis, Point3D yAxis, Point3D screenCorner, boolean packets) {
 			super();
 			this.yStart = yStart;
 			this.yEnd = yEnd;
@@ -147,10 +192,12 @@ public class RayCasterParallel2 {
 			this.horizontal = horizontal;
 			this.vertical = vertical;
 			this.scene = scene;
+			this.hierarchy = hierarchy;
 			this.eye = eye;
 			this.xAxis = xAxis;
 			this.yAxis = yAxis;
 			this.screenCorner = screenCorner;
+			this.packets = packets;
 		}
 
 		@Override
@@ -167,12 +214,17 @@ public class RayCasterParallel2 {
 			int end2   = yEnd;
 			
 			invokeAll(
-					new RayCasterAction(start1, end1, r, g, b, width, height, horizontal, vertical, scene, eye, xAxis, yAxis, screenCorner),
-					new RayCasterAction(start2, end2, r, g, b, width, height, horizontal, vertical, scene, eye, xAxis, yAxis, screenCorner)
+					new RayCasterAction(start1, end1, r, g, b, width, height, horizontal, vertical, scene, hierarchy, eye, xAxis, yAxis, screenCorner, packets),
+					new RayCasterAction(start2, end2, r, g, b, width, height, horizontal, vertical, scene, hierarchy, eye, xAxis, yAxis, screenCorner, packets)
 			);
 		}
 		
 		private void computeJobDirectly() {
+			if(packets) {
+				computePacketsDirectly();
+				return;
+			}
+			
 			short[] rgb = new short[3];
 
 			int offset = yStart * width;
@@ -184,7 +236,7 @@ public class RayCasterParallel2 {
 
 					Ray ray = Ray.fromPoints(eye, screenPoint);
 
-					tracer(scene, ray, rgb);
+					tracer(scene, hierarchy, ray, rgb);
 
 					r[offset] = rgb[0] > 255 ? 255 : rgb[0];
 					g[offset] = rgb[1] > 255 ? 255 : rgb[1];
@@ -194,6 +246,36 @@ public class RayCasterParallel2 {
 				}
 			}
 		}
+		
+		/**
+		 * Casts the rays of each block of {@link #PACKET_SIZE} by {@link #PACKET_SIZE}
+		 * pixels as a single packet.
+		 */
+		private void computePacketsDirectly() {
+			PacketTracer tracer = new PacketTracer(scene, hierarchy, PACKET_SIZE * PACKET_SIZE);
+			RayPacket rays = tracer.getRays();
+			int[] offsets = new int[PACKET_SIZE * PACKET_SIZE];
+			
+			for(int blockY = yStart; blockY <= yEnd; blockY += PACKET_SIZE) {
+				for(int blockX = 0; blockX < width; blockX += PACKET_SIZE) {
+					rays.clear();
+					
+					for(int y = blockY, endY = Math.min(blockY + PACKET_SIZE, yEnd + 1); y < endY; y++) {
+						for(int x = blockX, endX = Math.min(blockX + PACKET_SIZE, width); x < endX; x++) {
+							double screenX = x * horizontal / (width - 1.0);
+							double screenY = y * vertical / (height - 1.0);
+							
+							offsets[rays.add(eye.x, eye.y, eye.z,
+											 screenCorner.x + screenX * xAxis.x - screenY * yAxis.x,
+											 screenCorner.y + screenX * xAxis.y - screenY * yAxis.y,
+											 screenCorner.z + screenX * xAxis.z - screenY * yAxis.z)] = y * width + x;
+						}
+					}
+					
+					tracer.trace(r, g, b, offsets);
+				}
+			}
+		}
 	}
 	
 	/**
@@ -202,6 +284,34 @@ public class RayCasterParallel2 {
 	 * @return the {@code IRayTracerProducer} instance
 	 */
 	private static IRayTracerProducer getIRayTracerProducer() {
+		return getIRayTracerProducer(RayTracerViewer.createPredefinedScene2(), true);
+	}
+	
+	/**
+	 * Produces and returns the {@code IRayTracerProducer} rendering the given
+	 * scene. The hierarchy of the objects of the scene is built just once, so
+	 * the objects must not be changed afterwards.
+	 *
+	 * @param scene the scene
+	 * @return the {@code IRayTracerProducer} instance
+	 */
+	public static IRayTracerProducer getIRayTracerProducer(Scene scene) {
+		return getIRayTracerProducer(scene, false);
+	}
+	
+	/**
+	 * Produces and returns the {@code IRayTracerProducer} rendering the given
+	 * scene, which optionally casts the rays in packets. The hierarchy of the
+	 * objects of the scene is built just once, so the objects must not be
+	 * changed afterwards.
+	 *
+	 * @param scene the scene
+	 * @param packets whether the rays are cast in packets
+	 * @return the {@code IRayTracerProducer} instance
+	 */
+	public static IRayTracerProducer getIRayTracerProducer(Scene scene, boolean packets) {
+		BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(scene.getObjects());
+		
 		return new IRayTracerProducer() {
 			@Override
 			public void produce(Point3D eye, Point3D view, Point3D viewUp, double horizontal, double vertical,
@@ -220,12 +330,10 @@ public class RayCasterParallel2 {
 				Point3D screenCorner = view.sub( xAxis.scalarMultiply(horizontal / 2.0) )
 										   .add( yAxis.scalarMultiply(vertical / 2.0) );
 				
-				Scene scene = RayTracerViewer.createPredefinedScene2();
-				
                 ForkJoinPool pool = new ForkJoinPool();
                 
                 pool.invoke(new RayCasterAction(0, height - 1, red, green, blue, width, height,
-                								horizontal, vertical, scene, eye, xAxis, yAxis, screenCorner));
+                								horizontal, vertical, scene, hierarchy, eye, xAxis, yAxis, screenCorner, packets));
 
                 pool.shutdown();
 				
@@ -242,11 +350,12 @@ public class RayCasterParallel2 {
 	 * pixel color.
 	 *
 	 * @param scene the scene
+	 * @param hierarchy the hierarchy of the objects of the scene
 	 * @param ray the ray
 	 * @param rgb the red-green-blue values storage for the pixel
 	 */
-	protected static void tracer(Scene scene, Ray ray, short[] rgb) {
-		RayIntersection closest = findClosestIntersection(scene, ray);
+	protected static void tracer(Scene scene, BoundingVolumeHierarchy hierarchy, Ray ray, short[] rgb) {
+		RayIntersection closest = hierarchy.findClosestIntersection(ray);
 		
 		if(closest == null) {
 			rgb[0] = 0;
@@ -268,7 +377,7 @@ public class RayCasterParallel2 {
 			Ray lightRay = Ray.fromPoints(light.getPoint(), closest.getPoint());
 			
 			double lightToIntersection = light.getPoint().sub(closest.getPoint()).norm();
-			RayIntersection lightRayIntersection = findClosestIntersection(scene, lightRay);
+			RayIntersection lightRayIntersection = hierarchy.findClosestIntersection(lightRay);
 			
 			if(lightRayIntersection != null && lightRayIntersection.getDistance() + EPSILON < lightToIntersection) {
 				continue;
@@ -292,20 +401,20 @@ public class RayCasterParallel2 {
 	}
 	
 	/**
-	 * A simpler version of {@linkplain #tracer(Scene, Ray, short[])}.
+	 * A simpler version of {@linkplain #tracer(Scene, BoundingVolumeHierarchy, Ray, short[])}.
 	 * If the object gets hit, white pixel will be drawn. If no 
 	 * objects were hit, stores the black pixel.
 	 *
-	 * @param scene
+	 * @param hierarchy
 	 * @param ray
 	 * @param rgb
 	 */
-	protected static void tracerSimple(Scene scene, Ray ray, short[] rgb) {
+	protected static void tracerSimple(BoundingVolumeHierarchy hierarchy, Ray ray, short[] rgb) {
 		rgb[0] = 0;
 		rgb[1] = 0;
 		rgb[2] = 0;
 		
-		RayIntersection closest = findClosestIntersection(scene, ray);
+		RayIntersection closest = hierarchy.findClosestIntersection(ray);
 		
 		if (closest == null) return;
 		
@@ -313,35 +422,4 @@ public class RayCasterParallel2 {
 		rgb[1] = 255;
 		rgb[2] = 255;
 	}
-	
-	/**
-	 * Finds the closest intersection for the given ray in the
-	 * given scene.
-	 *
-	 * @param scene the scene
-	 * @param ray the ray
-	 * @return the closest intersection for the given ray in the given scene
-	 * 
-	 */
-	private static RayIntersection findClosestIntersection(Scene scene, Ray ray) {
-		List<GraphicalObject> objects = scene.getObjects();
-		
-		double minDistance = Double.MAX_VALUE;
-		RayIntersection closestIntersection = null;
-		
-		for(GraphicalObject object : objects) {
-			RayIntersection intersection = object.findClosestRayIntersection(ray);
-			
-			if(intersection == null) continue;
-			
-			double distance = intersection.getDistance();
-			
-			if(distance < minDistance) {
-				minDistance = distance;
-				closestIntersection = intersection;
-			}
-		}
-		
-		return closestIntersection;
-	}
 }
@@ -0,0 +1,217 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * A packet of rays, stored as separate arrays of the coordinates of their starts
+ * and directions rather than as {@link Ray} objects, so the packet can be cast
+ * through a {@link BoundingVolumeHierarchy} without creating any objects.
+ * Once cast, the packet holds the closest intersection of each of its rays.
+ * <p>
+ * A packet is meant to be filled and cast over and over again by a single thread.
+ *
+ * @author Filip Nemec
+ */
+public class RayPacket {
+	
+	/** The x-coordinates of the starts of the rays. */
+	final double[] startX;
+	
+	/** The y-coordinates of the starts of the rays. */
+	final double[] startY;
+	
+	/** The z-coordinates of the starts of the rays. */
+	final double[] startZ;
+	
+	/** The x-components of the directions of the rays. */
+	final double[] directionX;
+	
+	/** The y-components of the directions of the rays. */
+	final double[] directionY;
+	
+	/** The z-components of the directions of the rays. */
+	final double[] directionZ;
+	
+	/** The inverses of the x-components of the directions of the rays. */
+	final double[] inverseX;
+	
+	/** The inverses of the y-components of the directions of the rays. */
+	final double[] inverseY;
+	
+	/** The inverses of the z-components of the directions of the rays. */
+	final double[] inverseZ;
+	
+	/** The distance to the closest intersection of each ray. */
+	final double[] distances;
+	
+	/** The position in the scene of the closest object of each ray. */
+	final int[] indices;
+	
+	/** The closest object of each ray, or {@code null} if the ray does not hit any object. */
+	final GraphicalObject[] objects;
+	
+	/** The nodes waiting to be visited while casting the packet, along with their depths. */
+	int[] stack = new int[0];
+	
+	/** The lists of the rays entering the nodes, one list for each depth. */
+	int[] activeRays = new int[0];
+	
+	/** The length of each of the lists of the {@link #activeRays}. */
+	int[] activeCounts = new int[0];
+	
+	/** The number of rays in the packet. */
+	private int size;
+	
+	/**
+	 * Constructs a new empty packet.
+	 *
+	 * @param capacity the largest number of rays in the packet
+	 * @throws IllegalArgumentException if the capacity is not positive
+	 */
+	public RayPacket(int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Expected a positive capacity, but was " + capacity + ".");
+		
+		startX = new double[capacity];
+		startY = new double[capacity];
+		startZ = new double[capacity];
+		directionX = new double[capacity];
+		directionY = new double[capacity];
+		directionZ = new double[capacity];
+		inverseX = new double[capacity];
+		inverseY = new double[capacity];
+		inverseZ = new double[capacity];
+		distances = new double[capacity];
+		indices = new int[capacity];
+		objects = new GraphicalObject[capacity];
+	}
+	
+	/**
+	 * Adds the ray starting at the first point and going through the second one,
+	 * just like the one created by {@link Ray#fromPoints(Point3D, Point3D)}.
+	 *
+	 * @param x1 the x-coordinate of the start
+	 * @param y1 the y-coordinate of the start
+	 * @param z1 the z-coordinate of the start
+	 * @param x2 the x-coordinate of the point the ray goes through
+	 * @param y2 the y-coordinate of the point the ray goes through
+	 * @param z2 the z-coordinate of the point the ray goes through
+	 * @return the position of the ray in the packet
+	 * @throws IllegalStateException if the packet is full
+	 */
+	public int add(double x1, double y1, double z1, double x2, double y2, double z2) {
+		if(size == startX.length)
+			throw new IllegalStateException("The packet of " + size + " rays is full.");
+		
+		double x = x2 - x1;
+		double y = y2 - y1;
+		double z = z2 - z1;
+		
+		double norm = Math.sqrt(x*x + y*y + z*z);
+		if(norm < 1E-9) {
+			x = 0;
+			y = 0;
+			z = 0;
+		} else {
+			x /= norm;
+			y /= norm;
+			z /= norm;
+		}
+		
+		startX[size] = x1;
+		startY[size] = y1;
+		startZ[size] = z1;
+		directionX[size] = x;
+		directionY[size] = y;
+		directionZ[size] = z;
+		
+		return size++;
+	}
+	
+	/**
+	 * Removes all the rays from the packet.
+	 */
+	public void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Returns the number of rays in the packet.
+	 *
+	 * @return the number of rays
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the largest number of rays in the packet.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return startX.length;
+	}
+	
+	/**
+	 * Returns the distance to the closest intersection of the given ray,
+	 * as found by the last cast of the packet.
+	 *
+	 * @param ray the position of the ray in the packet
+	 * @return the distance, or {@code Double.MAX_VALUE} if the ray does not hit any object
+	 */
+	public double getDistance(int ray) {
+		return distances[ray];
+	}
+	
+	/**
+	 * Returns the closest object of the given ray, as found by the last cast of the packet.
+	 *
+	 * @param ray the position of the ray in the packet
+	 * @return the closest object, or {@code null} if the ray does not hit any object
+	 */
+	public GraphicalObject getObject(int ray) {
+		return objects[ray];
+	}
+	
+	/**
+	 * Creates the {@link Ray} object equal to the given ray.
+	 *
+	 * @param ray the position of the ray in the packet
+	 * @return the ray object
+	 */
+	public Ray getRay(int ray) {
+		return new Ray(new Point3D(startX[ray], startY[ray], startZ[ray]),
+					   new Point3D(directionX[ray], directionY[ray], directionZ[ray]));
+	}
+	
+	/**
+	 * Forgets the intersections of the last cast, and prepares the
+	 * inverses of the directions for intersecting the bounding boxes.
+	 */
+	void prepare() {
+		for(int i = 0; i < size; i++) {
+			inverseX[i] = 1 / directionX[i];
+			inverseY[i] = 1 / directionY[i];
+			inverseZ[i] = 1 / directionZ[i];
+			distances[i] = Double.MAX_VALUE;
+			indices[i] = Integer.MAX_VALUE;
+			objects[i] = null;
+		}
+	}
+	
+	/**
+	 * Keeps the given intersection of the ray if it is closer than the closest
+	 * one so far, or equally close but with an object added to the scene earlier.
+	 *
+	 * @param ray the position of the ray in the packet
+	 * @param distance the distance to the intersection
+	 * @param index the position of the intersected object in the scene
+	 * @param object the intersected object
+	 */
+	void offer(int ray, double distance, int index, GraphicalObject object) {
+		if(distance < distances[ray] || (distance == distances[ray] && index < indices[ray])) {
+			distances[ray] = distance;
+			indices[ray] = index;
+			objects[ray] = object;
+		}
+	}
+}
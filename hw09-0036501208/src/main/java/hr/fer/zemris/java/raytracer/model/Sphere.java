@@ -6,7 +6,7 @@ package hr.fer.zemris.java.raytracer.model;
  *
  * @author Filip Nemec
  */
-public class Sphere extends GraphicalObject {
+public class Sphere extends GraphicalObject implements Bounded {
 	
 	/** The center of this sphere. */
 	private Point3D center;
@@ -91,6 +91,12 @@ public class Sphere extends GraphicalObject {
 	    return new SphereRayIntersection(this, intersection, distanceLower, true);
 	}
 	
+	@Override
+	public BoundingBox getBounds() {
+		return new BoundingBox(center.x - radius, center.y - radius, center.z - radius,
+							   center.x + radius, center.y + radius, center.z + radius);
+	}
+	
 	//---------------------------------------------------------------
 	//							GETTERS
 	//---------------------------------------------------------------
@@ -0,0 +1,446 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
+
+/**
+ * The tile-based, progressive version of the ray-cast renderer. Unlike the
+ * {@link RayCasterParallel2}, which creates a new pool and new color arrays
+ * for every frame, this producer keeps a single {@code ForkJoinPool} and two
+ * sets of color arrays, which are used in turns, for all the frames it renders.
+ * <p>
+ * The frame is divided into square tiles, which are rendered by the pool in the
+ * order of their estimated cost, the most expensive first. The cost of each tile
+ * is the time it took to render it in the previous frame, so the expensive tiles
+ * do not end up being the last ones to start.
+ * <p>
+ * Each frame is rendered in {@link #STRIDES passes}. The first pass casts a single
+ * ray for each block of {@code 4x4} pixels and fills the whole block with its color,
+ * and every following pass casts the rays for the pixels that were not cast yet at
+ * the halved block size, until every pixel is cast exactly once. The rendering stops
+ * early if the request gets canceled, which happens when the camera moves before the
+ * frame is done, in which case nothing is reported. If the producer has a frame budget,
+ * the refinement also stops once the budget is spent, and the frame is reported as it
+ * is, with the tiles that were not refined made of larger blocks.
+ *
+ * @author Filip Nemec
+ */
+public class TiledRayCaster implements IRayTracerProducer {
+	
+	/** The length of the edge of a tile, in pixels. */
+	private static final int TILE_SIZE = 32;
+	
+	/** The sizes of the blocks filled by a single ray, one for each pass. */
+	private static final int[] STRIDES = { 4, 2, 1 };
+	
+	/** The scene that is being shown. */
+	private final Scene scene;
+	
+	/** The hierarchy of the objects of the scene. */
+	private final BoundingVolumeHierarchy hierarchy;
+	
+	/** The time after which the refinement of a frame stops, in milliseconds; 0 if unlimited. */
+	private final long frameBudget;
+	
+	/** The pool rendering every frame. */
+	private final ForkJoinPool pool;
+	
+	/** The two sets of red, green and blue arrays, used in turns. */
+	private final short[][][] buffers = new short[2][][];
+	
+	/** The index of the set of arrays used by the last frame. */
+	private int lastBuffer;
+	
+	/** The costs of the tiles in the last frame, in nanoseconds. */
+	private long[] tileCosts = new long[0];
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 */
+	public static void main(String[] args) {
+		TiledRayCaster producer = new TiledRayCaster(RayTracerViewer.createPredefinedScene2());
+		RayTracerViewer.show(producer, RayCasterParallel2.getIRayTracerAnimator(), 30, 30);
+	}
+	
+	/**
+	 * Constructs a new producer rendering the given scene, which always
+	 * refines the frames completely.
+	 *
+	 * @param scene the scene
+	 */
+	public TiledRayCaster(Scene scene) {
+		this(scene, 0);
+	}
+	
+	/**
+	 * Constructs a new producer rendering the given scene. The hierarchy of the
+	 * objects of the scene is built just once, so the objects must not be changed
+	 * afterwards.
+	 *
+	 * @param scene the scene
+	 * @param frameBudget the time after which the refinement of a frame stops,
+	 * 					  in milliseconds; 0 if the frames are always refined completely
+	 * @throws IllegalArgumentException if the frame budget is negative
+	 */
+	public TiledRayCaster(Scene scene, long frameBudget) {
+		if(frameBudget < 0)
+			throw new IllegalArgumentException("Expected the frame budget not to be negative, but was " + frameBudget + ".");
+		
+		this.scene = scene;
+		this.hierarchy = new BoundingVolumeHierarchy(scene.getObjects());
+		this.frameBudget = frameBudget;
+		this.pool = new ForkJoinPool();
+	}
+	
+	@Override
+	public void produce(Point3D eye, Point3D view, Point3D viewUp, double horizontal, double vertical,
+			int width, int height, long requestNo, IRayTracerResultObserver observer, AtomicBoolean cancel) {
+		
+		long deadline = frameBudget == 0 ? Long.MAX_VALUE : System.nanoTime() + frameBudget * 1_000_000;
+		
+		Point3D zAxis = view.sub(eye).normalize();
+		Point3D yAxis = viewUp.normalize();
+		Point3D xAxis = zAxis.vectorProduct(yAxis).normalize();
+		
+		Point3D screenCorner = view.sub( xAxis.scalarMultiply(horizontal / 2.0) )
+								   .add( yAxis.scalarMultiply(vertical / 2.0) );
+		
+		short[][] rgb = nextBuffer(width * height);
+		
+		int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+		int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		Tile[] tiles = createTiles(columns, rows, width, height);
+		
+		Frame frame = new Frame(rgb, width, height, horizontal, vertical, eye, xAxis, yAxis, screenCorner);
+		
+		for(int pass = 0; pass < STRIDES.length; pass++) {
+			if(cancel.get()) return;
+			if(pass > 0 && System.nanoTime() > deadline) break;
+			
+			pool.invoke(new TileAction(frame, tiles, 0, tiles.length, pass, deadline, cancel));
+		}
+		
+		if(cancel.get()) return;
+		
+		long[] costs = new long[tiles.length];
+		for(Tile tile : tiles) {
+			costs[tile.index] = tile.cost;
+		}
+		
+		synchronized(this) {
+			tileCosts = costs;
+		}
+		
+		observer.acceptResult(rgb[0], rgb[1], rgb[2], requestNo);
+	}
+	
+	/**
+	 * Shuts the pool of this producer down. No frames can be rendered afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	/**
+	 * Returns the set of color arrays which was not used by the last frame,
+	 * so the arrays reported by the last frame are not overwritten while
+	 * the observer is still reading them.
+	 *
+	 * @param size the number of pixels of the frame
+	 * @return the red, green and blue arrays of the frame
+	 */
+	private synchronized short[][] nextBuffer(int size) {
+		lastBuffer = 1 - lastBuffer;
+		
+		short[][] rgb = buffers[lastBuffer];
+		if(rgb == null || rgb[0].length != size) {
+			rgb = new short[][] { new short[size], new short[size], new short[size] };
+			buffers[lastBuffer] = rgb;
+		}
+		
+		return rgb;
+	}
+	
+	/**
+	 * Divides the frame into tiles and orders them by the cost of the same tiles
+	 * in the last frame, the most expensive first. If the last frame had a different
+	 * number of tiles, they are left in the order of the rows.
+	 *
+	 * @param columns the number of columns of tiles
+	 * @param rows the number of rows of tiles
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @return the ordered tiles
+	 */
+	private Tile[] createTiles(int columns, int rows, int width, int height) {
+		Tile[] tiles = new Tile[columns * rows];
+		for(int row = 0; row < rows; row++) {
+			for(int column = 0; column < columns; column++) {
+				int x = column * TILE_SIZE;
+				int y = row * TILE_SIZE;
+				
+				tiles[row * columns + column] = new Tile(row * columns + column, x, y,
+														 Math.min(x + TILE_SIZE, width), Math.min(y + TILE_SIZE, height));
+			}
+		}
+		
+		long[] costs;
+		synchronized(this) {
+			costs = tileCosts;
+		}
+		
+		if(costs.length == tiles.length) {
+			Arrays.sort(tiles, Comparator.comparingLong((Tile tile) -> costs[tile.index]).reversed());
+		}
+		
+		return tiles;
+	}
+	
+	//---------------------------------------------------------------
+	//							FRAME
+	//---------------------------------------------------------------
+	
+	/**
+	 * The color arrays and the camera of a single frame.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class Frame {
+		
+		/** The red, green and blue arrays. */
+		final short[][] rgb;
+		
+		/** The width of the screen. */
+		final int width;
+		
+		/** The height of the screen. */
+		final int height;
+		
+		/** The horizontal length. */
+		final double horizontal;
+		
+		/** The vertical length. */
+		final double vertical;
+		
+		/** The point of the human observer. */
+		final Point3D eye;
+		
+		/** The x-axis. */
+		final Point3D xAxis;
+		
+		/** The y-axis. */
+		final Point3D yAxis;
+		
+		/** The point which represents the corner of the screen. */
+		final Point3D screenCorner;
+		
+		/**
+		 * Constructs a new frame.
+		 *
+		 * @param rgb the red, green and blue arrays
+		 * @param width the width of the screen
+		 * @param height the height of the screen
+		 * @param horizontal the horizontal length
+		 * @param vertical the vertical length
+		 * @param eye the point of the human observer
+		 * @param xAxis the x-axis
+		 * @param yAxis the y-axis
+		 * @param screenCorner the point which represents the corner of the screen
+		 */
+		Frame(short[][] rgb, int width, int height, double horizontal, double vertical,
+			  Point3D eye, Point3D xAxis, Point3D yAxis, Point3D screenCorner) {
+			this.rgb = rgb;
+			this.width = width;
+			this.height = height;
+			this.horizontal = horizontal;
+			this.vertical = vertical;
+			this.eye = eye;
+			this.xAxis = xAxis;
+			this.yAxis = yAxis;
+			this.screenCorner = screenCorner;
+		}
+	}
+	
+	//---------------------------------------------------------------
+	//							TILE
+	//---------------------------------------------------------------
+	
+	/**
+	 * A rectangular part of the frame.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class Tile {
+		
+		/** The index of the tile, in the order of the rows. */
+		final int index;
+		
+		/** The smallest x-coordinate, inclusive. */
+		final int xStart;
+		
+		/** The smallest y-coordinate, inclusive. */
+		final int yStart;
+		
+		/** The largest x-coordinate, exclusive. */
+		final int xEnd;
+		
+		/** The largest y-coordinate, exclusive. */
+		final int yEnd;
+		
+		/** The time spent rendering the tile in this frame, in nanoseconds. */
+		long cost;
+		
+		/**
+		 * Constructs a new tile.
+		 *
+		 * @param index the index of the tile
+		 * @param xStart the smallest x-coordinate, inclusive
+		 * @param yStart the smallest y-coordinate, inclusive
+		 * @param xEnd the largest x-coordinate, exclusive
+		 * @param yEnd the largest y-coordinate, exclusive
+		 */
+		Tile(int index, int xStart, int yStart, int xEnd, int yEnd) {
+			this.index = index;
+			this.xStart = xStart;
+			this.yStart = yStart;
+			this.xEnd = xEnd;
+			this.yEnd = yEnd;
+		}
+	}
+	
+	//---------------------------------------------------------------
+	//							TILE ACTION
+	//---------------------------------------------------------------
+	
+	/**
+	 * Renders a single pass of a range of tiles. The range is split in halves
+	 * until a single tile is left, so the idle threads can steal the halves.
+	 *
+	 * @author Filip Nemec
+	 */
+	private class TileAction extends RecursiveAction {
+		
+		/** Used for serialization. */
+		private static final long serialVersionUID = 1L;
+		
+		/** The frame being rendered. */
+		private final Frame frame;
+		
+		/** The ordered tiles of the frame. */
+		private final Tile[] tiles;
+		
+		/** The index of the first tile of this action, inclusive. */
+		private final int start;
+		
+		/** The index of the last tile of this action, exclusive. */
+		private final int end;
+		
+		/** The index of the pass. */
+		private final int pass;
+		
+		/** The time after which the tiles are no longer refined, as given by {@code System.nanoTime()}. */
+		private final long deadline;
+		
+		/** Set once the frame is no longer needed. */
+		private final AtomicBoolean cancel;
+		
+		/**
+		 * Constructs a new {@code TileAction}.
+		 *
+		 * @param frame the frame being rendered
+		 * @param tiles the ordered tiles of the frame
+		 * @param start the index of the first tile of this action, inclusive
+		 * @param end the index of the last tile of this action, exclusive
+		 * @param pass the index of the pass
+		 * @param deadline the time after which the tiles are no longer refined
+		 * @param cancel set once the frame is no longer needed
+		 */
+		TileAction(Frame frame, Tile[] tiles, int start, int end, int pass, long deadline, AtomicBoolean cancel) {
+			this.frame = frame;
+			this.tiles = tiles;
+			this.start = start;
+			this.end = end;
+			this.pass = pass;
+			this.deadline = deadline;
+			this.cancel = cancel;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start <= 1) {
+				boolean late = pass > 0 && System.nanoTime() > deadline;
+				if(start < end && !late && !cancel.get()) {
+					renderTile(tiles[start]);
+				}
+				return;
+			}
+			
+			int middle = start + (end - start) / 2;
+			invokeAll(
+					new TileAction(frame, tiles, start, middle, pass, deadline, cancel),
+					new TileAction(frame, tiles, middle, end, pass, deadline, cancel)
+			);
+		}
+		
+		/**
+		 * Casts the rays of this pass through the pixels of the tile, and fills
+		 * the block of each of them with its color.
+		 *
+		 * @param tile the tile
+		 */
+		private void renderTile(Tile tile) {
+			long startTime = System.nanoTime();
+			
+			int stride = STRIDES[pass];
+			int previousStride = pass == 0 ? 0 : STRIDES[pass - 1];
+			
+			short[] rgb = new short[3];
+			
+			for(int y = tile.yStart; y < tile.yEnd; y += stride) {
+				for(int x = tile.xStart; x < tile.xEnd; x += stride) {
+					if(previousStride != 0 && x % previousStride == 0 && y % previousStride == 0) continue;
+					
+					Point3D screenPoint = frame.screenCorner.add( frame.xAxis.scalarMultiply(x * frame.horizontal / (frame.width - 1.0)) )
+															.sub( frame.yAxis.scalarMultiply(y * frame.vertical / (frame.height - 1.0)) );
+					
+					RayCasterParallel2.tracer(scene, hierarchy, Ray.fromPoints(frame.eye, screenPoint), rgb);
+					
+					fill(x, y, Math.min(x + stride, tile.xEnd), Math.min(y + stride, tile.yEnd),
+						 rgb[0] > 255 ? 255 : rgb[0], rgb[1] > 255 ? 255 : rgb[1], rgb[2] > 255 ? 255 : rgb[2]);
+				}
+			}
+			
+			tile.cost += System.nanoTime() - startTime;
+		}
+		
+		/**
+		 * Fills the block of pixels with the given color.
+		 *
+		 * @param xStart the smallest x-coordinate, inclusive
+		 * @param yStart the smallest y-coordinate, inclusive
+		 * @param xEnd the largest x-coordinate, exclusive
+		 * @param yEnd the largest y-coordinate, exclusive
+		 * @param red the red component
+		 * @param green the green component
+		 * @param blue the blue component
+		 */
+		private void fill(int xStart, int yStart, int xEnd, int yEnd, short red, short green, short blue) {
+			for(int y = yStart; y < yEnd; y++) {
+				int offset = y * frame.width;
+				
+				for(int x = xStart; x < xEnd; x++) {
+					frame.rgb[0][offset + x] = red;
+					frame.rgb[1][offset + x] = green;
+					frame.rgb[2][offset + x] = blue;
+				}
+			}
+		}
+	}
+}
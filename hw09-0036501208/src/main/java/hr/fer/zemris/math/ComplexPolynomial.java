@@ -134,6 +134,21 @@ public class ComplexPolynomial {
 		return result;
 	}
 	
+	/**
+	 * Returns the factor next to z^power.
+	 * <br> E.g. (7+2i)z^3+2z^2+5z+1, for power 3 returns 7+2i.
+	 *
+	 * @param power the power of z
+	 * @return the factor next to z^power, or {@code Complex.ZERO}
+	 * 		   if this polynomial has no such factor
+	 */
+	public Complex getFactor(int power) {
+		if(power < 0 || power >= factors.length || factors[power] == null)
+			return Complex.ZERO;
+		
+		return factors[power];
+	}
+	
 	@Override
 	public String toString() {
 		var sb = new StringBuilder();
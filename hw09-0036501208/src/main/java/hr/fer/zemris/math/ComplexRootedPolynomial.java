@@ -129,6 +129,24 @@ public class ComplexRootedPolynomial {
 		return indexOfClosestRoot;
 	}
 	
+	/**
+	 * @return The constant of this rooted polynomial.
+	 */
+	public Complex getConstant() {
+		return constant;
+	}
+	
+	/**
+	 * Returns the roots of this rooted polynomial, in the order they
+	 * were given. Some of the roots may be {@code null}, which are
+	 * skipped when the polynomial is evaluated.
+	 *
+	 * @return a copy of the array of the roots
+	 */
+	public Complex[] getRoots() {
+		return roots.clone();
+	}
+	
 	@Override
 	public String toString() {
 		var sb = new StringBuilder();
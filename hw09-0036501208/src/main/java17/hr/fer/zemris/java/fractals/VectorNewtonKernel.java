@@ -0,0 +1,176 @@
+package hr.fer.zemris.java.fractals;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Calculates the Newton-Raphson's iteration for a whole vector of pixels at once,
+ * using the {@code jdk.incubator.vector} API. The pixels of a row are taken as many
+ * at a time as the widest vector supported by the processor has lanes, and every
+ * step of the iteration evaluates the polynomial and its derivative for all of them
+ * in the vector registers.
+ * <p>
+ * A bit mask keeps the lanes whose pixels are still iterating. A lane whose pixel
+ * converges, reaches the {@link #MAX_ITER} or hits a zero derivative has its result
+ * stored and is taken out of the mask, and the vector is iterated until the mask is
+ * empty; the lanes past the end of the row are never in it. Each pixel goes through
+ * exactly the same operations as in the {@link PrimitiveNewtonKernel}, so both kernels
+ * calculate the same frames.
+ * <p>
+ * On Java 17, the vectors carried from one step to the next and the vector masks are
+ * not kept in the registers, but allocated for every step. So the iterated values are
+ * kept in arrays between the steps, and the results of the step are tested lane by lane.
+ * <p>
+ * This class is compiled for Java 17 with the incubating {@code jdk.incubator.vector}
+ * module, separately from the rest of the sources, and is loaded by
+ * {@link LaneNewtonKernel#vectorized(ComplexRootedPolynomial)} only if that module
+ * is available.
+ *
+ * @author Filip Nemec
+ */
+public class VectorNewtonKernel extends PrimitiveNewtonKernel {
+	
+	/** The widest vector shape supported by the processor. */
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	
+	/**
+	 * Constructs a new kernel for the given polynomial.
+	 *
+	 * @param polynomialRooted the polynomial whose roots are searched for
+	 */
+	public VectorNewtonKernel(ComplexRootedPolynomial polynomialRooted) {
+		super(polynomialRooted);
+	}
+	
+	@Override
+	public void calculate(short[] data, int width, int height, int yStart, int yEnd,
+						  double reMin, double reMax, double imMin, double imMax, AtomicBoolean cancel) {
+		int lanes = SPECIES.length();
+		
+		Lanes state = new Lanes(lanes);
+		int offset = yStart * width;
+		
+		for(int y = yStart; y < yEnd; y++) {
+			if(cancel.get()) return;
+			
+			double im = (height-1.0-y) / (height-1) * (imMax - imMin) + imMin;
+			
+			for(int x = 0; x < width; x += lanes) {
+				for(int lane = 0; lane < lanes; lane++) {
+					state.re[lane] = (x + lane) / (width-1.0) * (reMax - reMin) + reMin;
+					state.im[lane] = im;
+				}
+				
+				int pixels = Math.min(lanes, width - x);
+				iterate(state, (1L << pixels) - 1, data, offset + x);
+			}
+			
+			offset += width;
+		}
+	}
+	
+	/**
+	 * Iterates the pixels of the given lanes until none of them is left, and stores
+	 * the index of the closest root increased by 1, or 0, for each of them.
+	 *
+	 * @param state the starting complex numbers of the lanes
+	 * @param active the bit mask of the lanes holding a pixel
+	 * @param data the calculated data storage
+	 * @param offset the position of the pixel of the first lane in the data array
+	 */
+	private void iterate(Lanes state, long active, short[] data, int offset) {
+		double squaredThreshold = THRESHOLD * THRESHOLD;
+		
+		for(int iter = 1; active != 0; iter++) {
+			DoubleVector re = DoubleVector.fromArray(SPECIES, state.re, 0);
+			DoubleVector im = DoubleVector.fromArray(SPECIES, state.im, 0);
+			
+			// Horner's algorithm for the polynomial...
+			int n = polynomialRe.length - 1;
+			DoubleVector numeratorRe = DoubleVector.broadcast(SPECIES, polynomialRe[n]);
+			DoubleVector numeratorIm = DoubleVector.broadcast(SPECIES, polynomialIm[n]);
+			for(int i = n - 1; i >= 0; i--) {
+				DoubleVector temp = numeratorRe.mul(re).sub(numeratorIm.mul(im));
+				numeratorIm = numeratorRe.mul(im).add(numeratorIm.mul(re)).add(polynomialIm[i]);
+				numeratorRe = temp.add(polynomialRe[i]);
+			}
+			
+			// ...and for its derivative.
+			n = derivedRe.length - 1;
+			DoubleVector denominatorRe = DoubleVector.broadcast(SPECIES, derivedRe[n]);
+			DoubleVector denominatorIm = DoubleVector.broadcast(SPECIES, derivedIm[n]);
+			for(int i = n - 1; i >= 0; i--) {
+				DoubleVector temp = denominatorRe.mul(re).sub(denominatorIm.mul(im));
+				denominatorIm = denominatorRe.mul(im).add(denominatorIm.mul(re)).add(derivedIm[i]);
+				denominatorRe = temp.add(derivedRe[i]);
+			}
+			
+			DoubleVector denominator = denominatorRe.mul(denominatorRe).add(denominatorIm.mul(denominatorIm));
+			DoubleVector stepRe = numeratorRe.mul(denominatorRe).add(numeratorIm.mul(denominatorIm)).div(denominator);
+			DoubleVector stepIm = numeratorIm.mul(denominatorRe).sub(numeratorRe.mul(denominatorIm)).div(denominator);
+			
+			// The lanes that are already finished are stepped as well; their results are stored.
+			re.sub(stepRe).intoArray(state.re, 0);
+			im.sub(stepIm).intoArray(state.im, 0);
+			denominator.intoArray(state.denominators, 0);
+			stepRe.mul(stepRe).add(stepIm.mul(stepIm)).intoArray(state.squaredModules, 0);
+			
+			for(long lanes = active; lanes != 0; lanes &= lanes - 1) {
+				int lane = Long.numberOfTrailingZeros(lanes);
+				int index;
+				
+				if(state.denominators[lane] == 0) {
+					index = -1;
+					
+				} else if(state.squaredModules[lane] > squaredThreshold && iter < MAX_ITER) {
+					continue;
+					
+				} else {
+					index = indexOfClosestRootFor(state.re[lane], state.im[lane]);
+				}
+				
+				data[offset + lane] = (short) (index + 1);
+				active &= ~(1L << lane);
+			}
+		}
+	}
+	
+	//----------------------------------------------------------
+	//							LANES
+	//----------------------------------------------------------
+	
+	/**
+	 * The values of the lanes that are kept between the steps of the iteration.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class Lanes {
+		
+		/** The real parts of the iterated complex numbers. */
+		final double[] re;
+		
+		/** The imaginary parts of the iterated complex numbers. */
+		final double[] im;
+		
+		/** The squared modules of the derivative in the last step. */
+		final double[] denominators;
+		
+		/** The squared modules of the last step. */
+		final double[] squaredModules;
+		
+		/**
+		 * Constructs the storage for the given number of lanes.
+		 *
+		 * @param lanes the number of lanes
+		 */
+		Lanes(int lanes) {
+			re = new double[lanes];
+			im = new double[lanes];
+			denominators = new double[lanes];
+			squaredModules = new double[lanes];
+		}
+	}
+}
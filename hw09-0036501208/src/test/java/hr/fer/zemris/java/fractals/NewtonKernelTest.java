@@ -0,0 +1,128 @@
+package hr.fer.zemris.java.fractals;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+
+class NewtonKernelTest {
+	
+	private static final int WIDTH = 81;
+	
+	private static final int HEIGHT = 61;
+	
+	private static final ComplexRootedPolynomial FOUR_ROOTS = new ComplexRootedPolynomial(Complex.ONE,
+			Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG);
+	
+	private static final ComplexRootedPolynomial SCALED_ROOTS = new ComplexRootedPolynomial(new Complex(2, 1),
+			Complex.ONE, Complex.ONE_NEG, new Complex(0.3, 0.7), new Complex(-0.5, -0.5), new Complex(0, -1.5));
+	
+	private static final ComplexRootedPolynomial NULL_ROOT = new ComplexRootedPolynomial(Complex.ONE,
+			Complex.ONE, Complex.ONE_NEG, Complex.IM, null);
+	
+	@Test
+	void primitiveMatchesComplexCacheTest() throws Exception {
+		assertAlmostSame(FOUR_ROOTS);
+		assertAlmostSame(SCALED_ROOTS);
+	}
+	
+	@Test
+	void lanesMatchPrimitiveTest() {
+		for(ComplexRootedPolynomial polynomial : new ComplexRootedPolynomial[] {FOUR_ROOTS, SCALED_ROOTS, NULL_ROOT}) {
+			short[] primitive = calculate(new PrimitiveNewtonKernel(polynomial), 0, HEIGHT);
+			short[] lanes = calculate(new LaneNewtonKernel(polynomial), 0, HEIGHT);
+			
+			assertArrayEquals(primitive, lanes);
+		}
+	}
+	
+	@Test
+	void lanesCalculateOnlyGivenRowsTest() {
+		short[] primitive = calculate(new PrimitiveNewtonKernel(FOUR_ROOTS), 7, 12);
+		short[] lanes = calculate(new LaneNewtonKernel(FOUR_ROOTS), 7, 12);
+		
+		assertArrayEquals(primitive, lanes);
+		for(int i = 0; i < lanes.length; i++) {
+			if(i < 7 * WIDTH || i >= 12 * WIDTH) {
+				assertEquals(-1, lanes[i]);
+			}
+		}
+	}
+	
+	@Test
+	void vectorizedMatchesPrimitiveTest() {
+		for(ComplexRootedPolynomial polynomial : new ComplexRootedPolynomial[] {FOUR_ROOTS, SCALED_ROOTS, NULL_ROOT}) {
+			short[] primitive = calculate(new PrimitiveNewtonKernel(polynomial), 0, HEIGHT);
+			short[] vectorized = calculate(LaneNewtonKernel.vectorized(polynomial), 0, HEIGHT);
+			
+			assertArrayEquals(primitive, vectorized);
+		}
+		
+		short[] primitive = calculate(new PrimitiveNewtonKernel(FOUR_ROOTS), 7, 12);
+		short[] vectorized = calculate(LaneNewtonKernel.vectorized(FOUR_ROOTS), 7, 12);
+		assertArrayEquals(primitive, vectorized);
+	}
+	
+	@Test
+	void canceledCalculatesNothingTest() {
+		AtomicBoolean cancel = new AtomicBoolean(true);
+		short[] primitive = calculate(new PrimitiveNewtonKernel(FOUR_ROOTS), 0, HEIGHT, cancel);
+		short[] lanes = calculate(new LaneNewtonKernel(FOUR_ROOTS), 0, HEIGHT, cancel);
+		short[] vectorized = calculate(LaneNewtonKernel.vectorized(FOUR_ROOTS), 0, HEIGHT, cancel);
+		
+		for(int i = 0; i < lanes.length; i++) {
+			assertEquals(-1, primitive[i]);
+			assertEquals(-1, lanes[i]);
+			assertEquals(-1, vectorized[i]);
+		}
+	}
+	
+	@Test
+	void getLimitTest() {
+		assertEquals(5, new PrimitiveNewtonKernel(FOUR_ROOTS).getLimit());
+		assertEquals(5, new LaneNewtonKernel(FOUR_ROOTS).getLimit());
+		assertEquals(5, new ComplexCacheNewtonKernel(FOUR_ROOTS).getLimit());
+	}
+	
+	private static void assertAlmostSame(ComplexRootedPolynomial polynomial) throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(1, Newton.CacheWorkerThread::new, null, false);
+		
+		short[] cached;
+		try {
+			// The cached kernel needs its thread to hold a cache.
+			cached = pool.submit(() -> calculate(new ComplexCacheNewtonKernel(polynomial), 0, HEIGHT)).get();
+		} finally {
+			pool.shutdown();
+		}
+		
+		short[] primitive = calculate(new PrimitiveNewtonKernel(polynomial), 0, HEIGHT);
+		
+		// Only a few pixels on the borders of the basins may differ, in the last bits of the Horner's algorithm.
+		int different = 0;
+		for(int i = 0; i < cached.length; i++) {
+			if(cached[i] != primitive[i]) {
+				different++;
+			}
+		}
+		
+		assertTrue(different <= cached.length / 1000, different + " different pixels");
+	}
+	
+	private static short[] calculate(INewtonKernel kernel, int yStart, int yEnd) {
+		return calculate(kernel, yStart, yEnd, new AtomicBoolean());
+	}
+	
+	private static short[] calculate(INewtonKernel kernel, int yStart, int yEnd, AtomicBoolean cancel) {
+		short[] data = new short[WIDTH * HEIGHT];
+		Arrays.fill(data, (short) -1);
+		
+		kernel.calculate(data, WIDTH, HEIGHT, yStart, yEnd, -2, 2, -2, 2, cancel);
+		return data;
+	}
+}
@@ -14,4 +14,28 @@ class ComplexPolynomialTest {
 		assertEquals(2, cp1.order());
 		assertEquals(0, cp2.order());
 	}
+	
+	@Test
+	void getFactorTest() {
+		Complex factor = new Complex(7, 2);
+		ComplexPolynomial cp = new ComplexPolynomial(Complex.ONE, null, factor);
+		
+		assertEquals(Complex.ONE, cp.getFactor(0));
+		assertEquals(factor, cp.getFactor(2));
+	}
+	
+	@Test
+	void getFactorNullTest() {
+		ComplexPolynomial cp = new ComplexPolynomial(Complex.ONE, null, Complex.ONE);
+		
+		assertEquals(Complex.ZERO, cp.getFactor(1));
+	}
+	
+	@Test
+	void getFactorOutOfRangeTest() {
+		ComplexPolynomial cp = new ComplexPolynomial(Complex.ONE, Complex.IM);
+		
+		assertEquals(Complex.ZERO, cp.getFactor(-1));
+		assertEquals(Complex.ZERO, cp.getFactor(2));
+	}
 }
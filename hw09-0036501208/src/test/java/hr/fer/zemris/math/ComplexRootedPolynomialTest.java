@@ -1,5 +1,7 @@
 package hr.fer.zemris.math;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 import org.junit.jupiter.api.Test;
 
 class ComplexRootedPolynomialTest {
@@ -15,5 +17,31 @@ class ComplexRootedPolynomialTest {
 		System.out.println(cp);
 		System.out.println(cp.derive());
 	}
+	
+	@Test
+	void getConstantTest() {
+		Complex constant = new Complex(2, -1);
+		ComplexRootedPolynomial crp = new ComplexRootedPolynomial(constant, Complex.ONE, Complex.IM);
+		
+		assertEquals(constant, crp.getConstant());
+	}
+	
+	@Test
+	void getRootsTest() {
+		Complex[] roots = {Complex.ONE, null, Complex.IM_NEG};
+		ComplexRootedPolynomial crp = new ComplexRootedPolynomial(Complex.ONE, roots);
+		
+		assertArrayEquals(roots, crp.getRoots());
+	}
+	
+	@Test
+	void getRootsCopyTest() {
+		Complex[] roots = {Complex.ONE, Complex.ONE_NEG};
+		ComplexRootedPolynomial crp = new ComplexRootedPolynomial(Complex.ONE, roots);
+		
+		crp.getRoots()[0] = Complex.IM;
+		assertEquals(Complex.ONE, crp.getRoots()[0]);
+		assertNotSame(crp.getRoots(), crp.getRoots());
+	}
 
 }
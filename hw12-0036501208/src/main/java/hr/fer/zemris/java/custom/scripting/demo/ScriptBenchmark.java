@@ -0,0 +1,131 @@
+package hr.fer.zemris.java.custom.scripting.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Compares the {@link SmartScriptEngine} interpreter with the scripts
+ * compiled by the {@link SmartScriptCompiler}, on the same scripts that
+ * are used by the {@code Script1}-{@code Script5} demos.
+ * <p>
+ * For each script, the outputs of both variants are checked to be equal,
+ * after which both are warmed up and then measured. The output is written
+ * to a sink, so only the script execution itself is measured.
+ *
+ * @author Filip Nemec
+ */
+public class ScriptBenchmark {
+	
+	/** The scripts used by the {@code Script1}-{@code Script5} demos. */
+	private static final String[] SCRIPTS = {
+		"webroot/scripts/osnovni.smscr",
+		"webroot/scripts/zbrajanje.smscr",
+		"webroot/scripts/brojPoziva.smscr",
+		"webroot/scripts/fibonacci.smscr",
+		"webroot/scripts/fibonaccih.smscr"
+	};
+	
+	/** The number of warm-up executions per variant. */
+	private static final int WARMUP_ITERATIONS = 20_000;
+	
+	/** The number of measured executions per variant. */
+	private static final int MEASURED_ITERATIONS = 100_000;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 * @throws IOException if a script could not be read
+	 */
+	public static void main(String[] args) throws IOException {
+		System.out.printf("%-35s %15s %15s %10s%n", "Script", "interpreted", "compiled", "speedup");
+		
+		for(String script : SCRIPTS) {
+			String text = new String(Files.readAllBytes(Paths.get(script)), StandardCharsets.UTF_8);
+			DocumentNode document = new SmartScriptParser(text).getDocumentNode();
+			CompiledScript compiled = SmartScriptCompiler.compile(document);
+			
+			Consumer<RequestContext> interpreter = rc -> new SmartScriptEngine(document, rc).execute();
+			Consumer<RequestContext> compiler = compiled::execute;
+			
+			byte[] expected = run(interpreter);
+			byte[] actual = run(compiler);
+			if(!Arrays.equals(expected, actual)) {
+				System.out.println(script + ": compiled output differs from the interpreted one!");
+				continue;
+			}
+			
+			double interpreted = measure(interpreter);
+			double compiledTime = measure(compiler);
+			
+			System.out.printf("%-35s %12.0f ns %12.0f ns %9.2fx%n", script, interpreted, compiledTime, interpreted / compiledTime);
+		}
+	}
+	
+	/**
+	 * Executes the given script variant once and returns its output.
+	 *
+	 * @param variant the script variant
+	 * @return the output of the script
+	 */
+	private static byte[] run(Consumer<RequestContext> variant) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		variant.accept(newContext(bos));
+		return bos.toByteArray();
+	}
+	
+	/**
+	 * Measures the average execution time of the given script variant.
+	 *
+	 * @param variant the script variant
+	 * @return the average execution time in nanoseconds
+	 */
+	private static double measure(Consumer<RequestContext> variant) {
+		OutputStream sink = OutputStream.nullOutputStream();
+		
+		for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+			variant.accept(newContext(sink));
+		}
+		
+		long start = System.nanoTime();
+		for(int i = 0; i < MEASURED_ITERATIONS; i++) {
+			variant.accept(newContext(sink));
+		}
+		
+		return (System.nanoTime() - start) / (double) MEASURED_ITERATIONS;
+	}
+	
+	/**
+	 * Creates the request context with the same parameters as the
+	 * {@code Script2} and {@code Script3} demos.
+	 *
+	 * @param os the output stream
+	 * @return the request context
+	 */
+	private static RequestContext newContext(OutputStream os) {
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("a", "4");
+		parameters.put("b", "2");
+		
+		Map<String, String> persistentParameters = new HashMap<>();
+		persistentParameters.put("brojPoziva", "3");
+		
+		return new RequestContext(os, parameters, persistentParameters, new ArrayList<>(), null);
+	}
+}
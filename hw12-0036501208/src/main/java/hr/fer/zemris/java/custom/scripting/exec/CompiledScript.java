@@ -0,0 +1,20 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Models a smart script document that was compiled by the
+ * {@link SmartScriptCompiler}. A compiled script holds no execution
+ * state, so a single instance can be executed by many threads at once.
+ *
+ * @author Filip Nemec
+ */
+public interface CompiledScript {
+	
+	/**
+	 * Executes the script, writing its output to the given request context.
+	 *
+	 * @param requestContext the request context
+	 */
+	void execute(RequestContext requestContext);
+}
@@ -0,0 +1,426 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.Arrays;
+
+/**
+ * The value stack used by the compiled scripts. Unlike the
+ * {@link ObjectMultistack}, which maps every variable name to a linked
+ * stack of {@link ValueWrapper}s, this stack stores its values in
+ * primitive arrays and is addressed by index:
+ * <ul>
+ * <li>the first {@code slotCount} entries are the for-loop variables,
+ *     whose names were resolved to slot indices by the compiler;</li>
+ * <li>the entries above them form the operand stack of the echo nodes.</li>
+ * </ul>
+ * Integers and decimals are kept unboxed. Texts are kept as {@code String}s,
+ * and the number they represent is parsed at most once and remembered.
+ * <p>
+ * All of the arithmetic follows the rules of the {@code ValueWrapper}: a
+ * text containing {@code '.'} or {@code 'E'} is a {@code double}, any other
+ * text is an {@code int}, two {@code int}s produce an {@code int} (with the
+ * usual overflow) and anything else produces a {@code double}.
+ *
+ * @author Filip Nemec
+ */
+final class ExecutionStack {
+	
+	/** The type of an {@code int} value. */
+	static final byte INT = 1;
+	
+	/** The type of a {@code double} value. */
+	static final byte DOUBLE = 2;
+	
+	/** The type of a text value. */
+	static final byte STRING = 3;
+	
+	/** Marks a text whose number has not been parsed yet. */
+	private static final byte UNPARSED = 0;
+	
+	/** The type of each entry. */
+	private byte[] types;
+	
+	/** The parsed number type of each text entry ({@link #INT}, {@link #DOUBLE} or {@link #UNPARSED}). */
+	private byte[] parsed;
+	
+	/** The {@code int} value (or the parsed {@code int} value of a text) of each entry. */
+	private int[] ints;
+	
+	/** The {@code double} value (or the parsed {@code double} value of a text) of each entry. */
+	private double[] doubles;
+	
+	/** The text of each text entry. */
+	private String[] texts;
+	
+	/** The index of the first operand, which equals the number of variable slots. */
+	private final int base;
+	
+	/** The index of the first free entry. */
+	private int top;
+	
+	/**
+	 * Constructs a new stack.
+	 *
+	 * @param slotCount the number of variable slots
+	 */
+	ExecutionStack(int slotCount) {
+		int capacity = slotCount + 16;
+		
+		this.types 	 = new byte[capacity];
+		this.parsed  = new byte[capacity];
+		this.ints 	 = new int[capacity];
+		this.doubles = new double[capacity];
+		this.texts 	 = new String[capacity];
+		this.base = slotCount;
+		this.top = slotCount;
+	}
+	
+	//=====================================================================================
+	//									  WRITING
+	//=====================================================================================
+	
+	/**
+	 * Stores the {@code int} value at the given index.
+	 *
+	 * @param index the index
+	 * @param value the value
+	 */
+	void setInt(int index, int value) {
+		types[index] = INT;
+		ints[index] = value;
+		texts[index] = null;
+	}
+	
+	/**
+	 * Stores the {@code double} value at the given index.
+	 *
+	 * @param index the index
+	 * @param value the value
+	 */
+	void setDouble(int index, double value) {
+		types[index] = DOUBLE;
+		doubles[index] = value;
+		texts[index] = null;
+	}
+	
+	/**
+	 * Stores the text at the given index. Its number is parsed only when needed.
+	 *
+	 * @param index the index
+	 * @param text the text
+	 */
+	void setString(int index, String text) {
+		types[index] = STRING;
+		parsed[index] = UNPARSED;
+		texts[index] = text;
+	}
+	
+	/**
+	 * Stores the constant at the given index, together with its pre-parsed number.
+	 *
+	 * @param index the index
+	 * @param constant the constant
+	 */
+	void setConstant(int index, Constant constant) {
+		types[index] = STRING;
+		parsed[index] = constant.numberType;
+		ints[index] = constant.intValue;
+		doubles[index] = constant.doubleValue;
+		texts[index] = constant.text;
+	}
+	
+	/**
+	 * Stores the value of a {@code ValueWrapper} at the given index.
+	 *
+	 * @param index the index
+	 * @param value the wrapped value, which must be an {@code Integer},
+	 * 		  a {@code Double} or a {@code String}
+	 */
+	void setObject(int index, Object value) {
+		if(value instanceof Integer) {
+			setInt(index, (Integer) value);
+		} else if(value instanceof Double) {
+			setDouble(index, (Double) value);
+		} else {
+			setString(index, (String) value);
+		}
+	}
+	
+	/**
+	 * Copies the entry at the index {@code from} to the index {@code to}.
+	 *
+	 * @param from the source index
+	 * @param to the destination index
+	 */
+	void copy(int from, int to) {
+		types[to] 	= types[from];
+		parsed[to] 	= parsed[from];
+		ints[to] 	= ints[from];
+		doubles[to] = doubles[from];
+		texts[to] 	= texts[from];
+	}
+	
+	//=====================================================================================
+	//									OPERAND STACK
+	//=====================================================================================
+	
+	/**
+	 * Reserves a new entry on top of the operand stack.
+	 *
+	 * @return the index of the new entry
+	 */
+	int push() {
+		if(top == types.length) {
+			int capacity = 2 * types.length;
+			
+			types 	= Arrays.copyOf(types, capacity);
+			parsed 	= Arrays.copyOf(parsed, capacity);
+			ints 	= Arrays.copyOf(ints, capacity);
+			doubles = Arrays.copyOf(doubles, capacity);
+			texts 	= Arrays.copyOf(texts, capacity);
+		}
+		
+		return top++;
+	}
+	
+	/**
+	 * Removes the entry on top of the operand stack. The entry keeps its
+	 * value until the next {@link #push()}.
+	 *
+	 * @return the index of the removed entry
+	 * @throws IllegalStateException if the operand stack is empty
+	 */
+	int pop() {
+		top = peek();
+		return top;
+	}
+	
+	/**
+	 * Returns the index of the entry on top of the operand stack.
+	 *
+	 * @return the index of the entry on top of the operand stack
+	 * @throws IllegalStateException if the operand stack is empty
+	 */
+	int peek() {
+		if(top == base)
+			throw new IllegalStateException("Cannot pop from an empty stack.");
+		return top - 1;
+	}
+	
+	/**
+	 * Swaps the two entries on top of the operand stack.
+	 *
+	 * @throws IllegalStateException if there are less than two operands
+	 */
+	void swap() {
+		int a = pop();
+		int b = peek();
+		top++;
+		
+		// The free entry above the top is used as the temporary storage.
+		int temp = push();
+		copy(a, temp);
+		copy(b, a);
+		copy(temp, b);
+		top--;
+	}
+	
+	/**
+	 * Returns the index of the first operand.
+	 *
+	 * @return the index of the first operand
+	 */
+	int base() {
+		return base;
+	}
+	
+	/**
+	 * Returns the index of the first free entry.
+	 *
+	 * @return the index of the first free entry
+	 */
+	int top() {
+		return top;
+	}
+	
+	/**
+	 * Empties the operand stack.
+	 */
+	void clearOperands() {
+		Arrays.fill(texts, base, top, null);
+		top = base;
+	}
+	
+	//=====================================================================================
+	//									  READING
+	//=====================================================================================
+	
+	/**
+	 * Returns the textual form of the entry, exactly as {@code toString()}
+	 * of the value held by the {@code ValueWrapper} would.
+	 *
+	 * @param index the index
+	 * @return the textual form of the entry
+	 */
+	String toText(int index) {
+		switch(types[index]) {
+			case INT: 	 return Integer.toString(ints[index]);
+			case DOUBLE: return Double.toString(doubles[index]);
+			default: 	 return texts[index];
+		}
+	}
+	
+	/**
+	 * Returns the entry as the object the {@code ValueWrapper} would hold.
+	 *
+	 * @param index the index
+	 * @return the entry as an {@code Integer}, {@code Double} or {@code String}
+	 */
+	Object toObject(int index) {
+		switch(types[index]) {
+			case INT: 	 return ints[index];
+			case DOUBLE: return doubles[index];
+			default: 	 return texts[index];
+		}
+	}
+	
+	/**
+	 * Returns the entry as a {@code double}, just like
+	 * {@code Double.parseDouble(value.toString())} would.
+	 *
+	 * @param index the index
+	 * @return the entry as a {@code double}
+	 * @throws NumberFormatException if the text is not a number
+	 */
+	double toDouble(int index) {
+		switch(types[index]) {
+			case INT: 	 return ints[index];
+			case DOUBLE: return doubles[index];
+			default: 	 return Double.parseDouble(texts[index]);
+		}
+	}
+	
+	//=====================================================================================
+	//									 ARITHMETIC
+	//=====================================================================================
+	
+	/**
+	 * Applies the operation to the entries {@code a} and {@code b}, storing
+	 * the result at the index {@code a}.
+	 *
+	 * @param a the index of the first operand and the result
+	 * @param b the index of the second operand
+	 * @param op the operation
+	 * @throws NumberFormatException if a text operand is not a number
+	 * @throws ArithmeticException if dividing by zero
+	 */
+	void calculate(int a, int b, Operation op) {
+		byte typeA = numberType(a);
+		byte typeB = numberType(b);
+		
+		if(typeA == INT && typeB == INT) {
+			setInt(a, op.asInt(ints[a], ints[b]));
+		} else {
+			double d1 = (typeA == INT) ? ints[a] : doubles[a];
+			double d2 = (typeB == INT) ? ints[b] : doubles[b];
+			setDouble(a, op.asDouble(d1, d2));
+		}
+	}
+	
+	/**
+	 * Returns the number type of the entry, parsing its text if needed.
+	 *
+	 * @param index the index
+	 * @return either {@link #INT} or {@link #DOUBLE}
+	 * @throws NumberFormatException if the text is not a number
+	 */
+	private byte numberType(int index) {
+		byte type = types[index];
+		if(type != STRING) return type;
+		
+		if(parsed[index] == UNPARSED) {
+			String text = texts[index];
+			
+			if(isDecimal(text)) {
+				doubles[index] = Double.parseDouble(text);
+				parsed[index] = DOUBLE;
+			} else {
+				ints[index] = Integer.parseInt(text);
+				parsed[index] = INT;
+			}
+		}
+		
+		return parsed[index];
+	}
+	
+	/**
+	 * Checks whether the text represents a {@code double}, using the
+	 * rules of the {@code ValueWrapper}.
+	 *
+	 * @param text the text
+	 * @return {@code true} if the text represents a {@code double},
+	 * 		   {@code false} if it represents an {@code int}
+	 */
+	private static boolean isDecimal(String text) {
+		return text.indexOf('.') >= 0 || text.indexOf('E') >= 0;
+	}
+	
+	//=====================================================================================
+	//									  CONSTANT
+	//=====================================================================================
+	
+	/**
+	 * A text together with its pre-parsed number. Constants are created
+	 * once by the compiler, so that the numeric constants of a script are
+	 * never parsed during its execution.
+	 *
+	 * @author Filip Nemec
+	 */
+	static final class Constant {
+		
+		/** The text of the constant. */
+		final String text;
+		
+		/** The type of the parsed number, or {@link ExecutionStack#UNPARSED} if the text is not a number. */
+		final byte numberType;
+		
+		/** The parsed {@code int} value. */
+		final int intValue;
+		
+		/** The parsed {@code double} value. */
+		final double doubleValue;
+		
+		/**
+		 * Constructs a new constant.
+		 *
+		 * @param text the text
+		 * @param numberType the type of the parsed number
+		 * @param intValue the parsed {@code int} value
+		 * @param doubleValue the parsed {@code double} value
+		 */
+		private Constant(String text, byte numberType, int intValue, double doubleValue) {
+			this.text = text;
+			this.numberType = numberType;
+			this.intValue = intValue;
+			this.doubleValue = doubleValue;
+		}
+		
+		/**
+		 * Creates the constant for the given text.
+		 *
+		 * @param text the text
+		 * @return the constant for the given text
+		 */
+		static Constant of(String text) {
+			try {
+				if(isDecimal(text)) {
+					return new Constant(text, DOUBLE, 0, Double.parseDouble(text));
+				} else {
+					return new Constant(text, INT, Integer.parseInt(text), 0);
+				}
+				
+			} catch(NumberFormatException e) {
+				return new Constant(text, UNPARSED, 0, 0);
+			}
+		}
+	}
+}
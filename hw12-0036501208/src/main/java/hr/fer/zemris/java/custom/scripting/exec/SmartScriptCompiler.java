@@ -0,0 +1,497 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantDouble;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantInteger;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
+import hr.fer.zemris.java.custom.scripting.elems.ElementString;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionStack.Constant;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Compiles the parsed script document into a {@link CompiledScript}.
+ * <p>
+ * While the {@link SmartScriptEngine} walks the document on every
+ * execution and resolves each element by its type and name, the
+ * compiler does that only once: every node and every echo element is
+ * turned into an {@link Instruction} that already knows what to do.
+ * Text nodes are encoded to bytes in advance and for-loops whose bounds
+ * are numeric constants are executed as plain Java loops.
+ * <p>
+ * Variables are resolved to the slots of the {@link ExecutionStack} at
+ * compile time, and numeric constants are parsed at compile time, so the
+ * execution neither looks up variables by name nor parses the same
+ * constant over and over again.
+ * <p>
+ * The compiled script produces exactly the same output as the
+ * {@code SmartScriptEngine}.
+ *
+ * @author Filip Nemec
+ */
+public class SmartScriptCompiler {
+	
+	/** The charset that text nodes are pre-encoded with. */
+	private static final Charset TEXT_CHARSET = StandardCharsets.UTF_8;
+	
+	/** Maps the names of the variables in scope to their slots. */
+	private final Map<String, Integer> scope = new HashMap<>();
+	
+	/** The number of the for-loops enclosing the node being compiled. */
+	private int depth;
+	
+	/** The number of slots needed by the compiled script. */
+	private int slotCount;
+	
+	/**
+	 * Compiles the given document.
+	 *
+	 * @param documentNode the root of the script
+	 * @return the compiled script
+	 * @throws NullPointerException if the given document is {@code null}
+	 */
+	public static CompiledScript compile(DocumentNode documentNode) {
+		Objects.requireNonNull(documentNode, "Document cannot be null.");
+		
+		SmartScriptCompiler compiler = new SmartScriptCompiler();
+		Instruction body = compiler.compileChildren(documentNode);
+		int slotCount = compiler.slotCount;
+		
+		return requestContext -> body.execute(new Frame(requestContext, slotCount));
+	}
+	
+	//=====================================================================================
+	//										NODES
+	//=====================================================================================
+	
+	/**
+	 * Compiles the children of the given node into a single instruction
+	 * that executes them in order.
+	 *
+	 * @param node the node whose children are compiled
+	 * @return the instruction executing all of the children
+	 */
+	private Instruction compileChildren(Node node) {
+		int childCount = node.numberOfChildren();
+		Instruction[] children = new Instruction[childCount];
+		
+		for(int i = 0; i < childCount; i++) {
+			children[i] = compile(node.getChild(i));
+		}
+		
+		if(children.length == 1) return children[0];
+		
+		return frame -> {
+			for(Instruction child : children) {
+				child.execute(frame);
+			}
+		};
+	}
+	
+	/**
+	 * Compiles a single node.
+	 *
+	 * @param node the node to be compiled
+	 * @return the compiled node
+	 */
+	private Instruction compile(Node node) {
+		Instruction[] result = new Instruction[1];
+		
+		node.accept(new INodeVisitor() {
+			
+			@Override
+			public void visitTextNode(TextNode node) {
+				result[0] = compileText(node);
+			}
+			
+			@Override
+			public void visitForLoopNode(ForLoopNode node) {
+				result[0] = compileForLoop(node);
+			}
+			
+			@Override
+			public void visitEchoNode(EchoNode node) {
+				result[0] = compileEcho(node);
+			}
+			
+			@Override
+			public void visitDocumentNode(DocumentNode node) {
+				result[0] = compileChildren(node);
+			}
+		});
+		
+		return result[0];
+	}
+	
+	/**
+	 * Compiles the text node. The text is encoded in advance and written
+	 * directly whenever the request context uses the same charset.
+	 *
+	 * @param node the text node
+	 * @return the compiled text node
+	 */
+	private Instruction compileText(TextNode node) {
+		String text = node.getText();
+		byte[] encoded = text.getBytes(TEXT_CHARSET);
+		
+		return frame -> {
+			try {
+				if(frame.preEncodedOutput) {
+					frame.requestContext.write(encoded);
+				} else {
+					frame.requestContext.write(text);
+				}
+				
+			} catch(IOException e) {
+				System.err.println("Error writing the text node.");
+			}
+		};
+	}
+	
+	/**
+	 * Compiles the for-loop node. The loop variable gets the slot equal to
+	 * the nesting depth of the loop, so the variables of the sibling loops
+	 * share their slots. If the start, end and step expressions are all
+	 * {@code int}s (or all {@code double}s), the loop is compiled into a
+	 * native Java loop; otherwise it falls back to the {@link ValueWrapper}
+	 * arithmetic, which keeps all of its (mixed type) quirks.
+	 *
+	 * @param node the for-loop node
+	 * @return the compiled for-loop node
+	 */
+	private Instruction compileForLoop(ForLoopNode node) {
+		String var 	 = node.getVariable().asText();
+		String start = node.getStartExpression().asText();
+		String end 	 = node.getEndExpression().asText();
+		String step  = (node.getStepExpression() != null) ? node.getStepExpression().asText() : "1";
+		
+		int slot = depth++;
+		slotCount = Math.max(slotCount, depth);
+		Integer shadowed = scope.put(var, slot);
+		
+		Instruction body = compileChildren(node);
+		
+		depth--;
+		if(shadowed != null) {
+			scope.put(var, shadowed);
+		} else {
+			scope.remove(var);
+		}
+		
+		Constant from = Constant.of(start);
+		Constant to   = Constant.of(end);
+		Constant by   = Constant.of(step);
+		
+		if(from.numberType == ExecutionStack.INT && to.numberType == ExecutionStack.INT && by.numberType == ExecutionStack.INT) {
+			int first = from.intValue, last = to.intValue, increment = by.intValue;
+			
+			return frame -> {
+				// Just like in the interpreter, the first value is the start text itself.
+				frame.stack.setConstant(slot, from);
+				
+				for(int i = first; i <= last; i += increment) {
+					body.execute(frame);
+					frame.stack.setInt(slot, i + increment);
+				}
+			};
+		}
+		
+		if(from.numberType == ExecutionStack.DOUBLE && to.numberType == ExecutionStack.DOUBLE && by.numberType == ExecutionStack.DOUBLE) {
+			double first = from.doubleValue, last = to.doubleValue, increment = by.doubleValue;
+			
+			return frame -> {
+				frame.stack.setConstant(slot, from);
+				
+				for(double d = first; Double.compare(d, last) <= 0; d += increment) {
+					body.execute(frame);
+					frame.stack.setDouble(slot, d + increment);
+				}
+			};
+		}
+		
+		return frame -> {
+			ValueWrapper counter = new ValueWrapper(start);
+			frame.stack.setObject(slot, counter.getValue());
+			
+			while(counter.numCompare(end) <= 0) {
+				body.execute(frame);
+				counter.add(step);
+				frame.stack.setObject(slot, counter.getValue());
+			}
+		};
+	}
+	
+	/**
+	 * Compiles the echo node. Every element is resolved to its instruction
+	 * in advance, and the values remaining on the operand stack are written
+	 * in the order they were pushed.
+	 *
+	 * @param node the echo node
+	 * @return the compiled echo node
+	 */
+	private Instruction compileEcho(EchoNode node) {
+		List<Instruction> compiled = new ArrayList<>();
+		
+		for(Element element : node.getElements()) {
+			Instruction instruction = compileElement(element);
+			if(instruction != null) compiled.add(instruction);
+		}
+		
+		Instruction[] instructions = compiled.toArray(new Instruction[0]);
+		
+		return frame -> {
+			for(Instruction instruction : instructions) {
+				instruction.execute(frame);
+			}
+			
+			frame.writeOperands();
+		};
+	}
+	
+	//=====================================================================================
+	//									   ELEMENTS
+	//=====================================================================================
+	
+	/**
+	 * Compiles a single echo element.
+	 *
+	 * @param element the element to be compiled
+	 * @return the compiled element, or {@code null} if the element does nothing
+	 */
+	private Instruction compileElement(Element element) {
+		if(element instanceof ElementConstantInteger ||
+		   element instanceof ElementConstantDouble ||
+		   element instanceof ElementString) {
+			Constant constant = Constant.of(element.asText());
+			return frame -> frame.stack.setConstant(frame.stack.push(), constant);
+		}
+		
+		if(element instanceof ElementVariable) {
+			Integer slot = scope.get(element.asText());
+			
+			if(slot == null) {
+				return frame -> {
+					throw new IllegalStateException("Cannot peek at an empty stack.");
+				};
+			}
+			
+			int index = slot;
+			return frame -> frame.stack.copy(index, frame.stack.push());
+		}
+		
+		if(element instanceof ElementOperator) {
+			return compileOperator(element.asText());
+		}
+		
+		if(element instanceof ElementFunction) {
+			return compileFunction(element.asText());
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Compiles the operator.
+	 *
+	 * @param operator the operator symbol
+	 * @return the compiled operator
+	 */
+	private Instruction compileOperator(String operator) {
+		Operation operation;
+		
+		switch(operator) {
+			case "+": operation = Operations.ADD; break;
+			case "-": operation = Operations.SUB; break;
+			case "*": operation = Operations.MUL; break;
+			case "/": operation = Operations.DIV; break;
+			
+			default: return frame -> {
+				frame.stack.pop();
+				frame.stack.pop();
+				throw new UnsupportedOperationException("Unsupported operator '" + operator + "'.");
+			};
+		}
+		
+		return frame -> {
+			int b = frame.stack.pop();
+			int a = frame.stack.peek();
+			frame.stack.calculate(a, b, operation);
+		};
+	}
+	
+	/**
+	 * Compiles the function. Unknown functions are ignored, just like
+	 * in the interpreter.
+	 *
+	 * @param function the function name
+	 * @return the compiled function, or {@code null} if it is unknown
+	 */
+	private Instruction compileFunction(String function) {
+		switch(function) {
+			case "sin":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					double x = stack.toDouble(stack.pop());
+					stack.setDouble(stack.push(), Math.sin(Math.toRadians(x)));
+				};
+				
+			case "decfmt":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					String pattern = stack.toText(stack.pop());
+					double number = stack.toDouble(stack.pop());
+					stack.setString(stack.push(), new DecimalFormat(pattern).format(number));
+				};
+				
+			case "dup":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					stack.copy(stack.peek(), stack.push());
+				};
+				
+			case "swap":
+				return frame -> frame.stack.swap();
+				
+			case "setMimeType":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					frame.requestContext.setMimeType((String) stack.toObject(stack.pop()));
+				};
+				
+			case "paramGet":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					String defaultValue = stack.toText(stack.pop());
+					String value = frame.requestContext.getParameter(stack.toText(stack.pop()));
+					stack.setString(stack.push(), value == null ? defaultValue : value);
+				};
+				
+			case "pparamGet":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					String defaultValue = stack.toText(stack.pop());
+					String value = frame.requestContext.getPersistentParameter(stack.toText(stack.pop()));
+					stack.setString(stack.push(), value == null ? defaultValue : value);
+				};
+				
+			case "pparamSet":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					String name  = stack.toText(stack.pop());
+					String value = stack.toText(stack.pop());
+					frame.requestContext.setPersistentParameter(name, value);
+				};
+				
+			case "pparamDel":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					frame.requestContext.removePersistentParameter(stack.toText(stack.pop()));
+				};
+				
+			case "tparamGet":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					String defaultValue = stack.toText(stack.pop());
+					String value = frame.requestContext.getTemporaryParameter(stack.toText(stack.pop()));
+					stack.setString(stack.push(), value == null ? defaultValue : value);
+				};
+				
+			case "tparamSet":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					String name  = stack.toText(stack.pop());
+					String value = stack.toText(stack.pop());
+					frame.requestContext.setTemporaryParameter(name, value);
+				};
+				
+			case "tparamDel":
+				return frame -> {
+					ExecutionStack stack = frame.stack;
+					frame.requestContext.removeTemporaryParameter(stack.toText(stack.pop()));
+				};
+				
+			default:
+				return null;
+		}
+	}
+	
+	//=====================================================================================
+	//									 EXECUTION
+	//=====================================================================================
+	
+	/**
+	 * Models a single compiled piece of the script.
+	 *
+	 * @author Filip Nemec
+	 */
+	@FunctionalInterface
+	private interface Instruction {
+		
+		/**
+		 * Executes this instruction.
+		 *
+		 * @param frame the execution state
+		 */
+		void execute(Frame frame);
+	}
+	
+	/**
+	 * The state of a single script execution.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class Frame {
+		
+		/** The request context. */
+		final RequestContext requestContext;
+		
+		/** Flag that indicates whether the pre-encoded text can be written directly. */
+		final boolean preEncodedOutput;
+		
+		/** The variable slots and the operand stack. */
+		final ExecutionStack stack;
+		
+		/**
+		 * Constructs a new execution frame.
+		 *
+		 * @param requestContext the request context
+		 * @param slotCount the number of variable slots
+		 */
+		Frame(RequestContext requestContext, int slotCount) {
+			this.requestContext = requestContext;
+			this.preEncodedOutput = Charset.forName(requestContext.getEncoding()).equals(TEXT_CHARSET);
+			this.stack = new ExecutionStack(slotCount);
+		}
+		
+		/**
+		 * Writes all of the values on the operand stack, from the bottom
+		 * to the top, and empties the stack.
+		 */
+		void writeOperands() {
+			for(int i = stack.base(), top = stack.top(); i < top; i++) {
+				try {
+					requestContext.write(stack.toText(i));
+				} catch(IOException e) {
+				}
+			}
+			stack.clearOperands();
+		}
+	}
+}
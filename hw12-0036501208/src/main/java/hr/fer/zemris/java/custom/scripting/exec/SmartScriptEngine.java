@@ -74,7 +74,7 @@ public class SmartScriptEngine {
 		public void visitForLoopNode(ForLoopNode node) {
 			String var 	 = node.getVariable().asText();
 			String start = node.getStartExpression().asText();
-			String step  = node.getStepExpression().asText();
+			String step  = (node.getStepExpression() != null) ? node.getStepExpression().asText() : null;
 			String end 	 = node.getEndExpression().asText();
 			
 			if(step == null) {
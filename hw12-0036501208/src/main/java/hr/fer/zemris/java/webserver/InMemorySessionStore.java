@@ -0,0 +1,244 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * The default, in-memory {@link SessionStore}.
+ * <p>
+ * Sessions are spread over a fixed number of stripes by the hash of their
+ * id, and each stripe is guarded by its own lock, so requests of different
+ * sessions rarely contend. Every stripe keeps its sessions in the access
+ * order and evicts the least recently used one once it holds more than its
+ * share of the maximum session count.
+ * <p>
+ * Expiry is driven by a hashed timer wheel: each session is put in the
+ * bucket of the tick following its timeout, so {@link #expire(long)} only
+ * looks at the buckets of the ticks that passed since its last call instead
+ * of scanning every session. Extending a session's timeout does not move it;
+ * when its bucket comes due, the session is simply put in the bucket of its
+ * new timeout. Removed and evicted sessions are marked as such, and are
+ * dropped from the wheel once their bucket comes due.
+ *
+ * @author Filip Nemec
+ */
+public class InMemorySessionStore implements SessionStore {
+	
+	/** The number of stripes. */
+	private static final int STRIPES = 16;
+	
+	/** The number of buckets of the timer wheel. */
+	private static final int WHEEL_SIZE = 512;
+	
+	/** The duration of a single timer wheel tick, in milliseconds. */
+	private static final long TICK_MILLIS = 1000;
+	
+	/** The stripes holding the sessions. */
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	
+	/** The buckets of the timer wheel. */
+	private final Queue<SessionMapEntry>[] wheel;
+	
+	/** The last tick whose bucket was processed. */
+	private long lastTick;
+	
+	/**
+	 * Constructs a new store.
+	 *
+	 * @param maxSessions the maximum number of sessions
+	 * @throws IllegalArgumentException if {@code maxSessions} is not positive
+	 */
+	public InMemorySessionStore(int maxSessions) {
+		if(maxSessions < 1)
+			throw new IllegalArgumentException("Expected at least 1 session, but was " + maxSessions + ".");
+		
+		int stripeCapacity = (maxSessions + STRIPES - 1) / STRIPES;
+		for(int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(stripeCapacity);
+		}
+		
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Queue<SessionMapEntry>[] buckets = new Queue[WHEEL_SIZE];
+		for(int i = 0; i < WHEEL_SIZE; i++) {
+			buckets[i] = new ConcurrentLinkedQueue<>();
+		}
+		
+		wheel = buckets;
+		
+		lastTick = System.currentTimeMillis() / TICK_MILLIS;
+	}
+	
+	@Override
+	public SessionMapEntry get(String sid) {
+		Stripe stripe = stripeOf(sid);
+		
+		synchronized(stripe) {
+			SessionMapEntry session = stripe.get(sid);
+			
+			if(session != null && session.validUntil < System.currentTimeMillis()) {
+				stripe.remove(sid);
+				session.removed = true;
+				return null;
+			}
+			
+			return session;
+		}
+	}
+	
+	@Override
+	public void put(SessionMapEntry session) {
+		Stripe stripe = stripeOf(session.sid);
+		
+		synchronized(stripe) {
+			SessionMapEntry previous = stripe.put(session.sid, session);
+			if(previous != null && previous != session) {
+				previous.removed = true;
+			}
+		}
+		
+		schedule(session);
+	}
+	
+	@Override
+	public void remove(String sid) {
+		Stripe stripe = stripeOf(sid);
+		
+		synchronized(stripe) {
+			SessionMapEntry session = stripe.remove(sid);
+			if(session != null) {
+				session.removed = true;
+			}
+		}
+	}
+	
+	@Override
+	public void expire(long now) {
+		long nowTick = now / TICK_MILLIS;
+		
+		synchronized(wheel) {
+			// After a long pause, every bucket is processed just once.
+			long fromTick = Math.max(lastTick + 1, nowTick - WHEEL_SIZE + 1);
+			
+			for(long tick = fromTick; tick <= nowTick; tick++) {
+				Queue<SessionMapEntry> bucket = wheel[(int) (tick % WHEEL_SIZE)];
+				
+				// The bucket is drained first, since rescheduled sessions can end up in it again.
+				List<SessionMapEntry> due = new ArrayList<>();
+				SessionMapEntry session;
+				while((session = bucket.poll()) != null) {
+					due.add(session);
+				}
+				
+				for(SessionMapEntry entry : due) {
+					Stripe stripe = stripeOf(entry.sid);
+					
+					synchronized(stripe) {
+						// Removed and evicted sessions simply fall off the wheel.
+						if(entry.removed) continue;
+						
+						if(entry.validUntil < now) {
+							stripe.remove(entry.sid, entry);
+							entry.removed = true;
+							continue;
+						}
+					}
+					
+					schedule(entry);
+				}
+			}
+			
+			lastTick = Math.max(lastTick, nowTick);
+		}
+	}
+	
+	@Override
+	public void forEach(Consumer<SessionMapEntry> action) {
+		for(Stripe stripe : stripes) {
+			List<SessionMapEntry> sessions;
+			synchronized(stripe) {
+				sessions = new ArrayList<>(stripe.values());
+			}
+			
+			sessions.forEach(action);
+		}
+	}
+	
+	@Override
+	public int size() {
+		int size = 0;
+		for(Stripe stripe : stripes) {
+			synchronized(stripe) {
+				size += stripe.size();
+			}
+		}
+		
+		return size;
+	}
+	
+	@Override
+	public void close() {
+		// Nothing to release.
+	}
+	
+	/**
+	 * Puts the session in the bucket of the tick following its timeout.
+	 *
+	 * @param session the session to be scheduled
+	 */
+	private void schedule(SessionMapEntry session) {
+		long tick = session.validUntil / TICK_MILLIS + 1;
+		wheel[(int) (tick % WHEEL_SIZE)].add(session);
+	}
+	
+	/**
+	 * Returns the stripe holding the session with the given id.
+	 *
+	 * @param sid the session id
+	 * @return the stripe holding the session
+	 */
+	private Stripe stripeOf(String sid) {
+		return stripes[(sid.hashCode() & 0x7FFFFFFF) % STRIPES];
+	}
+	
+	//=====================================================================================
+	//										STRIPE
+	//=====================================================================================
+	
+	/**
+	 * A single stripe: an access ordered map that evicts its least
+	 * recently used session once it exceeds its capacity.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class Stripe extends LinkedHashMap<String, SessionMapEntry> {
+		
+		/** The serial version UID. */
+		private static final long serialVersionUID = 1L;
+		
+		/** The maximum number of sessions in this stripe. */
+		private final int capacity;
+		
+		/**
+		 * Constructs a new stripe.
+		 *
+		 * @param capacity the maximum number of sessions in this stripe
+		 */
+		Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SessionMapEntry> eldest) {
+			if(size() <= capacity) return false;
+			
+			eldest.getValue().removed = true;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct output buffers used by the chunked responses of the
+ * {@link RequestContext}. Since every worker thread serves a single request
+ * at a time, the pool never needs to hold more buffers than there are
+ * worker threads; buffers returned to a full pool are simply dropped.
+ * <p>
+ * The pool also hands out the charset encoders. Encoders are not thread
+ * safe, so each thread reuses its own one for as long as the charset stays
+ * the same.
+ *
+ * @author Filip Nemec
+ */
+public class OutputBufferPool {
+	
+	/** The smallest allowed buffer size, large enough for any encoded character. */
+	private static final int MIN_BUFFER_SIZE = 16;
+	
+	/** The size of each buffer. */
+	private final int bufferSize;
+	
+	/** The number of buffered bytes after which a chunk is sent. */
+	private final int flushThreshold;
+	
+	/** The maximum number of pooled buffers. */
+	private final int maxPooled;
+	
+	/** The free buffers. */
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	
+	/** The number of free buffers. */
+	private final AtomicInteger pooled = new AtomicInteger();
+	
+	/** The encoder last used by each thread. */
+	private final ThreadLocal<CharsetEncoder> encoders = new ThreadLocal<>();
+	
+	/**
+	 * Constructs a new pool.
+	 *
+	 * @param bufferSize the size of each buffer
+	 * @param flushThreshold the number of buffered bytes after which a chunk is sent
+	 * @param maxPooled the maximum number of pooled buffers
+	 * @throws IllegalArgumentException if the buffer is too small, or if the
+	 * 		   threshold is not positive or exceeds the buffer size
+	 */
+	public OutputBufferPool(int bufferSize, int flushThreshold, int maxPooled) {
+		if(bufferSize < MIN_BUFFER_SIZE)
+			throw new IllegalArgumentException("Expected a buffer of at least " + MIN_BUFFER_SIZE + " bytes, but was " + bufferSize + ".");
+		
+		if(flushThreshold < 1 || flushThreshold > bufferSize)
+			throw new IllegalArgumentException("Flush threshold must be in range [1, " + bufferSize + "], but was " + flushThreshold + ".");
+		
+		this.bufferSize = bufferSize;
+		this.flushThreshold = flushThreshold;
+		this.maxPooled = maxPooled;
+	}
+	
+	/**
+	 * Takes a free buffer from the pool, allocating a new one if there is none.
+	 *
+	 * @return the cleared buffer
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if(buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		
+		pooled.decrementAndGet();
+		return buffer;
+	}
+	
+	/**
+	 * Returns the buffer to the pool.
+	 *
+	 * @param buffer the buffer to be returned
+	 */
+	public void release(ByteBuffer buffer) {
+		if(pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+		
+		buffer.clear();
+		buffers.add(buffer);
+	}
+	
+	/**
+	 * Returns the calling thread's encoder for the given charset. Malformed
+	 * and unmappable characters are replaced, just like
+	 * {@link String#getBytes(Charset)} does.
+	 *
+	 * @param charset the charset
+	 * @return the reset encoder
+	 */
+	public CharsetEncoder encoder(Charset charset) {
+		CharsetEncoder encoder = encoders.get();
+		
+		if(encoder == null || !encoder.charset().equals(charset)) {
+			encoder = charset.newEncoder()
+							 .onMalformedInput(CodingErrorAction.REPLACE)
+							 .onUnmappableCharacter(CodingErrorAction.REPLACE);
+			encoders.set(encoder);
+		}
+		
+		return encoder.reset();
+	}
+	
+	/**
+	 * Returns the number of buffered bytes after which a chunk is sent.
+	 *
+	 * @return the flush threshold
+	 */
+	public int getFlushThreshold() {
+		return flushThreshold;
+	}
+}
@@ -1,8 +1,17 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -18,6 +27,12 @@ import java.util.Set;
  */
 public class RequestContext {
 	
+	/** The line terminating each chunk. */
+	private static final byte[] CRLF = { '\r', '\n' };
+	
+	/** The last (empty) chunk of a chunked body. */
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+	
 	/** The output stream used by this request. */
 	private OutputStream outputStream;
 	
@@ -60,6 +75,36 @@ public class RequestContext {
 	/** The session ID. */
 	private String sid;
 	
+	/**
+	 * Whether the connection is kept alive after this response, or {@code null}
+	 * if the {@code Connection} header should not be sent at all.
+	 */
+	private Boolean keepAlive = null;
+	
+	/**
+	 * Collects the body of a persistent response whose length was not known
+	 * in advance, so that the {@code Content-Length} can be sent.
+	 */
+	private ByteArrayOutputStream bodyBuffer;
+	
+	/** The additional header lines, each one terminated by the CRLF. */
+	private List<String> additionalHeaders = new ArrayList<>();
+	
+	/** The pre-encoded header lines written after the additional headers, or {@code null}. */
+	private byte[] headerBlock;
+	
+	/** The pool of the chunk buffers, or {@code null} if chunked responses are not allowed. */
+	private OutputBufferPool bufferPool;
+	
+	/** The channel the chunks are written to. */
+	private WritableByteChannel outputChannel;
+	
+	/** The chunk currently being filled, or {@code null} if the body is not chunked. */
+	private ByteBuffer chunkBuffer;
+	
+	/** The encoder of the chunked text. */
+	private CharsetEncoder encoder;
+	
 	//=====================================================================================
 	//									CONSTRUCTORS
 	//=====================================================================================
@@ -113,11 +158,7 @@ public class RequestContext {
 	 * @throws IOException if error during the writing occurs
 	 */
 	public RequestContext write(byte[] data) throws IOException {
-		if(!headerGenerated) generateHeader();
-		
-		outputStream.write(data);
-		outputStream.flush();
-		return this;
+		return write(data, 0, data.length);
 	}
 	
 	/**
@@ -130,7 +171,26 @@ public class RequestContext {
 	 * @throws IOException if error during the writing occurs
 	 */
 	public RequestContext write(byte[] data, int offset, int len) throws IOException {
-		if(!headerGenerated) generateHeader();
+		beginBody();
+		
+		if(chunkBuffer != null) {
+			while(len > 0) {
+				int n = Math.min(len, chunkBuffer.remaining());
+				chunkBuffer.put(data, offset, n);
+				offset += n;
+				len -= n;
+				
+				if(!chunkBuffer.hasRemaining()) writeChunk();
+			}
+			
+			flushChunkIfNeeded();
+			return this;
+		}
+		
+		if(bodyBuffer != null) {
+			bodyBuffer.write(data, offset, len);
+			return this;
+		}
 		
 		outputStream.write(data, offset, len);
 		outputStream.flush();
@@ -145,10 +205,144 @@ public class RequestContext {
 	 * @throws IOException if error during the writing occurs
 	 */
 	public RequestContext write(String text) throws IOException {
-		if(!headerGenerated) generateHeader();
+		beginBody();
+		
+		if(chunkBuffer == null) {
+			return write(text.getBytes(encoding));
+		}
+		
+		// The text is encoded straight into the chunk, without an intermediate array.
+		CharBuffer in = CharBuffer.wrap(text);
+		encoder.reset();
+		
+		while(encoder.encode(in, chunkBuffer, true).isOverflow()) {
+			writeChunk();
+		}
+		while(encoder.flush(chunkBuffer).isOverflow()) {
+			writeChunk();
+		}
+		
+		flushChunkIfNeeded();
+		return this;
+	}
+	
+	/**
+	 * Prepares the body for writing, if it has not been prepared yet. The
+	 * body is written directly if its length is known, sent in chunks if
+	 * chunked responses are allowed, buffered whole if the connection is
+	 * persistent, or otherwise written directly and terminated by closing
+	 * the connection.
+	 */
+	private void beginBody() {
+		if(headerGenerated || bodyBuffer != null) return;
+		
+		if(contentLength == null && bufferPool != null) {
+			chunkBuffer = bufferPool.acquire();
+			encoder = bufferPool.encoder(Charset.forName(encoding));
+			generateHeader();
+			
+		} else if(contentLength == null && Boolean.TRUE.equals(keepAlive)) {
+			bodyBuffer = new ByteArrayOutputStream();
+			
+		} else {
+			generateHeader();
+		}
+	}
+	
+	/**
+	 * Sends the current chunk if it has reached the flush threshold.
+	 *
+	 * @throws IOException if error during the writing occurs
+	 */
+	private void flushChunkIfNeeded() throws IOException {
+		if(chunkBuffer.position() >= bufferPool.getFlushThreshold()) {
+			writeChunk();
+		}
+	}
+	
+	/**
+	 * Sends the current chunk, preceded by its size and followed by the CRLF.
+	 *
+	 * @throws IOException if error during the writing occurs
+	 */
+	private void writeChunk() throws IOException {
+		if(chunkBuffer.position() == 0) return;
+		
+		chunkBuffer.flip();
+		byte[] size = (Integer.toHexString(chunkBuffer.remaining()) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+		writeFully(ByteBuffer.wrap(size), chunkBuffer, ByteBuffer.wrap(CRLF));
+		chunkBuffer.clear();
+	}
+	
+	/**
+	 * Writes the given buffers to the output channel, using a single
+	 * gathering write if the channel supports it.
+	 *
+	 * @param buffers the buffers to be written
+	 * @throws IOException if error during the writing occurs
+	 */
+	private void writeFully(ByteBuffer... buffers) throws IOException {
+		if(outputChannel instanceof GatheringByteChannel) {
+			GatheringByteChannel channel = (GatheringByteChannel) outputChannel;
+			ByteBuffer last = buffers[buffers.length - 1];
+			
+			while(last.hasRemaining()) {
+				channel.write(buffers);
+			}
+			return;
+		}
+		
+		for(ByteBuffer buffer : buffers) {
+			while(buffer.hasRemaining()) {
+				outputChannel.write(buffer);
+			}
+		}
+	}
+	
+	/**
+	 * Completes the response. If the body of a persistent response was
+	 * buffered, the header (with the {@code Content-Length}) and the body
+	 * are written now. A persistent response without any body gets an
+	 * empty one, since the client could not tell where it ends otherwise.
+	 * A chunked body is terminated by the last, empty chunk.
+	 *
+	 * @throws IOException if error during the writing occurs
+	 */
+	public void finish() throws IOException {
+		if(chunkBuffer != null) {
+			try {
+				writeChunk();
+				writeFully(ByteBuffer.wrap(LAST_CHUNK));
+			} finally {
+				close();
+			}
+			
+		} else if(bodyBuffer != null) {
+			contentLength = (long) bodyBuffer.size();
+			generateHeader();
+			bodyBuffer.writeTo(outputStream);
+			bodyBuffer = null;
+			
+		} else if(!headerGenerated && Boolean.TRUE.equals(keepAlive)) {
+			contentLength = 0L;
+			generateHeader();
+		}
 		
-		outputStream.write(text.getBytes(encoding));
 		outputStream.flush();
+	}
+	
+	/**
+	 * Writes the header right away, without any body. Used by the responses
+	 * whose body is written directly to the underlying channel, so their
+	 * content length must already be set, and by the responses that have
+	 * no body at all (such as {@code 304 Not Modified}).
+	 *
+	 * @return the reference to this request
+	 * @throws IOException if error during the writing occurs
+	 */
+	public RequestContext writeHeader() throws IOException {
+		requireHeaderNotGenerated();
+		generateHeader();
 		return this;
 	}
 	
@@ -172,18 +366,38 @@ public class RequestContext {
 		// Append content length.
 		if(contentLength != null) {
 			header += "Content-Length: " + contentLength + "\r\n";
+			
+		} else if(chunkBuffer != null) {
+			header += "Transfer-Encoding: chunked\r\n";
+		}
+		
+		// Append additional headers.
+		for(String line : additionalHeaders) {
+			header += line;
+		}
+		
+		// The pre-encoded header block is written between the two parts.
+		String trailer = "";
+		
+		// Append connection persistence.
+		if(keepAlive != null) {
+			trailer += "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n";
 		}
 		
 		// Append cookies.
 		for(RCCookie cookie : outputCookies) {
-			header += convertCookieToHeaderLine(cookie);
+			trailer += convertCookieToHeaderLine(cookie);
 		}
 		
 		// Append empty line to signal the end of header lines.
-		header += "\r\n";
+		trailer += "\r\n";
 		
 		try {
 			outputStream.write(header.getBytes(charset));
+			if(headerBlock != null) {
+				outputStream.write(headerBlock);
+			}
+			outputStream.write(trailer.getBytes(charset));
 			outputStream.flush();
 			headerGenerated = true;
 			
@@ -274,6 +488,15 @@ public class RequestContext {
 		return Collections.unmodifiableSet(temporaryParameters.keySet());
 	}
 	
+	/**
+	 * Returns the encoding used by this request.
+	 *
+	 * @return the encoding used by this request
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+	
 	/**
 	 * Returns the session ID.
 	 *
@@ -366,6 +589,19 @@ public class RequestContext {
 		this.outputCookies = outputCookies;
 	}
 	
+	/**
+	 * Returns the pooled chunk buffer, if this context still holds one, back
+	 * to its pool. Must be called once the request is done with, even if it
+	 * was not {@link #finish() finished} because the worker has thrown, so
+	 * the buffer is never lost. Does nothing if the buffer was already returned.
+	 */
+	public void close() {
+		if(chunkBuffer != null) {
+			bufferPool.release(chunkBuffer);
+			chunkBuffer = null;
+		}
+	}
+	
 	/**
 	 * Sets the content length
 	 *
@@ -376,12 +612,66 @@ public class RequestContext {
 		this.contentLength = contentLength;
 	}
 	
+	/**
+	 * Sets whether the connection is kept alive after this response.
+	 * Persistent responses without a known content length are buffered
+	 * until {@link #finish()} is called.
+	 *
+	 * @param keepAlive {@code true} if the connection is kept alive
+	 */
+	public void setKeepAlive(boolean keepAlive) {
+		requireHeaderNotGenerated();
+		this.keepAlive = keepAlive;
+	}
+	
+	/**
+	 * Allows the body of unknown length to be sent in chunks
+	 * ({@code Transfer-Encoding: chunked}). Such a body is encoded into a
+	 * pooled buffer, which is sent as a chunk whenever the pool's flush
+	 * threshold is reached, so the output streams with bounded memory while
+	 * the connection can still be reused. Must only be used for HTTP/1.1
+	 * clients.
+	 *
+	 * @param bufferPool the pool of the chunk buffers
+	 * @param outputChannel the channel of the output stream, or {@code null}
+	 * 		  if the chunks should be written to the output stream itself
+	 */
+	public void setChunkedOutput(OutputBufferPool bufferPool, WritableByteChannel outputChannel) {
+		requireHeaderNotGenerated();
+		this.bufferPool = Objects.requireNonNull(bufferPool);
+		this.outputChannel = (outputChannel != null) ? outputChannel : Channels.newChannel(outputStream);
+	}
+	
+	/**
+	 * Adds an additional header line, such as {@code Content-Range}.
+	 *
+	 * @param name the name of the header
+	 * @param value the value of the header
+	 */
+	public void addHeader(String name, String value) {
+		requireHeaderNotGenerated();
+		additionalHeaders.add(name + ": " + value + "\r\n");
+	}
+	
+	/**
+	 * Sets the pre-encoded header lines that are written as they are, right
+	 * after the additional headers. Each line must be terminated by the CRLF.
+	 * This lets the frequently sent headers be encoded only once.
+	 *
+	 * @param headerBlock the pre-encoded header lines, or {@code null}
+	 */
+	public void setHeaderBlock(byte[] headerBlock) {
+		requireHeaderNotGenerated();
+		this.headerBlock = headerBlock;
+	}
+	
 	/**
 	 * Helper method that ensures that the header has not been generated
-	 * yet. It if was generated, throws a {@code RuntimeException}.
+	 * yet. It if was generated (or the body has already started being
+	 * buffered), throws a {@code RuntimeException}.
 	 */
 	private void requireHeaderNotGenerated() {
-		if(headerGenerated)
+		if(headerGenerated || bodyBuffer != null)
 			throw new RuntimeException("Header was already generated.");
 	}
 	
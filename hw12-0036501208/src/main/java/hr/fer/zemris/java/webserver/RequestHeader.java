@@ -0,0 +1,523 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable (flyweight) view of an HTTP request header.
+ * <p>
+ * The header is parsed in place: instead of being split into lines and
+ * words, only the offsets of the request line parts and of each header's
+ * name and value are remembered. Strings are created only for the values
+ * that are actually asked for, and names are compared byte by byte, so
+ * parsing a request and looking up its headers allocates next to nothing.
+ * <p>
+ * When reading from a stream, the header is read into an internal buffer
+ * that is reused for all the requests of a connection. Bytes read past the
+ * end of a header belong to the next (pipelined) request and are kept for
+ * the next {@link #readFrom(InputStream)}.
+ * <p>
+ * Both the size of the header and the number of header fields are limited;
+ * a request exceeding them is rejected with a {@link HeaderException}.
+ *
+ * @author Filip Nemec
+ */
+public class RequestHeader {
+	
+	/** The field holding the start of the name. */
+	private static final int NAME_START = 0;
+	
+	/** The field holding the end of the name. */
+	private static final int NAME_END = 1;
+	
+	/** The field holding the start of the value. */
+	private static final int VALUE_START = 2;
+	
+	/** The field holding the end of the value. */
+	private static final int VALUE_END = 3;
+	
+	/** The number of fields per header. */
+	private static final int FIELDS = 4;
+	
+	/** The maximum size of a header, in bytes. */
+	private final int maxHeaderSize;
+	
+	/** The maximum number of header fields. */
+	private final int maxHeaderCount;
+	
+	/** The offsets of each header's name and value. */
+	private final int[] fields;
+	
+	/** The number of parsed headers. */
+	private int headerCount;
+	
+	/** The bytes of the parsed header. */
+	private byte[] data;
+	
+	/** The start of the method. */
+	private int methodStart;
+	
+	/** The end of the method. */
+	private int methodEnd;
+	
+	/** The start of the request target. */
+	private int targetStart;
+	
+	/** The end of the request target. */
+	private int targetEnd;
+	
+	/** The start of the version. */
+	private int versionStart;
+	
+	/** The end of the version. */
+	private int versionEnd;
+	
+	/** The buffer used when reading from a stream, allocated on first use. */
+	private byte[] buffer;
+	
+	/** The number of valid bytes in the {@link #buffer}. */
+	private int limit;
+	
+	/** The number of {@link #buffer} bytes taken by the current header. */
+	private int consumed;
+	
+	/**
+	 * Constructs a new request header.
+	 *
+	 * @param maxHeaderSize the maximum size of a header, in bytes
+	 * @param maxHeaderCount the maximum number of header fields
+	 * @throws IllegalArgumentException if any of the limits is not positive
+	 */
+	public RequestHeader(int maxHeaderSize, int maxHeaderCount) {
+		if(maxHeaderSize < 1 || maxHeaderCount < 1)
+			throw new IllegalArgumentException("Header limits must be positive.");
+		
+		this.maxHeaderSize = maxHeaderSize;
+		this.maxHeaderCount = maxHeaderCount;
+		this.fields = new int[FIELDS * maxHeaderCount];
+	}
+	
+	//=====================================================================================
+	//										READING
+	//=====================================================================================
+	
+	/**
+	 * Reads the next request header from the given stream and parses it.
+	 * The header of the previous request is discarded first.
+	 *
+	 * @param in the input stream
+	 * @return {@code true} if a header was read, {@code false} if the stream
+	 * 		   ended before the first byte of the next request
+	 * @throws HeaderException if the header is malformed or too large
+	 * @throws IOException if the stream ends within the header, or if an IO error occurs
+	 */
+	public boolean readFrom(InputStream in) throws IOException {
+		if(buffer == null) {
+			buffer = new byte[maxHeaderSize];
+		}
+		
+		// Keep the bytes of the next request, if any.
+		limit -= consumed;
+		System.arraycopy(buffer, consumed, buffer, 0, limit);
+		consumed = 0;
+		
+		int scanned = 0;
+		while(true) {
+			int end = findHeaderEnd(buffer, scanned, limit);
+			if(end >= 0) {
+				parse(buffer, 0, end);
+				consumed = end;
+				return true;
+			}
+			
+			if(limit == buffer.length)
+				throw new HeaderException(431, "Request Header Fields Too Large");
+			
+			// The end could be split over two reads.
+			scanned = Math.max(0, limit - 2);
+			
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if(read == -1) {
+				if(limit == 0) return false;
+				throw new EOFException("Connection closed within the request header.");
+			}
+			
+			limit += read;
+		}
+	}
+	
+	/**
+	 * Finds the end of the header, which is the first empty line. Lines
+	 * can be terminated by either {@code LF} or {@code CRLF}.
+	 *
+	 * @param data the bytes
+	 * @param from the index from which to search
+	 * @param to the index up to which to search
+	 * @return the index right after the empty line, or {@code -1} if it was not found
+	 */
+	private static int findHeaderEnd(byte[] data, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(data[i] != '\n') continue;
+			
+			if(i + 1 < to && data[i + 1] == '\n') return i + 2;
+			if(i + 2 < to && data[i + 1] == '\r' && data[i + 2] == '\n') return i + 3;
+		}
+		
+		return -1;
+	}
+	
+	//=====================================================================================
+	//										PARSING
+	//=====================================================================================
+	
+	/**
+	 * Parses the header held by the given bytes. The bytes are not copied,
+	 * so they must not change while this header is in use.
+	 *
+	 * @param data the bytes
+	 * @param offset the index of the first header byte
+	 * @param length the length of the header
+	 * @throws HeaderException if the header is malformed or too large
+	 */
+	public void parse(byte[] data, int offset, int length) throws HeaderException {
+		if(length > maxHeaderSize)
+			throw new HeaderException(431, "Request Header Fields Too Large");
+		
+		this.data = data;
+		this.headerCount = 0;
+		
+		int end = offset + length;
+		
+		// The request line.
+		int lineEnd = lineEnd(offset, end);
+		int pos = skipSpaces(offset, lineEnd);
+		
+		methodStart = pos;
+		methodEnd = pos = skipWord(pos, lineEnd);
+		targetStart = pos = skipSpaces(pos, lineEnd);
+		targetEnd = pos = skipWord(pos, lineEnd);
+		versionStart = pos = skipSpaces(pos, lineEnd);
+		versionEnd = skipWord(pos, lineEnd);
+		
+		if(methodStart == methodEnd || targetStart == targetEnd || versionStart == versionEnd)
+			throw new HeaderException(400, "Bad request");
+		
+		// The header fields.
+		for(pos = nextLine(lineEnd, end); pos < end; pos = nextLine(lineEnd, end)) {
+			lineEnd = lineEnd(pos, end);
+			if(pos == lineEnd) break;
+			
+			if(data[pos] == ' ' || data[pos] == '\t') {
+				// A folded line continues the previous value.
+				if(headerCount == 0)
+					throw new HeaderException(400, "Bad request");
+				
+				fields[FIELDS * (headerCount - 1) + VALUE_END] = trimEnd(pos, lineEnd);
+				continue;
+			}
+			
+			int colon = indexOf(':', pos, lineEnd);
+			if(colon <= pos)
+				throw new HeaderException(400, "Bad request");
+			
+			if(headerCount == maxHeaderCount)
+				throw new HeaderException(431, "Request Header Fields Too Large");
+			
+			int field = FIELDS * headerCount++;
+			fields[field + NAME_START]  = pos;
+			fields[field + NAME_END]    = trimEnd(pos, colon);
+			fields[field + VALUE_START] = skipSpaces(colon + 1, lineEnd);
+			fields[field + VALUE_END]   = trimEnd(fields[field + VALUE_START], lineEnd);
+		}
+	}
+	
+	/**
+	 * Returns the end of the line starting at {@code pos}, excluding the terminator.
+	 *
+	 * @param pos the start of the line
+	 * @param end the end of the header
+	 * @return the end of the line
+	 */
+	private int lineEnd(int pos, int end) {
+		int lf = indexOf('\n', pos, end);
+		if(lf < 0) lf = end;
+		
+		return (lf > pos && data[lf - 1] == '\r') ? lf - 1 : lf;
+	}
+	
+	/**
+	 * Returns the start of the line following the line that ends at {@code lineEnd}.
+	 *
+	 * @param lineEnd the end of the line, excluding the terminator
+	 * @param end the end of the header
+	 * @return the start of the next line
+	 */
+	private int nextLine(int lineEnd, int end) {
+		if(lineEnd < end && data[lineEnd] == '\r') lineEnd++;
+		return Math.min(lineEnd + 1, end);
+	}
+	
+	/**
+	 * Returns the index of the first occurrence of the byte.
+	 *
+	 * @param b the byte
+	 * @param from the index from which to search
+	 * @param to the index up to which to search
+	 * @return the index of the byte, or {@code -1} if there is none
+	 */
+	private int indexOf(char b, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(data[i] == b) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Skips the spaces and tabs.
+	 *
+	 * @param pos the current index
+	 * @param to the end index
+	 * @return the index of the first other byte
+	 */
+	private int skipSpaces(int pos, int to) {
+		while(pos < to && (data[pos] == ' ' || data[pos] == '\t')) pos++;
+		return pos;
+	}
+	
+	/**
+	 * Skips the bytes that are not spaces or tabs.
+	 *
+	 * @param pos the current index
+	 * @param to the end index
+	 * @return the index of the first space or tab
+	 */
+	private int skipWord(int pos, int to) {
+		while(pos < to && data[pos] != ' ' && data[pos] != '\t') pos++;
+		return pos;
+	}
+	
+	/**
+	 * Trims the trailing spaces and tabs.
+	 *
+	 * @param from the start index
+	 * @param to the end index
+	 * @return the new end index
+	 */
+	private int trimEnd(int from, int to) {
+		while(to > from && (data[to - 1] == ' ' || data[to - 1] == '\t')) to--;
+		return to;
+	}
+	
+	//=====================================================================================
+	//										LOOKUPS
+	//=====================================================================================
+	
+	/**
+	 * Returns the request method. The common methods are returned as
+	 * constants, without creating a new string.
+	 *
+	 * @return the request method
+	 */
+	public String getMethod() {
+		if(equalsIgnoreCase(methodStart, methodEnd, "GET")) return "GET";
+		return toString(methodStart, methodEnd).toUpperCase();
+	}
+	
+	/**
+	 * Returns the request target, such as {@code /index.html?a=1}.
+	 *
+	 * @return the request target
+	 */
+	public String getTarget() {
+		return toString(targetStart, targetEnd);
+	}
+	
+	/**
+	 * Returns the (upper-case) HTTP version. The common versions are
+	 * returned as constants, without creating a new string.
+	 *
+	 * @return the HTTP version
+	 */
+	public String getVersion() {
+		if(equalsIgnoreCase(versionStart, versionEnd, "HTTP/1.1")) return "HTTP/1.1";
+		if(equalsIgnoreCase(versionStart, versionEnd, "HTTP/1.0")) return "HTTP/1.0";
+		return toString(versionStart, versionEnd).toUpperCase();
+	}
+	
+	/**
+	 * Returns the number of header fields.
+	 *
+	 * @return the number of header fields
+	 */
+	public int getHeaderCount() {
+		return headerCount;
+	}
+	
+	/**
+	 * Returns the value of the first header with the given (case-insensitive) name.
+	 *
+	 * @param name the name of the header
+	 * @return the value of the header, or {@code null} if there is none
+	 */
+	public String getHeader(String name) {
+		int field = findHeader(name, 0);
+		return (field < 0) ? null : toString(fields[field + VALUE_START], fields[field + VALUE_END]);
+	}
+	
+	/**
+	 * Checks whether the first header with the given name has the given
+	 * value, ignoring the case of both. No string is created.
+	 *
+	 * @param name the name of the header
+	 * @param value the expected value
+	 * @return {@code true} if the header exists and has the given value
+	 */
+	public boolean headerEqualsIgnoreCase(String name, String value) {
+		int field = findHeader(name, 0);
+		return field >= 0 && equalsIgnoreCase(fields[field + VALUE_START], fields[field + VALUE_END], value);
+	}
+	
+	/**
+	 * Returns the value of the cookie with the given (case-insensitive)
+	 * name. All the {@code Cookie} headers are searched, and the quotes
+	 * surrounding the value are removed. Only the returned value is
+	 * created as a string.
+	 *
+	 * @param name the name of the cookie
+	 * @return the value of the cookie, or {@code null} if there is none
+	 */
+	public String getCookie(String name) {
+		for(int field = findHeader("Cookie", 0); field >= 0; field = findHeader("Cookie", field + FIELDS)) {
+			int end = fields[field + VALUE_END];
+			
+			for(int pos = fields[field + VALUE_START]; pos < end; ) {
+				int pairEnd = indexOf(';', pos, end);
+				if(pairEnd < 0) pairEnd = end;
+				
+				int nameStart = skipSpaces(pos, pairEnd);
+				int equals = indexOf('=', nameStart, pairEnd);
+				
+				if(equals >= 0 && equalsIgnoreCase(nameStart, trimEnd(nameStart, equals), name)) {
+					int valueStart = skipSpaces(equals + 1, pairEnd);
+					int valueEnd = trimEnd(valueStart, pairEnd);
+					
+					if(valueEnd - valueStart >= 2 && data[valueStart] == '"' && data[valueEnd - 1] == '"') {
+						valueStart++;
+						valueEnd--;
+					}
+					
+					return toString(valueStart, valueEnd);
+				}
+				
+				pos = pairEnd + 1;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Finds the header with the given name.
+	 *
+	 * @param name the name of the header
+	 * @param from the field from which to search
+	 * @return the field of the header, or {@code -1} if there is none
+	 */
+	private int findHeader(String name, int from) {
+		for(int field = from, n = FIELDS * headerCount; field < n; field += FIELDS) {
+			if(equalsIgnoreCase(fields[field + NAME_START], fields[field + NAME_END], name)) {
+				return field;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Compares the bytes with the given ASCII text, ignoring the case.
+	 *
+	 * @param from the start index
+	 * @param to the end index
+	 * @param text the text
+	 * @return {@code true} if the bytes equal the text
+	 */
+	private boolean equalsIgnoreCase(int from, int to, String text) {
+		if(to - from != text.length()) return false;
+		
+		for(int i = 0; i < text.length(); i++) {
+			int a = data[from + i] & 0xFF;
+			int b = text.charAt(i);
+			
+			if(a != b && toLowerCase(a) != toLowerCase(b)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Converts the ASCII letter to lower case.
+	 *
+	 * @param c the character
+	 * @return the lower-case character
+	 */
+	private static int toLowerCase(int c) {
+		return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+	}
+	
+	/**
+	 * Creates the string from the bytes. Line breaks of folded values are left out.
+	 *
+	 * @param from the start index
+	 * @param to the end index
+	 * @return the string
+	 */
+	private String toString(int from, int to) {
+		if(indexOf('\n', from, to) < 0) {
+			return new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+		}
+		
+		StringBuilder sb = new StringBuilder(to - from);
+		for(int i = from; i < to; i++) {
+			if(data[i] != '\r' && data[i] != '\n') sb.append((char) (data[i] & 0xFF));
+		}
+		return sb.toString();
+	}
+	
+	//=====================================================================================
+	//									  EXCEPTION
+	//=====================================================================================
+	
+	/**
+	 * Thrown if a request header is malformed or exceeds the limits.
+	 *
+	 * @author Filip Nemec
+	 */
+	public static class HeaderException extends IOException {
+		
+		/** The serial version UID. */
+		private static final long serialVersionUID = 1L;
+		
+		/** The status code of the response. */
+		private final int statusCode;
+		
+		/**
+		 * Constructs a new exception.
+		 *
+		 * @param statusCode the status code of the response
+		 * @param statusText the status text of the response
+		 */
+		public HeaderException(int statusCode, String statusText) {
+			super(statusText);
+			this.statusCode = statusCode;
+		}
+		
+		/**
+		 * Returns the status code of the response.
+		 *
+		 * @return the status code of the response
+		 */
+		public int getStatusCode() {
+			return statusCode;
+		}
+	}
+}
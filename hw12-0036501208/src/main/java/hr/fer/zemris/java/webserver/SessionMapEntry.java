@@ -0,0 +1,45 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+
+/**
+ * Models a session entry.
+ *
+ * @author Filip Nemec
+ */
+public class SessionMapEntry {
+	
+	/** The session id. */
+	public final String sid;
+	
+	/** The session host. */
+	public final String host;
+	
+	/** The session timeout time. Extended by the request threads, read by the expiry. */
+	public volatile long validUntil;
+	
+	/** The session data storage. */
+	public final Map<String, String> map;
+	
+	/**
+	 * Whether the session was taken out of its store. Set and read by the
+	 * store under the lock of the session's stripe, so that the expiry drops
+	 * the session from the timer wheel instead of scheduling it again.
+	 */
+	boolean removed;
+	
+	/**
+	 * Constructs a new session entry.
+	 *
+	 * @param sid the session id
+	 * @param host the session host
+	 * @param validUntil the session timeout time
+	 * @param map the session data storage, which must be thread safe
+	 */
+	public SessionMapEntry(String sid, String host, long validUntil, Map<String, String> map) {
+		this.sid = sid;
+		this.host = host;
+		this.validUntil = validUntil;
+		this.map = map;
+	}
+}
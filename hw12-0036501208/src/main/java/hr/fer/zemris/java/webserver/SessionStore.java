@@ -0,0 +1,58 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+/**
+ * Models the storage of the user sessions. Implementations must be safe
+ * for use by many request threads at once.
+ *
+ * @author Filip Nemec
+ */
+public interface SessionStore extends Closeable {
+	
+	/**
+	 * Returns the session with the given id. Sessions that have already
+	 * expired are removed and never returned.
+	 *
+	 * @param sid the session id
+	 * @return the session, or {@code null} if there is no valid session with the given id
+	 */
+	SessionMapEntry get(String sid);
+	
+	/**
+	 * Stores the given session. The store may evict other sessions in order
+	 * to stay within its capacity.
+	 *
+	 * @param session the session to be stored
+	 */
+	void put(SessionMapEntry session);
+	
+	/**
+	 * Removes the session with the given id.
+	 *
+	 * @param sid the session id
+	 */
+	void remove(String sid);
+	
+	/**
+	 * Removes the sessions that have expired by the given time.
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	void expire(long now);
+	
+	/**
+	 * Performs the given action for each stored session.
+	 *
+	 * @param action the action to be performed
+	 */
+	void forEach(Consumer<SessionMapEntry> action);
+	
+	/**
+	 * Returns the number of stored sessions.
+	 *
+	 * @return the number of stored sessions
+	 */
+	int size();
+}
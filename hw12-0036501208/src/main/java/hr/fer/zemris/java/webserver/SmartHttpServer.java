@@ -1,33 +1,44 @@
 package hr.fer.zemris.java.webserver;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.StaticFileCache.StaticFile;
 
 /**
  * Models a smart HTTP based server.
@@ -48,6 +59,24 @@ public class SmartHttpServer {
 	/** The number of threads used in the thread pool. */
 	private int workerThreads;
 	
+	/** Flag that indicates whether the non-blocking (NIO) engine is used. */
+	private boolean nioEngine;
+	
+	/** The number of selector event-loop threads used by the NIO engine. */
+	private int eventLoopThreads;
+	
+	/** The maximum number of requests served over a single connection. */
+	private int keepAliveMaxRequests;
+	
+	/** The number of seconds an idle persistent connection is kept open. */
+	private int keepAliveTimeout;
+	
+	/** The number of milliseconds an idle persistent connection of the blocking engine holds its pool thread. */
+	private int blockingIdleTimeout;
+	
+	/** The number of connections accepted by the blocking engine that are not closed yet. */
+	private final AtomicInteger openConnections = new AtomicInteger();
+	
 	/** The root directory for serving files. */
 	private Path documentRoot;
 	
@@ -55,22 +84,55 @@ public class SmartHttpServer {
 	private Map<String, String> mimeTypes = new HashMap<String, String>();
 	
 	/** The server thread. */
-	private ServerThread serverThread;
+	private Thread serverThread;
 	
 	/** The thread pool used by this server. */
 	private ExecutorService threadPool;
 	
 	/** Maps the path to its {@code IWebWorker}. */
-	private Map<String,IWebWorker> workersMap = new HashMap<>();
+	private Map<String,WorkerRegistry.Registration> workersMap = new HashMap<>();
+	
+	/** The registry of the workers, both the configured ones and the ones requested through {@code /ext/}. */
+	private final WorkerRegistry workerRegistry = new WorkerRegistry(getClass().getClassLoader());
 	
 	/** The duration of user sessions in seconds. */
 	private int sessionTimeout;
 	
-	/** A map of sessions. */
-	private Map<String, SessionMapEntry> sessions = new HashMap<String, SmartHttpServer.SessionMapEntry>();
+	/** The store of the user sessions. */
+	private SessionStore sessions;
 	
 	/** Randomization object used by the session. */
 	private Random sessionRandom = new Random();
+	
+	/** The cache of parsed smart scripts. */
+	private SmartScriptCache scriptCache;
+	
+	/** Flag that indicates whether smart scripts are compiled instead of interpreted. */
+	private boolean compileScripts;
+	
+	/** The cache of static files. */
+	private StaticFileCache staticFiles;
+	
+	/** The pool of chunk buffers, or {@code null} if chunked responses are disabled. */
+	private OutputBufferPool chunkBuffers;
+	
+	/** The maximum size of a request header, in bytes. */
+	private int maxHeaderSize;
+	
+	/** The maximum number of request header fields. */
+	private int maxHeaderCount;
+	
+	/** The request header of each worker thread, used for the requests read by the NIO engine. */
+	private final ThreadLocal<RequestHeader> requestHeaders = ThreadLocal.withInitial(() -> new RequestHeader(maxHeaderSize, maxHeaderCount));
+	
+	/** The final state of the header-end automaton. */
+	private static final int HEADER_COMPLETE = -1;
+	
+	/** The interval (in milliseconds) between two idle NIO connection sweeps. */
+	private static final long IDLE_SWEEP_INTERVAL = 1000;
+	
+	/** The interval (in milliseconds) between two expired session sweeps. */
+	private static final long SESSION_SWEEP_INTERVAL = 1000;
 
 	/**
 	 * Constructs a new smart HTTP server.
@@ -90,15 +152,53 @@ public class SmartHttpServer {
 		this.sessionTimeout = Integer.parseInt( server.getProperty("session.timeout") );
 		this.documentRoot   = Paths.get( server.getProperty("server.documentRoot") );
 		
+		this.sessions = new InMemorySessionStore(Integer.parseInt( server.getProperty("session.maxSessions", "10000").trim() ));
+		String snapshotFile = server.getProperty("session.snapshotFile", "").trim();
+		if(!snapshotFile.isEmpty()) {
+			this.sessions = new SnapshotSessionStore(sessions, Paths.get(snapshotFile));
+		}
+		
+		this.nioEngine        = server.getProperty("server.engine", "blocking").trim().equalsIgnoreCase("nio");
+		this.eventLoopThreads = Integer.parseInt( server.getProperty("server.eventLoopThreads", "1").trim() );
+		
+		if(eventLoopThreads < 1) {
+			throw new IllegalArgumentException("Expected at least 1 event-loop thread, but was " + eventLoopThreads + ".");
+		}
+		
+		this.keepAliveMaxRequests = Integer.parseInt( server.getProperty("server.keepAlive.maxRequests", "1").trim() );
+		this.keepAliveTimeout     = Integer.parseInt( server.getProperty("server.keepAlive.timeout", "5").trim() );
+		this.blockingIdleTimeout  = Integer.parseInt( server.getProperty("server.keepAlive.blockingIdleTimeout", "1000").trim() );
+		
+		if(keepAliveMaxRequests < 1) {
+			throw new IllegalArgumentException("Expected at least 1 request per connection, but was " + keepAliveMaxRequests + ".");
+		}
+		
+		if(blockingIdleTimeout < 1) {
+			throw new IllegalArgumentException("Expected a positive idle timeout, but was " + blockingIdleTimeout + ".");
+		}
+		
+		this.maxHeaderSize  = Integer.parseInt( server.getProperty("server.maxHeaderSize", "8192").trim() );
+		this.maxHeaderCount = Integer.parseInt( server.getProperty("server.maxHeaderCount", "100").trim() );
+		
+		this.scriptCache = new SmartScriptCache(Integer.parseInt( server.getProperty("server.scriptCache.capacity", "64").trim() ));
+		this.compileScripts = Boolean.parseBoolean( server.getProperty("server.compileScripts", "false").trim() );
+		this.staticFiles = new StaticFileCache(Long.parseLong( server.getProperty("server.fileCache.maxBytes", "0").trim() ),
+											   Long.parseLong( server.getProperty("server.fileCache.maxFileSize", "0").trim() ));
+		
+		if(Boolean.parseBoolean( server.getProperty("server.chunked.enabled", "false").trim() )) {
+			this.chunkBuffers = new OutputBufferPool(Integer.parseInt( server.getProperty("server.chunked.bufferSize", "8192").trim() ),
+													 Integer.parseInt( server.getProperty("server.chunked.flushThreshold", "4096").trim() ),
+													 workerThreads);
+		}
+		
 		// Workers properties
 		Properties workers = new Properties();
 		workers.load(Files.newInputStream(Paths.get(server.getProperty("server.workers"))));
 		workers.stringPropertyNames().forEach(path -> {
-			try {
-				String fqcn = workers.getProperty(path);
-				workersMap.put(path, getWebWorkerFromFQCN(fqcn));
-			} catch (Exception e) {
-				e.printStackTrace();
+			WorkerRegistry.Registration registration = workerRegistry.lookup(workers.getProperty(path).trim());
+			
+			if(registration != null) {
+				workersMap.put(path, registration);
 			}
 		});
 		
@@ -113,20 +213,49 @@ public class SmartHttpServer {
 	 */
 	protected synchronized void start() {
 		if(serverThread == null) {
-			System.out.println("Starting the server with address " + address + " and port " + port +"...");
+			System.out.println("Starting the " + (nioEngine ? "NIO" : "blocking") + " server with address " + address + " and port " + port +"...");
 			
-			serverThread = new ServerThread();
-			serverThread.start();
 			threadPool = Executors.newFixedThreadPool(workerThreads);
+			
+			SessionCleaner sessionCleaner = new SessionCleaner();
+			sessionCleaner.setDaemon(true);
+			sessionCleaner.start();
+			
+			// Lets the session store save its snapshot when the server is shut down.
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> closeQuietly(sessions)));
+			
+			serverThread = nioEngine ? new NioServerThread() : new ServerThread();
+			serverThread.start();
 		}
 	}
 
+	/**
+	 * Returns the cache of parsed smart scripts, whose hit and miss
+	 * counters describe how well the script pages are being cached.
+	 *
+	 * @return the cache of parsed smart scripts
+	 */
+	public SmartScriptCache getScriptCache() {
+		return scriptCache;
+	}
+
+	/**
+	 * Returns the registry of the workers, which also holds their
+	 * invocation counts and processing time histograms.
+	 *
+	 * @return the registry of the workers
+	 */
+	public WorkerRegistry getWorkerRegistry() {
+		return workerRegistry;
+	}
+
 	/**
 	 * Stops this HTTP server.
 	 */
 	protected synchronized void stop() {
 		serverThread.interrupt();
 		threadPool.shutdown();
+		closeQuietly(sessions);
 	}
 
 	/**
@@ -138,16 +267,14 @@ public class SmartHttpServer {
 	protected class ServerThread extends Thread {
 		@Override
 		public void run() {
-			try(ServerSocket serverSocket = new ServerSocket()) {
-				serverSocket.bind(new InetSocketAddress(InetAddress.getByName(address), port));
-				
-				SessionCleaner sessionCleaner = new SessionCleaner();
-				sessionCleaner.setDaemon(true);
-				sessionCleaner.start();
+			try(ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+				serverChannel.bind(new InetSocketAddress(InetAddress.getByName(address), port));
 				
 				while(true) {
-					Socket client = serverSocket.accept();
+					// Sockets backed by a channel allow static files to be transferred without copying.
+					Socket client = serverChannel.accept().socket();
 					ClientWorker cw = new ClientWorker(client);
+					openConnections.incrementAndGet();
 					threadPool.submit(cw);
 				}
 				
@@ -157,6 +284,440 @@ public class SmartHttpServer {
 		}
 	}
 	
+	//----------------------------------------------------------
+	//						NIO ENGINE
+	//----------------------------------------------------------
+	
+	/**
+	 * Models the non-blocking variant of the server thread. It accepts
+	 * the connections using a {@code ServerSocketChannel} and distributes
+	 * them (round-robin) over a fixed number of {@link EventLoop}s. Worker
+	 * threads are only ever given complete requests, which means that a
+	 * slow client occupies a selector registration instead of a whole
+	 * worker thread.
+	 *
+	 * @author Filip Nemec
+	 */
+	protected class NioServerThread extends Thread {
+		
+		@Override
+		public void run() {
+			EventLoop[] eventLoops = new EventLoop[eventLoopThreads];
+			
+			try(ServerSocketChannel serverChannel = ServerSocketChannel.open();
+				Selector selector = Selector.open()) {
+				for(int i = 0; i < eventLoops.length; i++) {
+					eventLoops[i] = new EventLoop();
+					eventLoops[i].setName("event-loop-" + i);
+					eventLoops[i].setDaemon(true);
+					eventLoops[i].start();
+				}
+				
+				serverChannel.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+				serverChannel.configureBlocking(false);
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+				
+				int next = 0;
+				while(!isInterrupted()) {
+					selector.select();
+					selector.selectedKeys().clear();
+					
+					SocketChannel client;
+					while((client = serverChannel.accept()) != null) {
+						client.configureBlocking(false);
+						eventLoops[next].register(client);
+						next = (next + 1) % eventLoops.length;
+					}
+				}
+				
+			} catch (IOException e) {
+				e.printStackTrace();
+				
+			} finally {
+				for(EventLoop loop : eventLoops) {
+					if(loop != null) loop.interrupt();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * A single selector thread that reads requests from (and writes responses
+	 * to) the channels registered to it. All of the selection key manipulation
+	 * is done on this thread; other threads communicate with it through the
+	 * {@link #tasks} queue.
+	 *
+	 * @author Filip Nemec
+	 */
+	private class EventLoop extends Thread {
+		
+		/** The selector of this event loop. */
+		private final Selector selector;
+		
+		/** Tasks submitted by other threads, executed on this thread. */
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		
+		/** The time of the last idle connection sweep. */
+		private long lastIdleSweep = System.currentTimeMillis();
+		
+		/**
+		 * Constructs a new event loop.
+		 *
+		 * @throws IOException if the selector could not be opened
+		 */
+		public EventLoop() throws IOException {
+			this.selector = Selector.open();
+		}
+		
+		/**
+		 * Registers the given client channel to this event loop.
+		 *
+		 * @param channel the client channel
+		 */
+		public void register(SocketChannel channel) {
+			execute(() -> {
+				try {
+					SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+					key.attach(new NioConnection(this, key));
+					
+				} catch (IOException e) {
+					closeQuietly(channel);
+				}
+			});
+		}
+		
+		/**
+		 * Executes the given task on this event loop's thread.
+		 *
+		 * @param task the task to be executed
+		 */
+		public void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+		
+		@Override
+		public void run() {
+			try(selector) {
+				while(!isInterrupted()) {
+					selector.select(IDLE_SWEEP_INTERVAL);
+					
+					Runnable task;
+					while((task = tasks.poll()) != null) {
+						task.run();
+					}
+					
+					var iter = selector.selectedKeys().iterator();
+					while(iter.hasNext()) {
+						SelectionKey key = iter.next();
+						iter.remove();
+						
+						NioConnection connection = (NioConnection) key.attachment();
+						try {
+							if(key.isValid() && key.isReadable()) connection.onReadable();
+							if(key.isValid() && key.isWritable()) connection.onWritable();
+							
+						} catch (IOException e) {
+							connection.close();
+						}
+					}
+					
+					closeIdleConnections();
+				}
+				
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		/**
+		 * Closes the connections that have been waiting for the next request
+		 * longer than the configured keep-alive timeout. The sweep is done at
+		 * most once per {@link #IDLE_SWEEP_INTERVAL} milliseconds.
+		 */
+		private void closeIdleConnections() {
+			long now = System.currentTimeMillis();
+			if(now - lastIdleSweep < IDLE_SWEEP_INTERVAL) return;
+			
+			lastIdleSweep = now;
+			for(SelectionKey key : selector.keys()) {
+				NioConnection connection = (NioConnection) key.attachment();
+				
+				if(connection != null && connection.isIdle(now)) {
+					connection.close();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Models the state of a single non-blocking client connection. Request
+	 * header bytes are fed through the header-end automaton one at a time,
+	 * so a request can arrive in arbitrarily many fragments. Once the header is complete, the
+	 * request is handed over to a {@link ClientWorker} on the thread pool
+	 * and reading is paused until the response has been written.
+	 * <p>
+	 * Bytes that arrive after a complete header are left in the read buffer,
+	 * so pipelined requests are served one after another, in order.
+	 *
+	 * @author Filip Nemec
+	 */
+	private class NioConnection {
+		
+		/** The event loop that owns this connection. */
+		private final EventLoop eventLoop;
+		
+		/** The selection key of this connection. */
+		private final SelectionKey key;
+		
+		/** The client's channel. */
+		private final SocketChannel channel;
+		
+		/** Buffer used for reading from the channel. */
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+		
+		/** The request header bytes collected so far. */
+		private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+		
+		/** The current state of the header automaton. */
+		private int state = 0;
+		
+		/** The response being written, or {@code null} if there is none. */
+		private ByteBuffer response;
+		
+		/** The file region written after the response, or {@code null} if there is none. */
+		private FileRegion file;
+		
+		/** The opened channel of the {@link #file}. */
+		private FileChannel fileChannel;
+		
+		/** Flag that indicates whether the connection is kept alive after the response. */
+		private boolean keepAlive;
+		
+		/** The number of requests read from this connection. */
+		private int requestCount;
+		
+		/** The time of the last read or completed write. */
+		private long lastActivity = System.currentTimeMillis();
+		
+		/**
+		 * Constructs a new connection.
+		 *
+		 * @param eventLoop the owning event loop
+		 * @param key the selection key of the connection
+		 */
+		public NioConnection(EventLoop eventLoop, SelectionKey key) {
+			this.eventLoop = eventLoop;
+			this.key = key;
+			this.channel = (SocketChannel) key.channel();
+		}
+		
+		/**
+		 * Reads the available bytes and advances the header automaton.
+		 *
+		 * @throws IOException if an IO error occurs
+		 */
+		public void onReadable() throws IOException {
+			if(channel.read(readBuffer) == -1) {
+				close();
+				return;
+			}
+			
+			lastActivity = System.currentTimeMillis();
+			processInput();
+		}
+		
+		/**
+		 * Feeds the buffered input bytes to the header automaton until either
+		 * the buffer is exhausted or a whole request header has been read.
+		 */
+		private void processInput() {
+			readBuffer.flip();
+			while(readBuffer.hasRemaining()) {
+				int b = readBuffer.get() & 0xFF;
+				
+				if (b != 13) {
+					header.write(b);
+				}
+				
+				state = advanceHeaderAutomaton(state, b);
+				
+				if(state != HEADER_COMPLETE && header.size() > maxHeaderSize) {
+					ByteArrayOutputStream error = new ByteArrayOutputStream();
+					sendError(error, 431, "Request Header Fields Too Large");
+					
+					key.interestOps(0);
+					onResponse(error.toByteArray(), null, false);
+					break;
+				}
+				
+				if(state == HEADER_COMPLETE) {
+					byte[] request = header.toByteArray();
+					header.reset();
+					state = 0;
+					
+					key.interestOps(0);
+					requestCount++;
+					threadPool.submit(new ClientWorker(request, requestCount < keepAliveMaxRequests, this::onResponse));
+					break;
+				}
+			}
+			readBuffer.compact();
+		}
+		
+		/**
+		 * Called by the worker thread once the response has been generated.
+		 *
+		 * @param bytes the response bytes
+		 * @param file the file region sent after the bytes, or {@code null}
+		 * @param keepAlive whether the connection is kept alive after the response
+		 */
+		private void onResponse(byte[] bytes, FileRegion file, boolean keepAlive) {
+			eventLoop.execute(() -> {
+				if(!key.isValid()) return;
+				
+				this.response = ByteBuffer.wrap(bytes);
+				this.file = file;
+				this.keepAlive = keepAlive;
+				key.interestOps(SelectionKey.OP_WRITE);
+			});
+		}
+		
+		/**
+		 * Writes as much of the pending response as the channel accepts. The
+		 * file region (if any) is transferred from the file channel directly.
+		 *
+		 * @throws IOException if an IO error occurs
+		 */
+		public void onWritable() throws IOException {
+			channel.write(response);
+			if(response.hasRemaining()) return;
+			
+			if(file != null) {
+				if(fileChannel == null) {
+					fileChannel = FileChannel.open(file.path, StandardOpenOption.READ);
+				}
+				
+				if(!file.transferTo(fileChannel, channel)) return;
+				
+				closeQuietly(fileChannel);
+				fileChannel = null;
+				file = null;
+			}
+			
+			response = null;
+			
+			if(!keepAlive) {
+				close();
+				return;
+			}
+			
+			lastActivity = System.currentTimeMillis();
+			key.interestOps(SelectionKey.OP_READ);
+			processInput();
+		}
+		
+		/**
+		 * Checks whether this connection has been waiting for the next request
+		 * longer than the keep-alive timeout.
+		 *
+		 * @param now the current time in milliseconds
+		 * @return {@code true} if the connection is idle, {@code false} otherwise
+		 */
+		public boolean isIdle(long now) {
+			return key.isValid()
+				&& key.interestOps() == SelectionKey.OP_READ
+				&& now - lastActivity > keepAliveTimeout * 1000L;
+		}
+		
+		/**
+		 * Closes this connection.
+		 */
+		public void close() {
+			key.cancel();
+			closeQuietly(channel);
+			
+			if(fileChannel != null) {
+				closeQuietly(fileChannel);
+			}
+		}
+	}
+	
+	/**
+	 * Receives the response generated for a request read by the NIO engine.
+	 *
+	 * @author Filip Nemec
+	 */
+	@FunctionalInterface
+	private interface ResponseHandler {
+		
+		/**
+		 * Called once the response has been generated.
+		 *
+		 * @param bytes the response bytes
+		 * @param file the file region sent after the bytes, or {@code null}
+		 * @param keepAlive whether the connection is kept alive after the response
+		 */
+		void onResponse(byte[] bytes, FileRegion file, boolean keepAlive);
+	}
+	
+	/**
+	 * Models a region of a file that is yet to be sent.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class FileRegion {
+		
+		/** The path of the file. */
+		final Path path;
+		
+		/** The position of the next byte to be sent. */
+		long position;
+		
+		/** The number of bytes left to be sent. */
+		long count;
+		
+		/**
+		 * Constructs a new file region.
+		 *
+		 * @param path the path of the file
+		 * @param position the position of the first byte
+		 * @param count the number of bytes
+		 */
+		FileRegion(Path path, long position, long count) {
+			this.path = path;
+			this.position = position;
+			this.count = count;
+		}
+		
+		/**
+		 * Transfers as much of this region as the target accepts.
+		 *
+		 * @param source the channel of the file
+		 * @param target the target channel
+		 * @return {@code true} if the whole region has been sent
+		 * @throws IOException if an IO error occurs, or if the file was truncated
+		 */
+		boolean transferTo(FileChannel source, WritableByteChannel target) throws IOException {
+			while(count > 0) {
+				long transferred = source.transferTo(position, count, target);
+				
+				if(transferred <= 0) {
+					if(position >= source.size())
+						throw new IOException("File " + path + " was truncated.");
+					
+					// The (non-blocking) target can not accept more bytes right now.
+					return false;
+				}
+				
+				position += transferred;
+				count -= transferred;
+			}
+			
+			return true;
+		}
+	}
+	
 	//----------------------------------------------------------
 	//						  main
 	//----------------------------------------------------------
@@ -184,8 +745,8 @@ public class SmartHttpServer {
 		/** The client's socket. */
 		private Socket csocket;
 		
-		/** The client's push-back input stream. */
-		private PushbackInputStream istream;
+		/** The client's input stream. */
+		private InputStream istream;
 		
 		/** The client's output stream. */
 		private OutputStream ostream;
@@ -216,6 +777,24 @@ public class SmartHttpServer {
 		
 		/** This client's request. */
 		private RequestContext context = null;
+		
+		/** The already read request header, or {@code null} if it is read from the socket. */
+		private byte[] request;
+		
+		/** Receives the generated response if the worker is not bound to a socket. */
+		private ResponseHandler responseHandler;
+		
+		/** The file region that the NIO engine sends after the response, or {@code null}. */
+		private FileRegion pendingFile;
+		
+		/** The header of the current request. */
+		private RequestHeader header;
+		
+		/** Flag that indicates whether the connection may stay open after the current request. */
+		private boolean keepAliveAllowed;
+		
+		/** Flag that indicates whether the connection stays open after the current request. */
+		private boolean keepAlive;
 
 		/** 
 		 * Constructs a new client worker for the given socket.
@@ -226,100 +805,227 @@ public class SmartHttpServer {
 			super();
 			this.csocket = csocket;
 		}
+		
+		/**
+		 * Constructs a new client worker for a request whose header was
+		 * already read by the NIO engine. The whole response is collected
+		 * in memory and handed to the given {@code responseHandler}, together
+		 * with the file region that is yet to be sent and the flag telling
+		 * whether the connection is kept alive.
+		 *
+		 * @param request the request header bytes
+		 * @param keepAliveAllowed whether the connection may stay open after this request
+		 * @param responseHandler receives the generated response
+		 */
+		public ClientWorker(byte[] request, boolean keepAliveAllowed, ResponseHandler responseHandler) {
+			super();
+			this.request = request;
+			this.keepAliveAllowed = keepAliveAllowed;
+			this.responseHandler = responseHandler;
+		}
 
 		@Override
 		public void run() {
+			if(csocket != null) {
+				serveConnection();
+			} else {
+				serveBufferedRequest();
+			}
+		}
+		
+		/**
+		 * Serves the requests arriving over the socket until the client
+		 * asks for the connection to be closed, the per-connection request
+		 * limit is reached or the connection stays idle for too long.
+		 * Pipelined requests are simply left in the input stream buffer,
+		 * so they are served in order.
+		 * <p>
+		 * The connection holds its pool thread while it waits for the next
+		 * request, so after the first request it is kept idle for at most
+		 * {@link #blockingIdleTimeout} milliseconds, and it is not kept
+		 * alive at all while other connections wait for a pool thread.
+		 */
+		private void serveConnection() {
 			try {
-				this.istream = new PushbackInputStream(new BufferedInputStream(csocket.getInputStream()));
+				csocket.setSoTimeout(keepAliveTimeout * 1000);
+				this.istream = csocket.getInputStream();
+				this.header = new RequestHeader(maxHeaderSize, maxHeaderCount);
 				this.ostream = new BufferedOutputStream(csocket.getOutputStream());
-			
-				List<String> headers = getHeaderLines();
-			
-				// Process the first line
-				String[] firstLine = headers.get(0).split("\\s+");
-				this.method  = firstLine[0].toUpperCase();
-				this.version = firstLine[2].toUpperCase();
 				
-				if(!method.equals("GET") || (!version.equals("HTTP/1.0") && !version.equals("HTTP/1.1"))) {
-					sendError(ostream, 400, "Bad request");
-					return;
+				for(int served = 1; ; served++) {
+					keepAliveAllowed = served < keepAliveMaxRequests;
+					if(!serveRequest()) break;
+					
+					if(served == 1) {
+						csocket.setSoTimeout(Math.min(keepAliveTimeout * 1000, blockingIdleTimeout));
+					}
 				}
-
-				initHost(headers);
-				checkSession(headers);
 				
-				// Resolving the request path.
-				String requestedPath = firstLine[1];
-				
-				String[] requestedPathParts = requestedPath.split("\\?");
-				String path = requestedPathParts[0];
-				
-				if(requestedPathParts.length == 2) {
-					String paramString = requestedPathParts[1];
-					parseParameters(paramString);
-				}
+			} catch (SocketTimeoutException e) {
+				// The persistent connection was idle for too long.
 				
-				internalDispatchRequest(path, true);
-
-				ostream.flush();
-				csocket.close();
+			} catch (Exception e) {
+				System.err.println("Error occurred: " + e.getMessage());
 				
+			} finally {
+				closeQuietly(csocket);
+				openConnections.decrementAndGet();
+			}
+		}
+		
+		/**
+		 * Serves the single, already read request and hands the generated
+		 * response back to the NIO engine.
+		 */
+		private void serveBufferedRequest() {
+			this.ostream = new ByteArrayOutputStream();
+			this.header = requestHeaders.get();
+			boolean keepConnection = false;
+			
+			try {
+				keepConnection = serveRequest();
 			} catch (Exception e) {
 				System.err.println("Error occurred: " + e.getMessage());
-				return;
 			}
+			
+			responseHandler.onResponse(((ByteArrayOutputStream) ostream).toByteArray(), pendingFile, keepConnection);
 		}
 		
 		/**
-		 * Processes this client's session.
+		 * Reads and serves a single request.
 		 *
-		 * @param headers the headers sent by the client
+		 * @return {@code true} if the connection should be kept alive for
+		 * 		   the next request, {@code false} otherwise
+		 * @throws Exception if an error occurred
 		 */
-		private void checkSession(List<String> headers) {
-			String sidCandidate = null;
+		private boolean serveRequest() throws Exception {
+			resetRequestState();
 			
-			for(String line : headers) {
-				if(!line.startsWith("Cookie:")) continue;
-					
-				String cookies = line.trim().split("\\s+")[1];
-				
-				for(String cookie : cookies.split(";")) {
-					String[] parts = cookie.split("=");
-					String name  = parts[0];
-					String value = parts[1].substring(1, parts[1].length() - 1);
+			try {
+				if(request != null) {
+					header.parse(request, 0, request.length);
 					
-					if(name.toLowerCase().equals("sid")) {
-						sidCandidate = value;
-						break;
-					}
+				} else if(!header.readFrom(istream)) {
+					// The client has closed the connection.
+					return false;
 				}
 				
-				break;
+			} catch(RequestHeader.HeaderException e) {
+				sendError(ostream, e.getStatusCode(), e.getMessage());
+				return false;
 			}
 			
-			if(sidCandidate == null) {
-				generateNewSession();
-				
-			} else {
-				SessionMapEntry session = sessions.get(sidCandidate);
-				
-				if(session == null) {
-					session = generateNewSession();
-					
-				} else if(!session.host.equals(this.host)) {
-					session = generateNewSession();
-
-				} else if(session.validUntil < System.currentTimeMillis()) {
-					sessions.remove(sidCandidate);
-					session = generateNewSession();
+			this.method  = header.getMethod();
+			this.version = header.getVersion();
+			
+			if(!method.equals("GET") || (!version.equals("HTTP/1.0") && !version.equals("HTTP/1.1"))) {
+				sendError(ostream, 400, "Bad request");
+				return false;
+			}
 
-				} else {
-					session.validUntil = System.currentTimeMillis() + sessionTimeout * 1000;
-					
-				}
+			initHost();
+			checkSession();
+			// A kept blocking connection would hold its pool thread while others wait for one.
+			keepAlive = keepAliveAllowed && isKeepAliveRequested()
+						&& (csocket == null || openConnections.get() <= workerThreads);
+			
+			// Resolving the request path.
+			String requestedPath = header.getTarget();
+			
+			String[] requestedPathParts = requestedPath.split("\\?");
+			String path = requestedPathParts[0];
+			
+			if(requestedPathParts.length == 2) {
+				String paramString = requestedPathParts[1];
+				parseParameters(paramString);
+			}
+			
+			try {
+				internalDispatchRequest(path, true);
 				
-				permPrams = session.map;
+				if(context != null) {
+					context.finish();
+				}
+			} finally {
+				// A worker that has thrown must not keep the pooled chunk buffer.
+				if(context != null) {
+					context.close();
+				}
 			}
+			ostream.flush();
+			
+			// Error responses are always sent with "Connection: close".
+			return keepAlive && context != null;
+		}
+		
+		/**
+		 * Clears the state of the previous request, so that the next
+		 * request on the same connection starts from scratch.
+		 */
+		private void resetRequestState() {
+			method = null;
+			version = null;
+			host = null;
+			SID = null;
+			context = null;
+			keepAlive = false;
+			pendingFile = null;
+			params = new HashMap<String, String>();
+			tempParams = new HashMap<String, String>();
+			permPrams = new HashMap<String, String>();
+			outputCookies = new ArrayList<RequestContext.RCCookie>();
+		}
+		
+		/**
+		 * Configures the newly created request context for the current
+		 * connection: sets its persistence and, for HTTP/1.1 clients, allows
+		 * the body of unknown length to be sent in chunks.
+		 * <p>
+		 * On the NIO engine the chunks are written into the buffered response,
+		 * which is handed to the event loop whole, so there the chunked body
+		 * keeps the connection reusable but does not bound the memory.
+		 */
+		private void configureContext() {
+			context.setKeepAlive(keepAlive);
+			
+			if(chunkBuffers != null && version.equals("HTTP/1.1")) {
+				context.setChunkedOutput(chunkBuffers, (csocket != null) ? csocket.getChannel() : null);
+			}
+		}
+		
+		/**
+		 * Checks whether the client wants the connection to stay open. HTTP/1.1
+		 * connections are persistent unless {@code Connection: close} is sent,
+		 * while HTTP/1.0 connections are persistent only if
+		 * {@code Connection: keep-alive} is sent.
+		 *
+		 * @return {@code true} if a persistent connection was requested
+		 */
+		private boolean isKeepAliveRequested() {
+			if(header.headerEqualsIgnoreCase("Connection", "close")) return false;
+			if(header.headerEqualsIgnoreCase("Connection", "keep-alive")) return true;
+			
+			return version.equals("HTTP/1.1");
+		}
+		
+		/**
+		 * Processes this client's session. The session named by the
+		 * {@code sid} cookie is continued if it is still valid and belongs
+		 * to the same host; otherwise, a brand new session is started.
+		 */
+		private void checkSession() {
+			String sidCandidate = header.getCookie("sid");
+			
+			SessionMapEntry session = (sidCandidate != null) ? sessions.get(sidCandidate) : null;
+			
+			if(session == null || !session.host.equals(this.host)) {
+				session = generateNewSession();
+			} else {
+				session.validUntil = System.currentTimeMillis() + sessionTimeout * 1000L;
+			}
+			
+			SID = session.sid;
+			permPrams = session.map;
 		}
 		
 		/**
@@ -328,16 +1034,13 @@ public class SmartHttpServer {
 		 * @return a freshly created {@code SessionMapEntry}
 		 */
 		private SessionMapEntry generateNewSession() {
-			SID = generateSessionID();
+			String sid = generateSessionID();
+			long validUntil = System.currentTimeMillis() + sessionTimeout * 1000L;
 			
-			SessionMapEntry session = new SessionMapEntry();
-			session.sid = SID;
-			session.host = host;
-			session.validUntil = System.currentTimeMillis() + sessionTimeout * 1000;
-			session.map = new ConcurrentHashMap<String, String>();
+			SessionMapEntry session = new SessionMapEntry(sid, host, validUntil, new ConcurrentHashMap<String, String>());
 			
-			sessions.put(session.sid, session);
-			outputCookies.add(new RCCookie("sid", SID, null, host, "/"));
+			sessions.put(session);
+			outputCookies.add(new RCCookie("sid", sid, null, host, "/"));
 			
 			return session;
 		}
@@ -355,31 +1058,37 @@ public class SmartHttpServer {
 				return;
 			}
 			
-			if(workersMap.containsKey(urlPath)) {
-				IWebWorker worker = workersMap.get(urlPath);
-				
+			WorkerRegistry.Registration worker = workersMap.get(urlPath);
+			if(worker != null) {
 				if(context == null) {
 					context = new RequestContext(ostream, params, permPrams, outputCookies, tempParams, this, SID);
+					configureContext();
 				}
-				worker.processRequest(context);
+				worker.process(context);
 				return;
 			}
 			
 			if(urlPath.startsWith("/ext/")) {
 				// substring(5) = skip the "/ext/" prefix
 				String fqcn = "hr.fer.zemris.java.webserver.workers." + urlPath.substring(5);
-				IWebWorker iww = getWebWorkerFromFQCN(fqcn);
+				WorkerRegistry.Registration iww = workerRegistry.lookup(fqcn);
+				
+				if(iww == null) {
+					sendError(ostream, 404, "File not found");
+					return;
+				}
 				
 				if(context == null) {
 					context = new RequestContext(ostream, params, permPrams, outputCookies, SID);
+					configureContext();
 				}
-				iww.processRequest(context);
+				iww.process(context);
 				return;
 			}
 			
 			Path resolvedPath = documentRoot.resolve(urlPath.substring(1));
 
-			if(!Files.isReadable(resolvedPath)) {
+			if(!Files.isReadable(resolvedPath) || Files.isDirectory(resolvedPath)) {
 				sendError(ostream, 404, "File not found.");
 				return;
 			}
@@ -389,24 +1098,96 @@ public class SmartHttpServer {
 			if(extension.endsWith("smscr")) {
 				if(context == null) {
 					context = new RequestContext(ostream, params, permPrams, outputCookies, tempParams, this, SID);
+					configureContext();
 				}
 
-				new SmartScriptEngine(
-						new SmartScriptParser(readFromDisk(resolvedPath)).getDocumentNode(),
-						context
-				).execute();
+				if(compileScripts) {
+					scriptCache.getCompiled(resolvedPath).execute(context);
+				} else {
+					new SmartScriptEngine(scriptCache.get(resolvedPath), context).execute();
+				}
 				
 			} else {
 				String mimeType = (mimeTypes.get(extension) != null) ? mimeTypes.get(extension) : "application/octet-stream";
 				
-				// Set-up the request context.
 				if(context == null) {
-					context = new RequestContext(ostream, params, permPrams, outputCookies, SID);
-					context.setMimeType(mimeType);
-					context.setStatusCode(200);
+					serveStaticFile(resolvedPath, mimeType);
+				} else {
+					// Dispatched from a worker, whose response has already begun.
+					context.write(Files.readAllBytes(resolvedPath));
 				}
+			}
+		}
+		
+		/**
+		 * Serves the given static file. Conditional requests whose copy is
+		 * still valid get {@code 304 Not Modified}, and a single byte range
+		 * gets {@code 206 Partial Content}. Cached files are written from
+		 * memory, while the others are transferred from the file channel
+		 * straight to the socket channel, so their content never passes
+		 * through the heap.
+		 *
+		 * @param path the path of the file
+		 * @param mimeType the mime type of the file
+		 * @throws IOException if an IO error occurs
+		 */
+		private void serveStaticFile(Path path, String mimeType) throws IOException {
+			StaticFile file = staticFiles.get(path);
+			
+			context = new RequestContext(ostream, params, permPrams, outputCookies, SID);
+			context.setMimeType(mimeType);
+			configureContext();
+			
+			if(file.isNotModified(header.getHeader("If-None-Match"), header.getHeader("If-Modified-Since"))) {
+				context.setStatusCode(304);
+				context.setStatusText("Not Modified");
+				context.setHeaderBlock(file.headerBlock);
+				context.writeHeader();
+				return;
+			}
+			
+			long[] range = file.parseRange(header.getHeader("Range"));
+			if(range != null && range.length == 0) {
+				context.setStatusCode(416);
+				context.setStatusText("Range Not Satisfiable");
+				context.setContentLength(0L);
+				context.addHeader("Content-Range", "bytes */" + file.size);
+				context.writeHeader();
+				return;
+			}
+			
+			long position = 0;
+			long count = file.size;
+			
+			if(range != null) {
+				position = range[0];
+				count = range[1] - range[0] + 1;
 				
-				context.write(Files.readAllBytes(resolvedPath));
+				context.setStatusCode(206);
+				context.setStatusText("Partial Content");
+				context.addHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + file.size);
+			}
+			
+			context.setContentLength(count);
+			context.setHeaderBlock(file.headerBlock);
+			
+			if(file.content != null) {
+				context.write(file.content, (int) position, (int) count);
+				return;
+			}
+			
+			context.writeHeader();
+			FileRegion region = new FileRegion(path, position, count);
+			
+			if(csocket == null) {
+				// The NIO engine sends the region once the header is written.
+				pendingFile = region;
+				return;
+			}
+			
+			WritableByteChannel target = (csocket.getChannel() != null) ? csocket.getChannel() : Channels.newChannel(ostream);
+			try(FileChannel source = FileChannel.open(path, StandardOpenOption.READ)) {
+				region.transferTo(source, target);
 			}
 		}
 		
@@ -428,93 +1209,26 @@ public class SmartHttpServer {
 			return extension;
 		}
 
-		/**
-		 * A helper method that processes the header and returns
-		 * the processed header lines.
-		 *
-		 * @return the processed header lines
-		 * @throws Exception if an error occured
-		 */
-		private List<String> getHeaderLines() throws Exception {
-			// Get bytes.
-			byte[] requestBytes = readRequest(istream);
-			if (requestBytes == null) {
-				sendError(ostream, 400, "Bad request");
-				throw new Exception("Client's request is of invalid format.");
-			}
-			
-			// Get header lines in a list.
-			List<String> headerLines = extractHeaders(new String(requestBytes, StandardCharsets.US_ASCII));
-			if(headerLines.isEmpty()) {
-				sendError(ostream, 400, "Bad request");
-				throw new Exception("Empty header.");
-			}
-			
-			return headerLines;
-		}
-
-		/**
-		 * Extracts the lines from the request header.
-		 *
-		 * @param requestHeader the request header
-		 * @return the list of lines that the given
-		 * 		   header consists of
-		 */
-		private List<String> extractHeaders(String requestHeader) {
-			List<String> headers = new ArrayList<String>();
-			String currentLine = null;
-			
-			for (String s : requestHeader.split("\n")) {
-				if (s.isEmpty()) break;
-				
-				char c = s.charAt(0);
-				if (c == '\t' || c == ' ') {
-					currentLine += s;
-	
-				} else {
-					if (currentLine != null) {
-						headers.add(currentLine);
-					}
-						
-					currentLine = s;
-				}
-			}
-			
-			if (!currentLine.isEmpty())
-				headers.add(currentLine);
-
-			return headers;
-		}
-		
 		/**
 		 * Initializes the host property if it was found
 		 * in the header. If not found, host is set to the
 		 * default server domain name.
-		 *
-		 * @param headerLines the header lines
 		 */
-		private void initHost(List<String> headerLines) {
-			boolean hostHeaderFound = false;
+		private void initHost() {
+			String host = header.getHeader("Host");
 			
-			for(int i = 1, n = headerLines.size(); i < n; i++) {
-				String line = headerLines.get(i);
-				
-				if(line.startsWith("Host:")) {
-					String host = line.split("\\s+")[1];
-					
-					if(host.contains(":")) {
-						host = host.split(":")[0];
-					}
-					
-					this.host = host;
-					hostHeaderFound = true;
-					break;
-				}
+			if(host == null || host.isEmpty()) {
+				this.host = domainName;
+				return;
 			}
 			
-			if(!hostHeaderFound) {
-				this.host = domainName;
+			// Strip the port, minding the IPv6 addresses.
+			int colon = host.lastIndexOf(':');
+			if(colon > host.lastIndexOf(']')) {
+				host = host.substring(0, colon);
 			}
+			
+			this.host = host;
 		}
 		
 		/**
@@ -568,83 +1282,39 @@ public class SmartHttpServer {
 		}
 	}
 	
-	/** 
-	 * A simple automaton for finding the end of the header.
-	 *
-	 * @param is the input stream
-	 * @return the whole header as a {@code byte[]}
-	 * @throws IOException if IO error occurs
-	 */
-	private static byte[] readRequest(InputStream is) throws IOException {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			
-		int state = 0;
-		l: while (true) {
-			int b = is.read();
-			
-			if (b == -1) return null;
-			
-			if (b != 13) {
-				bos.write(b);
-			}
-			
-			switch (state) {
-				case 0: if (b == 13) state = 1; else if (b == 10) state = 4; break;
-				case 1: if (b == 10) state = 2; else state = 0; break;
-				case 2: if (b == 13) state = 3; else state = 0; break;
-				case 3: if (b == 10) break l; else state = 0; break;
-				case 4: if (b == 10) break l; else state = 0; break;
-			}
-		}
-		return bos.toByteArray();
-	}
-
 	/**
-	 * Returns the text stored in the given file as a single
-	 * {@code String}.
-	 * 
-	 * @param filePath the file path
-	 * @return {@code String} of the file contents, or {@code null}
-	 * 		   if exception occurred
+	 * Performs a single transition of the header-end automaton. Since
+	 * the automaton is driven one byte at a time, it lets the NIO reader
+	 * find the end of a header that arrives in fragments.
+	 *
+	 * @param state the current state
+	 * @param b the next byte
+	 * @return the next state, or {@link #HEADER_COMPLETE} if the end of
+	 * 		   the header was reached
 	 */
-	private static String readFromDisk(Path filePath) {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		
-		try (InputStream is = Files.newInputStream(filePath)) {
-			byte[] buffer = new byte[1024];
-			while (true) {
-				int r = is.read(buffer);
-				if (r < 1) break;
-				bos.write(buffer, 0, r);
-			}
-			return new String(bos.toByteArray(), StandardCharsets.UTF_8);
-			
-		} catch (IOException ex) {
-			ex.printStackTrace();
-			return null;
-			
+	private static int advanceHeaderAutomaton(int state, int b) {
+		switch (state) {
+			case 0: return (b == 13) ? 1 : (b == 10) ? 4 : 0;
+			case 1: return (b == 10) ? 2 : 0;
+			case 2: return (b == 13) ? 3 : 0;
+			case 3: return (b == 10) ? HEADER_COMPLETE : 0;
+			case 4: return (b == 10) ? HEADER_COMPLETE : 0;
+			default: throw new IllegalStateException("Invalid automaton state " + state + ".");
 		}
 	}
 	
 	/**
-	 * Returns an instance of {@code IWebWorker} for the provided
-	 * FQCN (fully qualified class name).
+	 * Closes the given resource, ignoring any exception.
 	 *
-	 * @param fqcn the fully qualified class name
-	 * @return an instance of {@code IWebWorker} for the provided FQCN
+	 * @param closeable the resource to be closed
 	 */
-	@SuppressWarnings("deprecation")
-	private IWebWorker getWebWorkerFromFQCN(String fqcn) {
+	private static void closeQuietly(Closeable closeable) {
 		try {
-			Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
-			return (IWebWorker) referenceToClass.newInstance();
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-			return null;
+			closeable.close();
+		} catch (IOException ignorable) {
 		}
 	}
-	
+
 	/**
 	 * Generates a random {@code String} that consists
 	 * of 20 random upper-case letters.
@@ -662,36 +1332,14 @@ public class SmartHttpServer {
 		return sb.toString();
 	}
 	
-	//----------------------------------------------------------
-	//					  SESSION MAP ENTRY	
-	//----------------------------------------------------------
-	
-	/**
-	 * Models a session entry.
-	 *
-	 * @author Filip Nemec
-	 */
-	private static class SessionMapEntry {
-		
-		/** The session id. */
-		String sid;
-		
-		/** The session host. */
-		String host;
-		
-		/** The session timeout time. */
-		long validUntil;
-		
-		/** The session data storage. */
-		Map<String, String> map;
-	}
-	
 	//----------------------------------------------------------
 	//					  SESSION CLEANER
 	//----------------------------------------------------------
 	
 	/**
 	 * A helping daemonic thread used for cleaning the expired sessions.
+	 * Since the store only looks at the sessions that are due, the sweep
+	 * is cheap enough to be done every second.
 	 *
 	 * @author Filip Nemec
 	 */
@@ -700,17 +1348,10 @@ public class SmartHttpServer {
 		@Override
 		public void run() {
 			while(true) {
-				var iter = sessions.entrySet().iterator();
-				for(; iter.hasNext(); ) {
-					SessionMapEntry session = iter.next().getValue();
-					
-					if(session.validUntil < System.currentTimeMillis()) {
-						iter.remove();
-					}
-				}
+				sessions.expire(System.currentTimeMillis());
 
 				try {
-					Thread.sleep(300_000);
+					Thread.sleep(SESSION_SWEEP_INTERVAL);
 				} catch (InterruptedException e) {
 				}
 			}
@@ -0,0 +1,246 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+
+/**
+ * A thread-safe cache of parsed smart script documents. Documents
+ * are keyed by their path and are re-parsed only if the file's last
+ * modification time (or size) changes. Once the cache is full, the
+ * least recently used document is evicted.
+ * <p>
+ * Parsed documents are never modified by the {@code SmartScriptEngine},
+ * so a single {@code DocumentNode} can safely be executed by many
+ * threads at once. Every document is also compiled (by the
+ * {@link SmartScriptCompiler}) the first time its compiled form is
+ * requested.
+ *
+ * @author Filip Nemec
+ */
+public class SmartScriptCache {
+	
+	/** The maximum number of cached documents. */
+	private final int capacity;
+	
+	/** The cached documents, in the access order. */
+	private final Map<Path, CacheEntry> entries;
+	
+	/** The number of requests served from the cache. */
+	private final AtomicLong hits = new AtomicLong();
+	
+	/** The number of requests that had to (re)parse the document. */
+	private final AtomicLong misses = new AtomicLong();
+	
+	/** The number of documents evicted because the cache was full. */
+	private final AtomicLong evictions = new AtomicLong();
+	
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param capacity the maximum number of cached documents
+	 * @throws IllegalArgumentException if the capacity is not positive
+	 */
+	public SmartScriptCache(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("Cache capacity must be positive, but was " + capacity + ".");
+		
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Path, CacheEntry> eldest) {
+				if(size() <= SmartScriptCache.this.capacity) return false;
+				
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the parsed document stored in the given file. The file is
+	 * parsed only if it is not cached yet, or if it has changed since
+	 * it was cached.
+	 *
+	 * @param path the path of the script file
+	 * @return the parsed document
+	 * @throws IOException if the file could not be read
+	 */
+	public DocumentNode get(Path path) throws IOException {
+		return getEntry(path).document;
+	}
+	
+	/**
+	 * Returns the compiled document stored in the given file. The file is
+	 * parsed and compiled only if it is not cached yet, or if it has changed
+	 * since it was cached.
+	 *
+	 * @param path the path of the script file
+	 * @return the compiled document
+	 * @throws IOException if the file could not be read
+	 */
+	public CompiledScript getCompiled(Path path) throws IOException {
+		return getEntry(path).getCompiled();
+	}
+	
+	/**
+	 * Returns the up-to-date cache entry for the given file.
+	 *
+	 * @param path the path of the script file
+	 * @return the up-to-date cache entry
+	 * @throws IOException if the file could not be read
+	 */
+	private CacheEntry getEntry(Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		FileTime lastModified = attributes.lastModifiedTime();
+		long size = attributes.size();
+		
+		CacheEntry entry;
+		synchronized(entries) {
+			entry = entries.get(path);
+		}
+		
+		if(entry != null && entry.lastModified.equals(lastModified) && entry.size == size) {
+			hits.incrementAndGet();
+			return entry;
+		}
+		
+		misses.incrementAndGet();
+		String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		DocumentNode document = new SmartScriptParser(text).getDocumentNode();
+		
+		entry = new CacheEntry(document, lastModified, size);
+		
+		synchronized(entries) {
+			entries.put(path, entry);
+		}
+		
+		return entry;
+	}
+	
+	/**
+	 * Removes all of the cached documents.
+	 */
+	public void clear() {
+		synchronized(entries) {
+			entries.clear();
+		}
+	}
+	
+	/**
+	 * Returns the number of currently cached documents.
+	 *
+	 * @return the number of currently cached documents
+	 */
+	public int size() {
+		synchronized(entries) {
+			return entries.size();
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of cached documents.
+	 *
+	 * @return the maximum number of cached documents
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Returns the number of requests served from the cache.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of requests that had to parse the document.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the number of documents evicted because the cache was full.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("SmartScriptCache[size=%d/%d, hits=%d, misses=%d, evictions=%d]",
+				size(), capacity, getHits(), getMisses(), getEvictions());
+	}
+	
+	/**
+	 * Models a single cached document, together with the file
+	 * attributes it was parsed from.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class CacheEntry {
+		
+		/** The parsed document. */
+		final DocumentNode document;
+		
+		/** The last modification time of the parsed file. */
+		final FileTime lastModified;
+		
+		/** The size of the parsed file. */
+		final long size;
+		
+		/** The compiled document, or {@code null} if it was not compiled yet. */
+		private volatile CompiledScript compiled;
+		
+		/**
+		 * Constructs a new cache entry.
+		 *
+		 * @param document the parsed document
+		 * @param lastModified the last modification time of the file
+		 * @param size the size of the file
+		 */
+		CacheEntry(DocumentNode document, FileTime lastModified, long size) {
+			this.document = document;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+		
+		/**
+		 * Returns the compiled document, compiling it on the first call.
+		 *
+		 * @return the compiled document
+		 */
+		CompiledScript getCompiled() {
+			CompiledScript result = compiled;
+			
+			if(result == null) {
+				// Compiling twice is harmless, both results are equivalent.
+				result = SmartScriptCompiler.compile(document);
+				compiled = result;
+			}
+			
+			return result;
+		}
+	}
+}
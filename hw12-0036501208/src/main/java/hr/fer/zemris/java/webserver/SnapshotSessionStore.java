@@ -0,0 +1,174 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A {@link SessionStore} that keeps its sessions in another store and
+ * saves them to a snapshot file when closed. The snapshot is loaded back
+ * when the store is created, skipping the sessions that have expired in the
+ * meantime, so the users keep their sessions over a server restart.
+ * <p>
+ * The snapshot is written to a temporary file first, which then replaces
+ * the old snapshot, atomically where the file system supports it. A snapshot
+ * that can not be read anyway is reported and ignored, so it never stops
+ * the server from starting.
+ *
+ * @author Filip Nemec
+ */
+public class SnapshotSessionStore implements SessionStore {
+	
+	/** Marks the snapshot files. */
+	private static final int MAGIC = 0x53455353;
+	
+	/** The store holding the sessions. */
+	private final SessionStore delegate;
+	
+	/** The snapshot file. */
+	private final Path file;
+	
+	/**
+	 * Constructs a new store, loading the sessions from the snapshot file
+	 * if it exists. If the snapshot can not be read, the store starts empty.
+	 *
+	 * @param delegate the store holding the sessions
+	 * @param file the snapshot file
+	 */
+	public SnapshotSessionStore(SessionStore delegate, Path file) {
+		this.delegate = delegate;
+		this.file = file;
+		
+		if(Files.exists(file)) {
+			load();
+		}
+	}
+	
+	/**
+	 * Loads the valid sessions from the snapshot file. The sessions are
+	 * added only once the whole snapshot was read, so a truncated or a
+	 * corrupted snapshot adds none of them.
+	 */
+	private void load() {
+		long now = System.currentTimeMillis();
+		List<SessionMapEntry> sessions = new ArrayList<>();
+		
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(in.readInt() != MAGIC)
+				throw new IOException("File " + file + " is not a session snapshot.");
+			
+			for(int i = 0, n = in.readInt(); i < n; i++) {
+				String sid = in.readUTF();
+				String host = in.readUTF();
+				long validUntil = in.readLong();
+				
+				Map<String, String> map = new ConcurrentHashMap<>();
+				for(int j = 0, m = in.readInt(); j < m; j++) {
+					map.put(in.readUTF(), in.readUTF());
+				}
+				
+				if(validUntil >= now) {
+					sessions.add(new SessionMapEntry(sid, host, validUntil, map));
+				}
+			}
+			
+		} catch(IOException e) {
+			System.err.println("Could not load the session snapshot " + file + ", starting without sessions: " + e);
+			return;
+		}
+		
+		sessions.forEach(delegate::put);
+	}
+	
+	/**
+	 * Saves the valid sessions to the snapshot file.
+	 *
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public void save() throws IOException {
+		long now = System.currentTimeMillis();
+		
+		List<SessionMapEntry> sessions = new ArrayList<>();
+		delegate.forEach(session -> {
+			if(session.validUntil >= now) sessions.add(session);
+		});
+		
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(sessions.size());
+			
+			for(SessionMapEntry session : sessions) {
+				out.writeUTF(session.sid);
+				out.writeUTF(session.host);
+				out.writeLong(session.validUntil);
+				
+				Map<String, String> map = Map.copyOf(session.map);
+				out.writeInt(map.size());
+				for(var entry : map.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeUTF(entry.getValue());
+				}
+			}
+		}
+		
+		try {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	@Override
+	public SessionMapEntry get(String sid) {
+		return delegate.get(sid);
+	}
+	
+	@Override
+	public void put(SessionMapEntry session) {
+		delegate.put(session);
+	}
+	
+	@Override
+	public void remove(String sid) {
+		delegate.remove(sid);
+	}
+	
+	@Override
+	public void expire(long now) {
+		delegate.expire(now);
+	}
+	
+	@Override
+	public void forEach(Consumer<SessionMapEntry> action) {
+		delegate.forEach(action);
+	}
+	
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+	
+	/**
+	 * Saves the snapshot and closes the underlying store.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			save();
+		} finally {
+			delegate.close();
+		}
+	}
+}
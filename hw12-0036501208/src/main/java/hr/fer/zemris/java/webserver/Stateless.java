@@ -0,0 +1,21 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an {@link IWebWorker} that keeps no per-request state, so a single
+ * instance of it can serve every request, even concurrently.
+ * <p>
+ * Workers without this annotation are instantiated anew for every request.
+ *
+ * @author Filip Nemec
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Stateless {
+}
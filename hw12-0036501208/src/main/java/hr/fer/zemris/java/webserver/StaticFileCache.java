@@ -0,0 +1,262 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Describes the static files served by the server and keeps the small,
+ * frequently requested ones in memory.
+ * <p>
+ * Every served file is described by a {@link StaticFile}, which holds
+ * its validators ({@code ETag} and {@code Last-Modified}) and the already
+ * encoded header lines carrying them. Files that are not larger than
+ * {@code maxFileSize} bytes also keep their content, as long as the total
+ * size of the cached content does not exceed {@code maxBytes}; the least
+ * recently used files are evicted first. A cached file is reloaded once its
+ * modification time or size changes.
+ *
+ * @author Filip Nemec
+ */
+public class StaticFileCache {
+	
+	/** The format of the HTTP dates. */
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+	
+	/** The maximum total size of the cached content. */
+	private final long maxBytes;
+	
+	/** The maximum size of a single cached file. */
+	private final long maxFileSize;
+	
+	/** The cached files, in the access order. */
+	private final Map<Path, StaticFile> files = new LinkedHashMap<>(16, 0.75f, true);
+	
+	/** The total size of the cached content. */
+	private long cachedBytes;
+	
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param maxBytes the maximum total size of the cached content,
+	 * 		  {@code 0} disables the caching of the content
+	 * @param maxFileSize the maximum size of a single cached file
+	 * @throws IllegalArgumentException if any of the limits is negative
+	 */
+	public StaticFileCache(long maxBytes, long maxFileSize) {
+		if(maxBytes < 0 || maxFileSize < 0)
+			throw new IllegalArgumentException("Cache limits cannot be negative.");
+		
+		this.maxBytes = maxBytes;
+		this.maxFileSize = maxFileSize;
+	}
+	
+	/**
+	 * Returns the up-to-date description of the given file. If the file is
+	 * small enough, its content is loaded (or taken from the cache).
+	 *
+	 * @param path the path of the file
+	 * @return the description of the file
+	 * @throws IOException if the file could not be read
+	 */
+	public StaticFile get(Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		
+		synchronized(files) {
+			StaticFile file = files.get(path);
+			if(file != null && file.size == size && file.lastModifiedMillis == lastModified) {
+				return file;
+			}
+		}
+		
+		boolean cacheable = size <= maxFileSize && size <= maxBytes;
+		byte[] content = cacheable ? Files.readAllBytes(path) : null;
+		
+		// The file could have changed between the two calls.
+		if(content != null && content.length != size) {
+			content = null;
+		}
+		
+		StaticFile file = new StaticFile(path, size, lastModified, content);
+		if(content != null) {
+			put(file);
+		}
+		
+		return file;
+	}
+	
+	/**
+	 * Caches the given file, evicting the least recently used ones if needed.
+	 *
+	 * @param file the file to be cached
+	 */
+	private void put(StaticFile file) {
+		synchronized(files) {
+			StaticFile previous = files.put(file.path, file);
+			if(previous != null) {
+				cachedBytes -= previous.size;
+			}
+			cachedBytes += file.size;
+			
+			Iterator<StaticFile> iter = files.values().iterator();
+			while(cachedBytes > maxBytes && iter.hasNext()) {
+				cachedBytes -= iter.next().size;
+				iter.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the total size of the cached content.
+	 *
+	 * @return the total size of the cached content
+	 */
+	public long getCachedBytes() {
+		synchronized(files) {
+			return cachedBytes;
+		}
+	}
+	
+	//=====================================================================================
+	//									 STATIC FILE
+	//=====================================================================================
+	
+	/**
+	 * Describes a single static file.
+	 *
+	 * @author Filip Nemec
+	 */
+	public static class StaticFile {
+		
+		/** The path of the file. */
+		public final Path path;
+		
+		/** The size of the file. */
+		public final long size;
+		
+		/** The last modification time, in milliseconds. */
+		public final long lastModifiedMillis;
+		
+		/** The {@code Last-Modified} header value. */
+		public final String lastModified;
+		
+		/** The {@code ETag} header value. */
+		public final String etag;
+		
+		/** The encoded {@code Last-Modified}, {@code ETag} and {@code Accept-Ranges} header lines. */
+		public final byte[] headerBlock;
+		
+		/** The content of the file, or {@code null} if it is not cached. */
+		public final byte[] content;
+		
+		/**
+		 * Constructs a new file description.
+		 *
+		 * @param path the path of the file
+		 * @param size the size of the file
+		 * @param lastModifiedMillis the last modification time, in milliseconds
+		 * @param content the content, or {@code null} if it is not cached
+		 */
+		StaticFile(Path path, long size, long lastModifiedMillis, byte[] content) {
+			this.path = path;
+			this.size = size;
+			this.lastModifiedMillis = lastModifiedMillis;
+			this.lastModified = HTTP_DATE.format(Instant.ofEpochMilli(lastModifiedMillis));
+			this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModifiedMillis) + "\"";
+			this.content = content;
+			this.headerBlock = ("Last-Modified: " + lastModified + "\r\n" +
+								"ETag: " + etag + "\r\n" +
+								"Accept-Ranges: bytes\r\n").getBytes(StandardCharsets.US_ASCII);
+		}
+		
+		/**
+		 * Checks whether the client's copy (described by the conditional
+		 * request headers) is still up to date. Just like the HTTP
+		 * specification requires, {@code If-None-Match} takes precedence
+		 * over {@code If-Modified-Since}.
+		 *
+		 * @param ifNoneMatch the {@code If-None-Match} header, or {@code null}
+		 * @param ifModifiedSince the {@code If-Modified-Since} header, or {@code null}
+		 * @return {@code true} if the file was not modified
+		 */
+		public boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+			if(ifNoneMatch != null) {
+				for(String tag : ifNoneMatch.split(",")) {
+					tag = tag.trim();
+					if(tag.startsWith("W/")) tag = tag.substring(2);
+					
+					if(tag.equals("*") || tag.equals(etag)) return true;
+				}
+				return false;
+			}
+			
+			if(ifModifiedSince != null) {
+				try {
+					long since = Instant.from(HTTP_DATE.parse(ifModifiedSince.trim())).getEpochSecond();
+					return lastModifiedMillis / 1000 <= since;
+					
+				} catch(RuntimeException e) {
+					// Invalid dates are ignored.
+				}
+			}
+			
+			return false;
+		}
+		
+		/**
+		 * Parses the {@code Range} header. Only a single range is supported;
+		 * multiple ranges and invalid headers are ignored, so the whole file
+		 * is sent instead.
+		 *
+		 * @param range the {@code Range} header, or {@code null}
+		 * @return {@code null} if the whole file should be sent, an empty array
+		 * 		   if the range can not be satisfied, or the first and the last
+		 * 		   byte position (both inclusive) otherwise
+		 */
+		public long[] parseRange(String range) {
+			if(range == null) return null;
+			
+			range = range.trim();
+			if(!range.startsWith("bytes=") || range.indexOf(',') >= 0) return null;
+			
+			String spec = range.substring("bytes=".length()).trim();
+			int dash = spec.indexOf('-');
+			if(dash < 0) return null;
+			
+			try {
+				String first = spec.substring(0, dash).trim();
+				String last  = spec.substring(dash + 1).trim();
+				
+				if(first.isEmpty()) {
+					// Suffix range, the last N bytes.
+					long suffix = Long.parseLong(last);
+					if(suffix <= 0 || size == 0) return new long[0];
+					
+					return new long[] { Math.max(0, size - suffix), size - 1 };
+				}
+				
+				long start = Long.parseLong(first);
+				long end   = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+				
+				if(start > end) {
+					return (start >= size) ? new long[0] : null;
+				}
+				
+				return new long[] { start, end };
+				
+			} catch(NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+}
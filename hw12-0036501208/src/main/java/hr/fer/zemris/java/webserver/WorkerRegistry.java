@@ -0,0 +1,337 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe registry of the {@link IWebWorker}s, keyed by their fully
+ * qualified class names.
+ * <p>
+ * Every class name is resolved only once. Workers marked as {@link Stateless}
+ * are instantiated right away and that single instance serves every request.
+ * For the other workers, the public no-argument constructor is looked up once
+ * and kept as a {@link MethodHandle}, which then creates a new instance for
+ * every request.
+ * <p>
+ * Class names that do not resolve to a usable worker are remembered as well,
+ * so repeated requests for them do not hit the class loader again. Since
+ * those names come from the request paths, at most
+ * {@value #MAX_MISSING} of them are remembered.
+ * <p>
+ * Every registered worker counts its invocations and failures and keeps a
+ * histogram of its processing times.
+ *
+ * @author Filip Nemec
+ */
+public class WorkerRegistry {
+	
+	/** The maximum number of remembered class names that are not workers. */
+	private static final int MAX_MISSING = 1024;
+	
+	/** The type of the constructor handles. */
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(IWebWorker.class);
+	
+	/** The class loader used to load the workers. */
+	private final ClassLoader classLoader;
+	
+	/** The registered workers. */
+	private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+	
+	/** The class names that are known not to be workers. */
+	private final Set<String> missing = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Constructs a new registry.
+	 *
+	 * @param classLoader the class loader used to load the workers
+	 */
+	public WorkerRegistry(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+	
+	/**
+	 * Returns the registration of the worker with the given fully qualified
+	 * class name, resolving it if this is the first request for it.
+	 *
+	 * @param fqcn the fully qualified class name
+	 * @return the registration, or {@code null} if the class does not exist or is not a usable worker
+	 */
+	public Registration lookup(String fqcn) {
+		Registration registration = registrations.get(fqcn);
+		if(registration != null || missing.contains(fqcn)) return registration;
+		
+		registration = registrations.computeIfAbsent(fqcn, this::resolve);
+		
+		if(registration == null && missing.size() < MAX_MISSING) {
+			missing.add(fqcn);
+		}
+		
+		return registration;
+	}
+	
+	/**
+	 * Returns the registered workers, sorted by their class names.
+	 *
+	 * @return the registered workers
+	 */
+	public Map<String, Registration> getRegistrations() {
+		return new TreeMap<>(registrations);
+	}
+	
+	/**
+	 * Returns a human readable report of the invocation counts and the
+	 * processing times of every registered worker.
+	 *
+	 * @return the report
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		getRegistrations().values().forEach(r -> sb.append(r).append(System.lineSeparator()));
+		return sb.toString();
+	}
+	
+	/**
+	 * Resolves the worker with the given class name.
+	 *
+	 * @param fqcn the fully qualified class name
+	 * @return the registration, or {@code null} if the class is not a usable worker
+	 */
+	private Registration resolve(String fqcn) {
+		try {
+			Class<?> type = Class.forName(fqcn, false, classLoader);
+			
+			if(!IWebWorker.class.isAssignableFrom(type)) {
+				System.out.println("Class " + fqcn + " is not an IWebWorker.");
+				return null;
+			}
+			
+			MethodHandle constructor = MethodHandles.publicLookup()
+											.findConstructor(type, MethodType.methodType(void.class))
+											.asType(CONSTRUCTOR_TYPE);
+			
+			IWebWorker singleton = type.isAnnotationPresent(Stateless.class) ? newInstance(constructor) : null;
+			return new Registration(fqcn, constructor, singleton);
+			
+		} catch(ClassNotFoundException e) {
+			System.out.println("Worker " + fqcn + " does not exist.");
+		} catch(ReflectiveOperationException | LinkageError | RuntimeException e) {
+			System.out.println("Worker " + fqcn + " could not be instantiated: " + e);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Creates a new worker using the given constructor handle.
+	 *
+	 * @param constructor the constructor handle
+	 * @return the new worker
+	 * @throws ReflectiveOperationException if the constructor threw an exception
+	 */
+	private static IWebWorker newInstance(MethodHandle constructor) throws ReflectiveOperationException {
+		try {
+			return (IWebWorker) constructor.invokeExact();
+		} catch(RuntimeException | Error e) {
+			throw e;
+		} catch(Throwable t) {
+			throw new ReflectiveOperationException(t);
+		}
+	}
+	
+	//=====================================================================================
+	//										REGISTRATION
+	//=====================================================================================
+	
+	/**
+	 * A single registered worker, along with its statistics.
+	 *
+	 * @author Filip Nemec
+	 */
+	public static class Registration {
+		
+		/**
+		 * The number of histogram buckets. Bucket {@code i} counts the requests
+		 * that took less than {@code 2^i} microseconds, but not less than
+		 * the bound of the previous bucket; the last bucket counts the rest.
+		 */
+		public static final int BUCKETS = 24;
+		
+		/** The fully qualified class name of the worker. */
+		private final String fqcn;
+		
+		/** The handle of the worker's no-argument constructor. */
+		private final MethodHandle constructor;
+		
+		/** The single instance of a stateless worker, {@code null} otherwise. */
+		private final IWebWorker singleton;
+		
+		/** The number of invocations. */
+		private final LongAdder invocations = new LongAdder();
+		
+		/** The number of invocations that threw an exception. */
+		private final LongAdder failures = new LongAdder();
+		
+		/** The total processing time, in nanoseconds. */
+		private final LongAdder totalNanos = new LongAdder();
+		
+		/** The histogram of the processing times. */
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+		
+		/**
+		 * Constructs a new registration.
+		 *
+		 * @param fqcn the fully qualified class name of the worker
+		 * @param constructor the handle of the worker's no-argument constructor
+		 * @param singleton the single instance of a stateless worker, {@code null} otherwise
+		 */
+		private Registration(String fqcn, MethodHandle constructor, IWebWorker singleton) {
+			this.fqcn = fqcn;
+			this.constructor = constructor;
+			this.singleton = singleton;
+		}
+		
+		/**
+		 * Lets the worker process the request and records the invocation.
+		 *
+		 * @param context the request context
+		 * @throws Exception if the worker could not be instantiated or failed to process the request
+		 */
+		public void process(RequestContext context) throws Exception {
+			long start = System.nanoTime();
+			boolean failed = true;
+			
+			try {
+				IWebWorker worker = singleton != null ? singleton : newInstance(constructor);
+				worker.processRequest(context);
+				failed = false;
+				
+			} finally {
+				long elapsed = System.nanoTime() - start;
+				
+				invocations.increment();
+				totalNanos.add(elapsed);
+				histogram.incrementAndGet(bucketOf(elapsed));
+				
+				if(failed) {
+					failures.increment();
+				}
+			}
+		}
+		
+		/**
+		 * Returns the fully qualified class name of the worker.
+		 *
+		 * @return the fully qualified class name of the worker
+		 */
+		public String getName() {
+			return fqcn;
+		}
+		
+		/**
+		 * Returns {@code true} if a single instance serves every request.
+		 *
+		 * @return {@code true} if a single instance serves every request
+		 */
+		public boolean isStateless() {
+			return singleton != null;
+		}
+		
+		/**
+		 * Returns the number of invocations.
+		 *
+		 * @return the number of invocations
+		 */
+		public long getInvocations() {
+			return invocations.sum();
+		}
+		
+		/**
+		 * Returns the number of invocations that threw an exception.
+		 *
+		 * @return the number of failed invocations
+		 */
+		public long getFailures() {
+			return failures.sum();
+		}
+		
+		/**
+		 * Returns the average processing time.
+		 *
+		 * @return the average processing time in microseconds, or 0 if there were no invocations
+		 */
+		public double getAverageMicros() {
+			long count = invocations.sum();
+			return count == 0 ? 0 : totalNanos.sum() / 1000.0 / count;
+		}
+		
+		/**
+		 * Returns a copy of the processing time histogram.
+		 *
+		 * @return the processing time histogram, as described by {@link #BUCKETS}
+		 */
+		public long[] getHistogram() {
+			long[] copy = new long[BUCKETS];
+			for(int i = 0; i < BUCKETS; i++) {
+				copy[i] = histogram.get(i);
+			}
+			
+			return copy;
+		}
+		
+		/**
+		 * Returns an upper bound of the given percentile of the processing
+		 * times, as precise as the histogram allows.
+		 *
+		 * @param percentile the percentile, between 0 and 100
+		 * @return the upper bound in microseconds, or 0 if there were no invocations
+		 * @throws IllegalArgumentException if the percentile is not between 0 and 100
+		 */
+		public long getPercentileMicros(double percentile) {
+			if(percentile < 0 || percentile > 100)
+				throw new IllegalArgumentException("Percentile must be between 0 and 100, but was " + percentile + ".");
+			
+			long[] counts = getHistogram();
+			long total = 0;
+			for(long count : counts) {
+				total += count;
+			}
+			
+			if(total == 0) return 0;
+			
+			long threshold = (long) Math.ceil(total * percentile / 100);
+			long seen = 0;
+			for(int i = 0; i < BUCKETS - 1; i++) {
+				seen += counts[i];
+				if(seen >= threshold) return 1L << i;
+			}
+			
+			return Long.MAX_VALUE;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s [%s]: %d invocations, %d failed, avg %.1f us, p50 < %d us, p99 < %d us",
+								 fqcn, isStateless() ? "stateless" : "per request", getInvocations(), getFailures(),
+								 getAverageMicros(), getPercentileMicros(50), getPercentileMicros(99));
+		}
+		
+		/**
+		 * Returns the histogram bucket of the given processing time.
+		 *
+		 * @param nanos the processing time in nanoseconds
+		 * @return the histogram bucket
+		 */
+		private static int bucketOf(long nanos) {
+			long micros = nanos / 1000;
+			int bucket = 64 - Long.numberOfLeadingZeros(micros);
+			return Math.min(bucket, BUCKETS - 1);
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import hr.fer.zemris.java.webserver.RequestHeader;
+
+/**
+ * Compares the {@link RequestHeader} parser with the previous way the
+ * server read and parsed the request headers: reading the header one byte
+ * at a time into a {@code ByteArrayOutputStream}, splitting it into lines
+ * and then splitting the lines by regular expressions.
+ * <p>
+ * Both variants read the same realistic browser requests from an input
+ * stream and extract what the server needs: the method, the path, the
+ * version, the host, the {@code Connection} header and the session cookie.
+ * Both are warmed up first and then measured.
+ *
+ * @author Filip Nemec
+ */
+public class HeaderParserBenchmark {
+	
+	/** Requests as sent by the common browsers. */
+	private static final String[] REQUESTS = {
+		"GET /scripts/brojPoziva.smscr HTTP/1.1\r\n" +
+		"Host: www.localhost.com:5721\r\n" +
+		"Connection: keep-alive\r\n" +
+		"Cache-Control: max-age=0\r\n" +
+		"sec-ch-ua: \"Chromium\";v=\"118\", \"Google Chrome\";v=\"118\", \"Not=A?Brand\";v=\"99\"\r\n" +
+		"sec-ch-ua-mobile: ?0\r\n" +
+		"sec-ch-ua-platform: \"Windows\"\r\n" +
+		"Upgrade-Insecure-Requests: 1\r\n" +
+		"User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36\r\n" +
+		"Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8\r\n" +
+		"Sec-Fetch-Site: none\r\n" +
+		"Sec-Fetch-Mode: navigate\r\n" +
+		"Sec-Fetch-User: ?1\r\n" +
+		"Sec-Fetch-Dest: document\r\n" +
+		"Accept-Encoding: gzip, deflate, br\r\n" +
+		"Accept-Language: hr-HR,hr;q=0.9,en-US;q=0.8,en;q=0.7\r\n" +
+		"Cookie: _ga=GA1.1.1234567890.1697000000; theme=dark; sid=\"QWERTYUIOPASDFGHJKLZ\"\r\n" +
+		"\r\n",
+		
+		"GET /index2.html?name=Ana&age=21 HTTP/1.1\r\n" +
+		"Host: www.localhost.com:5721\r\n" +
+		"User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/118.0\r\n" +
+		"Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n" +
+		"Accept-Language: en-US,en;q=0.5\r\n" +
+		"Accept-Encoding: gzip, deflate, br\r\n" +
+		"Connection: keep-alive\r\n" +
+		"Cookie: sid=\"ZXCVBNMASDFGHJKLQWER\"\r\n" +
+		"Upgrade-Insecure-Requests: 1\r\n" +
+		"Sec-Fetch-Dest: document\r\n" +
+		"Sec-Fetch-Mode: navigate\r\n" +
+		"Sec-Fetch-Site: same-origin\r\n" +
+		"If-Modified-Since: Thu, 04 Jul 2019 23:39:10 GMT\r\n" +
+		"If-None-Match: \"1d-16bbf5b2530\"\r\n" +
+		"\r\n",
+		
+		"GET /images/fruits.png HTTP/1.1\r\n" +
+		"Host: www.localhost.com:5721\r\n" +
+		"Connection: keep-alive\r\n" +
+		"User-Agent: Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.0 Safari/605.1.15\r\n" +
+		"Accept: image/webp,image/avif,image/*,*/*;q=0.8\r\n" +
+		"Referer: http://www.localhost.com:5721/index2.html\r\n" +
+		"Accept-Language: en-GB,en;q=0.9\r\n" +
+		"Accept-Encoding: gzip, deflate\r\n" +
+		"Cookie: sid=\"POIUYTREWQLKJHGFDSAM\"\r\n" +
+		"\r\n"
+	};
+	
+	/** The number of warm-up iterations per variant. */
+	private static final int WARMUP_ITERATIONS = 200_000;
+	
+	/** The number of measured iterations per variant. */
+	private static final int MEASURED_ITERATIONS = 1_000_000;
+	
+	/** Prevents the JIT compiler from removing the measured work. */
+	private static int sink;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 * @throws IOException never, since the requests are read from memory
+	 */
+	public static void main(String[] args) throws IOException {
+		byte[][] requests = new byte[REQUESTS.length][];
+		for(int i = 0; i < requests.length; i++) {
+			requests[i] = REQUESTS[i].getBytes(StandardCharsets.US_ASCII);
+		}
+		
+		RequestHeader header = new RequestHeader(8192, 100);
+		
+		for(byte[] request : requests) {
+			String[] expected = previousParser(new ByteArrayInputStream(request));
+			String[] actual = flyweightParser(new ByteArrayInputStream(request), header);
+			
+			if(!List.of(expected).equals(List.of(actual))) {
+				System.out.println("The parsers disagree: " + List.of(expected) + " vs " + List.of(actual));
+				return;
+			}
+		}
+		
+		for(int round = 0; round < 3; round++) {
+			double previous  = measure(requests, in -> previousParser(in));
+			double flyweight = measure(requests, in -> flyweightParser(in, header));
+			
+			System.out.printf("previous: %8.1f ns/request   flyweight: %8.1f ns/request   speedup: %5.2fx%n",
+							  previous, flyweight, previous / flyweight);
+		}
+	}
+	
+	/**
+	 * Measures the average time the parser needs for a single request.
+	 *
+	 * @param requests the requests
+	 * @param parser the parser
+	 * @return the average time in nanoseconds
+	 * @throws IOException never
+	 */
+	private static double measure(byte[][] requests, Parser parser) throws IOException {
+		for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+			sink += parser.parse(new ByteArrayInputStream(requests[i % requests.length])).length;
+		}
+		
+		long start = System.nanoTime();
+		for(int i = 0; i < MEASURED_ITERATIONS; i++) {
+			sink += parser.parse(new ByteArrayInputStream(requests[i % requests.length])).length;
+		}
+		
+		return (System.nanoTime() - start) / (double) MEASURED_ITERATIONS;
+	}
+	
+	/**
+	 * Reads and parses the request using the {@link RequestHeader}.
+	 *
+	 * @param in the input stream
+	 * @param header the reused request header
+	 * @return the method, path, version, host, connection and session id
+	 * @throws IOException if the request is invalid
+	 */
+	private static String[] flyweightParser(InputStream in, RequestHeader header) throws IOException {
+		header.readFrom(in);
+		
+		String host = header.getHeader("Host");
+		int colon = host.lastIndexOf(':');
+		
+		return new String[] {
+			header.getMethod(),
+			header.getTarget(),
+			header.getVersion(),
+			host.substring(0, colon),
+			header.headerEqualsIgnoreCase("Connection", "keep-alive") ? "keep-alive" : "close",
+			header.getCookie("sid")
+		};
+	}
+	
+	//=====================================================================================
+	//									PREVIOUS PARSER
+	//=====================================================================================
+	
+	/**
+	 * Reads and parses the request the way the server used to.
+	 *
+	 * @param in the input stream
+	 * @return the method, path, version, host, connection and session id
+	 * @throws IOException if an IO error occurs
+	 */
+	private static String[] previousParser(InputStream in) throws IOException {
+		List<String> headers = extractHeaders(new String(readRequest(in), StandardCharsets.US_ASCII));
+		
+		String[] firstLine = headers.get(0).split("\\s+");
+		String method  = firstLine[0].toUpperCase();
+		String version = firstLine[2].toUpperCase();
+		
+		String host = null;
+		String connection = "close";
+		String sid = null;
+		
+		for(int i = 1, n = headers.size(); i < n; i++) {
+			String line = headers.get(i);
+			
+			if(line.startsWith("Host:")) {
+				host = line.split("\\s+")[1].split(":")[0];
+				
+			} else if(line.startsWith("Connection:")) {
+				connection = line.split("\\s+")[1].equalsIgnoreCase("keep-alive") ? "keep-alive" : "close";
+				
+			} else if(line.startsWith("Cookie:")) {
+				String cookies = line.trim().substring("Cookie:".length()).trim();
+				
+				for(String cookie : cookies.split(";")) {
+					String[] parts = cookie.trim().split("=");
+					if(parts[0].toLowerCase().equals("sid")) {
+						sid = parts[1].substring(1, parts[1].length() - 1);
+					}
+				}
+			}
+		}
+		
+		return new String[] { method, firstLine[1], version, host, connection, sid };
+	}
+	
+	/**
+	 * Reads the header one byte at a time, using the header-end automaton.
+	 *
+	 * @param is the input stream
+	 * @return the header bytes, without the {@code CR}s
+	 * @throws IOException if an IO error occurs
+	 */
+	private static byte[] readRequest(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		
+		int state = 0;
+		l: while(true) {
+			int b = is.read();
+			if(b == -1) return null;
+			if(b != 13) bos.write(b);
+			
+			switch(state) {
+				case 0: state = (b == 13) ? 1 : (b == 10) ? 4 : 0; break;
+				case 1: state = (b == 10) ? 2 : 0; break;
+				case 2: state = (b == 13) ? 3 : 0; break;
+				case 3: if(b == 10) break l; state = 0; break;
+				case 4: if(b == 10) break l; state = 0; break;
+			}
+		}
+		
+		return bos.toByteArray();
+	}
+	
+	/**
+	 * Extracts the lines from the request header.
+	 *
+	 * @param requestHeader the request header
+	 * @return the header lines, with the folded lines joined
+	 */
+	private static List<String> extractHeaders(String requestHeader) {
+		List<String> headers = new ArrayList<String>();
+		String currentLine = null;
+		
+		for(String s : requestHeader.split("\n")) {
+			if(s.isEmpty()) break;
+			
+			char c = s.charAt(0);
+			if(c == '\t' || c == ' ') {
+				currentLine += s;
+			} else {
+				if(currentLine != null) {
+					headers.add(currentLine);
+				}
+				currentLine = s;
+			}
+		}
+		
+		if(!currentLine.isEmpty())
+			headers.add(currentLine);
+		
+		return headers;
+	}
+	
+	/**
+	 * A request parser variant.
+	 *
+	 * @author Filip Nemec
+	 */
+	@FunctionalInterface
+	private interface Parser {
+		
+		/**
+		 * Reads and parses the request.
+		 *
+		 * @param in the input stream
+		 * @return the extracted values
+		 * @throws IOException if an IO error occurs
+		 */
+		String[] parse(InputStream in) throws IOException;
+	}
+}
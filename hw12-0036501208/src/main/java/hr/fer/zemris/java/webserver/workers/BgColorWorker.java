@@ -2,12 +2,14 @@ package hr.fer.zemris.java.webserver.workers;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.Stateless;
 
 /**
  * Processes the web-page background color.
  *
  * @author Filip Nemec
  */
+@Stateless
 public class BgColorWorker implements IWebWorker {
 	
 	/** All of the valid hexadecimal characters. */
@@ -9,12 +9,14 @@ import javax.imageio.ImageIO;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.Stateless;
 
 /**
  * A simple worker that renders the circle.
  *
  * @author Filip Nemec
  */
+@Stateless
 public class CircleWorker implements IWebWorker {
 
 	@Override
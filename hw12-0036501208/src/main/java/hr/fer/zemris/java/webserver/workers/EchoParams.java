@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.Stateless;
 
 /**
  * A simple worker that echoes the given
@@ -11,6 +12,7 @@ import hr.fer.zemris.java.webserver.RequestContext;
  *
  * @author Filip Nemec
  */
+@Stateless
 public class EchoParams implements IWebWorker {
 	
 	@Override
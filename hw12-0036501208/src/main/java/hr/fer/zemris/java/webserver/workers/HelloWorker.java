@@ -5,13 +5,14 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.Stateless;
 
 /**
  * A very simple worker that greets the user!
  *
  * @author Filip Nemec
  */
-
+@Stateless
 public class HelloWorker implements IWebWorker {
 	
 	@Override
@@ -2,12 +2,14 @@ package hr.fer.zemris.java.webserver.workers;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.Stateless;
 
 /**
  * A simple worker that 
  *
  * @author Filip Nemec
  */
+@Stateless
 public class Home implements IWebWorker {
 
 	@Override
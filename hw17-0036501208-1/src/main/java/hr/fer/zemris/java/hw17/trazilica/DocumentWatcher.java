@@ -0,0 +1,211 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the search engine in sync with its document hierarchy, using a
+ * {@link WatchService}. The created and modified documents are added to the
+ * search engine, and the deleted ones are removed from it.
+ * <p>
+ * A single save usually fires several events, so the events are collected
+ * until none arrive for {@link #QUIET_PERIOD_MILLIS}, and then applied
+ * together, as a single change. A watch service only watches a single
+ * directory, so each directory of the hierarchy is registered on its own,
+ * including the ones created later. If some events are lost, all of the
+ * documents are indexed again.
+ *
+ * @author Filip Nemec
+ */
+final class DocumentWatcher {
+	
+	/** The time without any events after which the collected events are applied. */
+	private static final long QUIET_PERIOD_MILLIS = 200;
+	
+	/** The search engine kept in sync. */
+	private final SearchEngine engine;
+	
+	/** The root of the document hierarchy. */
+	private final Path root;
+	
+	/** The watch service. */
+	private final WatchService watchService;
+	
+	/** Maps the registered keys to their directories. */
+	private final Map<WatchKey, Path> directories = new HashMap<>();
+	
+	/** The thread waiting for the events. */
+	private final Thread thread;
+	
+	/**
+	 * Constructs a new watcher and registers all the directories of the hierarchy.
+	 *
+	 * @param engine the search engine kept in sync
+	 * @param root the root of the document hierarchy
+	 * @throws IOException if the hierarchy could not be watched
+	 */
+	DocumentWatcher(SearchEngine engine, Path root) throws IOException {
+		this.engine = engine;
+		this.root = root;
+		this.watchService = root.getFileSystem().newWatchService();
+		this.thread = new Thread(this::run, "document-watcher");
+		this.thread.setDaemon(true);
+		
+		try {
+			register(root, null);
+			
+		} catch(IOException e) {
+			watchService.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Starts watching.
+	 */
+	void start() {
+		thread.start();
+	}
+	
+	/**
+	 * Stops watching.
+	 */
+	void close() {
+		try {
+			watchService.close();
+			
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Waits for the events and applies them, until the watcher is closed.
+	 */
+	private void run() {
+		try {
+			while(true) {
+				WatchKey key = watchService.take();
+				
+				Set<Path> changed = new LinkedHashSet<>();
+				Set<Path> removed = new LinkedHashSet<>();
+				
+				do {
+					collect(key, changed, removed);
+				} while((key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null);
+				
+				try {
+					engine.updateDocuments(changed, removed);
+					
+				} catch(RuntimeException e) {
+					System.err.println("Could not update the documents: " + e.getMessage());
+				}
+			}
+			
+		} catch(InterruptedException | ClosedWatchServiceException e) {
+			// The watcher is closed.
+		}
+	}
+	
+	/**
+	 * Collects the events of the given key into the changed and the removed paths.
+	 * A later event on the same path overrides an earlier one.
+	 *
+	 * @param key the key
+	 * @param changed the created and modified paths
+	 * @param removed the deleted paths
+	 */
+	private void collect(WatchKey key, Set<Path> changed, Set<Path> removed) {
+		Path directory = directories.get(key);
+		
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == OVERFLOW) {
+				// The lost events are unknown, so everything is removed and indexed again.
+				removed.add(root);
+				registerQuietly(root, changed);
+				continue;
+			}
+			
+			if(directory == null) continue;
+			Path path = directory.resolve((Path) event.context());
+			
+			if(event.kind() == ENTRY_DELETE) {
+				changed.remove(path);
+				removed.add(path);
+				
+			} else if(Files.isDirectory(path)) {
+				// The files may have been created before the directory was registered.
+				if(event.kind() == ENTRY_CREATE) {
+					registerQuietly(path, changed);
+				}
+				
+			} else {
+				removed.remove(path);
+				changed.add(path);
+			}
+		}
+		
+		if(!key.reset()) {
+			directories.remove(key);
+		}
+	}
+	
+	/**
+	 * Registers the given directory and all of its subdirectories,
+	 * reporting the directories that could not be registered.
+	 *
+	 * @param start the directory
+	 * @param files receives the files found in the directories
+	 */
+	private void registerQuietly(Path start, Set<Path> files) {
+		try {
+			register(start, files);
+			
+		} catch(IOException e) {
+			System.err.println("Could not watch '" + start + "': " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Registers the given directory and all of its subdirectories.
+	 *
+	 * @param start the directory
+	 * @param files receives the files found in the directories, or {@code null} if they are not needed
+	 * @throws IOException if a directory could not be registered
+	 */
+	private void register(Path start, Set<Path> files) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if(files != null) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
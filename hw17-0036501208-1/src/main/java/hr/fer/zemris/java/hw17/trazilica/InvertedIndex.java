@@ -0,0 +1,883 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An inverted index of the documents. For every term it keeps the postings:
+ * the ids of the documents the term is found in, along with the number of
+ * times the term is found in each of them. The postings of all the terms are
+ * stored one after another in primitive arrays, so the index holds no boxed
+ * values.
+ * <p>
+ * The <i>tf-idf</i> weight of a term in a document is the product of the
+ * term frequency stored in the postings and the term's <i>idf</i>. The norms
+ * of the document vectors are computed once, when the index is built.
+ * <p>
+ * A query only touches the postings of its own terms, and the best matches
+ * are selected by a bounded heap, so its cost depends on the length of
+ * those postings instead of the number of documents times the size of the
+ * vocabulary.
+ * <p>
+ * The index also holds its term dictionary, with the terms sorted so that the
+ * id of a term is its position, and the names of the documents. All of it is
+ * kept in primitive buffers, which either wrap the arrays of a freshly built
+ * index or are views of an index file mapped into memory by {@link #load(Path, long)}.
+ * A mapped index takes almost no heap, and its pages are read by the operating
+ * system only when a query needs them.
+ *
+ * @author Filip Nemec
+ */
+final class InvertedIndex {
+	
+	/** Identifies the index files; "TRZI" in ASCII. */
+	private static final int MAGIC = 0x54525A49;
+	
+	/** The version of the index file format. */
+	private static final int VERSION = 1;
+	
+	/** The size of the index file header, in bytes. */
+	private static final int HEADER_SIZE = 40;
+	
+	/** The <i>idf</i> of each term. */
+	private final DoubleBuffer idf;
+	
+	/** The start of each term's postings; the postings of term {@code t} end where those of {@code t + 1} start. */
+	private final IntBuffer offsets;
+	
+	/** The document ids of the postings, ascending within each term. */
+	private final IntBuffer postingDocuments;
+	
+	/** The term frequencies of the postings. */
+	private final IntBuffer postingFrequencies;
+	
+	/** The norm of each document's <i>tf-idf</i> vector. */
+	private final DoubleBuffer norms;
+	
+	/** The start of each term in the {@link #termChars}. */
+	private final IntBuffer termOffsets;
+	
+	/** The characters of all the terms, in the ascending order of the terms. */
+	private final CharBuffer termChars;
+	
+	/** The start of each document name in the {@link #nameChars}. */
+	private final IntBuffer nameOffsets;
+	
+	/** The characters of all the document names. */
+	private final CharBuffer nameChars;
+	
+	/**
+	 * Constructs a new index. Used by the {@link Builder} and the {@link #load(Path, long)}.
+	 *
+	 * @param idf the <i>idf</i> of each term
+	 * @param offsets the start of each term's postings
+	 * @param postingDocuments the document ids of the postings
+	 * @param postingFrequencies the term frequencies of the postings
+	 * @param norms the norm of each document's <i>tf-idf</i> vector
+	 * @param termOffsets the start of each term in the term characters
+	 * @param termChars the characters of all the terms
+	 * @param nameOffsets the start of each document name in the name characters
+	 * @param nameChars the characters of all the document names
+	 */
+	private InvertedIndex(DoubleBuffer idf, IntBuffer offsets, IntBuffer postingDocuments, IntBuffer postingFrequencies,
+						  DoubleBuffer norms, IntBuffer termOffsets, CharBuffer termChars, IntBuffer nameOffsets, CharBuffer nameChars) {
+		this.idf = idf;
+		this.offsets = offsets;
+		this.postingDocuments = postingDocuments;
+		this.postingFrequencies = postingFrequencies;
+		this.norms = norms;
+		this.termOffsets = termOffsets;
+		this.termChars = termChars;
+		this.nameOffsets = nameOffsets;
+		this.nameChars = nameChars;
+	}
+	
+	/**
+	 * Returns the number of indexed documents.
+	 *
+	 * @return the number of indexed documents
+	 */
+	public int getDocumentCount() {
+		return norms.limit();
+	}
+	
+	/**
+	 * Returns the number of terms.
+	 *
+	 * @return the number of terms
+	 */
+	public int getTermCount() {
+		return idf.limit();
+	}
+	
+	/**
+	 * Returns the <i>idf</i> of the given term.
+	 *
+	 * @param term the term id
+	 * @return the <i>idf</i> of the given term
+	 */
+	public double getIdf(int term) {
+		return idf.get(term);
+	}
+	
+	/**
+	 * Returns the norm of the <i>tf-idf</i> vector of the given document.
+	 *
+	 * @param document the document id
+	 * @return the norm of the document vector
+	 */
+	public double getNorm(int document) {
+		return norms.get(document);
+	}
+	
+	/**
+	 * Returns the position of the first posting of the given term.
+	 *
+	 * @param term the term id
+	 * @return the position of the first posting
+	 */
+	public int getPostingStart(int term) {
+		return offsets.get(term);
+	}
+	
+	/**
+	 * Returns the position just after the last posting of the given term.
+	 *
+	 * @param term the term id
+	 * @return the position just after the last posting
+	 */
+	public int getPostingEnd(int term) {
+		return offsets.get(term + 1);
+	}
+	
+	/**
+	 * Returns the document id of the posting at the given position.
+	 *
+	 * @param posting the position of the posting
+	 * @return the document id
+	 */
+	public int getPostingDocument(int posting) {
+		return postingDocuments.get(posting);
+	}
+	
+	/**
+	 * Returns the term frequency of the posting at the given position.
+	 *
+	 * @param posting the position of the posting
+	 * @return the number of times the term is found in the document
+	 */
+	public int getPostingFrequency(int posting) {
+		return postingFrequencies.get(posting);
+	}
+	
+	/**
+	 * Returns the id of the given term, found by a binary search
+	 * of the term dictionary.
+	 *
+	 * @param term the term
+	 * @return the id of the term, or -1 if the term is not in the dictionary
+	 */
+	public int getTermId(CharSequence term) {
+		int low = 0;
+		int high = getTermCount() - 1;
+		
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compareTerm(middle, term);
+			
+			if(comparison < 0) {
+				low = middle + 1;
+			} else if(comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Returns the term with the given id.
+	 *
+	 * @param term the term id
+	 * @return the term
+	 */
+	public String getTerm(int term) {
+		return text(termOffsets, termChars, term);
+	}
+	
+	/**
+	 * Returns the name of the document with the given id.
+	 *
+	 * @param document the document id
+	 * @return the name of the document
+	 */
+	public String getDocumentName(int document) {
+		return text(nameOffsets, nameChars, document);
+	}
+	
+	/**
+	 * Returns the documents most similar to the query, ordered from the most
+	 * similar one. Documents with equal similarity are ordered by their ids.
+	 * Only the documents with a positive similarity are returned.
+	 *
+	 * @param terms the distinct term ids of the query
+	 * @param frequencies the number of times each term is found in the query
+	 * @param limit the maximum number of returned documents
+	 * @return the most similar documents
+	 * @throws IllegalArgumentException if the arrays are not of equal length or if the limit is not positive
+	 */
+	public List<Hit> search(int[] terms, int[] frequencies, int limit) {
+		if(terms.length != frequencies.length)
+			throw new IllegalArgumentException("Expected a frequency for each of the " + terms.length + " terms, but got " + frequencies.length + ".");
+		
+		if(limit < 1)
+			throw new IllegalArgumentException("Limit must be positive, but was " + limit + ".");
+		
+		double[] scores = new double[getDocumentCount()];
+		int[] touched = new int[Math.min(getDocumentCount(), postingCount(terms))];
+		int touchedCount = 0;
+		double queryNorm = 0;
+		
+		for(int i = 0; i < terms.length; i++) {
+			int term = terms[i];
+			double termIdf = idf.get(term);
+			
+			// A term found in every document carries no weight.
+			if(termIdf == 0) continue;
+			
+			double queryWeight = frequencies[i] * termIdf;
+			queryNorm += queryWeight * queryWeight;
+			
+			// Both weights contain the idf, so it is multiplied in once.
+			double factor = queryWeight * termIdf;
+			
+			for(int p = offsets.get(term), end = offsets.get(term + 1); p < end; p++) {
+				int document = postingDocuments.get(p);
+				
+				if(scores[document] == 0) {
+					touched[touchedCount++] = document;
+				}
+				
+				scores[document] += factor * postingFrequencies.get(p);
+			}
+		}
+		
+		queryNorm = Math.sqrt(queryNorm);
+		
+		TopK top = new TopK(Math.min(limit, touchedCount));
+		for(int i = 0; i < touchedCount; i++) {
+			int document = touched[i];
+			top.offer(document, scores[document] / (queryNorm * norms.get(document)));
+		}
+		
+		return top.toList();
+	}
+	
+	/**
+	 * Returns the total length of the postings of the given terms.
+	 *
+	 * @param terms the term ids
+	 * @return the total length of the postings
+	 */
+	private int postingCount(int[] terms) {
+		int count = 0;
+		for(int term : terms) {
+			count += offsets.get(term + 1) - offsets.get(term);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Compares the term with the given id to the given term,
+	 * in the order of {@link String#compareTo(String)}.
+	 *
+	 * @param term the term id
+	 * @param other the other term
+	 * @return a negative number, zero or a positive number if the term
+	 * 		   is less than, equal to or greater than the other term
+	 */
+	private int compareTerm(int term, CharSequence other) {
+		int start = termOffsets.get(term);
+		int length = termOffsets.get(term + 1) - start;
+		
+		for(int i = 0, n = Math.min(length, other.length()); i < n; i++) {
+			char c1 = termChars.get(start + i);
+			char c2 = other.charAt(i);
+			
+			if(c1 != c2) return c1 - c2;
+		}
+		
+		return length - other.length();
+	}
+	
+	/**
+	 * Returns the text with the given index from the concatenated texts.
+	 *
+	 * @param textOffsets the start of each text
+	 * @param chars the characters of all the texts
+	 * @param index the index of the text
+	 * @return the text
+	 */
+	private static String text(IntBuffer textOffsets, CharBuffer chars, int index) {
+		int start = textOffsets.get(index);
+		int end = textOffsets.get(index + 1);
+		
+		char[] text = new char[end - start];
+		for(int i = 0; i < text.length; i++) {
+			text[i] = chars.get(start + i);
+		}
+		
+		return new String(text);
+	}
+	
+	//------------------------------------------------------------------
+	//							PERSISTENCE
+	//------------------------------------------------------------------
+	
+	/**
+	 * Writes this index to the given file. The file starts with a header holding
+	 * the format version, the given fingerprint of the indexed documents, the
+	 * sizes of the sections and a checksum of the rest of the file. The file is
+	 * written to a temporary file first and then moved in place, so an existing
+	 * index file is never left half written.
+	 *
+	 * @param file the index file
+	 * @param fingerprint the fingerprint of the indexed documents
+	 * @throws IOException if the file could not be written
+	 */
+	public void writeTo(Path file, long fingerprint) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		if(parent != null) {
+			Files.createDirectories(parent);
+		}
+		
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		CRC32C checksum = new CRC32C();
+		
+		try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.position(HEADER_SIZE);
+			
+			// Not closed, since that would close the channel as well.
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(channel), checksum)));
+			
+			// The doubles come first and the chars last, so every section is aligned.
+			writeDoubles(out, idf);
+			writeDoubles(out, norms);
+			writeInts(out, offsets);
+			writeInts(out, postingDocuments);
+			writeInts(out, postingFrequencies);
+			writeInts(out, termOffsets);
+			writeInts(out, nameOffsets);
+			writeChars(out, termChars);
+			writeChars(out, nameChars);
+			out.flush();
+			
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC)
+				  .putInt(VERSION)
+				  .putLong(fingerprint)
+				  .putInt(getTermCount())
+				  .putInt(getDocumentCount())
+				  .putInt(postingDocuments.limit())
+				  .putInt(termChars.limit())
+				  .putInt(nameChars.limit())
+				  .putInt((int) checksum.getValue())
+				  .flip();
+			
+			while(header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+			
+			channel.force(true);
+		}
+		
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Loads the index from the given file by mapping it into memory. The header
+	 * and the checksum are verified first.
+	 *
+	 * @param file the index file
+	 * @param fingerprint the fingerprint of the documents the index is expected to describe
+	 * @return the index, or {@code null} if it was built from different documents
+	 * @throws IOException if the file could not be read, or if it is not a valid index file
+	 */
+	public static InvertedIndex load(Path file, long fingerprint) throws IOException {
+		ByteBuffer buffer;
+		
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if(channel.size() < HEADER_SIZE)
+				throw new IOException("The index file is truncated.");
+			
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("The index file is larger than 2 GB.");
+			
+			// The mapping stays valid after the channel is closed.
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		if(buffer.getInt(0) != MAGIC)
+			throw new IOException("The file is not an index file.");
+		
+		int version = buffer.getInt(4);
+		if(version != VERSION)
+			throw new IOException("Expected index version " + VERSION + ", but was " + version + ".");
+		
+		if(buffer.getLong(8) != fingerprint) return null;
+		
+		int termCount = buffer.getInt(16);
+		int documentCount = buffer.getInt(20);
+		int postingCount = buffer.getInt(24);
+		int termCharCount = buffer.getInt(28);
+		int nameCharCount = buffer.getInt(32);
+		
+		long expectedSize = HEADER_SIZE
+						  + Double.BYTES * ((long) termCount + documentCount)
+						  + Integer.BYTES * ((termCount + 1L) + 2L * postingCount + (termCount + 1L) + (documentCount + 1L))
+						  + Character.BYTES * ((long) termCharCount + nameCharCount);
+		
+		if(termCount < 0 || documentCount < 0 || postingCount < 0 || termCharCount < 0 || nameCharCount < 0 || expectedSize != buffer.capacity())
+			throw new IOException("The index file is truncated or corrupt.");
+		
+		CRC32C checksum = new CRC32C();
+		checksum.update(buffer.duplicate().position(HEADER_SIZE));
+		
+		if((int) checksum.getValue() != buffer.getInt(36))
+			throw new IOException("The index file checksum does not match.");
+		
+		int position = HEADER_SIZE;
+		
+		DoubleBuffer idf = section(buffer, position, termCount * Double.BYTES).asDoubleBuffer();
+		position += termCount * Double.BYTES;
+		
+		DoubleBuffer norms = section(buffer, position, documentCount * Double.BYTES).asDoubleBuffer();
+		position += documentCount * Double.BYTES;
+		
+		IntBuffer offsets = section(buffer, position, (termCount + 1) * Integer.BYTES).asIntBuffer();
+		position += (termCount + 1) * Integer.BYTES;
+		
+		IntBuffer postingDocuments = section(buffer, position, postingCount * Integer.BYTES).asIntBuffer();
+		position += postingCount * Integer.BYTES;
+		
+		IntBuffer postingFrequencies = section(buffer, position, postingCount * Integer.BYTES).asIntBuffer();
+		position += postingCount * Integer.BYTES;
+		
+		IntBuffer termOffsets = section(buffer, position, (termCount + 1) * Integer.BYTES).asIntBuffer();
+		position += (termCount + 1) * Integer.BYTES;
+		
+		IntBuffer nameOffsets = section(buffer, position, (documentCount + 1) * Integer.BYTES).asIntBuffer();
+		position += (documentCount + 1) * Integer.BYTES;
+		
+		CharBuffer termChars = section(buffer, position, termCharCount * Character.BYTES).asCharBuffer();
+		position += termCharCount * Character.BYTES;
+		
+		CharBuffer nameChars = section(buffer, position, nameCharCount * Character.BYTES).asCharBuffer();
+		
+		return new InvertedIndex(idf, offsets, postingDocuments, postingFrequencies, norms, termOffsets, termChars, nameOffsets, nameChars);
+	}
+	
+	/**
+	 * Returns the section of the given buffer as a new buffer.
+	 *
+	 * @param buffer the buffer
+	 * @param position the start of the section
+	 * @param length the length of the section in bytes
+	 * @return the section
+	 */
+	private static ByteBuffer section(ByteBuffer buffer, int position, int length) {
+		ByteBuffer section = buffer.duplicate();
+		section.position(position).limit(position + length);
+		return section.slice();
+	}
+	
+	/**
+	 * Writes all the values of the given buffer.
+	 *
+	 * @param out the output stream
+	 * @param values the values
+	 * @throws IOException if an IO error occurs
+	 */
+	private static void writeDoubles(DataOutputStream out, DoubleBuffer values) throws IOException {
+		for(int i = 0, n = values.limit(); i < n; i++) {
+			out.writeDouble(values.get(i));
+		}
+	}
+	
+	/**
+	 * Writes all the values of the given buffer.
+	 *
+	 * @param out the output stream
+	 * @param values the values
+	 * @throws IOException if an IO error occurs
+	 */
+	private static void writeInts(DataOutputStream out, IntBuffer values) throws IOException {
+		for(int i = 0, n = values.limit(); i < n; i++) {
+			out.writeInt(values.get(i));
+		}
+	}
+	
+	/**
+	 * Writes all the values of the given buffer.
+	 *
+	 * @param out the output stream
+	 * @param values the values
+	 * @throws IOException if an IO error occurs
+	 */
+	private static void writeChars(DataOutputStream out, CharBuffer values) throws IOException {
+		for(int i = 0, n = values.limit(); i < n; i++) {
+			out.writeChar(values.get(i));
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//								HIT
+	//------------------------------------------------------------------
+	
+	/**
+	 * A single document returned by the search, along with
+	 * its similarity to the query.
+	 *
+	 * @author Filip Nemec
+	 */
+	public static final class Hit {
+		
+		/** The document id. */
+		public final int document;
+		
+		/** The similarity to the query. */
+		public final double similarity;
+		
+		/**
+		 * Constructs a new hit.
+		 *
+		 * @param document the document id
+		 * @param similarity the similarity to the query
+		 */
+		Hit(int document, double similarity) {
+			this.document = document;
+			this.similarity = similarity;
+		}
+		
+		@Override
+		public String toString() {
+			return document + " (" + similarity + ")";
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//								TOP K
+	//------------------------------------------------------------------
+	
+	/**
+	 * A bounded min-heap that keeps the best {@code k} offered documents.
+	 * The worst kept document is at the root, so a new document only needs
+	 * to be compared with it.
+	 *
+	 * @author Filip Nemec
+	 */
+	static final class TopK {
+		
+		/** The document ids in the heap. */
+		private final int[] documents;
+		
+		/** The similarities in the heap. */
+		private final double[] similarities;
+		
+		/** The number of documents in the heap. */
+		private int size;
+		
+		/**
+		 * Constructs a new heap.
+		 *
+		 * @param k the maximum number of kept documents
+		 */
+		TopK(int k) {
+			documents = new int[k];
+			similarities = new double[k];
+		}
+		
+		/**
+		 * Offers the document to the heap. It is kept if the heap is not full
+		 * yet, or if it is better than the worst document in the heap.
+		 *
+		 * @param document the document id
+		 * @param similarity the similarity to the query
+		 */
+		void offer(int document, double similarity) {
+			if(!(similarity > 0)) return;
+			
+			if(size < documents.length) {
+				documents[size] = document;
+				similarities[size] = similarity;
+				siftUp(size++);
+				
+			} else if(size > 0 && isWorse(documents[0], similarities[0], document, similarity)) {
+				documents[0] = document;
+				similarities[0] = similarity;
+				siftDown(0);
+			}
+		}
+		
+		/**
+		 * Empties the heap into a list, ordered from the best document.
+		 *
+		 * @return the kept documents, ordered from the best one
+		 */
+		List<Hit> toList() {
+			Hit[] hits = new Hit[size];
+			
+			while(size > 0) {
+				hits[size - 1] = new Hit(documents[0], similarities[0]);
+				
+				size--;
+				documents[0] = documents[size];
+				similarities[0] = similarities[size];
+				siftDown(0);
+			}
+			
+			return new ArrayList<>(Arrays.asList(hits));
+		}
+		
+		/**
+		 * Moves the element at the given position up, towards the root.
+		 *
+		 * @param index the position of the element
+		 */
+		private void siftUp(int index) {
+			while(index > 0) {
+				int parent = (index - 1) >>> 1;
+				if(!isWorse(documents[index], similarities[index], documents[parent], similarities[parent])) break;
+				
+				swap(index, parent);
+				index = parent;
+			}
+		}
+		
+		/**
+		 * Moves the element at the given position down, away from the root.
+		 *
+		 * @param index the position of the element
+		 */
+		private void siftDown(int index) {
+			while(true) {
+				int worst = index;
+				int left = 2 * index + 1;
+				int right = left + 1;
+				
+				if(left < size && isWorse(documents[left], similarities[left], documents[worst], similarities[worst])) {
+					worst = left;
+				}
+				
+				if(right < size && isWorse(documents[right], similarities[right], documents[worst], similarities[worst])) {
+					worst = right;
+				}
+				
+				if(worst == index) return;
+				
+				swap(index, worst);
+				index = worst;
+			}
+		}
+		
+		/**
+		 * Swaps the elements at the given positions.
+		 *
+		 * @param i the first position
+		 * @param j the second position
+		 */
+		private void swap(int i, int j) {
+			int document = documents[i];
+			documents[i] = documents[j];
+			documents[j] = document;
+			
+			double similarity = similarities[i];
+			similarities[i] = similarities[j];
+			similarities[j] = similarity;
+		}
+		
+		/**
+		 * Checks whether the first document is a worse match than the second one.
+		 *
+		 * @param d1 the first document id
+		 * @param s1 the similarity of the first document
+		 * @param d2 the second document id
+		 * @param s2 the similarity of the second document
+		 * @return {@code true} if the first document is a worse match
+		 */
+		private static boolean isWorse(int d1, double s1, int d2, double s2) {
+			return s1 < s2 || (s1 == s2 && d1 > d2);
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//							BUILDER
+	//------------------------------------------------------------------
+	
+	/**
+	 * Builds the index one document at a time. Documents get their ids in
+	 * the order they are added, starting from 0.
+	 *
+	 * @author Filip Nemec
+	 */
+	static final class Builder {
+		
+		/** The terms, in the ascending order. */
+		private final String[] terms;
+		
+		/** The <i>idf</i> of each term. */
+		private final double[] idf;
+		
+		/** The names of the added documents. */
+		private final List<String> names = new ArrayList<>();
+		
+		/** The document ids of each term's postings. */
+		private final int[][] documents;
+		
+		/** The term frequencies of each term's postings. */
+		private final int[][] frequencies;
+		
+		/** The length of each term's postings. */
+		private final int[] lengths;
+		
+		/** The norms of the added documents. */
+		private double[] norms = new double[16];
+		
+		/** The number of added documents. */
+		private int documentCount;
+		
+		/**
+		 * Constructs a new builder.
+		 *
+		 * @param terms the terms, in the ascending order, so that the id of a term is its position
+		 * @param idf the <i>idf</i> of each term
+		 * @throws IllegalArgumentException if the arrays are not of equal length
+		 */
+		Builder(String[] terms, double[] idf) {
+			if(terms.length != idf.length)
+				throw new IllegalArgumentException("Expected an idf for each of the " + terms.length + " terms, but got " + idf.length + ".");
+			
+			this.terms = terms;
+			this.idf = idf;
+			this.documents = new int[idf.length][];
+			this.frequencies = new int[idf.length][];
+			this.lengths = new int[idf.length];
+		}
+		
+		/**
+		 * Adds the next document to the index.
+		 *
+		 * @param name the name of the document
+		 * @param documentTerms the distinct term ids of the document
+		 * @param termFrequencies the number of times each term is found in the document
+		 * @return the id of the added document
+		 */
+		int addDocument(String name, int[] documentTerms, int[] termFrequencies) {
+			int document = documentCount++;
+			double norm = 0;
+			
+			names.add(name);
+			
+			for(int i = 0; i < documentTerms.length; i++) {
+				int term = documentTerms[i];
+				int length = lengths[term];
+				
+				if(documents[term] == null) {
+					documents[term] = new int[4];
+					frequencies[term] = new int[4];
+					
+				} else if(length == documents[term].length) {
+					documents[term] = Arrays.copyOf(documents[term], length * 2);
+					frequencies[term] = Arrays.copyOf(frequencies[term], length * 2);
+				}
+				
+				documents[term][length] = document;
+				frequencies[term][length] = termFrequencies[i];
+				lengths[term]++;
+				
+				double weight = termFrequencies[i] * idf[term];
+				norm += weight * weight;
+			}
+			
+			if(document == norms.length) {
+				norms = Arrays.copyOf(norms, document * 2);
+			}
+			norms[document] = Math.sqrt(norm);
+			
+			return document;
+		}
+		
+		/**
+		 * Builds the index from the added documents.
+		 *
+		 * @return the index
+		 */
+		InvertedIndex build() {
+			int[] offsets = new int[idf.length + 1];
+			for(int term = 0; term < idf.length; term++) {
+				offsets[term + 1] = offsets[term] + lengths[term];
+			}
+			
+			int[] postingDocuments = new int[offsets[idf.length]];
+			int[] postingFrequencies = new int[offsets[idf.length]];
+			
+			for(int term = 0; term < idf.length; term++) {
+				if(lengths[term] == 0) continue;
+				
+				System.arraycopy(documents[term], 0, postingDocuments, offsets[term], lengths[term]);
+				System.arraycopy(frequencies[term], 0, postingFrequencies, offsets[term], lengths[term]);
+			}
+			
+			int[] termOffsets = new int[terms.length + 1];
+			CharBuffer termChars = concatenate(terms, termOffsets);
+			
+			int[] nameOffsets = new int[documentCount + 1];
+			CharBuffer nameChars = concatenate(names.toArray(new String[documentCount]), nameOffsets);
+			
+			return new InvertedIndex(DoubleBuffer.wrap(idf), IntBuffer.wrap(offsets),
+									 IntBuffer.wrap(postingDocuments), IntBuffer.wrap(postingFrequencies),
+									 DoubleBuffer.wrap(Arrays.copyOf(norms, documentCount)),
+									 IntBuffer.wrap(termOffsets), termChars, IntBuffer.wrap(nameOffsets), nameChars);
+		}
+		
+		/**
+		 * Concatenates the given texts into a single buffer.
+		 *
+		 * @param texts the texts
+		 * @param textOffsets receives the start of each text, and the end of the last one
+		 * @return the characters of all the texts
+		 */
+		private static CharBuffer concatenate(String[] texts, int[] textOffsets) {
+			for(int i = 0; i < texts.length; i++) {
+				textOffsets[i + 1] = textOffsets[i] + texts[i].length();
+			}
+			
+			char[] chars = new char[textOffsets[texts.length]];
+			for(int i = 0; i < texts.length; i++) {
+				texts[i].getChars(0, texts[i].length(), chars, textOffsets[i]);
+			}
+			
+			return CharBuffer.wrap(chars);
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package hr.fer.zemris.java.hw17.trazilica;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 
@@ -19,13 +21,29 @@ public class Konzola {
 	/** Location of all the stop-words. */
 	private static final Path STOPWORD_PATH = Paths.get("src/main/resources/hrvatski_stoprijeci.txt");
 	
+	/** Location of the saved index, which is rebuilt whenever the documents change. */
+	private static final Path INDEX_PATH = Paths.get("target/clanci.index");
+	
 	/**
 	 * Program starts from here.
 	 *
-	 * @param args none are used
+	 * @param args optionally {@code --watch}, which keeps the search engine
+	 * 			   in sync with the documents as they are changed
 	 */
 	public static void main(String[] args) {
-		SearchEngine engine = new SearchEngine(ROOT_PATH, STOPWORD_PATH);
+		List<String> options = Arrays.asList(args);
+		SearchEngine engine = SearchEngine.open(ROOT_PATH, STOPWORD_PATH, INDEX_PATH);
+		
+		if(options.contains("--watch")) {
+			try {
+				engine.watch();
+				System.out.println("Watching '" + ROOT_PATH + "' for changes.");
+				
+			} catch(IOException e) {
+				System.out.println("Could not watch '" + ROOT_PATH + "': " + e.getMessage());
+			}
+		}
+		
 		Scanner scanner = new Scanner(System.in);
 		
 		while(true) {
@@ -52,6 +70,7 @@ public class Konzola {
 		}
 		
 		scanner.close();
+		engine.close();
 	}
 	
 	/**
@@ -0,0 +1,130 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe cache of the query results, which keeps the most recently
+ * used ones. The queries are keyed by their normalized form, so the queries
+ * that differ only in the order of their words, in the letter case or in the
+ * words that are not in the vocabulary share a single entry.
+ * <p>
+ * Each result is stored along with the version of the index it was computed
+ * from, and it is returned only for the same version. Once the index changes,
+ * the old results are never returned again, and they are pushed out of the
+ * cache by the new ones.
+ *
+ * @param <V> the type of the cached results
+ * @author Filip Nemec
+ */
+final class QueryCache<V> {
+	
+	/** The cached entries, from the least to the most recently used one. */
+	private final Map<String, Entry<V>> entries;
+	
+	/** The number of lookups that found a result. */
+	private final LongAdder hits = new LongAdder();
+	
+	/** The number of lookups that did not find a result. */
+	private final LongAdder misses = new LongAdder();
+	
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param capacity the maximum number of the cached results
+	 * @throws IllegalArgumentException if the capacity is not positive
+	 */
+	QueryCache(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive, but was " + capacity + ".");
+		
+		entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, QueryCache.Entry<V>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the result of the query, if it was computed from the given version of the index.
+	 *
+	 * @param key the normalized query
+	 * @param version the version of the index
+	 * @return the result, or {@code null} if it is not cached
+	 */
+	V get(String key, Object version) {
+		Entry<V> entry;
+		synchronized(entries) {
+			entry = entries.get(key);
+		}
+		
+		if(entry == null || entry.version != version) {
+			misses.increment();
+			return null;
+		}
+		
+		hits.increment();
+		return entry.value;
+	}
+	
+	/**
+	 * Stores the result of the query, computed from the given version of the index.
+	 *
+	 * @param key the normalized query
+	 * @param version the version of the index
+	 * @param value the result
+	 */
+	void put(String key, Object version, V value) {
+		synchronized(entries) {
+			entries.put(key, new Entry<>(version, value));
+		}
+	}
+	
+	/**
+	 * Returns the number of lookups that found a result.
+	 *
+	 * @return the number of hits
+	 */
+	long getHitCount() {
+		return hits.sum();
+	}
+	
+	/**
+	 * Returns the number of lookups that did not find a result.
+	 *
+	 * @return the number of misses
+	 */
+	long getMissCount() {
+		return misses.sum();
+	}
+	
+	/**
+	 * A cached result, along with the version of the index it was computed from.
+	 *
+	 * @param <V> the type of the result
+	 * @author Filip Nemec
+	 */
+	private static final class Entry<V> {
+		
+		/** The version of the index. */
+		final Object version;
+		
+		/** The result. */
+		final V value;
+		
+		/**
+		 * Constructs a new entry.
+		 *
+		 * @param version the version of the index
+		 * @param value the result
+		 */
+		Entry(Object version, V value) {
+			this.version = version;
+			this.value = value;
+		}
+	}
+}
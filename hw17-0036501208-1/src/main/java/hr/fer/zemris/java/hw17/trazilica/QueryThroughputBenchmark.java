@@ -0,0 +1,209 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures how many queries per second the search engine answers when it is
+ * queried from many threads at once, as it is by the {@link SearchServer}.
+ * <p>
+ * The queries are made of a few consecutive words of the bundled articles.
+ * They are drawn from a fixed pool with a skewed distribution, so some of them
+ * are repeated much more often than the others, as the real queries are. The
+ * following variants are measured, each with 1 up to twice as many threads as
+ * there are processors:
+ * <ul>
+ * <li> {@code uncached} - every query is scored on its own; </li>
+ * <li> {@code cached} - the repeated queries are answered from the cache; </li>
+ * <li> {@code batched} - each thread sends its queries in batches, which are
+ * 		scored together, without the cache. </li>
+ * </ul>
+ *
+ * @author Filip Nemec
+ */
+public class QueryThroughputBenchmark {
+	
+	/** The root of the hierarchy containing all of the documents. */
+	private static final Path ROOT_PATH = Paths.get("src/main/resources/clanci");
+	
+	/** Location of all the stop-words. */
+	private static final Path STOPWORD_PATH = Paths.get("src/main/resources/hrvatski_stoprijeci.txt");
+	
+	/** Location of the saved index. */
+	private static final Path INDEX_PATH = Paths.get("target/clanci.index");
+	
+	/** The number of distinct queries. */
+	private static final int QUERY_POOL_SIZE = 2000;
+	
+	/** The number of queries each thread sends per measurement. */
+	private static final int QUERIES_PER_THREAD = 2000;
+	
+	/** The number of queries in a single batch. */
+	private static final int BATCH_SIZE = 16;
+	
+	/** The number of results asked for by each query. */
+	private static final int LIMIT = 10;
+	
+	/** Prevents the JIT compiler from removing the measured work. */
+	private static volatile int sink;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 * @throws Exception if the documents could not be read or a query failed
+	 */
+	public static void main(String[] args) throws Exception {
+		SearchEngine engine = SearchEngine.open(ROOT_PATH, STOPWORD_PATH, INDEX_PATH);
+		List<String> pool = createQueryPool(new Random(42));
+		
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.printf("%d distinct queries, %d processor(s)%n", pool.size(), processors);
+		
+		Client single = queries -> queries.forEach(query -> sink += engine.search(query, LIMIT).size());
+		Client batched = queries -> searchBatches(engine, queries);
+		
+		for(int threads = 1; threads <= 2 * processors; threads *= 2) {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			
+			try {
+				engine.setCacheCapacity(0);
+				measure(executor, threads, pool, single);
+				double uncached = measure(executor, threads, pool, single);
+				
+				engine.setCacheCapacity(QUERY_POOL_SIZE / 4);
+				measure(executor, threads, pool, single);
+				double cached = measure(executor, threads, pool, single);
+				long[] statistics = engine.getCacheStatistics();
+				
+				engine.setCacheCapacity(0);
+				measure(executor, threads, pool, batched);
+				double batch = measure(executor, threads, pool, batched);
+				
+				System.out.printf("threads: %2d   uncached: %8.0f q/s   cached: %8.0f q/s (%.0f%% hits)   batched: %8.0f q/s%n",
+								  threads, uncached, cached, 100.0 * statistics[0] / (statistics[0] + statistics[1]), batch);
+			
+			} finally {
+				executor.shutdown();
+			}
+		}
+		
+		engine.close();
+	}
+	
+	/**
+	 * Sends the queries in batches.
+	 *
+	 * @param engine the search engine
+	 * @param queries the queries
+	 */
+	private static void searchBatches(SearchEngine engine, List<String> queries) {
+		for(int start = 0; start < queries.size(); start += BATCH_SIZE) {
+			List<String> batch = queries.subList(start, Math.min(start + BATCH_SIZE, queries.size()));
+			sink += engine.searchAll(batch, LIMIT).size();
+		}
+	}
+	
+	/**
+	 * Lets each thread send its own queries, and measures the total throughput.
+	 *
+	 * @param executor the executor running the threads
+	 * @param threads the number of threads
+	 * @param pool the distinct queries
+	 * @param client sends the queries of a single thread
+	 * @return the number of queries answered per second
+	 * @throws Exception if a query failed
+	 */
+	private static double measure(ExecutorService executor, int threads, List<String> pool, Client client) throws Exception {
+		List<List<String>> queries = new ArrayList<>();
+		for(int thread = 0; thread < threads; thread++) {
+			queries.add(drawQueries(pool, new Random(thread)));
+		}
+		
+		long start = System.nanoTime();
+		
+		List<Future<?>> futures = new ArrayList<>();
+		for(List<String> threadQueries : queries) {
+			futures.add(executor.submit(() -> client.send(threadQueries)));
+		}
+		
+		for(Future<?> future : futures) {
+			future.get();
+		}
+		
+		long time = System.nanoTime() - start;
+		return (double) threads * QUERIES_PER_THREAD / time * 1e9;
+	}
+	
+	/**
+	 * Draws the queries of a single thread from the pool, so that the queries
+	 * at the start of the pool are drawn much more often than the others.
+	 *
+	 * @param pool the distinct queries
+	 * @param random the random generator
+	 * @return the drawn queries
+	 */
+	private static List<String> drawQueries(List<String> pool, Random random) {
+		List<String> queries = new ArrayList<>(QUERIES_PER_THREAD);
+		for(int i = 0; i < QUERIES_PER_THREAD; i++) {
+			double r = random.nextDouble();
+			queries.add(pool.get((int) (r * r * r * pool.size())));
+		}
+		
+		return queries;
+	}
+	
+	/**
+	 * Creates the distinct queries, each made of 1 to 4 consecutive words of a random article.
+	 *
+	 * @param random the random generator
+	 * @return the distinct queries
+	 * @throws IOException if the articles could not be read
+	 */
+	private static List<String> createQueryPool(Random random) throws IOException {
+		List<List<String>> articles = new ArrayList<>();
+		try(Stream<Path> paths = Files.list(ROOT_PATH)) {
+			for(Path path : paths.sorted().collect(Collectors.toList())) {
+				articles.add(Util.convertTextToWords(Files.readString(path)));
+			}
+		}
+		
+		List<String> pool = new ArrayList<>(QUERY_POOL_SIZE);
+		while(pool.size() < QUERY_POOL_SIZE) {
+			List<String> words = articles.get(random.nextInt(articles.size()));
+			int length = 1 + random.nextInt(4);
+			if(words.size() < length) continue;
+			
+			int start = random.nextInt(words.size() - length + 1);
+			pool.add(String.join(" ", words.subList(start, start + length)));
+		}
+		
+		return pool;
+	}
+	
+	/**
+	 * Sends the queries of a single thread.
+	 *
+	 * @author Filip Nemec
+	 */
+	@FunctionalInterface
+	private interface Client {
+		
+		/**
+		 * Sends the queries.
+		 *
+		 * @param queries the queries
+		 */
+		void send(List<String> queries);
+	}
+}
@@ -2,36 +2,68 @@ package hr.fer.zemris.java.hw17.trazilica;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import hr.fer.zemris.java.hw17.trazilica.InvertedIndex.Hit;
 
 /**
  * Models a search engine for the collection of the textual documents.
  * The search engine first needs to prepare and store some information:
  * <ol>
  * <li> Load the stop-words from the predefined file. </li>
- * <li> Build the vocabulary, taking the stop-words in the consideration. </li>
+ * <li> Tokenize the documents, taking the stop-words in the consideration. </li>
+ * <li> Build the vocabulary by merging the words found by each tokenizing task. </li>
  * <li> Build the <i>idf</i> vector which is used for creation of all the document vectors. </li>
  * <li> Build all of the document vectors. </li>
  * </ol>
  * 
+ * The built index can be saved to a file and loaded back by {@link #open(Path, Path, Path)},
+ * which rebuilds it only when the documents or the stop-words change.
+ * <p>
+ * The documents are tokenized in chunks, in parallel, by a {@link ForkJoinPool}.
+ * Each chunk keeps its own partial vocabulary and term counts, so the tasks
+ * share nothing until their results are merged, in the order of the documents.
+ * The documents are streamed through a decoder instead of being read whole,
+ * and the result does not depend on the number of threads.
+ * 
+ * While the document vectors are built, the documents are also added to the
+ * {@link InvertedIndex}, which maps each word to the documents it is found in.
  * After all the steps are done, the search is a simple process:
  * <ol>
- * <li> Convert the list of query words into a document vector ("query vector"). </li>
- * <li> Check the similarity of the "query vector" against all of the document vectors. </li>
- * <li> Sort the similarities by their value, and those values (associated with their document path) are the query results. </li>
+ * <li> Convert the list of query words into their term frequencies. </li>
+ * <li> Score only the documents that contain some of the query words, by walking the index. </li>
+ * <li> Keep the best scored documents in a bounded heap; those documents (associated with their similarity) are the query results. </li>
  * </ol>
+ * 
+ * Once built, the documents can be added, updated and removed by {@link #updateDocuments(Collection, Collection)},
+ * without rebuilding the search engine. The changed documents are indexed into a new segment of
+ * the {@link SegmentedIndex}, and the queries running meanwhile keep using the previous snapshot
+ * of the index. The search engine can also {@link #watch()} the document hierarchy and apply the
+ * changes made to it on its own.
  *
  * @author Filip Nemec
  */
@@ -40,8 +72,20 @@ public class SearchEngine {
 	/** The maximum number of query results printed by the {@link #printQueryResults()}. */
 	private static final int QUERY_RESULTS_PRINT_LIMIT = 10;
 	
-	/** A set of stop-words. */
-	private Set<String> stopwords = new HashSet<>();
+	/** The maximum number of query results kept, and thus available to the {@link #type(int)}. */
+	private static final int QUERY_RESULTS_LIMIT = 100;
+	
+	/** The number of documents tokenized by a single task. */
+	private static final int CHUNK_SIZE = 16;
+	
+	/** The default maximum number of the cached query results. */
+	private static final int CACHE_CAPACITY = 1024;
+	
+	/** The root of the document hierarchy. */
+	private final Path root;
+	
+	/** The stop-words, looked up straight from the buffer of the tokenizer. */
+	private TermDictionary stopwords = new TermDictionary();
 	
 	/** 
 	 * The collection that maps all of the words from all of the documents to the
@@ -53,20 +97,26 @@ public class SearchEngine {
 	 */
 	private Map<String, WordInfo> vocabulary = new HashMap<>();
 	
-	/** The <i>inverse document frequency</i> vector. */
-	private Vector<Double> idf;
+	/** The <i>inverse document frequency</i> vector, indexed by the word ids. */
+	private double[] idf;
 	
-	/** A list that holds and caches the processed documents. */
-	private List<Document> documents = new LinkedList<>();
+	/** The inverted index the search engine was built with or loaded from. */
+	private InvertedIndex index;
+	
+	/** The index of the current documents, which starts as the {@link #index}. */
+	private final SegmentedIndex segments;
+	
+	/** Keeps the index in sync with the document hierarchy, once it is watched. */
+	private DocumentWatcher watcher;
 	
 	/** The number of documents this search engine is processing. */
 	private int documentCount;
 	
-	/**
-	 * A tree set containing the query results. The results must be sorted
-	 * by similarity, hence the {@code TreeSet} is used.
-	 */
-	private TreeSet<QueryResult> results;
+	/** The results of the last query of the console, sorted by similarity. */
+	private List<QueryResult> results;
+	
+	/** The cache of the query results, or {@code null} if the results are not cached. */
+	private volatile QueryCache<List<QueryResult>> cache = new QueryCache<>(CACHE_CAPACITY);
 	
 	//------------------------------------------------------------------
 	//							CONSTRUCTOR
@@ -82,10 +132,178 @@ public class SearchEngine {
 	 * @param stopwordPath the path of the "stop-word file"
 	 */
 	public SearchEngine(Path root, Path stopwordPath) {
+		this(root, stopwordPath, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Constructs a new search engine, just like {@link #SearchEngine(Path, Path)},
+	 * building it with the given number of threads.
+	 *
+	 * @param root the root of the document hierarchy
+	 * @param stopwordPath the path of the "stop-word file"
+	 * @param parallelism the number of threads used to build the search engine
+	 * @throws IllegalArgumentException if the parallelism is not positive
+	 */
+	public SearchEngine(Path root, Path stopwordPath, int parallelism) {
+		if(parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be positive, but was " + parallelism + ".");
+		
+		this.root = root;
+		
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		
+		try {
+			loadStopwords(stopwordPath);
+			List<Path> paths = listDocuments(root);
+			documentCount = paths.size();
+			Chunk[] chunks = tokenizeDocuments(paths, pool);
+			buildVocabulary(chunks);
+			buildIdfVector();
+			buildDocuments(paths, chunks, pool);
+			
+		} finally {
+			pool.shutdown();
+		}
+		
+		segments = new SegmentedIndex(index);
+		printInfo("Search engine was built in " + (System.nanoTime() - start) / 1_000_000 + " ms, using " + parallelism + " thread(s).", 2);
+	}
+	
+	/**
+	 * Constructs a new search engine over an already built index.
+	 *
+	 * @param root the root of the document hierarchy
+	 * @param stopwordPath the path of the "stop-word file", used for the added documents
+	 * @param index the index of the documents
+	 */
+	private SearchEngine(Path root, Path stopwordPath, InvertedIndex index) {
+		this.root = root;
+		this.index = index;
+		this.documentCount = index.getDocumentCount();
+		this.segments = new SegmentedIndex(index);
+		
 		loadStopwords(stopwordPath);
-		buildVocabulary(root);
-		buildIdfVector(root);
-		buildDocuments(root);
+	}
+	
+	/**
+	 * Opens the search engine for the documents in the hierarchy with the given root.
+	 * If the given index file was built from the same documents and stop-words, the
+	 * index is simply mapped into memory. Otherwise, or if the file is missing or
+	 * corrupt, the search engine is built and its index is saved to the file.
+	 * <p>
+	 * Whether the documents have changed is decided by their fingerprint: a hash
+	 * of the names, sizes and modification times of the documents and the
+	 * stop-word file, which is computed without reading them.
+	 *
+	 * @param root the root of the document hierarchy
+	 * @param stopwordPath the path of the "stop-word file"
+	 * @param indexPath the path of the index file
+	 * @return the search engine
+	 */
+	public static SearchEngine open(Path root, Path stopwordPath, Path indexPath) {
+		long fingerprint = fingerprint(root, stopwordPath);
+		
+		if(Files.exists(indexPath)) {
+			try {
+				long start = System.nanoTime();
+				InvertedIndex index = InvertedIndex.load(indexPath, fingerprint);
+				
+				if(index != null) {
+					printInfo("Loaded the index of " + index.getDocumentCount() + " document(s) and " + index.getTermCount() + " words from '"
+							  + indexPath + "' in " + (System.nanoTime() - start) / 1_000_000 + " ms.", 2);
+					return new SearchEngine(root, stopwordPath, index);
+				}
+				
+				printInfo("The documents have changed since the index in '" + indexPath + "' was built. Rebuilding it.", 1);
+				
+			} catch(IOException e) {
+				printInfo("The index in '" + indexPath + "' could not be loaded (" + e.getMessage() + "). Rebuilding it.", 1);
+			}
+		}
+		
+		SearchEngine engine = new SearchEngine(root, stopwordPath);
+		
+		try {
+			engine.index.writeTo(indexPath, fingerprint);
+			printInfo("Saved the index to '" + indexPath + "'.", 1);
+			
+		} catch(IOException e) {
+			System.err.println("Could not save the index to '" + indexPath + "': " + e.getMessage());
+		}
+		
+		return engine;
+	}
+	
+	/**
+	 * Computes the fingerprint of the documents in the hierarchy and the stop-word
+	 * file, from their names, sizes and modification times.
+	 *
+	 * @param root the root of the document hierarchy
+	 * @param stopwordPath the path of the "stop-word file"
+	 * @return the fingerprint
+	 */
+	private static long fingerprint(Path root, Path stopwordPath) {
+		long[] hash = { 0xCBF29CE484222325L };
+		
+		FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				hash[0] = mix(hash[0], file.getFileName().toString());
+				hash[0] = mix(hash[0], attrs.size());
+				hash[0] = mix(hash[0], attrs.lastModifiedTime().toMillis());
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				hash[0] = mix(hash[0], dir.getFileName() == null ? "" : dir.getFileName().toString());
+				return FileVisitResult.CONTINUE;
+			}
+		};
+		
+		try {
+			Files.walkFileTree(root, visitor);
+			Files.walkFileTree(stopwordPath, visitor);
+			
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+		}
+		
+		return hash[0];
+	}
+	
+	/**
+	 * Mixes the given value into the hash, in the manner of the FNV-1a hash.
+	 *
+	 * @param hash the hash
+	 * @param value the value
+	 * @return the new hash
+	 */
+	private static long mix(long hash, long value) {
+		for(int i = 0; i < Long.BYTES; i++) {
+			hash ^= (value >>> (i * 8)) & 0xFF;
+			hash *= 0x100000001B3L;
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * Mixes the given text into the hash, in the manner of the FNV-1a hash.
+	 *
+	 * @param hash the hash
+	 * @param text the text
+	 * @return the new hash
+	 */
+	private static long mix(long hash, String text) {
+		for(int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001B3L;
+		}
+		
+		// Separates the text from whatever follows it.
+		return mix(hash, text.length());
 	}
 	
 	//------------------------------------------------------------------
@@ -110,66 +328,188 @@ public class SearchEngine {
 	}
 	
 	//------------------------------------------------------------------
-	//					  BUILDING THE VOCABULARY
+	//					  TOKENIZING THE DOCUMENTS
 	//------------------------------------------------------------------
-
+	
 	/**
-	 * Builds the vocabulary by traversing the document hierarchy.
-	 * 
+	 * Lists the documents in the hierarchy, in the order they are visited.
+	 * The position of a document in the returned list is its id.
+	 *
 	 * @param root the root of the hierarchy
+	 * @return the paths of the documents
 	 */
-	private void buildVocabulary(Path root) {
+	private static List<Path> listDocuments(Path root) {
+		List<Path> paths = new ArrayList<>();
+		
 		try {
-			Files.walkFileTree(root, new VocabularyBuildingVisitor());
-			printInfo("Vocabulary building finished. Vocabulary contains " +  vocabulary.size() + " words.", 1);
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path document, BasicFileAttributes attrs) {
+					paths.add(document);
+					return FileVisitResult.CONTINUE;
+				}
+			});
 			
 		} catch (IOException e) {
 			System.err.println(e.getMessage());
 		}
+		
+		return paths;
 	}
 	
 	/**
-	 * A simple {@code FileVisitor} that visits all of the documents in
-	 * the document hierarchy and converts the text in those documents
-	 * to the collection of vocabulary words.
+	 * Tokenizes the documents in parallel, {@link #CHUNK_SIZE} documents per task.
 	 *
-	 * @author Filip Nemec
+	 * @param paths the paths of the documents
+	 * @param pool the pool running the tasks
+	 * @return the tokenized chunks, in the order of the documents
 	 */
-	private class VocabularyBuildingVisitor extends SimpleFileVisitor<Path> { 
+	private Chunk[] tokenizeDocuments(List<Path> paths, ForkJoinPool pool) {
+		Chunk[] chunks = new Chunk[(paths.size() + CHUNK_SIZE - 1) / CHUNK_SIZE];
 		
-		@Override
-		public FileVisitResult visitFile(Path document, BasicFileAttributes attrs) throws IOException {
-			convertDocumentToVocabulary(document);
-			return FileVisitResult.CONTINUE;
+		forEachChunk(pool, chunks.length, c -> {
+			int from = c * CHUNK_SIZE;
+			int to = Math.min(from + CHUNK_SIZE, paths.size());
+			
+			Chunk chunk = new Chunk(to - from);
+			for(int document = from; document < to; document++) {
+				tokenizeDocument(paths.get(document), chunk, document - from);
+			}
+			
+			chunks[c] = chunk;
+		});
+		
+		printInfo("Tokenized " + paths.size() + " document(s) in " + chunks.length + " chunk(s).", 1);
+		return chunks;
+	}
+	
+	/**
+	 * Tokenizes a single document into the given chunk. The document is decoded
+	 * as it is read, so it is never held in memory as a whole. A document that
+	 * cannot be read is reported and left empty.
+	 *
+	 * @param document the path of the document
+	 * @param chunk the chunk the document belongs to
+	 * @param index the index of the document within the chunk
+	 */
+	private void tokenizeDocument(Path document, Chunk chunk, int index) {
+		CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+								.onMalformedInput(CodingErrorAction.REPLACE)
+								.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		
+		try(Reader reader = Channels.newReader(FileChannel.open(document), decoder, -1)) {
+			Util.forEachWord(reader, (chars, start, length) -> {
+				if(stopwords.find(chars, start, length) < 0) {
+					chunk.count(chars, start, length);
+				}
+			});
+			
+		} catch(IOException e) {
+			System.err.println("Could not read '" + document + "': " + e.getMessage());
 		}
+		
+		chunk.finishDocument(index);
 	}
 	
 	/**
-	 * Converts the given document to a collection of words which are then
-	 * added to the vocabulary, unless the word is a "stop-word".
+	 * Performs the action for each chunk index from 0 up to {@code count}, in parallel.
 	 *
-	 * @param document the document to be converted and added to the vocabulary
-	 * @throws IOException if the document could not be read
+	 * @param pool the pool running the action
+	 * @param count the number of chunks
+	 * @param action the action to be performed
 	 */
-	private void convertDocumentToVocabulary(Path document) throws IOException {
-		List<String> words = Util.convertTextToWords(new String(Files.readAllBytes(document)));
+	private static void forEachChunk(ForkJoinPool pool, int count, IntConsumer action) {
+		if(count > 0) {
+			pool.invoke(new ChunkTask(0, count, action));
+		}
+	}
+	
+	/**
+	 * Performs an action for a range of chunk indices by splitting
+	 * the range in halves, until a single index remains.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class ChunkTask extends RecursiveAction {
 		
-		for(String word : words) {
-			if(stopwords.contains(word)) continue;
-
-			WordInfo wordInfo = vocabulary.get(word);
+		/** The serial version UID. */
+		private static final long serialVersionUID = 1L;
+		
+		/** The first chunk index, inclusive. */
+		private final int from;
+		
+		/** The last chunk index, exclusive. */
+		private final int to;
+		
+		/** The action performed for each chunk index. */
+		private final IntConsumer action;
+		
+		/**
+		 * Constructs a new task.
+		 *
+		 * @param from the first chunk index, inclusive
+		 * @param to the last chunk index, exclusive
+		 * @param action the action performed for each chunk index
+		 */
+		ChunkTask(int from, int to, IntConsumer action) {
+			this.from = from;
+			this.to = to;
+			this.action = action;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from == 1) {
+				action.accept(from);
+				return;
+			}
 			
-			if(wordInfo == null) {
-				vocabulary.put(word, new WordInfo(1, 1, document));
-			} else {
-				wordInfo.occurrences++;
+			int middle = (from + to) >>> 1;
+			invokeAll(new ChunkTask(from, middle, action), new ChunkTask(middle, to, action));
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//					  BUILDING THE VOCABULARY
+	//------------------------------------------------------------------
+
+	/**
+	 * Builds the vocabulary by merging the partial vocabularies of the chunks.
+	 * 
+	 * @param chunks the tokenized chunks
+	 */
+	private void buildVocabulary(Chunk[] chunks) {
+		for(Chunk chunk : chunks) {
+			for(int local = 0; local < chunk.words.size(); local++) {
+				String word = chunk.words.getTerm(local);
+				WordInfo wordInfo = vocabulary.get(word);
 				
-				if(document != wordInfo.previousOccurrenceDocument) {
-					wordInfo.parentDocuments++;
-					wordInfo.previousOccurrenceDocument = document;
+				if(wordInfo == null) {
+					vocabulary.put(word, new WordInfo(chunk.occurrences[local], chunk.parentDocuments[local]));
+				} else {
+					wordInfo.occurrences += chunk.occurrences[local];
+					wordInfo.parentDocuments += chunk.parentDocuments[local];
 				}
 			}
 		}
+		
+		assignWordIds();
+		printInfo("Vocabulary building finished. Vocabulary contains " +  vocabulary.size() + " words.", 1);
+	}
+	
+	/**
+	 * Assigns the ids to the vocabulary words, in the alphabetical order of the
+	 * words. The ids are the positions of the words in the <i>idf</i> vector, the
+	 * document vectors and the index, and do not depend on the iteration order
+	 * of the vocabulary map.
+	 */
+	private void assignWordIds() {
+		List<String> words = new ArrayList<>(vocabulary.keySet());
+		words.sort(null);
+		
+		for(int id = 0; id < words.size(); id++) {
+			vocabulary.get(words.get(id)).id = id;
+		}
 	}
 	
 	//------------------------------------------------------------------
@@ -178,16 +518,12 @@ public class SearchEngine {
 	
 	/**
 	 * Builds the <i>inverse document frequency</i> vector.
-	 * 
-	 * @param root the root of the hierarchy
 	 */
-	private void buildIdfVector(Path root) {
-		// The total number of documents in the hierarchy.
-		documentCount = Util.getDocumentCount(root.toFile());
-		idf = new Vector<Double>(vocabulary.size());
+	private void buildIdfVector() {
+		idf = new double[vocabulary.size()];
 		
 		for(WordInfo wordInfo : vocabulary.values()) {
-			idf.add(Math.log((double) documentCount / wordInfo.parentDocuments));
+			idf[wordInfo.id] = Math.log((double) documentCount / wordInfo.parentDocuments);
 		}
 		
 		printInfo("Inverse document frequency (idf) vector was successfully built.", 1);
@@ -198,131 +534,206 @@ public class SearchEngine {
 	//------------------------------------------------------------------
 	
 	/**
-	 * Builds the document vectors by traversing the document hierarchy and
-	 * processing each document separately using the previously created vocabulary.
+	 * Maps the words of each chunk to their ids in parallel, and then adds
+	 * the documents to the index, which builds their <i>tf-idf</i> norms,
+	 * in their order.
 	 * 
-	 * @param root the root of the hierarchy
+	 * @param paths the paths of the documents
+	 * @param chunks the tokenized chunks
+	 * @param pool the pool mapping the words
 	 */
-	private void buildDocuments(Path root) {
-		try {
-			Files.walkFileTree(root, new DocumentBuildingVisitor());
-			printInfo("Finished building tf-idf vectors for " + documentCount + " document(s).", 2);
+	private void buildDocuments(List<Path> paths, Chunk[] chunks, ForkJoinPool pool) {
+		forEachChunk(pool, chunks.length, c -> {
+			Chunk chunk = chunks[c];
+			
+			int[] wordIds = new int[chunk.words.size()];
+			for(int local = 0; local < wordIds.length; local++) {
+				wordIds[local] = vocabulary.get(chunk.words.getTerm(local)).id;
+			}
+			
+			for(int i = 0; i < chunk.terms.length; i++) {
+				int[] terms = chunk.terms[i];
+				for(int t = 0; t < terms.length; t++) {
+					terms[t] = wordIds[terms[t]];
+				}
+			}
+		});
 		
-		} catch (IOException e) {
-			System.err.println(e.getMessage());
+		String[] words = new String[vocabulary.size()];
+		vocabulary.forEach((word, wordInfo) -> words[wordInfo.id] = word);
+		
+		InvertedIndex.Builder indexBuilder = new InvertedIndex.Builder(words, idf);
+		
+		for(int c = 0; c < chunks.length; c++) {
+			Chunk chunk = chunks[c];
+			
+			for(int i = 0; i < chunk.terms.length; i++) {
+				Path path = paths.get(c * CHUNK_SIZE + i);
+				indexBuilder.addDocument(root.relativize(path).toString(), chunk.terms[i], chunk.frequencies[i]);
+			}
+			
+			// The chunk is no longer needed.
+			chunks[c] = null;
 		}
+		
+		index = indexBuilder.build();
+		printInfo("Finished building tf-idf vectors for " + documentCount + " document(s).", 1);
 	}
 	
+	//------------------------------------------------------------------
+	//							PUBLIC API
+	//------------------------------------------------------------------
+	
 	/**
-	 * A simple {@code FileVisitor} that visits all of the documents in
-	 * the document hierarchy and builds the documents in memory. A
-	 * single document is described by its path and its vector.
-	 * <p>
-	 * In order for this visitor to properly do the job,
-	 * the vocabulary already needs to be built beforehand.
+	 * Performs the search query for the given list of words.
 	 *
-	 * @author Filip Nemec
+	 * @param words the search words
 	 */
-	private class DocumentBuildingVisitor extends SimpleFileVisitor<Path> {
+	public void query(List<String> words) {
+		// The whole query works with the same documents, even if they are changed meanwhile.
+		SegmentedIndex.Snapshot snapshot = segments.snapshot();
 		
-		@Override
-		public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
-			buildDocument(path);
-			return FileVisitResult.CONTINUE;
+		// Remove all the words that are not in the vocabulary.
+		words.removeIf(word -> !snapshot.contains(word));
+		
+		if(words.isEmpty()) {
+			System.out.println("Query ignored: No words from the query are in the vocabulary.");
+			return;
 		}
+		
+		System.out.println("Query is: " + words);
+
+		results = search(snapshot, List.of(words), QUERY_RESULTS_LIMIT).get(0);
+		
+		System.out.println("The closest " + QUERY_RESULTS_PRINT_LIMIT + " matches:");
+		printQueryResults();
 	}
 	
 	/**
-	 * Builds a single document by processing the words from the given document and
-	 * using that information to build the document's <i>tfidf</i> vector. Created
-	 * document is then saved to the {@linkplain #documents} list.
+	 * Returns the documents most similar to the given query, ordered from the most
+	 * similar one. The query is split into words the same way the documents are,
+	 * and the words that are not in the vocabulary are ignored.
+	 * <p>
+	 * Unlike the console methods, this method keeps no state of its own, so it can
+	 * be called from many threads at once. The results are cached, keyed by the
+	 * normalized query, until the documents change.
 	 *
-	 * @param docPath the path of the document on the disk
-	 * @throws IOException if an IO error occurred
+	 * @param query the text of the query
+	 * @param limit the maximum number of returned documents
+	 * @return the immutable list of the most similar documents; empty if none of the
+	 * 		   query words are in the vocabulary
+	 * @throws IllegalArgumentException if the limit is not positive
 	 */
-	private void buildDocument(Path docPath) throws IOException {
-		List<String> words = Util.convertTextToWords(new String(Files.readAllBytes(docPath)));
-		Vector<Double> vector = buildDocumentVector( buildTermFrequencyMap(words) );
-		
-		documents.add(new Document(docPath, vector));
+	public List<QueryResult> search(String query, int limit) {
+		return searchAll(List.of(query), limit).get(0);
 	}
 	
 	/**
-	 * Builds and returns the map that maps each word in the {@code words} list to the 
-	 * number of times that word is in the list. That map is called "term-frequency" map.
+	 * Returns the documents most similar to each of the given queries, just like
+	 * the {@link #search(String, int)}. The queries that are not cached are scored
+	 * together, in a single pass over the postings of their words, which is faster
+	 * than scoring them one by one when they share some words.
 	 *
-	 * @param words the list of words
-	 * @return the term-frequency map
+	 * @param queries the texts of the queries
+	 * @param limit the maximum number of documents returned for each query
+	 * @return the immutable list of the results of each query, in the order of the queries
+	 * @throws IllegalArgumentException if the limit is not positive
 	 */
-	private Map<String, Integer> buildTermFrequencyMap(List<String> words) {
-		var termFrequencyMap = new HashMap<String, Integer>();
-		
-		for(String word : words) {
-			termFrequencyMap.merge(word, 1, (prev, value) -> prev + 1);
+	public List<List<QueryResult>> searchAll(List<String> queries, int limit) {
+		List<List<String>> words = new ArrayList<>(queries.size());
+		for(String query : queries) {
+			words.add(Util.convertTextToWords(query));
 		}
 		
-		return termFrequencyMap;
+		return search(segments.snapshot(), words, limit);
 	}
 	
 	/**
-	 * Builds and returns the <i>tf-idf</i> vector for the the given term-frequency map.
+	 * Sets the maximum number of the cached query results, discarding the cached ones.
 	 *
-	 * @param termFrequencyMap the term-frequency map
-	 * @return the <i>tf-idf</i> document vector
+	 * @param capacity the maximum number of the cached results, or 0 if the results
+	 * 				   should not be cached
+	 * @throws IllegalArgumentException if the capacity is negative
 	 */
-	private Vector<Double> buildDocumentVector(Map<String, Integer> termFrequencyMap) {
-		var vector = new Vector<Double>(vocabulary.size());
+	public void setCacheCapacity(int capacity) {
+		if(capacity < 0)
+			throw new IllegalArgumentException("Capacity must not be negative, but was " + capacity + ".");
 		
-		int index = 0;
-		for(String word : vocabulary.keySet()) {
-			// The "term frequency" - the number of times a word was found in this document.
-			Integer tf = termFrequencyMap.get(word);
-			
-			if(tf == null) {
-				vector.add(0.0);
-			} else {
-				vector.add(tf * idf.get(index));
-			}
-			
-			index++;
-		}
-		
-		return vector;
+		cache = capacity == 0 ? null : new QueryCache<>(capacity);
 	}
 	
-	//------------------------------------------------------------------
-	//							PUBLIC API
-	//------------------------------------------------------------------
+	/**
+	 * Returns the number of queries answered from the cache, and the number
+	 * of those that were not, since the cache capacity was last set.
+	 *
+	 * @return the number of cache hits and misses
+	 */
+	public long[] getCacheStatistics() {
+		QueryCache<List<QueryResult>> cache = this.cache;
+		return cache == null ? new long[2] : new long[] { cache.getHitCount(), cache.getMissCount() };
+	}
 	
 	/**
-	 * Performs the search query for the given list of words.
+	 * Returns the documents most similar to each of the queries, from the given
+	 * snapshot of the index.
 	 *
-	 * @param words the search words
+	 * @param snapshot the snapshot of the index
+	 * @param queries the words of each query
+	 * @param limit the maximum number of documents returned for each query
+	 * @return the immutable list of the results of each query
+	 * @throws IllegalArgumentException if the limit is not positive
 	 */
-	public void query(List<String> words) {
-		// Remove all the words that are not in the vocabulary.
-		words.removeIf(word -> !vocabulary.containsKey(word));
+	private List<List<QueryResult>> search(SegmentedIndex.Snapshot snapshot, List<List<String>> queries, int limit) {
+		if(limit < 1)
+			throw new IllegalArgumentException("Limit must be positive, but was " + limit + ".");
 		
-		if(words.isEmpty()) {
-			System.out.println("Query ignored: No words from the query are in the vocabulary.");
-			return;
-		}
+		QueryCache<List<QueryResult>> cache = this.cache;
+		List<List<QueryResult>> results = new ArrayList<>(Collections.nCopies(queries.size(), List.of()));
 		
-		System.out.println("Query is: " + words);
-
-		var queryVector = buildDocumentVector( buildTermFrequencyMap(words) );		
-		results = new TreeSet<QueryResult>();
+		List<NormalizedQuery> scored = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();
 		
-		for(Document document : documents) {
-			double similarity = VectorN.similarity(queryVector, document.vector);
+		for(int i = 0; i < queries.size(); i++) {
+			NormalizedQuery query = new NormalizedQuery(queries.get(i), snapshot, limit);
+			if(query.terms.length == 0) continue;
+			
+			List<QueryResult> cached = cache == null ? null : cache.get(query.key, snapshot);
 			
-			if(similarity > 0.0) {
-				results.add(new QueryResult(document, similarity));
+			if(cached != null) {
+				results.set(i, cached);
+			} else {
+				scored.add(query);
+				positions.add(i);
 			}
 		}
 		
-		System.out.println("The closest " + QUERY_RESULTS_PRINT_LIMIT + " matches:");
-		printQueryResults();
+		if(!scored.isEmpty()) {
+			String[][] terms = new String[scored.size()][];
+			int[][] frequencies = new int[scored.size()][];
+			
+			for(int i = 0; i < terms.length; i++) {
+				terms[i] = scored.get(i).terms;
+				frequencies[i] = scored.get(i).frequencies;
+			}
+			
+			List<List<Hit>> hits = snapshot.search(terms, frequencies, limit);
+			
+			for(int i = 0; i < terms.length; i++) {
+				List<QueryResult> result = new ArrayList<>(hits.get(i).size());
+				for(Hit hit : hits.get(i)) {
+					result.add(new QueryResult(root.resolve(snapshot.getDocumentName(hit.document)), hit.similarity));
+				}
+				
+				result = Collections.unmodifiableList(result);
+				results.set(positions.get(i), result);
+				
+				if(cache != null) {
+					cache.put(scored.get(i).key, snapshot, result);
+				}
+			}
+		}
+		
+		return Collections.unmodifiableList(results);
 	}
 	
 	/**
@@ -337,7 +748,7 @@ public class SearchEngine {
 			
 		int index = 0;
 		for(QueryResult result : results) {
-			System.out.println(String.format("[%d] (%.4f) " + result.document.path, index, result.similarity));
+			System.out.println(String.format("[%d] (%.4f) " + result.getPath(), index, result.getSimilarity()));
 			
 			if(++index == QUERY_RESULTS_PRINT_LIMIT) break;
 		}
@@ -362,79 +773,210 @@ public class SearchEngine {
 			System.out.println("The result [" + resultNumber + "] does not exist.");
 			
 		} else {
-			int index = 0;
-			
-			for(QueryResult result : results) {
-				if(index == resultNumber) {
-					try {
-						String documentPath = result.document.path.toString();
-						System.out.println("Document: " + documentPath);
-						System.out.println("=".repeat(documentPath.length() * 2));
-						System.out.println(new String(Files.readAllBytes(result.document.path)));
-						System.out.println("=".repeat(documentPath.length() * 2));
-						
-					} catch(IOException e) {
-						System.out.println("Could not load the document.");
-						
-					}
-					
-					break;
-				}
-				index++;
+			QueryResult result = results.get(resultNumber);
+			
+			try {
+				String documentPath = result.getPath().toString();
+				System.out.println("Document: " + documentPath);
+				System.out.println("=".repeat(documentPath.length() * 2));
+				System.out.println(new String(Files.readAllBytes(result.getPath())));
+				System.out.println("=".repeat(documentPath.length() * 2));
+				
+			} catch(IOException e) {
+				System.out.println("Could not load the document.");
+				
 			}
 		}
 		
 		System.out.println();
 	}
 	
-	//------------------------------------------------------------------
-	//							HELPER METHODS
-	//------------------------------------------------------------------
+	/**
+	 * Adds the given document to the search engine, or updates it if it is
+	 * already indexed.
+	 *
+	 * @param document the path of the document, within the document hierarchy
+	 * @throws IllegalArgumentException if the document is not within the document hierarchy
+	 */
+	public void addDocument(Path document) {
+		updateDocuments(List.of(document), List.of());
+	}
 	
 	/**
-	 * Prints the info message to the output stream
+	 * Removes the given document from the search engine. If the path is a
+	 * directory, all of the documents within it are removed.
 	 *
-	 * @param message the message to be printed
-	 * @param n the number of new line characters after the message
+	 * @param document the path of the document, within the document hierarchy
+	 * @throws IllegalArgumentException if the document is not within the document hierarchy
 	 */
-	private static void printInfo(String message, int n) {
-		System.out.print("[INFO] " + message + "\r\n".repeat(n));
+	public void removeDocument(Path document) {
+		updateDocuments(List.of(), List.of(document));
+	}
+	
+	/**
+	 * Removes the documents in the {@code removed} collection, and then adds the
+	 * documents in the {@code changed} collection, replacing the ones that are already
+	 * indexed. A removed directory removes all of the documents within it, and a changed
+	 * document that no longer exists is removed. The queries see either none or all of
+	 * the changes.
+	 * <p>
+	 * Only the changed documents are read, and they are indexed into a new segment.
+	 * The <i>idf</i> vector is refreshed by the first following query.
+	 *
+	 * @param changed the paths of the added or modified documents
+	 * @param removed the paths of the removed documents or directories
+	 * @throws IllegalArgumentException if a path is not within the document hierarchy
+	 */
+	public synchronized void updateDocuments(Collection<Path> changed, Collection<Path> removed) {
+		long start = System.nanoTime();
+		
+		Set<Path> removedPaths = new HashSet<>();
+		for(Path path : removed) {
+			removedPaths.add(checkDocument(path));
+		}
+		
+		List<Path> paths = new ArrayList<>();
+		for(Path path : new LinkedHashSet<>(changed)) {
+			Path document = checkDocument(path);
+			
+			if(Files.isRegularFile(document)) {
+				paths.add(document);
+			} else {
+				removedPaths.add(document);
+			}
+		}
+		
+		// A document is removed if it, or any of its parent directories, is removed.
+		Set<String> removedNames = new HashSet<>();
+		if(!removedPaths.isEmpty()) {
+			segments.snapshot().forEachDocumentName(name -> {
+				for(Path path = root.resolve(name); path != null; path = path.getParent()) {
+					if(removedPaths.contains(path)) {
+						removedNames.add(name);
+						return;
+					}
+				}
+			});
+		}
+		
+		segments.update(paths.isEmpty() ? null : buildSegment(paths), removedNames);
+		
+		printInfo("Indexed " + paths.size() + " changed and removed " + removedNames.size() + " document(s) in "
+				  + (System.nanoTime() - start) / 1_000_000 + " ms.", 1);
+	}
+	
+	/**
+	 * Starts watching the document hierarchy, so that the documents created, modified
+	 * or deleted in it are added, updated or removed on their own. Does nothing if the
+	 * hierarchy is already watched.
+	 *
+	 * @throws IOException if the hierarchy could not be watched
+	 */
+	public synchronized void watch() throws IOException {
+		if(watcher != null) return;
+		
+		watcher = new DocumentWatcher(this, root);
+		watcher.start();
+	}
+	
+	/**
+	 * Stops watching the document hierarchy and merging the index segments
+	 * in the background. The search engine can still be queried.
+	 */
+	public synchronized void close() {
+		if(watcher != null) {
+			watcher.close();
+			watcher = null;
+		}
+		
+		segments.close();
 	}
 	
 	//------------------------------------------------------------------
-	//							DOCUMENT
+	//					  INDEXING THE CHANGED DOCUMENTS
 	//------------------------------------------------------------------
 	
 	/**
-	 * Encapsulates a single document. A single document in the search
-	 * engine should have a location of the document on the disk and an
-	 * <i>tf-idf</i> vector that describes that document.
+	 * Tokenizes the given documents and builds a new index segment out of them. The
+	 * <i>idf</i> of the segment is computed only from its own documents; the search
+	 * combines the segments with the <i>idf</i> of all the documents.
 	 *
-	 * @author Filip Nemec
+	 * @param paths the paths of the documents
+	 * @return the index segment
 	 */
-	private static class Document {
+	private InvertedIndex buildSegment(List<Path> paths) {
+		Chunk[] chunks = tokenizeDocuments(paths, ForkJoinPool.commonPool());
 		
-		/** The path of the document on disk. */
-		Path path;
+		Map<String, Integer> documentFrequencies = new HashMap<>();
+		for(Chunk chunk : chunks) {
+			for(int local = 0; local < chunk.words.size(); local++) {
+				documentFrequencies.merge(chunk.words.getTerm(local), chunk.parentDocuments[local], Integer::sum);
+			}
+		}
 		
-		/** The <i>tf-idf</i> vector that describes this document. */
-		Vector<Double> vector;
+		String[] words = documentFrequencies.keySet().toArray(new String[documentFrequencies.size()]);
+		Arrays.sort(words);
 		
-		/**
-		 * Constructs a new document with the given path and <i>tf-idf</i> vector.
-		 *
-		 * @param path the path
-		 * @param vector the <i>tf-idf</i> vector
-		 */
-		public Document(Path path, Vector<Double> vector) {
-			this.path = path;
-			this.vector = vector;
+		Map<String, Integer> ids = new HashMap<>();
+		double[] segmentIdf = new double[words.length];
+		
+		for(int id = 0; id < words.length; id++) {
+			ids.put(words[id], id);
+			segmentIdf[id] = Math.log((double) paths.size() / documentFrequencies.get(words[id]));
 		}
 		
-		@Override
-		public String toString() {
-			return "'" + path + "' -> " + vector;
+		InvertedIndex.Builder builder = new InvertedIndex.Builder(words, segmentIdf);
+		
+		for(int c = 0; c < chunks.length; c++) {
+			Chunk chunk = chunks[c];
+			
+			int[] wordIds = new int[chunk.words.size()];
+			for(int local = 0; local < wordIds.length; local++) {
+				wordIds[local] = ids.get(chunk.words.getTerm(local));
+			}
+			
+			for(int i = 0; i < chunk.terms.length; i++) {
+				int[] terms = chunk.terms[i];
+				for(int t = 0; t < terms.length; t++) {
+					terms[t] = wordIds[terms[t]];
+				}
+				
+				Path path = paths.get(c * CHUNK_SIZE + i);
+				builder.addDocument(root.relativize(path).toString(), terms, chunk.frequencies[i]);
+			}
 		}
+		
+		return builder.build();
+	}
+	
+	/**
+	 * Checks that the given path is within the document hierarchy.
+	 *
+	 * @param path the path
+	 * @return the normalized path
+	 * @throws IllegalArgumentException if the path is not within the document hierarchy
+	 */
+	private Path checkDocument(Path path) {
+		Path document = path.normalize();
+		
+		if(!document.startsWith(root))
+			throw new IllegalArgumentException("Expected a document within '" + root + "', but was '" + path + "'.");
+		
+		return document;
+	}
+	
+	//------------------------------------------------------------------
+	//							HELPER METHODS
+	//------------------------------------------------------------------
+	
+	/**
+	 * Prints the info message to the output stream
+	 *
+	 * @param message the message to be printed
+	 * @param n the number of new line characters after the message
+	 */
+	private static void printInfo(String message, int n) {
+		System.out.print("[INFO] " + message + "\r\n".repeat(n));
 	}
 	
 	//------------------------------------------------------------------
@@ -455,26 +997,18 @@ public class SearchEngine {
 		/** The number of different documents a word was found in. */
 		int parentDocuments;
 		
-		/**
-		 * The previous document a word was found in. This helper "flag"
-		 * is used during the vocabulary creation; if a word was found twice
-		 * in the same document, the second occurrence will not increment the
-		 * {@code parentDocuments} counter, as the word was already found in
-		 * the document.
-		 */
-		Path previousOccurrenceDocument;
+		/** The id of the word, assigned once the vocabulary is built. */
+		int id;
 
 		/**
 		 * Constructs a new word information container.
 		 *
 		 * @param occurrences the number of word occurrences
 		 * @param parentDocuments the number of parent documents
-		 * @param previousOccurrenceDocument the document a word was last found in
 		 */
-		public WordInfo(int occurrences, int parentDocuments, Path previousOccurrenceDocument) {
+		public WordInfo(int occurrences, int parentDocuments) {
 			this.occurrences = occurrences;
 			this.parentDocuments = parentDocuments;
-			this.previousOccurrenceDocument = previousOccurrenceDocument;
 		}
 		
 		@Override
@@ -483,47 +1017,210 @@ public class SearchEngine {
 		}
 	}
 	
+	//------------------------------------------------------------------
+	//								CHUNK
+	//------------------------------------------------------------------
+	
+	/**
+	 * The documents tokenized by a single task. A chunk keeps a partial
+	 * vocabulary of its own: the words it has found get local ids, which
+	 * are used for its term counts until the vocabulary is merged.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class Chunk {
+		
+		/** The words found in this chunk; their ids in the dictionary are their local ids. */
+		final TermDictionary words = new TermDictionary();
+		
+		/** The total number of occurrences of each word in this chunk. */
+		int[] occurrences = new int[256];
+		
+		/** The number of documents in this chunk each word was found in. */
+		int[] parentDocuments = new int[256];
+		
+		/** The distinct words of each document: local ids at first, word ids once the vocabulary is built. */
+		final int[][] terms;
+		
+		/** The term frequencies of each document, matching the {@link #terms}. */
+		final int[][] frequencies;
+		
+		/** The number of times each word was found in the current document. */
+		private int[] counts = new int[256];
+		
+		/** The distinct words of the current document. */
+		private int[] distinct = new int[256];
+		
+		/** The number of distinct words of the current document. */
+		private int distinctCount;
+		
+		/**
+		 * Constructs a new chunk.
+		 *
+		 * @param documentCount the number of documents in this chunk
+		 */
+		Chunk(int documentCount) {
+			terms = new int[documentCount][];
+			frequencies = new int[documentCount][];
+		}
+		
+		/**
+		 * Counts a single occurrence of the word in the current document.
+		 * The word is copied only if it was not found in this chunk before.
+		 *
+		 * @param chars the characters
+		 * @param start the start of the word
+		 * @param length the length of the word
+		 */
+		void count(char[] chars, int start, int length) {
+			int known = words.size();
+			int local = words.add(chars, start, length);
+			
+			// A new word gets the next id, so its counts may need more room.
+			if(local == known && local == occurrences.length) {
+				occurrences = Arrays.copyOf(occurrences, local * 2);
+				parentDocuments = Arrays.copyOf(parentDocuments, local * 2);
+				counts = Arrays.copyOf(counts, local * 2);
+			}
+			
+			if(counts[local]++ == 0) {
+				if(distinctCount == distinct.length) {
+					distinct = Arrays.copyOf(distinct, distinctCount * 2);
+				}
+				distinct[distinctCount++] = local;
+			}
+			
+			occurrences[local]++;
+		}
+		
+		/**
+		 * Stores the term counts of the current document and resets
+		 * them for the next one.
+		 *
+		 * @param index the index of the current document within this chunk
+		 */
+		void finishDocument(int index) {
+			terms[index] = Arrays.copyOf(distinct, distinctCount);
+			frequencies[index] = new int[distinctCount];
+			
+			for(int i = 0; i < distinctCount; i++) {
+				int local = distinct[i];
+				
+				frequencies[index][i] = counts[local];
+				parentDocuments[local]++;
+				counts[local] = 0;
+			}
+			
+			distinctCount = 0;
+		}
+	}
+	
 	//------------------------------------------------------------------
 	//							QUERY RESULT
 	//------------------------------------------------------------------
 	
 	/**
-	 * Models a single query result. It simply encapsulates the resulting
-	 * document and its similarity factor relative to the query.
+	 * Models a single query result. It simply encapsulates the path of the
+	 * resulting document and its similarity factor relative to the query.
+	 * The query results are immutable, so they can be shared between threads.
 	 *
 	 * @author Filip Nemec
 	 */
-	private static class QueryResult implements Comparable<QueryResult> {
+	public static final class QueryResult {
 		
-		/** The query document. */
-		Document document;
+		/** The path of the query document. */
+		private final Path path;
 		
 		/** The similarity factor relative to the query. */
-		double similarity;
+		private final double similarity;
 		
 		/**
 		 * Constructs a new query result.
 		 *
-		 * @param document the query result document
+		 * @param path the path of the query result document
 		 * @param similarity the query similarity factor
 		 */
-		public QueryResult(Document document, double similarity) {
-			this.document = document;
+		QueryResult(Path path, double similarity) {
+			this.path = path;
 			this.similarity = similarity;
 		}
-
+		
+		/**
+		 * Returns the path of the query result document.
+		 *
+		 * @return the path of the document
+		 */
+		public Path getPath() {
+			return path;
+		}
+		
+		/**
+		 * Returns the similarity factor relative to the query.
+		 *
+		 * @return the similarity factor
+		 */
+		public double getSimilarity() {
+			return similarity;
+		}
+		
 		@Override
-		public int compareTo(QueryResult o) {
-			if(this.similarity > o.similarity) {
-				return -1;
-				
-			} else if(this.similarity == o.similarity) {
-				return 0;
+		public String toString() {
+			return String.format("(%.4f) %s", similarity, path);
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//						  NORMALIZED QUERY
+	//------------------------------------------------------------------
+	
+	/**
+	 * A query in its normalized form: its distinct words that are in the vocabulary,
+	 * in the alphabetical order, along with the number of times each of them is found
+	 * in the query. The queries with the same normalized form have the same results.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class NormalizedQuery {
+		
+		/** The distinct words, in the alphabetical order. */
+		final String[] terms;
+		
+		/** The number of times each word is found in the query. */
+		final int[] frequencies;
+		
+		/** The key of the query in the cache, which includes the number of results. */
+		final String key;
+		
+		/**
+		 * Normalizes the query.
+		 *
+		 * @param words the words of the query, in lower case
+		 * @param snapshot the snapshot of the index, whose vocabulary is used
+		 * @param limit the maximum number of results
+		 */
+		NormalizedQuery(List<String> words, SegmentedIndex.Snapshot snapshot, int limit) {
+			List<String> sorted = new ArrayList<>(words.size());
+			for(String word : words) {
+				if(snapshot.contains(word)) {
+					sorted.add(word);
+				}
+			}
 			
-			} else {
-				return 1;
-				
+			sorted.sort(null);
+			
+			List<String> distinct = new ArrayList<>();
+			int[] counts = new int[sorted.size()];
+			
+			for(String word : sorted) {
+				if(distinct.isEmpty() || !distinct.get(distinct.size() - 1).equals(word)) {
+					distinct.add(word);
+				}
+				counts[distinct.size() - 1]++;
 			}
+			
+			terms = distinct.toArray(new String[distinct.size()]);
+			frequencies = Arrays.copyOf(counts, terms.length);
+			key = limit + ":" + String.join(" ", sorted);
 		}
 	}
 }
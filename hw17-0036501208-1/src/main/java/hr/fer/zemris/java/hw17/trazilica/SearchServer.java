@@ -0,0 +1,304 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import hr.fer.zemris.java.hw17.trazilica.SearchEngine.QueryResult;
+
+/**
+ * Serves the search engine over HTTP, on the local address only. The requests
+ * are handled by a fixed pool of threads, which all query the same search engine.
+ * The following endpoints are supported:
+ * <ul>
+ * <li> {@code GET /search?q=words&limit=10} - the results of a single query; </li>
+ * <li> {@code POST /batch?limit=10} - the results of many queries, one per line of
+ * 		the request body, scored together; the results of each query are followed
+ * 		by an empty line; </li>
+ * <li> {@code GET /stats} - the number of cache hits and misses. </li>
+ * </ul>
+ * Each result is written in its own line, as the similarity and the path of the
+ * document, separated by a tab.
+ *
+ * @author Filip Nemec
+ */
+public class SearchServer {
+	
+	/** The root of the hierarchy containing all of the documents. */
+	private static final Path ROOT_PATH = Paths.get("src/main/resources/clanci");
+	
+	/** Location of all the stop-words. */
+	private static final Path STOPWORD_PATH = Paths.get("src/main/resources/hrvatski_stoprijeci.txt");
+	
+	/** Location of the saved index, which is rebuilt whenever the documents change. */
+	private static final Path INDEX_PATH = Paths.get("target/clanci.index");
+	
+	/** The port used if none is given. */
+	private static final int DEFAULT_PORT = 5722;
+	
+	/** The number of results returned if the limit is not given. */
+	private static final int DEFAULT_LIMIT = 10;
+	
+	/** The maximum number of results returned for a single query. */
+	private static final int MAX_LIMIT = 1000;
+	
+	/** The search engine. */
+	private final SearchEngine engine;
+	
+	/** The HTTP server. */
+	private final HttpServer server;
+	
+	/** The threads handling the requests. */
+	private final ExecutorService pool;
+	
+	/**
+	 * Constructs a new server, which is not started yet.
+	 *
+	 * @param engine the search engine
+	 * @param port the port, or 0 for any free port
+	 * @param threads the number of threads handling the requests
+	 * @throws IOException if the server could not be bound to the port
+	 * @throws IllegalArgumentException if the number of threads is not positive
+	 */
+	public SearchServer(SearchEngine engine, int port, int threads) throws IOException {
+		if(threads < 1)
+			throw new IllegalArgumentException("Number of threads must be positive, but was " + threads + ".");
+		
+		this.engine = engine;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.pool = Executors.newFixedThreadPool(threads);
+		
+		server.setExecutor(pool);
+		server.createContext("/search", this::handleSearch);
+		server.createContext("/batch", this::handleBatch);
+		server.createContext("/stats", this::handleStats);
+	}
+	
+	/**
+	 * Starts the server.
+	 */
+	public void start() {
+		server.start();
+	}
+	
+	/**
+	 * Stops the server.
+	 */
+	public void stop() {
+		server.stop(0);
+		pool.shutdown();
+	}
+	
+	/**
+	 * Returns the port the server is bound to.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args optionally the port, and the number of threads handling
+	 * 			   the requests, which is the number of processors by default
+	 * @throws IOException if the server could not be started
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		
+		SearchEngine engine = SearchEngine.open(ROOT_PATH, STOPWORD_PATH, INDEX_PATH);
+		SearchServer server = new SearchServer(engine, port, threads);
+		server.start();
+		
+		System.out.println("Serving the search engine on http://localhost:" + server.getPort() + "/search?q=... using " + threads + " thread(s).");
+	}
+	
+	//------------------------------------------------------------------
+	//							HANDLERS
+	//------------------------------------------------------------------
+	
+	/**
+	 * Answers a single query.
+	 *
+	 * @param exchange the exchange
+	 * @throws IOException if the response could not be sent
+	 */
+	private void handleSearch(HttpExchange exchange) throws IOException {
+		try {
+			if(!exchange.getRequestMethod().equals("GET")) {
+				respond(exchange, 405, "Expected a GET request, but was " + exchange.getRequestMethod() + ".");
+				return;
+			}
+			
+			Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+			String query = parameters.get("q");
+			
+			if(query == null) {
+				respond(exchange, 400, "Expected the query as the 'q' parameter.");
+				return;
+			}
+			
+			int limit = parseLimit(parameters);
+			if(limit < 0) {
+				respond(exchange, 400, "Expected the limit from 1 to " + MAX_LIMIT + ", but was '" + parameters.get("limit") + "'.");
+				return;
+			}
+			
+			StringBuilder sb = new StringBuilder();
+			appendResults(sb, engine.search(query, limit));
+			respond(exchange, 200, sb.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Answers many queries at once, one per line of the request body.
+	 *
+	 * @param exchange the exchange
+	 * @throws IOException if the request could not be read or the response could not be sent
+	 */
+	private void handleBatch(HttpExchange exchange) throws IOException {
+		try {
+			if(!exchange.getRequestMethod().equals("POST")) {
+				respond(exchange, 405, "Expected a POST request, but was " + exchange.getRequestMethod() + ".");
+				return;
+			}
+			
+			String body;
+			try(InputStream is = exchange.getRequestBody()) {
+				body = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+			}
+			
+			Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+			int limit = parseLimit(parameters);
+			
+			if(limit < 0) {
+				respond(exchange, 400, "Expected the limit from 1 to " + MAX_LIMIT + ", but was '" + parameters.get("limit") + "'.");
+				return;
+			}
+			
+			List<String> queries = Arrays.asList(body.split("\r?\n"));
+			
+			StringBuilder sb = new StringBuilder();
+			for(List<QueryResult> results : engine.searchAll(queries, limit)) {
+				appendResults(sb, results);
+				sb.append('\n');
+			}
+			
+			respond(exchange, 200, sb.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Sends the cache statistics.
+	 *
+	 * @param exchange the exchange
+	 * @throws IOException if the response could not be sent
+	 */
+	private void handleStats(HttpExchange exchange) throws IOException {
+		try {
+			long[] statistics = engine.getCacheStatistics();
+			respond(exchange, 200, "cache hits\t" + statistics[0] + "\ncache misses\t" + statistics[1] + "\n");
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//							HELPER METHODS
+	//------------------------------------------------------------------
+	
+	/**
+	 * Appends the results, one per line.
+	 *
+	 * @param sb the string builder
+	 * @param results the results
+	 */
+	private static void appendResults(StringBuilder sb, List<QueryResult> results) {
+		for(QueryResult result : results) {
+			sb.append(String.format("%.4f", result.getSimilarity())).append('\t').append(result.getPath()).append('\n');
+		}
+	}
+	
+	/**
+	 * Sends the response as plain text.
+	 *
+	 * @param exchange the exchange
+	 * @param status the status code
+	 * @param text the body of the response
+	 * @throws IOException if the response could not be sent
+	 */
+	private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		
+		if(body.length > 0) {
+			try(OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		}
+	}
+	
+	/**
+	 * Parses the query string of the URI into its parameters.
+	 *
+	 * @param query the raw query string, or {@code null} if there is none
+	 * @return the parameters
+	 */
+	private static Map<String, String> parseParameters(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		if(query == null) return parameters;
+		
+		for(String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if(equals < 0) continue;
+			
+			parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+						   URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+		}
+		
+		return parameters;
+	}
+	
+	/**
+	 * Parses the {@code limit} parameter.
+	 *
+	 * @param parameters the parameters
+	 * @return the limit, or -1 if it is not an integer from 1 to {@link #MAX_LIMIT}
+	 */
+	private static int parseLimit(Map<String, String> parameters) {
+		String limit = parameters.get("limit");
+		if(limit == null) return DEFAULT_LIMIT;
+		
+		try {
+			int value = Integer.parseInt(limit);
+			return value >= 1 && value <= MAX_LIMIT ? value : -1;
+			
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,940 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import hr.fer.zemris.java.hw17.trazilica.InvertedIndex.Hit;
+import hr.fer.zemris.java.hw17.trazilica.InvertedIndex.TopK;
+
+/**
+ * An index that can be changed while it is being searched. It is made of
+ * segments: immutable {@link InvertedIndex}es, each holding the documents that
+ * were added together. Adding documents appends a new segment, and removing a
+ * document only marks it as deleted in its segment. Updating a document is
+ * removing it and adding it again.
+ * <p>
+ * Every change publishes a new {@link Snapshot}: an immutable list of the segments
+ * along with their deleted documents. A query works with the snapshot it started
+ * with, so it never sees a half applied change and it is never blocked by one.
+ * <p>
+ * The <i>idf</i> of the terms and the norms of the documents depend on all of the
+ * documents, so every change invalidates them. They are not computed when the
+ * change is made, but lazily, by the first query of the new snapshot, which walks
+ * the postings of every segment once. Many changes made between two queries thus
+ * cost a single refresh.
+ * <p>
+ * Many small segments make the queries slower, so they are merged in the background.
+ * Whenever {@link #MERGE_FACTOR} segments of about the same size pile up at the end,
+ * they are merged into one, which keeps the number of segments logarithmic in the
+ * number of documents. A segment with more deleted than live documents is rewritten
+ * without them.
+ *
+ * @author Filip Nemec
+ */
+final class SegmentedIndex {
+	
+	/** The number of segments of about the same size that are merged into one. */
+	private static final int MERGE_FACTOR = 8;
+	
+	/** The current snapshot. */
+	private volatile Snapshot current;
+	
+	/** Guards the publishing of the snapshots, so the changes are made one at a time. */
+	private final Object lock = new Object();
+	
+	/** Runs the merges, one at a time. */
+	private final ExecutorService merger = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "segment-merger");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/** Flag that indicates whether a merge is already scheduled. */
+	private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+	
+	/**
+	 * Constructs a new segmented index, starting with a single segment.
+	 *
+	 * @param index the first segment
+	 */
+	SegmentedIndex(InvertedIndex index) {
+		current = new Snapshot(index.getDocumentCount() == 0 ? new Segment[0] : new Segment[] { new Segment(index, new BitSet()) });
+	}
+	
+	/**
+	 * Returns the current snapshot of this index.
+	 *
+	 * @return the current snapshot
+	 */
+	Snapshot snapshot() {
+		return current;
+	}
+	
+	/**
+	 * Removes the documents with the given names and then adds the documents of the
+	 * given segment, replacing the documents with the same names. Both are published
+	 * together, as a single new snapshot.
+	 *
+	 * @param segment the added documents, or {@code null} if there are none
+	 * @param removed the names of the removed documents
+	 */
+	void update(InvertedIndex segment, Collection<String> removed) {
+		synchronized(lock) {
+			Segment[] segments = current.segments;
+			BitSet[] deletions = new BitSet[segments.length];
+			
+			for(String name : removed) {
+				delete(segments, deletions, name);
+			}
+			
+			if(segment != null) {
+				for(int document = 0; document < segment.getDocumentCount(); document++) {
+					delete(segments, deletions, segment.getDocumentName(document));
+				}
+			}
+			
+			List<Segment> next = new ArrayList<>(segments.length + 1);
+			for(int s = 0; s < segments.length; s++) {
+				next.add(deletions[s] == null ? segments[s] : segments[s].withDeleted(deletions[s]));
+			}
+			
+			if(segment != null && segment.getDocumentCount() > 0) {
+				next.add(new Segment(segment, new BitSet()));
+			}
+			
+			current = new Snapshot(next.toArray(new Segment[next.size()]));
+		}
+		
+		scheduleMerge();
+	}
+	
+	/**
+	 * Stops the background merging. Merges that are already running are interrupted.
+	 */
+	void close() {
+		merger.shutdownNow();
+	}
+	
+	/**
+	 * Marks the live document with the given name as deleted. The deleted documents
+	 * of a segment are copied on the first deletion, so the published segments are
+	 * never changed.
+	 *
+	 * @param segments the segments
+	 * @param deletions the new deleted documents of each segment, {@code null} if not changed yet
+	 * @param name the name of the document
+	 */
+	private static void delete(Segment[] segments, BitSet[] deletions, String name) {
+		for(int s = segments.length - 1; s >= 0; s--) {
+			Integer document = segments[s].names.get(name);
+			if(document == null) continue;
+			
+			BitSet deleted = deletions[s] != null ? deletions[s] : segments[s].deleted;
+			if(deleted.get(document)) continue;
+			
+			if(deletions[s] == null) {
+				deletions[s] = (BitSet) deleted.clone();
+			}
+			
+			// A document is live in at most one segment.
+			deletions[s].set(document);
+			return;
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//							MERGING
+	//------------------------------------------------------------------
+	
+	/**
+	 * Schedules the merging, unless it is already scheduled.
+	 */
+	private void scheduleMerge() {
+		if(!mergeScheduled.compareAndSet(false, true)) return;
+		
+		try {
+			merger.execute(this::merge);
+			
+		} catch(RejectedExecutionException e) {
+			// The index is closed.
+			mergeScheduled.set(false);
+		}
+	}
+	
+	/**
+	 * Merges the segments for as long as the merge policy selects some.
+	 */
+	private void merge() {
+		// Cleared first, so that a change published during the merging schedules another one.
+		mergeScheduled.set(false);
+		
+		while(!Thread.currentThread().isInterrupted()) {
+			Segment[] segments = current.segments;
+			int[] range = selectMerge(segments);
+			if(range == null) return;
+			
+			publish(new Merge(Arrays.copyOfRange(segments, range[0], range[1])));
+		}
+	}
+	
+	/**
+	 * Selects the segments to be merged next: a segment with more deleted than live
+	 * documents, or the last {@link #MERGE_FACTOR} segments if they all are of the
+	 * same level. The level of a segment is the logarithm of its number of live
+	 * documents, to the base of {@link #MERGE_FACTOR}.
+	 *
+	 * @param segments the segments
+	 * @return the first and the last (exclusive) position of the selected segments,
+	 * 		   or {@code null} if there is nothing to merge
+	 */
+	private static int[] selectMerge(Segment[] segments) {
+		for(int s = 0; s < segments.length; s++) {
+			if(segments[s].deletedCount > segments[s].liveCount)
+				return new int[] { s, s + 1 };
+		}
+		
+		int end = segments.length;
+		if(end < MERGE_FACTOR) return null;
+		
+		int level = segments[end - 1].level();
+		for(int s = end - MERGE_FACTOR; s < end - 1; s++) {
+			if(segments[s].level() != level) return null;
+		}
+		
+		return new int[] { end - MERGE_FACTOR, end };
+	}
+	
+	/**
+	 * Replaces the merged segments with the result of the merge. The documents that
+	 * were deleted from the merged segments while the merge was running are deleted
+	 * from the result as well.
+	 *
+	 * @param merge the merge
+	 */
+	private void publish(Merge merge) {
+		synchronized(lock) {
+			Segment[] segments = current.segments;
+			
+			// Only the merges remove the segments, so the merged ones are still in place, next to each other.
+			int start = 0;
+			while(segments[start].index != merge.sources[0].index) {
+				start++;
+			}
+			
+			int end = start + merge.sources.length;
+			BitSet deleted = new BitSet();
+			
+			for(int s = start; s < end; s++) {
+				int[] documentIds = merge.documentIds[s - start];
+				BitSet sourceDeleted = segments[s].deleted;
+				
+				for(int d = sourceDeleted.nextSetBit(0); d >= 0; d = sourceDeleted.nextSetBit(d + 1)) {
+					if(documentIds[d] >= 0) {
+						deleted.set(documentIds[d]);
+					}
+				}
+			}
+			
+			List<Segment> next = new ArrayList<>(Arrays.asList(segments).subList(0, start));
+			if(merge.index.getDocumentCount() > 0) {
+				next.add(new Segment(merge.index, deleted));
+			}
+			next.addAll(Arrays.asList(segments).subList(end, segments.length));
+			
+			current = new Snapshot(next.toArray(new Segment[next.size()]));
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//							SEGMENT
+	//------------------------------------------------------------------
+	
+	/**
+	 * An immutable segment of the index, along with its deleted documents.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static final class Segment {
+		
+		/** The documents of this segment. */
+		final InvertedIndex index;
+		
+		/** Maps the names of the documents to their ids in the {@link #index}. */
+		final Map<String, Integer> names;
+		
+		/** The ids of the deleted documents; never changed once the segment is published. */
+		final BitSet deleted;
+		
+		/** The number of deleted documents. */
+		final int deletedCount;
+		
+		/** The number of live documents. */
+		final int liveCount;
+		
+		/**
+		 * Constructs a new segment.
+		 *
+		 * @param index the documents of the segment
+		 * @param deleted the ids of the deleted documents
+		 */
+		Segment(InvertedIndex index, BitSet deleted) {
+			this(index, new HashMap<>(), deleted);
+			
+			for(int document = 0; document < index.getDocumentCount(); document++) {
+				names.put(index.getDocumentName(document), document);
+			}
+		}
+		
+		/**
+		 * Constructs a new segment that shares the document names.
+		 *
+		 * @param index the documents of the segment
+		 * @param names maps the names of the documents to their ids
+		 * @param deleted the ids of the deleted documents
+		 */
+		private Segment(InvertedIndex index, Map<String, Integer> names, BitSet deleted) {
+			this.index = index;
+			this.names = names;
+			this.deleted = deleted;
+			this.deletedCount = deleted.cardinality();
+			this.liveCount = index.getDocumentCount() - deletedCount;
+		}
+		
+		/**
+		 * Returns this segment with a different set of deleted documents.
+		 *
+		 * @param deleted the ids of the deleted documents
+		 * @return the segment
+		 */
+		Segment withDeleted(BitSet deleted) {
+			return new Segment(index, names, deleted);
+		}
+		
+		/**
+		 * Returns the number of live postings of the given term.
+		 *
+		 * @param term the term id
+		 * @return the number of live postings
+		 */
+		int livePostings(int term) {
+			int start = index.getPostingStart(term);
+			int end = index.getPostingEnd(term);
+			if(deletedCount == 0) return end - start;
+			
+			int count = 0;
+			for(int p = start; p < end; p++) {
+				if(!deleted.get(index.getPostingDocument(p))) count++;
+			}
+			
+			return count;
+		}
+		
+		/**
+		 * Returns the level of this segment: the logarithm of the number
+		 * of live documents, to the base of {@link #MERGE_FACTOR}.
+		 *
+		 * @return the level of this segment
+		 */
+		int level() {
+			int level = 0;
+			for(int n = liveCount; n >= MERGE_FACTOR; n /= MERGE_FACTOR) {
+				level++;
+			}
+			
+			return level;
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//							MERGE
+	//------------------------------------------------------------------
+	
+	/**
+	 * Merges the live documents of consecutive segments into a single
+	 * new segment, keeping their order.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static final class Merge {
+		
+		/** The merged segments. */
+		final Segment[] sources;
+		
+		/** The id of each source document in the merged segment, or -1 if it was deleted. */
+		final int[][] documentIds;
+		
+		/** The merged segment. */
+		final InvertedIndex index;
+		
+		/**
+		 * Merges the given segments.
+		 *
+		 * @param sources the segments to be merged
+		 */
+		Merge(Segment[] sources) {
+			this.sources = sources;
+			this.documentIds = new int[sources.length][];
+			
+			// Collects the terms that are still found in some live document.
+			Map<String, Integer> ids = new HashMap<>();
+			List<String> words = new ArrayList<>();
+			int[] documentFrequencies = new int[256];
+			int[][] termIds = new int[sources.length][];
+			
+			for(int s = 0; s < sources.length; s++) {
+				InvertedIndex source = sources[s].index;
+				termIds[s] = new int[source.getTermCount()];
+				
+				for(int term = 0; term < termIds[s].length; term++) {
+					int live = sources[s].livePostings(term);
+					if(live == 0) {
+						termIds[s][term] = -1;
+						continue;
+					}
+					
+					String word = source.getTerm(term);
+					Integer id = ids.get(word);
+					
+					if(id == null) {
+						id = words.size();
+						ids.put(word, id);
+						words.add(word);
+						
+						if(id == documentFrequencies.length) {
+							documentFrequencies = Arrays.copyOf(documentFrequencies, id * 2);
+						}
+					}
+					
+					documentFrequencies[id] += live;
+					termIds[s][term] = id;
+				}
+			}
+			
+			// The terms of the merged segment are sorted, so the ids are remapped to their positions.
+			String[] terms = words.toArray(new String[words.size()]);
+			Arrays.sort(terms);
+			
+			int[] positions = new int[terms.length];
+			for(int position = 0; position < terms.length; position++) {
+				positions[ids.get(terms[position])] = position;
+			}
+			
+			int documentCount = 0;
+			for(int s = 0; s < sources.length; s++) {
+				documentIds[s] = new int[sources[s].index.getDocumentCount()];
+				
+				for(int document = 0; document < documentIds[s].length; document++) {
+					documentIds[s][document] = sources[s].deleted.get(document) ? -1 : documentCount++;
+				}
+			}
+			
+			double[] idf = new double[terms.length];
+			for(int id = 0; id < terms.length; id++) {
+				idf[positions[id]] = Math.log((double) documentCount / documentFrequencies[id]);
+			}
+			
+			// Turns the postings back into the terms of each document, in two passes.
+			int[] lengths = new int[documentCount];
+			forEachLivePosting(termIds, (document, term, frequency) -> lengths[document]++);
+			
+			int[][] documentTerms = new int[documentCount][];
+			int[][] termFrequencies = new int[documentCount][];
+			for(int document = 0; document < documentCount; document++) {
+				documentTerms[document] = new int[lengths[document]];
+				termFrequencies[document] = new int[lengths[document]];
+				lengths[document] = 0;
+			}
+			
+			forEachLivePosting(termIds, (document, term, frequency) -> {
+				int i = lengths[document]++;
+				documentTerms[document][i] = positions[term];
+				termFrequencies[document][i] = frequency;
+			});
+			
+			InvertedIndex.Builder builder = new InvertedIndex.Builder(terms, idf);
+			for(int s = 0; s < sources.length; s++) {
+				for(int document = 0; document < documentIds[s].length; document++) {
+					int id = documentIds[s][document];
+					if(id < 0) continue;
+					
+					builder.addDocument(sources[s].index.getDocumentName(document), documentTerms[id], termFrequencies[id]);
+					
+					// Not needed anymore.
+					documentTerms[id] = null;
+					termFrequencies[id] = null;
+				}
+			}
+			
+			index = builder.build();
+		}
+		
+		/**
+		 * Performs the action for each live posting of the terms that are kept.
+		 *
+		 * @param termIds the id of each source term, or -1 if the term is not kept
+		 * @param action the action, which receives the merged document id,
+		 * 				 the term id and the term frequency
+		 */
+		private void forEachLivePosting(int[][] termIds, PostingConsumer action) {
+			for(int s = 0; s < sources.length; s++) {
+				InvertedIndex source = sources[s].index;
+				
+				for(int term = 0; term < termIds[s].length; term++) {
+					if(termIds[s][term] < 0) continue;
+					
+					for(int p = source.getPostingStart(term), end = source.getPostingEnd(term); p < end; p++) {
+						int document = documentIds[s][source.getPostingDocument(p)];
+						
+						if(document >= 0) {
+							action.accept(document, termIds[s][term], source.getPostingFrequency(p));
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Receives a single posting.
+	 *
+	 * @author Filip Nemec
+	 */
+	@FunctionalInterface
+	private interface PostingConsumer {
+		
+		/**
+		 * Receives a single posting.
+		 *
+		 * @param document the document id
+		 * @param term the term id
+		 * @param frequency the term frequency
+		 */
+		void accept(int document, int term, int frequency);
+	}
+	
+	//------------------------------------------------------------------
+	//							SNAPSHOT
+	//------------------------------------------------------------------
+	
+	/**
+	 * An immutable state of the index. The documents of all the segments are
+	 * numbered one after another, in the order of the segments, so the oldest
+	 * documents come first.
+	 *
+	 * @author Filip Nemec
+	 */
+	static final class Snapshot {
+		
+		/** The segments. */
+		private final Segment[] segments;
+		
+		/** The number of the first document of each segment. */
+		private final int[] bases;
+		
+		/** The number of live documents. */
+		private final int documentCount;
+		
+		/** The statistics of the terms and the documents, computed by the first query. */
+		private volatile Statistics statistics;
+		
+		/**
+		 * Constructs a new snapshot.
+		 *
+		 * @param segments the segments
+		 */
+		private Snapshot(Segment[] segments) {
+			this.segments = segments;
+			this.bases = new int[segments.length];
+			
+			int base = 0;
+			int live = 0;
+			for(int s = 0; s < segments.length; s++) {
+				bases[s] = base;
+				base += segments[s].index.getDocumentCount();
+				live += segments[s].liveCount;
+			}
+			
+			this.documentCount = live;
+		}
+		
+		/**
+		 * Returns the number of live documents.
+		 *
+		 * @return the number of live documents
+		 */
+		int getDocumentCount() {
+			return documentCount;
+		}
+		
+		/**
+		 * Returns the number of segments.
+		 *
+		 * @return the number of segments
+		 */
+		int getSegmentCount() {
+			return segments.length;
+		}
+		
+		/**
+		 * Checks whether the term is found in some live document.
+		 *
+		 * @param term the term
+		 * @return {@code true} if the term is found in some live document
+		 */
+		boolean contains(String term) {
+			return statistics().getTermId(term) >= 0;
+		}
+		
+		/**
+		 * Returns the name of the document with the given number.
+		 *
+		 * @param document the document number, as returned by the {@link #search(String[], int[], int)}
+		 * @return the name of the document
+		 */
+		String getDocumentName(int document) {
+			int s = Arrays.binarySearch(bases, document);
+			
+			// Empty segments are never kept, so the bases are distinct.
+			if(s < 0) s = -s - 2;
+			
+			return segments[s].index.getDocumentName(document - bases[s]);
+		}
+		
+		/**
+		 * Performs the action for the name of each live document.
+		 *
+		 * @param action the action
+		 */
+		void forEachDocumentName(Consumer<String> action) {
+			for(Segment segment : segments) {
+				for(int document = 0; document < segment.index.getDocumentCount(); document++) {
+					if(!segment.deleted.get(document)) {
+						action.accept(segment.index.getDocumentName(document));
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Returns the live documents most similar to the query, just like the
+		 * {@link InvertedIndex#search(int[], int[], int)} does for a single index.
+		 *
+		 * @param terms the distinct terms of the query
+		 * @param frequencies the number of times each term is found in the query
+		 * @param limit the maximum number of returned documents
+		 * @return the most similar documents
+		 * @throws IllegalArgumentException if the arrays are not of equal length or if the limit is not positive
+		 */
+		List<Hit> search(String[] terms, int[] frequencies, int limit) {
+			return search(new String[][] { terms }, new int[][] { frequencies }, limit).get(0);
+		}
+		
+		/**
+		 * Returns the live documents most similar to each of the queries, scoring all
+		 * of them in a single pass over the postings: the postings of a term shared by
+		 * several queries are read only once. The terms are processed in their
+		 * alphabetical order, so the scores of a query do not depend on the other
+		 * queries in the batch.
+		 *
+		 * @param terms the distinct terms of each query
+		 * @param frequencies the number of times each term is found in each query
+		 * @param limit the maximum number of documents returned for each query
+		 * @return the most similar documents for each query
+		 * @throws IllegalArgumentException if the arrays do not match or if the limit is not positive
+		 */
+		List<List<Hit>> search(String[][] terms, int[][] frequencies, int limit) {
+			if(terms.length != frequencies.length)
+				throw new IllegalArgumentException("Expected the frequencies for each of the " + terms.length + " queries, but got " + frequencies.length + ".");
+			
+			if(limit < 1)
+				throw new IllegalArgumentException("Limit must be positive, but was " + limit + ".");
+			
+			Statistics statistics = statistics();
+			int queryCount = terms.length;
+			double[] queryNorms = new double[queryCount];
+			
+			// Collects the weighted terms of all the queries, grouped by the term.
+			Map<String, List<QueryWeight>> weights = new TreeMap<>();
+			
+			for(int q = 0; q < queryCount; q++) {
+				if(terms[q].length != frequencies[q].length)
+					throw new IllegalArgumentException("Expected a frequency for each of the " + terms[q].length + " terms, but got " + frequencies[q].length + ".");
+				
+				for(int i = 0; i < terms[q].length; i++) {
+					int term = statistics.getTermId(terms[q][i]);
+					if(term < 0) continue;
+					
+					// A term found in every document carries no weight.
+					double termIdf = statistics.getIdf(term);
+					if(termIdf == 0) continue;
+					
+					double queryWeight = frequencies[q][i] * termIdf;
+					queryNorms[q] += queryWeight * queryWeight;
+					
+					// Both weights contain the idf, so it is multiplied in once.
+					weights.computeIfAbsent(terms[q][i], t -> new ArrayList<>()).add(new QueryWeight(q, queryWeight * termIdf));
+				}
+			}
+			
+			TopK[] tops = new TopK[queryCount];
+			for(int q = 0; q < queryCount; q++) {
+				queryNorms[q] = Math.sqrt(queryNorms[q]);
+				tops[q] = new TopK(Math.min(limit, documentCount));
+			}
+			
+			for(int s = 0; s < segments.length; s++) {
+				scoreSegment(s, weights, queryNorms, statistics, tops);
+			}
+			
+			List<List<Hit>> hits = new ArrayList<>(queryCount);
+			for(TopK top : tops) {
+				hits.add(top.toList());
+			}
+			
+			return hits;
+		}
+		
+		/**
+		 * Scores the live documents of a single segment for each of the queries.
+		 *
+		 * @param s the position of the segment
+		 * @param weights the query numbers and the weight factors of each term
+		 * @param queryNorms the norm of each query
+		 * @param statistics the statistics of this snapshot
+		 * @param tops the best documents of each query
+		 */
+		private void scoreSegment(int s, Map<String, List<QueryWeight>> weights, double[] queryNorms, Statistics statistics, TopK[] tops) {
+			Segment segment = segments[s];
+			InvertedIndex index = segment.index;
+			
+			double[][] scores = new double[tops.length][];
+			int[][] touched = new int[tops.length][];
+			int[] touchedCount = new int[tops.length];
+			
+			for(Map.Entry<String, List<QueryWeight>> entry : weights.entrySet()) {
+				int term = index.getTermId(entry.getKey());
+				if(term < 0) continue;
+				
+				List<QueryWeight> queries = entry.getValue();
+				for(QueryWeight query : queries) {
+					int q = query.query;
+					
+					if(scores[q] == null) {
+						scores[q] = new double[index.getDocumentCount()];
+						touched[q] = new int[index.getDocumentCount()];
+					}
+				}
+				
+				for(int p = index.getPostingStart(term), end = index.getPostingEnd(term); p < end; p++) {
+					int document = index.getPostingDocument(p);
+					if(segment.deleted.get(document)) continue;
+					
+					int frequency = index.getPostingFrequency(p);
+					
+					for(int i = 0, n = queries.size(); i < n; i++) {
+						QueryWeight query = queries.get(i);
+						int q = query.query;
+						
+						if(scores[q][document] == 0) {
+							touched[q][touchedCount[q]++] = document;
+						}
+						
+						scores[q][document] += query.factor * frequency;
+					}
+				}
+			}
+			
+			for(int q = 0; q < tops.length; q++) {
+				for(int i = 0; i < touchedCount[q]; i++) {
+					int document = touched[q][i];
+					tops[q].offer(bases[s] + document, scores[q][document] / (queryNorms[q] * statistics.getNorm(s, document)));
+				}
+			}
+		}
+		
+		/**
+		 * Returns the statistics of this snapshot, computing them on the first call.
+		 *
+		 * @return the statistics
+		 */
+		private Statistics statistics() {
+			Statistics result = statistics;
+			if(result != null) return result;
+			
+			synchronized(this) {
+				if(statistics == null) {
+					statistics = new Statistics(segments, documentCount);
+				}
+				
+				return statistics;
+			}
+		}
+	}
+	
+	/**
+	 * The weight factor of a term in a single query of a batch.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static final class QueryWeight {
+		
+		/** The number of the query in the batch. */
+		final int query;
+		
+		/** The product of the query weight of the term and its <i>idf</i>. */
+		final double factor;
+		
+		/**
+		 * Constructs a new query weight.
+		 *
+		 * @param query the number of the query in the batch
+		 * @param factor the product of the query weight of the term and its <i>idf</i>
+		 */
+		QueryWeight(int query, double factor) {
+			this.query = query;
+			this.factor = factor;
+		}
+	}
+	
+	//------------------------------------------------------------------
+	//							STATISTICS
+	//------------------------------------------------------------------
+	
+	/**
+	 * The <i>idf</i> of the terms and the norms of the documents of a snapshot,
+	 * computed over its live documents. A snapshot with a single segment without
+	 * deleted documents simply uses the statistics of that segment.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static final class Statistics {
+		
+		/** The only segment of the snapshot, if its statistics are used, {@code null} otherwise. */
+		private final InvertedIndex single;
+		
+		/** Maps the terms found in the live documents to their ids. */
+		private final Map<String, Integer> termIds;
+		
+		/** The <i>idf</i> of each term. */
+		private final double[] idf;
+		
+		/** The norm of each document, by segment. */
+		private final double[][] norms;
+		
+		/**
+		 * Computes the statistics of the given segments.
+		 *
+		 * @param segments the segments
+		 * @param documentCount the number of live documents
+		 */
+		Statistics(Segment[] segments, int documentCount) {
+			if(segments.length == 1 && segments[0].deletedCount == 0) {
+				single = segments[0].index;
+				termIds = null;
+				idf = null;
+				norms = null;
+				return;
+			}
+			
+			single = null;
+			termIds = new HashMap<>();
+			
+			int[] documentFrequencies = new int[256];
+			int[][] globalIds = new int[segments.length][];
+			
+			for(int s = 0; s < segments.length; s++) {
+				InvertedIndex index = segments[s].index;
+				globalIds[s] = new int[index.getTermCount()];
+				
+				for(int term = 0; term < globalIds[s].length; term++) {
+					int live = segments[s].livePostings(term);
+					if(live == 0) {
+						globalIds[s][term] = -1;
+						continue;
+					}
+					
+					int id = termIds.computeIfAbsent(index.getTerm(term), word -> termIds.size());
+					if(id == documentFrequencies.length) {
+						documentFrequencies = Arrays.copyOf(documentFrequencies, id * 2);
+					}
+					
+					documentFrequencies[id] += live;
+					globalIds[s][term] = id;
+				}
+			}
+			
+			idf = new double[termIds.size()];
+			for(int id = 0; id < idf.length; id++) {
+				idf[id] = Math.log((double) documentCount / documentFrequencies[id]);
+			}
+			
+			norms = new double[segments.length][];
+			for(int s = 0; s < segments.length; s++) {
+				Segment segment = segments[s];
+				InvertedIndex index = segment.index;
+				double[] squares = new double[index.getDocumentCount()];
+				
+				for(int term = 0; term < globalIds[s].length; term++) {
+					if(globalIds[s][term] < 0) continue;
+					double termIdf = idf[globalIds[s][term]];
+					
+					for(int p = index.getPostingStart(term), end = index.getPostingEnd(term); p < end; p++) {
+						int document = index.getPostingDocument(p);
+						if(segment.deleted.get(document)) continue;
+						
+						double weight = index.getPostingFrequency(p) * termIdf;
+						squares[document] += weight * weight;
+					}
+				}
+				
+				for(int document = 0; document < squares.length; document++) {
+					squares[document] = Math.sqrt(squares[document]);
+				}
+				
+				norms[s] = squares;
+			}
+		}
+		
+		/**
+		 * Returns the id of the given term.
+		 *
+		 * @param term the term
+		 * @return the id of the term, or -1 if it is not found in any live document
+		 */
+		int getTermId(String term) {
+			return single != null ? single.getTermId(term) : termIds.getOrDefault(term, -1);
+		}
+		
+		/**
+		 * Returns the <i>idf</i> of the given term.
+		 *
+		 * @param term the term id
+		 * @return the <i>idf</i> of the term
+		 */
+		double getIdf(int term) {
+			return single != null ? single.getIdf(term) : idf[term];
+		}
+		
+		/**
+		 * Returns the norm of the given document.
+		 *
+		 * @param segment the position of the segment
+		 * @param document the document id within the segment
+		 * @return the norm of the document
+		 */
+		double getNorm(int segment, int document) {
+			return single != null ? single.getNorm(document) : norms[segment][document];
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.util.Arrays;
+
+/**
+ * A dictionary that gives each distinct term an id, starting from 0, in the
+ * order the terms are added. The terms are looked up directly from a range of
+ * a character array, so no {@code String} is created for a term that is looked
+ * up or counted; a string is created only when the term is asked for by its id.
+ * <p>
+ * The dictionary is a hash table with open addressing and linear probing, whose
+ * slots hold just the ids of the terms. The characters of all the terms are kept
+ * one after another in a single array, and the hash of each term is kept as well,
+ * so most mismatches are found without comparing the characters, and the table
+ * is resized without hashing the terms again.
+ *
+ * @author Filip Nemec
+ */
+final class TermDictionary {
+	
+	/** The initial number of slots; always a power of two. */
+	private static final int INITIAL_CAPACITY = 64;
+	
+	/** The id of the term in each slot, or -1 if the slot is empty. */
+	private int[] slots;
+	
+	/** The hash of each term. */
+	private int[] hashes;
+	
+	/** The start of each term in the {@link #chars}; the term ends where the next one starts. */
+	private int[] starts;
+	
+	/** The characters of all the terms. */
+	private char[] chars;
+	
+	/** The number of terms. */
+	private int size;
+	
+	/**
+	 * Constructs a new, empty dictionary.
+	 */
+	public TermDictionary() {
+		slots = new int[INITIAL_CAPACITY];
+		Arrays.fill(slots, -1);
+		
+		hashes = new int[INITIAL_CAPACITY / 2];
+		starts = new int[INITIAL_CAPACITY / 2 + 1];
+		chars = new char[INITIAL_CAPACITY * 4];
+	}
+	
+	/**
+	 * Returns the number of terms.
+	 *
+	 * @return the number of terms
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the id of the term made of the given characters.
+	 *
+	 * @param text the characters
+	 * @param start the start of the term
+	 * @param length the length of the term
+	 * @return the id of the term, or -1 if it is not in the dictionary
+	 */
+	public int find(char[] text, int start, int length) {
+		int slot = slot(text, start, length, hash(text, start, length));
+		return slots[slot];
+	}
+	
+	/**
+	 * Returns the id of the given term.
+	 *
+	 * @param term the term
+	 * @return the id of the term, or -1 if it is not in the dictionary
+	 */
+	public int find(String term) {
+		return find(term.toCharArray(), 0, term.length());
+	}
+	
+	/**
+	 * Adds the term made of the given characters, unless it is already in the
+	 * dictionary. The characters are copied.
+	 *
+	 * @param text the characters
+	 * @param start the start of the term
+	 * @param length the length of the term
+	 * @return the id of the term, which is {@code size() - 1} if the term was added
+	 */
+	public int add(char[] text, int start, int length) {
+		int hash = hash(text, start, length);
+		int slot = slot(text, start, length, hash);
+		if(slots[slot] >= 0) return slots[slot];
+		
+		int id = size++;
+		if(id == hashes.length) {
+			hashes = Arrays.copyOf(hashes, id * 2);
+			starts = Arrays.copyOf(starts, id * 2 + 1);
+		}
+		
+		int end = starts[id] + length;
+		if(end > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(end, chars.length * 2));
+		}
+		
+		System.arraycopy(text, start, chars, starts[id], length);
+		starts[id + 1] = end;
+		hashes[id] = hash;
+		slots[slot] = id;
+		
+		// Keeps the table at most half full, so the probe sequences stay short.
+		if(size * 2 > slots.length) {
+			resize();
+		}
+		
+		return id;
+	}
+	
+	/**
+	 * Adds the given term, unless it is already in the dictionary.
+	 *
+	 * @param term the term
+	 * @return the id of the term
+	 */
+	public int add(String term) {
+		return add(term.toCharArray(), 0, term.length());
+	}
+	
+	/**
+	 * Returns the term with the given id.
+	 *
+	 * @param id the id of the term
+	 * @return the term
+	 * @throws IndexOutOfBoundsException if there is no term with the given id
+	 */
+	public String getTerm(int id) {
+		if(id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("Expected an id from 0 to " + (size - 1) + ", but was " + id + ".");
+		
+		return new String(chars, starts[id], starts[id + 1] - starts[id]);
+	}
+	
+	/**
+	 * Returns the slot holding the term made of the given characters,
+	 * or the empty slot where it belongs if it is not in the dictionary.
+	 *
+	 * @param text the characters
+	 * @param start the start of the term
+	 * @param length the length of the term
+	 * @param hash the hash of the term
+	 * @return the slot
+	 */
+	private int slot(char[] text, int start, int length, int hash) {
+		int mask = slots.length - 1;
+		
+		for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int id = slots[slot];
+			
+			if(id < 0 || (hashes[id] == hash && equals(id, text, start, length))) {
+				return slot;
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether the term with the given id is made of the given characters.
+	 *
+	 * @param id the id of the term
+	 * @param text the characters
+	 * @param start the start of the other term
+	 * @param length the length of the other term
+	 * @return {@code true} if the terms are equal
+	 */
+	private boolean equals(int id, char[] text, int start, int length) {
+		int termStart = starts[id];
+		if(starts[id + 1] - termStart != length) return false;
+		
+		for(int i = 0; i < length; i++) {
+			if(chars[termStart + i] != text[start + i]) return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Doubles the number of slots and puts the terms back, using their kept hashes.
+	 */
+	private void resize() {
+		slots = new int[slots.length * 2];
+		Arrays.fill(slots, -1);
+		
+		int mask = slots.length - 1;
+		for(int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while(slots[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			
+			slots[slot] = id;
+		}
+	}
+	
+	/**
+	 * Computes the hash of the given characters. It is the hash of the
+	 * equal {@code String}, with its higher bits spread to the lower ones,
+	 * since only the lower bits choose the slot.
+	 *
+	 * @param text the characters
+	 * @param start the start of the term
+	 * @param length the length of the term
+	 * @return the hash
+	 */
+	private static int hash(char[] text, int start, int length) {
+		int hash = 0;
+		for(int i = start, end = start + length; i < end; i++) {
+			hash = 31 * hash + text[i];
+		}
+		
+		return hash ^ (hash >>> 16);
+	}
+}
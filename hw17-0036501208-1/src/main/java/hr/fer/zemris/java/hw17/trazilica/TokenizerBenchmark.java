@@ -0,0 +1,301 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.io.BufferedReader;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Compares the tokenizer of the search engine with the way it used to tokenize
+ * the documents: creating a lower case {@code String} for every word, collecting
+ * them into a list, checking them against a set of stop-words and counting them
+ * in a map of boxed counts.
+ * <p>
+ * Both variants tokenize the bundled articles, which are read into memory first,
+ * and count the term frequencies of every article, leaving out the stop-words.
+ * Both are warmed up first and then measured, by the time and, where the virtual
+ * machine supports it, by the memory allocated per article.
+ *
+ * @author Filip Nemec
+ */
+public class TokenizerBenchmark {
+	
+	/** The root of the hierarchy containing all of the documents. */
+	private static final Path ROOT_PATH = Paths.get("src/main/resources/clanci");
+	
+	/** Location of all the stop-words. */
+	private static final Path STOPWORD_PATH = Paths.get("src/main/resources/hrvatski_stoprijeci.txt");
+	
+	/** The number of warm-up passes over the articles per variant. */
+	private static final int WARMUP_PASSES = 100;
+	
+	/** The number of measured passes over the articles per variant. */
+	private static final int MEASURED_PASSES = 200;
+	
+	/** Prevents the JIT compiler from removing the measured work. */
+	private static int sink;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 * @throws IOException if the articles or the stop-words could not be read
+	 */
+	public static void main(String[] args) throws IOException {
+		char[][] articles;
+		try(Stream<Path> paths = Files.list(ROOT_PATH)) {
+			articles = paths.sorted().map(TokenizerBenchmark::read).toArray(char[][]::new);
+		}
+		
+		List<String> stopwordList = Files.readAllLines(STOPWORD_PATH);
+		Set<String> stopwordSet = new HashSet<>(stopwordList);
+		TermDictionary stopwords = new TermDictionary();
+		stopwordList.forEach(stopwords::add);
+		
+		long characters = 0;
+		for(char[] article : articles) {
+			characters += article.length;
+			
+			Map<String, Integer> expected = previousTokenizer(article, stopwordSet);
+			Map<String, Integer> actual = toMap(dictionaryTokenizer(article, stopwords));
+			
+			if(!expected.equals(actual)) {
+				System.out.println("The tokenizers disagree: " + expected + " vs " + actual);
+				return;
+			}
+		}
+		
+		System.out.printf("%d articles, %.1f MB of text%n", articles.length, characters * 2 / 1e6);
+		
+		for(int round = 0; round < 3; round++) {
+			double[] previous   = measure(articles, article -> previousTokenizer(article, stopwordSet).size());
+			double[] dictionary = measure(articles, article -> dictionaryTokenizer(article, stopwords).words.size());
+			
+			System.out.printf("previous: %8.1f us/article %9.0f B/article   dictionary: %8.1f us/article %9.0f B/article   speedup: %5.2fx%n",
+							  previous[0], previous[1], dictionary[0], dictionary[1], previous[0] / dictionary[0]);
+		}
+	}
+	
+	/**
+	 * Measures the average time the tokenizer needs for a single article,
+	 * and the average memory it allocates.
+	 *
+	 * @param articles the articles
+	 * @param tokenizer the tokenizer
+	 * @return the time in microseconds and the allocated memory in bytes, or
+	 * 		   {@code NaN} if the allocated memory can not be measured
+	 */
+	private static double[] measure(char[][] articles, Tokenizer tokenizer) {
+		for(int pass = 0; pass < WARMUP_PASSES; pass++) {
+			for(char[] article : articles) {
+				sink += tokenizer.tokenize(article);
+			}
+		}
+		
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		
+		for(int pass = 0; pass < MEASURED_PASSES; pass++) {
+			for(char[] article : articles) {
+				sink += tokenizer.tokenize(article);
+			}
+		}
+		
+		long time = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+		double count = (double) MEASURED_PASSES * articles.length;
+		
+		return new double[] { time / count / 1000, allocatedBefore < 0 ? Double.NaN : allocated / count };
+	}
+	
+	/**
+	 * Returns the memory allocated by the current thread so far.
+	 *
+	 * @return the allocated memory in bytes, or -1 if it can not be measured
+	 */
+	private static long allocatedBytes() {
+		Object bean = ManagementFactory.getThreadMXBean();
+		
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Tokenizes the article with the {@link Util#forEachWord(java.io.Reader, Util.WordConsumer)}
+	 * and counts the words in a {@link TermDictionary}, the way the search engine does.
+	 *
+	 * @param article the article
+	 * @param stopwords the stop-words
+	 * @return the counted words
+	 */
+	private static Counts dictionaryTokenizer(char[] article, TermDictionary stopwords) {
+		Counts counts = new Counts();
+		
+		try {
+			Util.forEachWord(new CharArrayReader(article), (chars, start, length) -> {
+				if(stopwords.find(chars, start, length) < 0) {
+					counts.count(chars, start, length);
+				}
+			});
+			
+		} catch(IOException e) {
+			// A char array reader never throws.
+			throw new AssertionError(e);
+		}
+		
+		return counts;
+	}
+	
+	/**
+	 * Converts the counted words into a map, to be compared with the previous tokenizer.
+	 *
+	 * @param counts the counted words
+	 * @return the term frequencies
+	 */
+	private static Map<String, Integer> toMap(Counts counts) {
+		Map<String, Integer> map = new HashMap<>();
+		for(int id = 0; id < counts.words.size(); id++) {
+			map.put(counts.words.getTerm(id), counts.frequencies[id]);
+		}
+		
+		return map;
+	}
+	
+	/**
+	 * Reads the whole article.
+	 *
+	 * @param path the path of the article
+	 * @return the characters of the article
+	 */
+	private static char[] read(Path path) {
+		try(BufferedReader reader = Files.newBufferedReader(path)) {
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[8192];
+			
+			for(int read; (read = reader.read(buffer)) != -1; ) {
+				sb.append(buffer, 0, read);
+			}
+			
+			char[] article = new char[sb.length()];
+			sb.getChars(0, article.length, article, 0);
+			return article;
+			
+		} catch(IOException e) {
+			throw new IllegalStateException("Could not read '" + path + "'.", e);
+		}
+	}
+	
+	//=====================================================================================
+	//									PREVIOUS TOKENIZER
+	//=====================================================================================
+	
+	/**
+	 * Tokenizes the article and counts the words the way the search engine used to.
+	 *
+	 * @param article the article
+	 * @param stopwords the stop-words
+	 * @return the term frequencies
+	 */
+	private static Map<String, Integer> previousTokenizer(char[] article, Set<String> stopwords) {
+		List<String> words = convertTextToWords(new String(article));
+		words.removeIf(stopwords::contains);
+		
+		Map<String, Integer> termFrequencyMap = new HashMap<>();
+		for(String word : words) {
+			termFrequencyMap.merge(word, 1, (prev, value) -> prev + 1);
+		}
+		
+		return termFrequencyMap;
+	}
+	
+	/**
+	 * Converts the given text into a list of words, the way the search engine used to.
+	 *
+	 * @param text the text
+	 * @return the list of words
+	 */
+	private static List<String> convertTextToWords(String text) {
+		List<String> words = new LinkedList<>();
+		
+		int wordStart = -1;
+		for(int index = 0; index < text.length(); index++) {
+			if(Character.isAlphabetic(text.charAt(index))) {
+				if(wordStart < 0) {
+					wordStart = index;
+				}
+				
+			} else if(wordStart >= 0) {
+				words.add(text.substring(wordStart, index).toLowerCase());
+				wordStart = -1;
+			}
+		}
+		
+		if(wordStart >= 0) {
+			words.add(text.substring(wordStart).toLowerCase());
+		}
+		
+		return words;
+	}
+	
+	/**
+	 * The term frequencies of a single article, counted the way a chunk of the
+	 * search engine counts them.
+	 *
+	 * @author Filip Nemec
+	 */
+	private static class Counts {
+		
+		/** The words found in the article. */
+		final TermDictionary words = new TermDictionary();
+		
+		/** The number of times each word was found. */
+		int[] frequencies = new int[64];
+		
+		/**
+		 * Counts a single occurrence of the word.
+		 *
+		 * @param chars the characters
+		 * @param start the start of the word
+		 * @param length the length of the word
+		 */
+		void count(char[] chars, int start, int length) {
+			int id = words.add(chars, start, length);
+			if(id == frequencies.length) {
+				frequencies = Arrays.copyOf(frequencies, id * 2);
+			}
+			
+			frequencies[id]++;
+		}
+	}
+	
+	/**
+	 * A tokenizer variant.
+	 *
+	 * @author Filip Nemec
+	 */
+	@FunctionalInterface
+	private interface Tokenizer {
+		
+		/**
+		 * Tokenizes the article and counts its words.
+		 *
+		 * @param article the article
+		 * @return the number of distinct words
+		 */
+		int tokenize(char[] article);
+	}
+}
@@ -1,8 +1,13 @@
 package hr.fer.zemris.java.hw17.trazilica;
 
-import java.io.File;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * The utility class used by the search engine and console.
@@ -11,6 +16,9 @@ import java.util.List;
  */
 final class Util {
 	
+	/** The number of characters read from the reader at once. */
+	private static final int BUFFER_SIZE = 8192;
+	
 	/* We don't want any instances. */
 	private Util() {}
 
@@ -21,55 +29,100 @@ final class Util {
 	 * @return the list of words in the given text
 	 */
 	public static List<String> convertTextToWords(String text) {
-		List<String> words = new LinkedList<>();
+		List<String> words = new ArrayList<>();
 		
-		int wordStart = -1;
-		int wordEnd = -1;
-		boolean processingWord = false;
+		try {
+			forEachWord(new StringReader(text), words::add);
+		} catch(IOException e) {
+			// A string reader never throws.
+			throw new UncheckedIOException(e);
+		}
 		
-		for(int index = 0; index < text.length(); index++) {
-			if(processingWord) {
-				if(Character.isAlphabetic(text.charAt(index))) {
-					wordEnd++;
-				} else {
-					processingWord = false;
-					words.add( text.substring(wordStart, wordEnd).toLowerCase() );
-				}
+		return words;
+	}
+	
+	/**
+	 * Reads the text from the given reader and performs the action for each of its
+	 * words, in lower case, just like the {@link #forEachWord(Reader, WordConsumer)}.
+	 *
+	 * @param reader the reader of the text
+	 * @param action the action performed for each word
+	 * @throws IOException if the text could not be read
+	 */
+	public static void forEachWord(Reader reader, Consumer<String> action) throws IOException {
+		forEachWord(reader, (chars, start, length) -> action.accept(new String(chars, start, length)));
+	}
+	
+	/**
+	 * Reads the text from the given reader and performs the action for each of its
+	 * words, in lower case. A word is a sequence of alphabetic characters, and each
+	 * of them is lowercased on its own, by the {@link Character#toLowerCase(char)}.
+	 * <p>
+	 * The text is read in fixed size pieces into a single buffer, so it is never held
+	 * in memory as a whole. The words are lowercased in place, and the action receives
+	 * the range of the buffer holding the word, so no string is created for it. A word
+	 * that continues in the next piece is moved to the start of the buffer first, and
+	 * the buffer only grows for a word longer than itself.
+	 *
+	 * @param reader the reader of the text
+	 * @param action the action performed for each word; the buffer it receives is
+	 * 				 only valid during the call
+	 * @throws IOException if the text could not be read
+	 */
+	public static void forEachWord(Reader reader, WordConsumer action) throws IOException {
+		char[] buffer = new char[BUFFER_SIZE];
+		
+		// The number of characters of an unfinished word at the start of the buffer.
+		int carried = 0;
+		
+		for(int read; (read = reader.read(buffer, carried, buffer.length - carried)) != -1; ) {
+			int end = carried + read;
+			int wordStart = carried > 0 ? 0 : -1;
+			
+			for(int index = carried; index < end; index++) {
+				char c = buffer[index];
 				
-			} else {
-				if(Character.isAlphabetic(text.charAt(index))) {
-					wordStart = index;
-					wordEnd = wordStart + 1;
-					processingWord = true;
+				if(Character.isAlphabetic(c)) {
+					if(wordStart < 0) {
+						wordStart = index;
+					}
+					buffer[index] = Character.toLowerCase(c);
+					
+				} else if(wordStart >= 0) {
+					action.accept(buffer, wordStart, index - wordStart);
+					wordStart = -1;
 				}
 			}
+			
+			carried = wordStart >= 0 ? end - wordStart : 0;
+			
+			if(carried == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			} else if(carried > 0) {
+				System.arraycopy(buffer, wordStart, buffer, 0, carried);
+			}
 		}
 		
-		if(processingWord) {
-			words.add( text.substring(wordStart).toLowerCase() );
+		if(carried > 0) {
+			action.accept(buffer, 0, carried);
 		}
-		
-		return words;
 	}
 	
 	/**
-	 * Returns the number of documents in the hierarchy.
+	 * Receives a single word, as a range of a character array.
 	 *
-	 * @param root the root of the hierarchy
-	 * @return the number of documents in the hierarchy
+	 * @author Filip Nemec
 	 */
-	public static int getDocumentCount(File root) {
-		File[] documents = root.listFiles();
-		int count = 0;
+	@FunctionalInterface
+	public interface WordConsumer {
 		
-		for (File document : documents) {
-			if (document.isDirectory()) {
-				count += getDocumentCount(document);
-			} else {
-				count++;
-			}
-		}
-
-		return count;
+		/**
+		 * Receives a single word.
+		 *
+		 * @param chars the characters
+		 * @param start the start of the word
+		 * @param length the length of the word
+		 */
+		void accept(char[] chars, int start, int length);
 	}
 }
@@ -0,0 +1,312 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Compares the ways a query is scored against the dense vectors of the documents:
+ * <ul>
+ * <li> {@code boxed} - the way {@link VectorN} used to, through the synchronized
+ * 		{@link Vector#get(int)}, unboxing every component and computing both norms
+ * 		on every call; </li>
+ * <li> {@code scalar} - over {@code double} arrays, with a single sum and the
+ * 		norms of the documents computed in advance; </li>
+ * <li> {@code kernel} - through {@link VectorN#similarity(double[], double, double[], double)},
+ * 		with the norms computed in advance; </li>
+ * <li> {@code unrolled} - over all the documents in a single matrix, with the
+ * 		{@link VectorN#UNROLLED} kernel summing the products into four partial sums; </li>
+ * <li> {@code matrix} - through {@link VectorN#similarities(double[], double, double[], double[], double[])},
+ * 		with the {@link VectorN#KERNEL}, which is the vectorized one if it can be used; </li>
+ * <li> {@code float unrolled} and {@code float matrix} - the same two, with the components
+ * 		stored as {@code float}s. </li>
+ * </ul>
+ * The documents are random vectors of the dimension of the bundled articles'
+ * vocabulary. Each variant is warmed up first and then measured.
+ * <p>
+ * The vectorized kernel is used only if the program is run with
+ * {@code --add-modules jdk.incubator.vector}; otherwise both matrix variants
+ * use the unrolled kernel.
+ *
+ * @author Filip Nemec
+ */
+public class VectorBenchmark {
+	
+	/** The number of documents. */
+	private static final int DOCUMENTS = 60;
+	
+	/** The dimension of the vectors. */
+	private static final int DIMENSION = 10_897;
+	
+	/** The number of warm-up and measured queries per variant. */
+	private static final int QUERIES = 500;
+	
+	/** The number of warm-up and measured queries of the boxed variant, which is far slower. */
+	private static final int BOXED_QUERIES = 5;
+	
+	/** Prevents the JIT compiler from removing the measured work. */
+	private static double sink;
+	
+	/**
+	 * Program starts from here.
+	 *
+	 * @param args none are used
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		
+		double[][] documents = new double[DOCUMENTS][];
+		for(int i = 0; i < DOCUMENTS; i++) {
+			documents[i] = randomVector(random);
+		}
+		double[] query = randomVector(random);
+		
+		// The boxed variant.
+		Vector<Double> boxedQuery = box(query);
+		Vector<Vector<Double>> boxedDocuments = new Vector<>();
+		for(double[] document : documents) {
+			boxedDocuments.add(box(document));
+		}
+		
+		// The primitive variants, with the norms computed in advance.
+		double[] norms = new double[DOCUMENTS];
+		for(int i = 0; i < DOCUMENTS; i++) {
+			norms[i] = VectorN.norm(documents[i]);
+		}
+		double queryNorm = VectorN.norm(query);
+		
+		double[] matrix = new double[DOCUMENTS * DIMENSION];
+		float[] floatMatrix = new float[DOCUMENTS * DIMENSION];
+		for(int i = 0; i < DOCUMENTS; i++) {
+			for(int j = 0; j < DIMENSION; j++) {
+				matrix[i * DIMENSION + j] = documents[i][j];
+				floatMatrix[i * DIMENSION + j] = (float) documents[i][j];
+			}
+		}
+		
+		float[] floatQuery = new float[DIMENSION];
+		for(int j = 0; j < DIMENSION; j++) {
+			floatQuery[j] = (float) query[j];
+		}
+		
+		double[] matrixNorms = VectorN.rowNorms(matrix, DIMENSION);
+		double[] floatMatrixNorms = VectorN.rowNorms(floatMatrix, DIMENSION);
+		double floatQueryNorm = VectorN.norm(floatQuery);
+		double[] similarities = new double[DOCUMENTS];
+		
+		Scorer boxed = () -> {
+			double sum = 0;
+			for(Vector<Double> document : boxedDocuments) {
+				sum += previousSimilarity(boxedQuery, document);
+			}
+			return sum;
+		};
+		
+		Scorer scalar = () -> {
+			double sum = 0;
+			for(int i = 0; i < DOCUMENTS; i++) {
+				sum += scalarDotProduct(query, documents[i]) / (queryNorm * norms[i]);
+			}
+			return sum;
+		};
+		
+		Scorer kernel = () -> {
+			double sum = 0;
+			for(int i = 0; i < DOCUMENTS; i++) {
+				sum += VectorN.similarity(query, queryNorm, documents[i], norms[i]);
+			}
+			return sum;
+		};
+		
+		Scorer unrolled = () -> {
+			for(int i = 0, offset = 0; i < DOCUMENTS; i++, offset += DIMENSION) {
+				similarities[i] = VectorN.UNROLLED.dot(query, 0, matrix, offset, DIMENSION) / (queryNorm * matrixNorms[i]);
+			}
+			return sum(similarities);
+		};
+		
+		Scorer floatUnrolled = () -> {
+			for(int i = 0, offset = 0; i < DOCUMENTS; i++, offset += DIMENSION) {
+				similarities[i] = VectorN.UNROLLED.dot(floatQuery, 0, floatMatrix, offset, DIMENSION) / (floatQueryNorm * floatMatrixNorms[i]);
+			}
+			return sum(similarities);
+		};
+		
+		Scorer matrixScorer = () -> {
+			VectorN.similarities(query, queryNorm, matrix, matrixNorms, similarities);
+			return sum(similarities);
+		};
+		
+		Scorer floatMatrixScorer = () -> {
+			VectorN.similarities(floatQuery, floatQueryNorm, floatMatrix, floatMatrixNorms, similarities);
+			return sum(similarities);
+		};
+		
+		System.out.printf("%d documents of dimension %d, %s%n", DOCUMENTS, DIMENSION, VectorN.KERNEL.getClass().getSimpleName());
+		System.out.printf("similarity sums: boxed %.9f   scalar %.9f   kernel %.9f   unrolled %.9f   matrix %.9f   float unrolled %.9f   float matrix %.9f%n",
+						  boxed.score(), scalar.score(), kernel.score(), unrolled.score(), matrixScorer.score(),
+						  floatUnrolled.score(), floatMatrixScorer.score());
+		
+		for(int round = 0; round < 3; round++) {
+			double boxedTime = measure(boxed, BOXED_QUERIES);
+			double scalarTime = measure(scalar, QUERIES);
+			double kernelTime = measure(kernel, QUERIES);
+			double unrolledTime = measure(unrolled, QUERIES);
+			double matrixTime = measure(matrixScorer, QUERIES);
+			double floatUnrolledTime = measure(floatUnrolled, QUERIES);
+			double floatMatrixTime = measure(floatMatrixScorer, QUERIES);
+			
+			System.out.printf("boxed: %8.1f us   scalar: %7.1f us   kernel: %7.1f us   unrolled: %7.1f us   matrix: %7.1f us   "
+							  + "float unrolled: %7.1f us   float matrix: %7.1f us   (per query)   speedup: %5.1fx%n",
+							  boxedTime, scalarTime, kernelTime, unrolledTime, matrixTime,
+							  floatUnrolledTime, floatMatrixTime, boxedTime / matrixTime);
+		}
+	}
+	
+	/**
+	 * Measures the average time the scorer needs for a single query.
+	 *
+	 * @param scorer the scorer
+	 * @param queries the number of warm-up and measured queries
+	 * @return the time in microseconds
+	 */
+	private static double measure(Scorer scorer, int queries) {
+		for(int i = 0; i < queries; i++) {
+			sink += scorer.score();
+		}
+		
+		long start = System.nanoTime();
+		
+		for(int i = 0; i < queries; i++) {
+			sink += scorer.score();
+		}
+		
+		return (System.nanoTime() - start) / (double) queries / 1000;
+	}
+	
+	/**
+	 * Returns a random vector, with roughly one in ten components not equal to zero.
+	 *
+	 * @param random the random generator
+	 * @return the vector
+	 */
+	private static double[] randomVector(Random random) {
+		double[] vector = new double[DIMENSION];
+		for(int i = 0; i < DIMENSION; i++) {
+			if(random.nextInt(10) == 0) {
+				vector[i] = random.nextDouble() * 5;
+			}
+		}
+		
+		return vector;
+	}
+	
+	/**
+	 * Copies the vector into a {@link Vector}.
+	 *
+	 * @param vector the vector
+	 * @return the boxed vector
+	 */
+	private static Vector<Double> box(double[] vector) {
+		Vector<Double> boxed = new Vector<>(vector.length);
+		for(double component : vector) {
+			boxed.add(component);
+		}
+		
+		return boxed;
+	}
+	
+	/**
+	 * Returns the sum of the values.
+	 *
+	 * @param values the values
+	 * @return the sum
+	 */
+	private static double sum(double[] values) {
+		double sum = 0;
+		for(double value : values) {
+			sum += value;
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Calculates the dot product with a single sum.
+	 *
+	 * @param v1 the first vector
+	 * @param v2 the second vector
+	 * @return the dot product
+	 */
+	private static double scalarDotProduct(double[] v1, double[] v2) {
+		double dotProduct = 0;
+		for(int i = 0; i < v1.length; i++) {
+			dotProduct += v1[i] * v2[i];
+		}
+		
+		return dotProduct;
+	}
+	
+	//=====================================================================================
+	//								PREVIOUS BOXED VECTORS
+	//=====================================================================================
+	
+	/**
+	 * Returns the similarity coefficient of the given documents, the way {@link VectorN} used to.
+	 *
+	 * @param d1 the vector representing the first document
+	 * @param d2 the vector representing the second document
+	 * @return the similarity coefficient of the given documents
+	 */
+	private static double previousSimilarity(Vector<Double> d1, Vector<Double> d2) {
+		return previousDotProduct(d1, d2) / (previousNorm(d1) * previousNorm(d2));
+	}
+	
+	/**
+	 * Returns the norm of the given vector, the way {@link VectorN} used to.
+	 *
+	 * @param vector the vector
+	 * @return the norm of the given vector
+	 */
+	private static double previousNorm(Vector<Double> vector) {
+		double underRoot = 0;
+		
+		for(int i = 0; i < vector.size(); i++) {
+			underRoot += vector.get(i) * vector.get(i);
+		}
+		
+		return Math.sqrt(underRoot);
+	}
+	
+	/**
+	 * Calculates the dot product of the given vectors, the way {@link VectorN} used to.
+	 *
+	 * @param v1 the first vector
+	 * @param v2 the second vector
+	 * @return the dot product of the given vectors
+	 */
+	private static double previousDotProduct(Vector<Double> v1, Vector<Double> v2) {
+		double dotProduct = 0;
+		
+		for(int i = 0; i < v1.size(); i++) {
+			dotProduct += v1.get(i) * v2.get(i);
+		}
+		
+		return dotProduct;
+	}
+	
+	/**
+	 * A scoring variant.
+	 *
+	 * @author Filip Nemec
+	 */
+	@FunctionalInterface
+	private interface Scorer {
+		
+		/**
+		 * Scores the query against all the documents.
+		 *
+		 * @return the sum of the similarity coefficients
+		 */
+		double score();
+	}
+}
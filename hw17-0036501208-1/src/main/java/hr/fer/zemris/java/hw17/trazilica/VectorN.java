@@ -5,11 +5,28 @@ import java.util.Vector;
 /**
  * Helper class used by the search engine. It offers
  * basic n-dimensional vector calculations.
+ * <p>
+ * The dense vectors are given as primitive {@code double} or {@code float}
+ * arrays. Their sums are accumulated into several independent partial sums,
+ * so the processor can work on a few components at once instead of waiting
+ * for each addition to finish. Many documents of the same dimension can be
+ * kept as a single matrix, one document per row, and scored against a query
+ * in a single call, using their norms computed in advance.
+ * <p>
+ * The products are summed by the {@code VectorDotKernel} on the vectors of the
+ * {@code jdk.incubator.vector} API if that module is available, and by the
+ * {@link #UNROLLED} kernel otherwise.
  *
  * @author Filip Nemec
  */
 final class VectorN {
 	
+	/** The kernel summing the products into four partial sums. */
+	static final DotKernel UNROLLED = new UnrolledDotKernel();
+	
+	/** The kernel used by all the methods: the vectorized one if it can be used, the unrolled one otherwise. */
+	static final DotKernel KERNEL = loadKernel();
+	
 	/* Don't allow instances of this class. */
 	private VectorN() {}
 
@@ -20,13 +37,77 @@ final class VectorN {
 	 * @return the norm of the given n-dimensional vector
 	 */
 	public static final double norm(Vector<Double> vector) {
-		double underRoot = 0;
+		return norm(toArray(vector));
+	}
+	
+	/**
+	 * Calculates the dot product of n-dimensional vectors
+	 * {@code v1} and {@code v2}.
+	 *
+	 * @param v1 the first vector
+	 * @param v2 the second vector
+	 * @return the dot product of the given n-dimensional vectors
+	 * @throws IllegalArgumentException if vectors are not of the same dimensions
+	 * 									or if the dimension is not at least 1.
+	 */
+	public static final double dotProduct(Vector<Double> v1, Vector<Double> v2) {
+		return dotProduct(toArray(v1), toArray(v2));
+	}
+	
+	/**
+	 * Returns the similarity coefficient of the given documents.
+	 *
+	 * @param d1 the vector representing the first document
+	 * @param d2 the vector representing the second document
+	 * @return the similarity coefficient of the given documents
+	 */
+	public static final double similarity(Vector<Double> d1, Vector<Double> d2) {
+		double[] v1 = toArray(d1);
+		double[] v2 = toArray(d2);
 		
-		for(int i = 0; i < vector.size(); i++) {
-			underRoot += vector.get(i) * vector.get(i);
+		return dotProduct(v1, v2) / (norm(v1) * norm(v2));
+	}
+	
+	/**
+	 * Copies the components of the given vector into an array,
+	 * unboxing each of them only once.
+	 *
+	 * @param vector the vector
+	 * @return the components of the vector
+	 */
+	private static double[] toArray(Vector<Double> vector) {
+		Object[] boxed = vector.toArray();
+		double[] components = new double[boxed.length];
+		
+		for(int i = 0; i < boxed.length; i++) {
+			components[i] = (Double) boxed[i];
 		}
 		
-		return Math.sqrt(underRoot);
+		return components;
+	}
+	
+	//------------------------------------------------------------------
+	//						PRIMITIVE DENSE VECTORS
+	//------------------------------------------------------------------
+	
+	/**
+	 * Returns the norm of the given n-dimensional vector.
+	 *
+	 * @param vector the vector
+	 * @return the norm of the given n-dimensional vector
+	 */
+	public static final double norm(double[] vector) {
+		return Math.sqrt(KERNEL.dot(vector, 0, vector, 0, vector.length));
+	}
+	
+	/**
+	 * Returns the norm of the given n-dimensional vector.
+	 *
+	 * @param vector the vector
+	 * @return the norm of the given n-dimensional vector
+	 */
+	public static final double norm(float[] vector) {
+		return Math.sqrt(KERNEL.dot(vector, 0, vector, 0, vector.length));
 	}
 	
 	/**
@@ -39,30 +120,316 @@ final class VectorN {
 	 * @throws IllegalArgumentException if vectors are not of the same dimensions
 	 * 									or if the dimension is not at least 1.
 	 */
-	public static final double dotProduct(Vector<Double> v1, Vector<Double> v2) {
-		if(v1.size() != v2.size())
+	public static final double dotProduct(double[] v1, double[] v2) {
+		checkDimensions(v1.length, v2.length);
+		return KERNEL.dot(v1, 0, v2, 0, v1.length);
+	}
+	
+	/**
+	 * Calculates the dot product of n-dimensional vectors
+	 * {@code v1} and {@code v2}.
+	 *
+	 * @param v1 the first vector
+	 * @param v2 the second vector
+	 * @return the dot product of the given n-dimensional vectors
+	 * @throws IllegalArgumentException if vectors are not of the same dimensions
+	 * 									or if the dimension is not at least 1.
+	 */
+	public static final double dotProduct(float[] v1, float[] v2) {
+		checkDimensions(v1.length, v2.length);
+		return KERNEL.dot(v1, 0, v2, 0, v1.length);
+	}
+	
+	/**
+	 * Returns the similarity coefficient of the given documents,
+	 * using their norms computed in advance.
+	 *
+	 * @param d1 the vector representing the first document
+	 * @param norm1 the norm of the first document
+	 * @param d2 the vector representing the second document
+	 * @param norm2 the norm of the second document
+	 * @return the similarity coefficient of the given documents
+	 * @throws IllegalArgumentException if vectors are not of the same dimensions
+	 * 									or if the dimension is not at least 1.
+	 */
+	public static final double similarity(double[] d1, double norm1, double[] d2, double norm2) {
+		return dotProduct(d1, d2) / (norm1 * norm2);
+	}
+	
+	/**
+	 * Returns the similarity coefficient of the given documents,
+	 * using their norms computed in advance.
+	 *
+	 * @param d1 the vector representing the first document
+	 * @param norm1 the norm of the first document
+	 * @param d2 the vector representing the second document
+	 * @param norm2 the norm of the second document
+	 * @return the similarity coefficient of the given documents
+	 * @throws IllegalArgumentException if vectors are not of the same dimensions
+	 * 									or if the dimension is not at least 1.
+	 */
+	public static final double similarity(float[] d1, double norm1, float[] d2, double norm2) {
+		return dotProduct(d1, d2) / (norm1 * norm2);
+	}
+	
+	/**
+	 * Returns the norm of each row of the given matrix, whose rows are
+	 * stored one after another.
+	 *
+	 * @param matrix the matrix
+	 * @param dimension the length of each row
+	 * @return the norm of each row
+	 * @throws IllegalArgumentException if the dimension is not at least 1, or if
+	 * 									the matrix is not made of whole rows
+	 */
+	public static final double[] rowNorms(double[] matrix, int dimension) {
+		double[] norms = new double[rowCount(matrix.length, dimension)];
+		
+		for(int row = 0, offset = 0; row < norms.length; row++, offset += dimension) {
+			norms[row] = Math.sqrt(KERNEL.dot(matrix, offset, matrix, offset, dimension));
+		}
+		
+		return norms;
+	}
+	
+	/**
+	 * Returns the norm of each row of the given matrix, whose rows are
+	 * stored one after another.
+	 *
+	 * @param matrix the matrix
+	 * @param dimension the length of each row
+	 * @return the norm of each row
+	 * @throws IllegalArgumentException if the dimension is not at least 1, or if
+	 * 									the matrix is not made of whole rows
+	 */
+	public static final double[] rowNorms(float[] matrix, int dimension) {
+		double[] norms = new double[rowCount(matrix.length, dimension)];
+		
+		for(int row = 0, offset = 0; row < norms.length; row++, offset += dimension) {
+			norms[row] = Math.sqrt(KERNEL.dot(matrix, offset, matrix, offset, dimension));
+		}
+		
+		return norms;
+	}
+	
+	/**
+	 * Calculates the similarity coefficient of the query and each of the documents
+	 * stored as the rows of the given matrix, one after another. The rows are read
+	 * in the order they are stored, so the whole matrix is read just once.
+	 *
+	 * @param query the vector representing the query
+	 * @param queryNorm the norm of the query
+	 * @param matrix the documents, one per row
+	 * @param rowNorms the norm of each document, as returned by {@link #rowNorms(double[], int)}
+	 * @param similarities receives the similarity coefficient of each document
+	 * @throws IllegalArgumentException if the dimension of the query is not at least 1,
+	 * 									or if the matrix, the norms and the similarities
+	 * 									do not all have the same number of rows
+	 */
+	public static final void similarities(double[] query, double queryNorm, double[] matrix,
+										  double[] rowNorms, double[] similarities) {
+		int dimension = query.length;
+		checkRows(rowCount(matrix.length, dimension), rowNorms.length, similarities.length);
+		
+		for(int row = 0, offset = 0; row < similarities.length; row++, offset += dimension) {
+			similarities[row] = KERNEL.dot(query, 0, matrix, offset, dimension) / (queryNorm * rowNorms[row]);
+		}
+	}
+	
+	/**
+	 * Calculates the similarity coefficient of the query and each of the documents
+	 * stored as the rows of the given matrix, one after another. The rows are read
+	 * in the order they are stored, so the whole matrix is read just once.
+	 *
+	 * @param query the vector representing the query
+	 * @param queryNorm the norm of the query
+	 * @param matrix the documents, one per row
+	 * @param rowNorms the norm of each document, as returned by {@link #rowNorms(float[], int)}
+	 * @param similarities receives the similarity coefficient of each document
+	 * @throws IllegalArgumentException if the dimension of the query is not at least 1,
+	 * 									or if the matrix, the norms and the similarities
+	 * 									do not all have the same number of rows
+	 */
+	public static final void similarities(float[] query, double queryNorm, float[] matrix,
+										  double[] rowNorms, double[] similarities) {
+		int dimension = query.length;
+		checkRows(rowCount(matrix.length, dimension), rowNorms.length, similarities.length);
+		
+		for(int row = 0, offset = 0; row < similarities.length; row++, offset += dimension) {
+			similarities[row] = KERNEL.dot(query, 0, matrix, offset, dimension) / (queryNorm * rowNorms[row]);
+		}
+	}
+	
+	/**
+	 * Checks that two vectors can be multiplied.
+	 *
+	 * @param dimension1 the dimension of the first vector
+	 * @param dimension2 the dimension of the second vector
+	 * @throws IllegalArgumentException if vectors are not of the same dimensions
+	 * 									or if the dimension is not at least 1.
+	 */
+	private static void checkDimensions(int dimension1, int dimension2) {
+		if(dimension1 != dimension2)
 			throw new IllegalArgumentException("Vectors must be of equal dimensions.");
 		
-		if(v1.size() < 1)
+		if(dimension1 < 1)
+			throw new IllegalArgumentException("Dimension should be at least 1.");
+	}
+	
+	/**
+	 * Returns the number of rows of a matrix.
+	 *
+	 * @param length the number of the components of the matrix
+	 * @param dimension the length of each row
+	 * @return the number of rows
+	 * @throws IllegalArgumentException if the dimension is not at least 1, or if
+	 * 									the matrix is not made of whole rows
+	 */
+	private static int rowCount(int length, int dimension) {
+		if(dimension < 1)
 			throw new IllegalArgumentException("Dimension should be at least 1.");
 		
-		double dotProduct = 0;
+		if(length % dimension != 0)
+			throw new IllegalArgumentException("Expected whole rows of length " + dimension + ", but the matrix has " + length + " components.");
 		
-		for(int i = 0; i < v1.size(); i++) {
-			dotProduct += v1.get(i) * v2.get(i);
+		return length / dimension;
+	}
+	
+	/**
+	 * Checks that the matrix, its norms and the similarities have the same number of rows.
+	 *
+	 * @param rows the number of rows of the matrix
+	 * @param norms the number of norms
+	 * @param similarities the number of similarities
+	 * @throws IllegalArgumentException if the numbers are not all equal
+	 */
+	private static void checkRows(int rows, int norms, int similarities) {
+		if(norms != rows || similarities != rows)
+			throw new IllegalArgumentException("Expected " + rows + " row norms and similarities, but was " + norms + " and " + similarities + ".");
+	}
+	
+	/**
+	 * Returns the {@code VectorDotKernel} if the {@code jdk.incubator.vector} module is
+	 * available, or the {@link #UNROLLED} kernel otherwise. The vector kernel is compiled
+	 * for Java 17 separately from the rest of the sources, so it is loaded by its name.
+	 *
+	 * @return the kernel used by all the methods
+	 */
+	private static DotKernel loadKernel() {
+		try {
+			return (DotKernel) Class.forName("hr.fer.zemris.java.hw17.trazilica.VectorDotKernel")
+									.getConstructor()
+									.newInstance();
+			
+		} catch(ReflectiveOperationException | LinkageError e) {
+			// Missing module, an older Java or a build without the Java 17 sources.
+			return UNROLLED;
 		}
+	}
+	
+	//------------------------------------------------------------------
+	//							DOT KERNELS
+	//------------------------------------------------------------------
+	
+	/**
+	 * Calculates the dot products of the ranges of two arrays.
+	 *
+	 * @author Filip Nemec
+	 */
+	interface DotKernel {
+		
+		/**
+		 * Calculates the dot product of the given ranges of two arrays.
+		 *
+		 * @param v1 the first array
+		 * @param offset1 the start of the range in the first array
+		 * @param v2 the second array
+		 * @param offset2 the start of the range in the second array
+		 * @param length the length of both ranges
+		 * @return the dot product
+		 */
+		double dot(double[] v1, int offset1, double[] v2, int offset2, int length);
 		
-		return dotProduct;
+		/**
+		 * Calculates the dot product of the given ranges of two arrays.
+		 * The products are summed as {@code double}s.
+		 *
+		 * @param v1 the first array
+		 * @param offset1 the start of the range in the first array
+		 * @param v2 the second array
+		 * @param offset2 the start of the range in the second array
+		 * @param length the length of both ranges
+		 * @return the dot product
+		 */
+		double dot(float[] v1, int offset1, float[] v2, int offset2, int length);
 	}
 	
 	/**
-	 * Returns the similarity coefficient of the given documents.
+	 * Sums the products into four partial sums, which are independent of each other.
 	 *
-	 * @param d1 the vector representing the first document
-	 * @param d2 the vector representing the second document
-	 * @return the similarity coefficient of the given documents
+	 * @author Filip Nemec
 	 */
-	public static final double similarity(Vector<Double> d1, Vector<Double> d2) {
-		return dotProduct(d1, d2) / (norm(d1) * norm(d2));
+	private static class UnrolledDotKernel implements DotKernel {
+		
+		/**
+		 * Calculates the dot product of the given ranges of two arrays. The products
+		 * are summed into four partial sums, which are independent of each other.
+		 *
+		 * @param v1 the first array
+		 * @param offset1 the start of the range in the first array
+		 * @param v2 the second array
+		 * @param offset2 the start of the range in the second array
+		 * @param length the length of both ranges
+		 * @return the dot product
+		 */
+		@Override
+		public double dot(double[] v1, int offset1, double[] v2, int offset2, int length) {
+			double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+			
+			int i = 0;
+			for(int end = length & ~3; i < end; i += 4) {
+				sum0 += v1[offset1 + i]     * v2[offset2 + i];
+				sum1 += v1[offset1 + i + 1] * v2[offset2 + i + 1];
+				sum2 += v1[offset1 + i + 2] * v2[offset2 + i + 2];
+				sum3 += v1[offset1 + i + 3] * v2[offset2 + i + 3];
+			}
+			
+			for(; i < length; i++) {
+				sum0 += v1[offset1 + i] * v2[offset2 + i];
+			}
+			
+			return (sum0 + sum1) + (sum2 + sum3);
+		}
+		
+		/**
+		 * Calculates the dot product of the given ranges of two arrays. The products
+		 * are summed into four partial sums, which are independent of each other.
+		 * The sums are kept as {@code double}s, so the precision is not lost on long vectors.
+		 *
+		 * @param v1 the first array
+		 * @param offset1 the start of the range in the first array
+		 * @param v2 the second array
+		 * @param offset2 the start of the range in the second array
+		 * @param length the length of both ranges
+		 * @return the dot product
+		 */
+		@Override
+		public double dot(float[] v1, int offset1, float[] v2, int offset2, int length) {
+			double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+			
+			int i = 0;
+			for(int end = length & ~3; i < end; i += 4) {
+				sum0 += v1[offset1 + i]     * v2[offset2 + i];
+				sum1 += v1[offset1 + i + 1] * v2[offset2 + i + 1];
+				sum2 += v1[offset1 + i + 2] * v2[offset2 + i + 2];
+				sum3 += v1[offset1 + i + 3] * v2[offset2 + i + 3];
+			}
+			
+			for(; i < length; i++) {
+				sum0 += v1[offset1 + i] * v2[offset2 + i];
+			}
+			
+			return (sum0 + sum1) + (sum2 + sum3);
+		}
 	}
 }
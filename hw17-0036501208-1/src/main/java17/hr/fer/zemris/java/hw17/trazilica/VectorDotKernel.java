@@ -0,0 +1,71 @@
+package hr.fer.zemris.java.hw17.trazilica;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Calculates the dot products on the vectors of the {@code jdk.incubator.vector} API.
+ * The products are summed lane by lane into a vector of partial sums, as wide as the
+ * widest vector supported by the processor, and the lanes are added up at the end.
+ * The components past the last whole vector are summed one by one.
+ * <p>
+ * The {@code float} components are widened to {@code double}s before they are
+ * multiplied, so the result is as precise as the one of the unrolled kernel.
+ * The partial sums are added in a different order, so the last bits may differ.
+ * <p>
+ * This class is compiled for Java 17 with the incubating {@code jdk.incubator.vector}
+ * module, separately from the rest of the sources, and is loaded by {@link VectorN}
+ * only if that module is available.
+ *
+ * @author Filip Nemec
+ */
+public class VectorDotKernel implements VectorN.DotKernel {
+	
+	/** The widest vector shape supported by the processor. */
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	
+	/** The {@code float} vectors with as many lanes as the {@link #DOUBLES}. */
+	private static final VectorSpecies<Float> FLOATS =
+			VectorSpecies.of(float.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+	
+	@Override
+	public double dot(double[] v1, int offset1, double[] v2, int offset2, int length) {
+		DoubleVector sums = DoubleVector.zero(DOUBLES);
+		
+		int i = 0;
+		for(int end = DOUBLES.loopBound(length); i < end; i += DOUBLES.length()) {
+			DoubleVector a = DoubleVector.fromArray(DOUBLES, v1, offset1 + i);
+			DoubleVector b = DoubleVector.fromArray(DOUBLES, v2, offset2 + i);
+			sums = sums.add(a.mul(b));
+		}
+		
+		double sum = sums.reduceLanes(VectorOperators.ADD);
+		for(; i < length; i++) {
+			sum += v1[offset1 + i] * v2[offset2 + i];
+		}
+		
+		return sum;
+	}
+	
+	@Override
+	public double dot(float[] v1, int offset1, float[] v2, int offset2, int length) {
+		DoubleVector sums = DoubleVector.zero(DOUBLES);
+		
+		int i = 0;
+		for(int end = FLOATS.loopBound(length); i < end; i += FLOATS.length()) {
+			DoubleVector a = (DoubleVector) FloatVector.fromArray(FLOATS, v1, offset1 + i).convertShape(VectorOperators.F2D, DOUBLES, 0);
+			DoubleVector b = (DoubleVector) FloatVector.fromArray(FLOATS, v2, offset2 + i).convertShape(VectorOperators.F2D, DOUBLES, 0);
+			sums = sums.add(a.mul(b));
+		}
+		
+		double sum = sums.reduceLanes(VectorOperators.ADD);
+		for(; i < length; i++) {
+			sum += v1[offset1 + i] * v2[offset2 + i];
+		}
+		
+		return sum;
+	}
+}